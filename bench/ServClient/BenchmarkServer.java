@@ -0,0 +1,56 @@
+package ServClient;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Serveur de chat lancé dans un processus séparé par les bancs d'essai, avec le même JDK et le
+// même classpath ; start() rend la main une fois le port ouvert, stop() l'arrête.
+// Compatible Java 8 : pas de Redirect.DISCARD, la sortie jetée part vers le périphérique nul.
+final class BenchmarkServer {
+    static final ProcessBuilder.Redirect DISCARD = ProcessBuilder.Redirect.to(
+        new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null"));
+
+    private final Process process;
+
+    private BenchmarkServer(Process process) {
+        this.process = process;
+    }
+
+    // Lancer ChatServer avec les options données sur le port donné ; quiet jette aussi les erreurs
+    static BenchmarkServer start(int port, boolean quiet, String... options) throws IOException, InterruptedException {
+        String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>(Arrays.asList(javaBin, "-cp", System.getProperty("java.class.path"),
+                "ServClient.ChatServer", "--port=" + port));
+        command.addAll(Arrays.asList(options));
+        BenchmarkServer server = new BenchmarkServer(new ProcessBuilder(command)
+                .redirectOutput(DISCARD)
+                .redirectError(quiet ? DISCARD : ProcessBuilder.Redirect.INHERIT)
+                .start());
+        try {
+            waitForPort(port);
+        } catch (IllegalStateException | InterruptedException e) {
+            server.process.destroy();
+            throw e;
+        }
+        return server;
+    }
+
+    static void waitForPort(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Le serveur ne répond pas sur le port " + port);
+    }
+
+    void stop() throws InterruptedException {
+        process.destroy();
+        process.waitFor();
+    }
+}
@@ -0,0 +1,57 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Diffusion d'un message de salon à N destinataires binaires : ChatServer.broadcast (trame
+// encodée une fois et partagée) contre un sendMessage par destinataire (encodage à chaque
+// fois). Avec -prof gc, gc.alloc.rate.norm donne les octets alloués par diffusion.
+// Usage : java -jar target/benchmarks.jar BroadcastBenchmark -prof gc
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final String MESSAGE = "MSG:client0: un message de chat de longueur habituelle";
+
+    @Param({ "10", "100", "1000" })
+    public int recipients;
+
+    private String room;
+    private final List<SinkSession> sessions = new ArrayList<>();
+
+    @Setup
+    public void subscribe() {
+        room = "#bench-broadcast-" + recipients;
+        for (int i = 0; i < recipients; i++) {
+            SinkSession session = new SinkSession(true, "client" + i);
+            ChatServer.subscribe(room, session);
+            sessions.add(session);
+        }
+    }
+
+    @TearDown
+    public void unsubscribe() {
+        for (SinkSession session : sessions) {
+            ChatServer.unsubscribe(room, session);
+        }
+        sessions.clear();
+    }
+
+    @Benchmark
+    public boolean shared() {
+        return ChatServer.broadcast(room, MESSAGE, null);
+    }
+
+    @Benchmark
+    public void perRecipient() {
+        for (SinkSession session : sessions) {
+            session.sendMessage(MESSAGE);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ServClient;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Banc d'essai du regroupement des envois : N clients binaires discutent en même temps
+// (chacun envoie <rate> messages par seconde, diffusés à tous les autres) et l'on mesure,
+// pour chaque fenêtre de regroupement du serveur, le débit de messages livrés et la
+// latence p50/p99 entre l'envoi et la réception (horodatage dans le message).
+// Chaque fenêtre est testée dans un processus serveur séparé.
+// Usage : java ServClient.BroadcastLatencyBenchmark --clients=500 --rate=2 --seconds=10 --windows=0,500,2000 --mode=nio --port=9960
+public class BroadcastLatencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.parseInt(ChatServer.option(args, "clients", "500"));
+        double rate = Double.parseDouble(ChatServer.option(args, "rate", "2"));
+        int seconds = Integer.parseInt(ChatServer.option(args, "seconds", "10"));
+        String[] windows = ChatServer.option(args, "windows", "0,500,2000").split(",");
+        String mode = ChatServer.option(args, "mode", "nio");
+        int port = Integer.parseInt(ChatServer.option(args, "port", "9960"));
+
+        System.out.println(String.format("%-14s %12s %14s %10s %10s %10s", "fenêtre (µs)", "envoyés/s", "livrés/s", "p50 (ms)", "p99 (ms)", "max (ms)"));
+        for (String window : windows) {
+            runWindow(Long.parseLong(window.trim()), mode, clients, rate, seconds, port++);
+        }
+    }
+
+    private static void runWindow(long windowMicros, String mode, int clientCount, double rate, int seconds, int port) throws Exception {
+        BenchmarkServer server = BenchmarkServer.start(port, false, "--mode=" + mode, "--batch-window-us=" + windowMicros);
+
+        List<SocketChannel> channels = new ArrayList<>(clientCount);
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicLong maxLatency = new AtomicLong();
+        try {
+            for (int i = 0; i < clientCount; i++) {
+                SocketChannel channel = connect(port, "client" + i);
+                channels.add(channel);
+                Thread reader = new Thread(() -> readMessages(channel, histogram, maxLatency), "lecteur-" + i);
+                reader.setDaemon(true);
+                reader.start();
+            }
+            // Laisser passer les annonces d'arrivée, puis une période de chauffe non mesurée
+            Thread.sleep(1000);
+            sendLoad(channels, rate, 2_000_000_000L, false);
+            long start = System.nanoTime();
+            long sent = sendLoad(channels, rate, seconds * 1_000_000_000L, true);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            // Laisser arriver les derniers messages envoyés pendant la mesure
+            Thread.sleep(1000);
+
+            System.out.println(String.format("%-14d %12.0f %14.0f %10.2f %10.2f %10.2f",
+                windowMicros, sent / elapsed, histogram.count() / elapsed,
+                histogram.percentile(50) / 1000.0, histogram.percentile(99) / 1000.0, maxLatency.get() / 1e6));
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            server.stop();
+        }
+    }
+
+    // Chaque client envoie <rate> messages par seconde, répartis régulièrement entre les clients
+    private static long sendLoad(List<SocketChannel> channels, double rate, long durationNs, boolean measured) throws Exception {
+        long intervalNs = (long) (1e9 / (rate * channels.size()));
+        long start = System.nanoTime();
+        long next = start;
+        long sent = 0;
+        int client = 0;
+        while (next - start < durationNs) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+            // Le message porte son heure d'envoi (System.nanoTime, même processus que les lecteurs)
+            FrameCodec.writeFully(channels.get(client), FrameCodec.encodeText(FrameCodec.MSG,
+                (measured ? "m " : "w ") + System.nanoTime()));
+            sent++;
+            client = (client + 1) % channels.size();
+            next += intervalNs;
+        }
+        return sent;
+    }
+
+    private static void readMessages(SocketChannel channel, LatencyHistogram histogram, AtomicLong maxLatency) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+            // Invite texte, puis trames binaires
+            Protocol.readLine(in);
+            ByteBuffer payload = ByteBuffer.allocate(256);
+            int type;
+            while ((type = in.read()) != -1) {
+                payload = FrameCodec.readPayload(in, payload, FrameCodec.readVarLong(in));
+                if (type != FrameCodec.MSG) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                String text = FrameCodec.getText(payload);
+                // Format : "clientN: m <nanoTime>" ; les messages du serveur et de chauffe sont ignorés
+                int marker = text.indexOf(": m ");
+                if (marker < 0) {
+                    continue;
+                }
+                long latency = now - Long.parseLong(text.substring(marker + 4));
+                histogram.record(latency);
+                maxLatency.accumulateAndGet(latency, Math::max);
+            }
+        } catch (IOException e) {
+            // Connexion fermée en fin de mesure
+        }
+    }
+
+    private static SocketChannel connect(int port, String name) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        FrameCodec.writeFully(channel, FrameCodec.handshake(), FrameCodec.encodeText(FrameCodec.HELLO, name));
+        return channel;
+    }
+}
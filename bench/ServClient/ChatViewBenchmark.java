@@ -0,0 +1,54 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Font;
+import java.util.concurrent.TimeUnit;
+
+// Ajout de messages dans la zone de discussion du client, par le même code que
+// ChatClient.appendToChatArea : la vue ne garde qu'une fenêtre de lignes, son coût par ligne
+// ne dépend pas de la longueur de la session. Une image dépose LINES_PER_FRAME messages puis les
+// applique en un lot, sur l'EDT comme la minuterie de la vue (qui ne peut donc pas s'intercaler) ;
+// chaque appel enchaîne FRAMES images pour amortir le passage par l'EDT. Résultat en lignes par
+// seconde. Latence de l'EDT sous charge : UiLatencyBenchmark.
+// Usage : java -jar target/benchmarks.jar ChatViewBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ChatViewBenchmark {
+    private static final int LINES_PER_FRAME = 16;
+    private static final int FRAMES = 64;
+
+    private ChatView chatView;
+    private int size;
+
+    @Setup
+    public void open() throws Exception {
+        SwingUtilities.invokeAndWait(() -> chatView = new ChatView(new Font("Dialog", Font.PLAIN, 14)));
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        SwingUtilities.invokeAndWait(chatView::close);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_FRAME * FRAMES)
+    public int appendToChatView() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (int i = 0; i < LINES_PER_FRAME; i++) {
+                    chatView.append("alice: un message de chat de longueur habituelle", Color.BLUE);
+                }
+                chatView.drain();
+            }
+            size = chatView.lines().getModel().getSize();
+        });
+        return size;
+    }
+}
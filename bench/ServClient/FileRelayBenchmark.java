@@ -0,0 +1,61 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Relais d'un morceau de fichier de 64 Ko à N destinataires (chemin de broadcastFile) : copie
+// dans un tampon de la réserve, puis une trame partagée déposée dans chaque file d'envoi.
+// Résultat en morceaux par seconde ; -prof gc montre que le morceau n'est pas recopié.
+// Usage : java -jar target/benchmarks.jar FileRelayBenchmark -prof gc
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileRelayBenchmark {
+    // Morceaux d'un même relais, terminé ensuite pour en commencer un autre
+    private static final int CHUNKS_PER_FILE = 1024;
+
+    @Param({ "1", "10", "100" })
+    public int recipients;
+
+    private final List<ChatPeer> sessions = new ArrayList<>();
+    private final byte[] chunk = new byte[Protocol.CHUNK_SIZE];
+    private FileRelay relay;
+    private int chunks;
+
+    @Setup
+    public void connect() {
+        for (int i = 0; i < recipients; i++) {
+            sessions.add(new SinkSession(true, "client" + i));
+        }
+    }
+
+    @TearDown
+    public void abort() {
+        if (relay != null) {
+            relay.abort();
+            relay = null;
+        }
+    }
+
+    @Benchmark
+    public int relayChunk() {
+        if (relay == null || chunks == CHUNKS_PER_FILE) {
+            if (relay != null) {
+                relay.finish();
+            }
+            relay = new FileRelay(null, "bench", "#bench-file", "bench.bin", (long) CHUNKS_PER_FILE * chunk.length, sessions);
+            chunks = 0;
+        }
+        PooledBuffer pooled = FileRelay.newChunk(chunk.length);
+        pooled.buffer().put(chunk);
+        relay.relay(pooled);
+        chunks++;
+        return chunk.length;
+    }
+}
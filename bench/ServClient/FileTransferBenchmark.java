@@ -0,0 +1,114 @@
+package ServClient;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Banc d'essai de débit des transferts de fichiers sur la boucle locale : un expéditeur
+// et un destinataire sans interface, à travers un serveur lancé dans un processus séparé.
+// Configurations comparées :
+//   tas          lecture dans le tas côté client, relais morceau par morceau (chemin actuel)
+//   transferTo   envoi client par transferTo, relais morceau par morceau
+//   spool        envoi client par transferTo, serveur --spool-uploads puis transferTo vers le destinataire
+// Usage : java ServClient.FileTransferBenchmark --sizes=10,100,1024 --port=9950
+public class FileTransferBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = ChatServer.option(args, "sizes", "10,100,1024").split(",");
+        int port = Integer.parseInt(ChatServer.option(args, "port", "9950"));
+
+        System.out.println(String.format("%-12s %10s %12s %12s", "chemin", "taille", "durée (ms)", "débit (Mo/s)"));
+        runConfiguration("tas", false, false, sizes, port++);
+        runConfiguration("transferTo", true, false, sizes, port++);
+        runConfiguration("spool", true, true, sizes, port++);
+    }
+
+    private static void runConfiguration(String label, boolean zeroCopy, boolean spool, String[] sizes, int port) throws Exception {
+        BenchmarkServer server = BenchmarkServer.start(port, true, "--spool-uploads=" + spool);
+        try {
+            // Un premier transfert non mesuré pour laisser le JIT compiler les chemins chauds
+            Path warmup = Files.createTempFile("bench-", ".bin");
+            try (RandomAccessFile raf = new RandomAccessFile(warmup.toFile(), "rw")) {
+                raf.setLength(16L * 1024 * 1024);
+            }
+            transfer(port, warmup, zeroCopy);
+            Files.delete(warmup);
+
+            for (String size : sizes) {
+                long bytes = Long.parseLong(size.trim()) * 1024 * 1024;
+                Path file = Files.createTempFile("bench-", ".bin");
+                try {
+                    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                        raf.setLength(bytes);
+                    }
+                    long elapsedNs = transfer(port, file, zeroCopy);
+                    double seconds = elapsedNs / 1e9;
+                    System.out.println(String.format("%-12s %8s Mo %12d %12.1f",
+                        label, size.trim(), elapsedNs / 1_000_000, bytes / (1024.0 * 1024.0) / seconds));
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Durée entre le début de l'envoi et la réception de FEND par le destinataire
+    private static long transfer(int port, Path file, boolean zeroCopy) throws Exception {
+        try (SocketChannel sender = connect(port, "expediteur");
+             SocketChannel receiver = connect(port, "destinataire")) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(receiver.socket().getInputStream()));
+
+            long[] received = new long[1];
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[Protocol.CHUNK_SIZE];
+                try {
+                    // Invite texte, puis trames binaires
+                    Protocol.readLine(in);
+                    int type;
+                    while ((type = in.read()) != -1) {
+                        long length = FrameCodec.readVarLong(in);
+                        if (type == FrameCodec.FILE_END) {
+                            return;
+                        }
+                        long remaining = length;
+                        if (type == FrameCodec.FILE_CHUNK) {
+                            remaining -= FrameCodec.varLongSize(FrameCodec.readVarLong(in));
+                            received[0] += remaining;
+                        }
+                        while (remaining > 0) {
+                            int count = (int) Math.min(remaining, buffer.length);
+                            in.readFully(buffer, 0, count);
+                            remaining -= count;
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Erreur de réception: " + e.getMessage());
+                }
+            });
+            // Laisser le serveur enregistrer les deux clients avant l'envoi
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+            reader.start();
+            FileSender.send(sender, new ReentrantLock(), file, 1, zeroCopy);
+            reader.join();
+            long elapsed = System.nanoTime() - start;
+
+            if (received[0] != Files.size(file)) {
+                throw new IllegalStateException("Reçu " + received[0] + " octets sur " + Files.size(file));
+            }
+            return elapsed;
+        }
+    }
+
+    private static SocketChannel connect(int port, String name) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        FrameCodec.writeFully(channel, FrameCodec.handshake(), FrameCodec.encodeText(FrameCodec.HELLO, name));
+        return channel;
+    }
+}
@@ -0,0 +1,63 @@
+package ServClient;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+
+// Test de charge : ouvre N connexions inactives vers le serveur et les garde ouvertes,
+// puis vérifie qu'une connexion supplémentaire est toujours servie normalement.
+// Usage : java ServClient.IdleConnectionLoadTest --host=localhost --port=800 --connections=10000 --hold=30
+public class IdleConnectionLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String host = ChatServer.option(args, "host", "localhost");
+        int port = Integer.parseInt(ChatServer.option(args, "port", "800"));
+        int count = Integer.parseInt(ChatServer.option(args, "connections", "10000"));
+        int holdSeconds = Integer.parseInt(ChatServer.option(args, "hold", "30"));
+
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        List<SocketChannel> channels = new ArrayList<>(count);
+
+        long start = System.nanoTime();
+        int failures = 0;
+        for (int i = 0; i < count; i++) {
+            try {
+                channels.add(SocketChannel.open(address));
+            } catch (IOException e) {
+                failures++;
+            }
+            if ((i + 1) % 1000 == 0) {
+                System.out.println((i + 1) + " connexions ouvertes...");
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Connexions établies : " + channels.size() + " / " + count
+            + " (échecs : " + failures + ") en " + elapsedMs + " ms");
+
+        // Vérifier que le serveur répond toujours avec toutes ces connexions ouvertes
+        long probeStart = System.nanoTime();
+        try (Socket probe = new Socket(host, port)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(probe.getInputStream()));
+            String prompt = reader.readLine();
+            long probeMs = (System.nanoTime() - probeStart) / 1_000_000;
+            System.out.println("Connexion de contrôle : \"" + prompt + "\" reçu en " + probeMs + " ms");
+        }
+
+        Thread.sleep(holdSeconds * 1000L);
+
+        // Toutes les connexions doivent encore être ouvertes côté serveur
+        int alive = 0;
+        ByteBuffer probeBuffer = ByteBuffer.allocate(256);
+        for (SocketChannel channel : channels) {
+            probeBuffer.clear();
+            channel.configureBlocking(false);
+            if (channel.read(probeBuffer) >= 0) {
+                alive++;
+            }
+            channel.close();
+        }
+        System.out.println("Connexions toujours actives après " + holdSeconds + " s : " + alive);
+    }
+}
@@ -0,0 +1,54 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Débit d'indexation de l'historique : chaque appel ajoute BATCH messages synthétiques au
+// journal (voir SearchBenchmark.append) et attend que l'index les ait rattrapés. L'index
+// grossit d'un appel à l'autre, fusions de segments comprises. Résultat en messages par seconde.
+// Usage : java -jar target/benchmarks.jar IndexBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+    private static final int BATCH = 10000;
+
+    private Path directory;
+    private HistoryLog log;
+    private HistoryIndex index;
+    private final Random random = new Random(42);
+    private final StringBuilder text = new StringBuilder();
+    private int appended;
+
+    @Setup
+    public void open() throws Exception {
+        directory = Files.createTempDirectory("banc-index");
+        log = HistoryLog.open(directory.resolve("journal"), 64L * 1024 * 1024, HistoryLog.FsyncPolicy.NONE, 1000);
+        index = HistoryIndex.open(log, directory.resolve("index"));
+    }
+
+    @TearDown
+    public void delete() throws Exception {
+        index.close();
+        log.close();
+        SearchBenchmark.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long append() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            SearchBenchmark.append(log, random, text, appended++);
+        }
+        while (index.lag() > 0) {
+            Thread.sleep(1);
+        }
+        return log.endOffset();
+    }
+}
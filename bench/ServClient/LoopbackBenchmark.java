@@ -0,0 +1,92 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.*;
+
+// Débit de bout en bout sur la boucle locale, à travers un serveur lancé dans un processus
+// séparé (BenchmarkServer) : un expéditeur envoie BATCH messages aussi vite que possible
+// pendant qu'un destinataire les compte. Résultat en messages par seconde.
+// Usage : java -jar target/benchmarks.jar LoopbackBenchmark -p mode=nio
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+    private static final int BATCH = 20000;
+
+    @Param({ "thread", "nio" })
+    public String mode;
+
+    private BenchmarkServer server;
+    private SocketChannel sender;
+    private SocketChannel receiver;
+    private DataInputStream in;
+    private final ByteBuffer message = FrameCodec.encodeText(FrameCodec.MSG, "un message de chat de longueur habituelle");
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "expediteur");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Setup
+    public void start() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = BenchmarkServer.start(port, true, "--mode=" + mode, "--history-dir=", "--blob-dir=",
+                // File assez grande pour qu'un expéditeur sans limite de débit ne fasse pas déconnecter le destinataire,
+                // et pas de limite de messages par client : l'expéditeur envoie aussi vite que possible
+                "--queue-capacity=65536", "--msg-rate=0");
+        sender = connect(port, "expediteur");
+        receiver = connect(port, "destinataire");
+        in = new DataInputStream(new BufferedInputStream(receiver.socket().getInputStream()));
+        Protocol.readLine(in);
+        Thread.sleep(200);
+    }
+
+    @TearDown
+    public void stop() throws Exception {
+        writer.shutdownNow();
+        sender.close();
+        receiver.close();
+        server.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int roundTrip() throws Exception {
+        Future<?> sent = writer.submit(() -> {
+            for (int i = 0; i < BATCH; i++) {
+                FrameCodec.writeFully(sender, message.duplicate());
+            }
+            return null;
+        });
+        int received = 0;
+        while (received < BATCH) {
+            int type = in.read();
+            payload = FrameCodec.readPayload(in, payload, FrameCodec.readVarLong(in));
+            // Messages de l'expéditeur seulement (« expediteur: ... »), pas les annonces du serveur
+            if (type == FrameCodec.MSG && payload.get(0) == 'e') {
+                received++;
+            }
+        }
+        sent.get();
+        return received;
+    }
+
+    private static SocketChannel connect(int port, String name) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        FrameCodec.writeFully(channel, FrameCodec.handshake(), FrameCodec.encodeText(FrameCodec.HELLO, name));
+        return channel;
+    }
+}
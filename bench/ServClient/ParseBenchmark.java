@@ -0,0 +1,86 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Décodage de 1000 messages de chat typiques dans chaque format : boucle bloquante de
+// ClientHandler.readFrames, FrameDecoder des boucles NIO (lectures de 16 Ko) et lignes de
+// l'ancien protocole. Résultat en messages par seconde.
+// Usage : java -jar target/benchmarks.jar ParseBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int MESSAGES = 1000;
+    private static final int NIO_READ_SIZE = 16 * 1024;
+
+    private byte[] frameBytes;
+    private byte[] lineBytes;
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    @Setup
+    public void encode() {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            String text = "message numéro " + i + " pour mesurer le décodage";
+            ByteBuffer frame = FrameCodec.encodeText(FrameCodec.MSG, text);
+            frames.write(frame.array(), 0, frame.limit());
+            ByteBuffer line = Protocol.encodeLine("MSG:" + text);
+            lines.write(line.array(), 0, line.limit());
+        }
+        frameBytes = frames.toByteArray();
+        lineBytes = lines.toByteArray();
+    }
+
+    // Boucle de ClientHandler.readFrames : type, longueur, contenu dans un tampon réutilisé
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long blockingFrames() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frameBytes));
+        long total = 0;
+        int type;
+        while ((type = in.read()) != -1) {
+            payload = FrameCodec.readPayload(in, payload, FrameCodec.readVarLong(in));
+            total += type + FrameCodec.getText(payload).length();
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void nioFrames(Blackhole blackhole) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(frameBytes);
+        FrameDecoder.Handler handler = (type, content) -> {
+            blackhole.consume(FrameCodec.getText(content));
+            return true;
+        };
+        while (source.hasRemaining()) {
+            ByteBuffer read = source.slice();
+            read.limit(Math.min(read.remaining(), NIO_READ_SIZE));
+            decoder.decode(read, handler);
+            source.position(source.position() + read.position());
+        }
+    }
+
+    // Ancien protocole ligne : Protocol.readLine octet par octet
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long textLines() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(lineBytes));
+        long total = 0;
+        String line;
+        while ((line = Protocol.readLine(in)) != null) {
+            total += line.length();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,115 @@
+package ServClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Recherche dans l'historique : journal de <messages> messages synthétiques, indexé pendant son
+// écriture comme sur le serveur, puis recherches d'un mot rare, d'un mot courant, de deux mots,
+// d'un auteur et d'un mot sur une plage de dates (20 résultats au plus). Débit d'indexation :
+// IndexBenchmark.
+// Usage : java -jar target/benchmarks.jar SearchBenchmark -p messages=2000000
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    private static final int VOCABULARY_SIZE = 50000;
+
+    @Param({ "200000" })
+    public int messages;
+
+    @Param({ "motRare", "motCourant", "deuxMots", "auteur", "plageDeDates" })
+    public String query;
+
+    private Path directory;
+    private HistoryLog log;
+    private HistoryIndex index;
+    private HistoryIndex.Query parsed;
+
+    @Setup
+    public void index() throws Exception {
+        directory = Files.createTempDirectory("banc-recherche");
+        log = HistoryLog.open(directory.resolve("journal"), 64L * 1024 * 1024, HistoryLog.FsyncPolicy.NONE, 1000);
+        index = HistoryIndex.open(log, directory.resolve("index"));
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        String middle = null;
+        for (int i = 0; i < messages; i++) {
+            if (i == messages / 2) {
+                // Plage de dates : la première moitié du journal
+                middle = LocalDateTime.now().withNano(0).toString();
+            }
+            append(log, random, text, i);
+        }
+        while (index.lag() > 0) {
+            Thread.sleep(10);
+        }
+        String rare = word(VOCABULARY_SIZE - 7);
+        String common = word(3);
+        String search;
+        switch (query) {
+            case "motRare":
+                search = rare;
+                break;
+            case "motCourant":
+                search = common;
+                break;
+            case "deuxMots":
+                search = common + " " + word(40);
+                break;
+            case "auteur":
+                search = "from:auteur7 " + word(100);
+                break;
+            default:
+                search = common + " before:" + middle;
+                break;
+        }
+        parsed = HistoryIndex.Query.parse(search, System.currentTimeMillis());
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        index.close();
+        log.close();
+        deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public int search() {
+        return index.search(parsed, room -> true, 20).size();
+    }
+
+    // Message synthétique : 1000 auteurs, 10 salons, 12 mots tirés d'un vocabulaire selon une
+    // loi décroissante, comme une langue naturelle. La file du journal est bornée : laisser le
+    // thread d'écriture suivre.
+    static void append(HistoryLog log, Random random, StringBuilder text, int i) throws InterruptedException {
+        text.setLength(0);
+        text.append("MSG:[salon").append(i % 10).append("] auteur").append(random.nextInt(1000)).append(":");
+        for (int w = 0; w < 12; w++) {
+            double r = random.nextDouble();
+            text.append(' ').append(word((int) (VOCABULARY_SIZE * r * r * r)));
+        }
+        while (log.append("#salon" + (i % 10), text.toString()) < 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    static String word(int rank) {
+        return "mot" + Integer.toString(rank, 36);
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ServClient;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Banc d'essai comparant les modes d'exécution du serveur (threads de plateforme,
+// threads virtuels, NIO) : temps de montée en charge de N connexions et mémoire
+// résidente (RSS) du processus serveur une fois toutes les connexions établies.
+// Chaque mode est lancé dans un processus séparé avec le même JDK et le même classpath.
+// Usage : java ServClient.ServerModeBenchmark --modes=thread,virtual --connections=5000 --port=9900
+public class ServerModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = ChatServer.option(args, "modes", "thread,virtual").split(",");
+        int count = Integer.parseInt(ChatServer.option(args, "connections", "5000"));
+        int port = Integer.parseInt(ChatServer.option(args, "port", "9900"));
+
+        System.out.println(String.format("%-10s %12s %12s %12s %10s", "mode", "connexions", "montée (ms)", "RSS (Mo)", "threads"));
+        for (String mode : modes) {
+            runMode(mode, count, port++);
+        }
+    }
+
+    private static void runMode(String mode, int count, int port) throws Exception {
+        BenchmarkServer server = BenchmarkServer.start(port, false, "--mode=" + mode);
+
+        List<Socket> sockets = new ArrayList<>(count);
+        try {
+            // Montée en charge : chaque connexion est comptée une fois l'invite du serveur reçue
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                Socket socket = new Socket("localhost", port);
+                readLine(socket.getInputStream());
+                sockets.add(socket);
+            }
+            long rampMs = (System.nanoTime() - start) / 1_000_000;
+
+            Map<String, String> status = processStatus(listeningProcess(port));
+            String rss = status.containsKey("VmRSS")
+                ? String.format("%.1f", Long.parseLong(status.get("VmRSS").split("\\s+")[0]) / 1024.0)
+                : "n/d";
+            String threads = status.getOrDefault("Threads", "n/d");
+
+            System.out.println(String.format("%-10s %12d %12d %12s %10s", mode, sockets.size(), rampMs, rss, threads));
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.stop();
+        }
+    }
+
+    private static void readLine(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            // Ignorer le contenu de l'invite
+        }
+    }
+
+    // Processus qui écoute sur le port (Linux uniquement ; -1 ailleurs) : Java 8 ne donne pas le pid
+    // d'un Process, on cherche l'inode de la socket d'écoute dans /proc/net/tcp{,6}, puis le
+    // processus qui la détient parmi les descripteurs de /proc/<pid>/fd
+    private static long listeningProcess(int port) {
+        Set<String> sockets = new HashSet<>();
+        for (String table : new String[] {"tcp", "tcp6"}) {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/net", table))) {
+                    // sl adresse_locale adresse_distante état ... inode
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length > 9 && fields[3].equals("0A")
+                            && fields[1].endsWith(String.format(":%04X", port))) {
+                        sockets.add("socket:[" + fields[9] + "]");
+                    }
+                }
+            } catch (IOException e) {
+                // Table absente (pas d'IPv6) ou plateforme sans /proc
+            }
+        }
+        if (sockets.isEmpty()) {
+            return -1;
+        }
+        try (DirectoryStream<Path> processes = Files.newDirectoryStream(Paths.get("/proc"), "[0-9]*")) {
+            for (Path process : processes) {
+                try (DirectoryStream<Path> descriptors = Files.newDirectoryStream(process.resolve("fd"))) {
+                    for (Path descriptor : descriptors) {
+                        if (sockets.contains(Files.readSymbolicLink(descriptor).toString())) {
+                            return Long.parseLong(process.getFileName().toString());
+                        }
+                    }
+                } catch (IOException e) {
+                    // Processus d'un autre utilisateur, ou terminé entre-temps
+                }
+            }
+        } catch (IOException e) {
+            // Plateforme sans /proc
+        }
+        return -1;
+    }
+
+    // Lire /proc/<pid>/status (Linux uniquement ; vide ailleurs)
+    private static Map<String, String> processStatus(long pid) {
+        Map<String, String> status = new HashMap<>();
+        if (pid < 0) {
+            return status;
+        }
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    status.put(line.substring(0, colon), line.substring(colon + 1).trim());
+                }
+            }
+        } catch (IOException e) {
+            // Plateforme sans /proc
+        }
+        return status;
+    }
+}
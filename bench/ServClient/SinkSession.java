@@ -0,0 +1,27 @@
+package ServClient;
+
+// Session serveur sans transport pour les bancs d'essai : la file d'envoi est vidée dès qu'une
+// trame y est déposée, comme par un écrivain infiniment rapide, pour ne mesurer que l'encodage
+// et le routage
+class SinkSession extends ChatSession {
+
+    SinkSession(boolean binary, String name) {
+        clientName = name;
+        if (binary) {
+            enableBinary(FrameCodec.VERSION);
+        }
+    }
+
+    @Override
+    protected void frameQueued() {
+        outbound.clear();
+    }
+
+    @Override
+    protected void slowConsumer() {
+    }
+
+    @Override
+    protected void disconnect() {
+    }
+}
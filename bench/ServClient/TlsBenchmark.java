@@ -0,0 +1,252 @@
+package ServClient;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Banc d'essai du chiffrement : pour chaque mode du serveur, un serveur en clair et un serveur
+// TLS (processus séparés) avec un certificat autosigné généré pour l'occasion par keytool.
+// On mesure :
+//  - les connexions par seconde jusqu'à l'invite du serveur : en clair, TLS avec négociation
+//    complète (nouveau contexte client à chaque connexion, donc pas de reprise possible) et TLS
+//    avec reprise de session (contexte client partagé, comme ChatConnection)
+//  - le débit d'un gros fichier relayé d'un client à l'autre, en clair et sous TLS (après un
+//    premier transfert non mesuré : le chiffrement AES-GCM n'est rapide qu'une fois compilé par le JIT)
+// Usage : java ServClient.TlsBenchmark --modes=thread,nio --connections=2000 --threads=8 --file-mb=256 --port=9970
+public class TlsBenchmark {
+    private static final String PASSWORD = "banc-tls";
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = ChatServer.option(args, "modes", "thread,nio").split(",");
+        int connections = Integer.parseInt(ChatServer.option(args, "connections", "2000"));
+        int threads = Integer.parseInt(ChatServer.option(args, "threads", "8"));
+        int fileMb = Integer.parseInt(ChatServer.option(args, "file-mb", "256"));
+        int port = Integer.parseInt(ChatServer.option(args, "port", "9970"));
+
+        Path directory = Files.createTempDirectory("banc-tls");
+        Path keystore = generateKeystore(directory);
+        Path file = directory.resolve("fichier.bin");
+        writeRandomFile(file, fileMb * 1024L * 1024);
+        try {
+            System.out.println(String.format("%-8s %-14s %14s %10s %14s", "mode", "transport", "connexions/s", "reprises", "débit (Mo/s)"));
+            for (String mode : modes) {
+                runMode(mode.trim(), null, keystore, connections, threads, file, port++);
+                runMode(mode.trim(), keystore, keystore, connections, threads, file, port++);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(keystore);
+            Files.deleteIfExists(directory);
+        }
+        System.exit(0);
+    }
+
+    // Paire de clés et certificat autosigné pour localhost, dans un magasin PKCS12.
+    // Le même fichier sert de magasin de confiance aux clients (le certificat y figure).
+    private static Path generateKeystore(Path directory) throws Exception {
+        Path keystore = directory.resolve("serveur.p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "chat", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keystore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .redirectOutput(BenchmarkServer.DISCARD)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool a échoué");
+        }
+        return keystore;
+    }
+
+    private static void writeRandomFile(Path file, long size) throws IOException {
+        // Données aléatoires : ni la compression ni le chiffrement ne profitent de répétitions
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private static void runMode(String mode, Path serverKeystore, Path truststore, int connections, int threads,
+                                Path file, int port) throws Exception {
+        // File d'envoi assez grande pour tout le fichier : sous TLS, le destinataire (qui déchiffre)
+        // peut prendre du retard sur l'expéditeur sans être déconnecté comme client lent
+        List<String> options = new ArrayList<>(Arrays.asList("--mode=" + mode, "--history-dir=", "--blob-dir=",
+                "--queue-capacity=" + Math.max(1024, Files.size(file) / Protocol.CHUNK_SIZE + 16)));
+        if (serverKeystore != null) {
+            options.add("--tls-keystore=" + serverKeystore);
+            options.add("--tls-password=" + PASSWORD);
+        }
+        BenchmarkServer server = BenchmarkServer.start(port, false, options.toArray(new String[0]));
+        try {
+            if (serverKeystore == null) {
+                ChatConnection.useTls(null);
+                double rate = connect(port, connections, threads, () -> null);
+                transfer(port, file);
+                print(mode, "clair", rate, "-", transfer(port, file));
+            } else {
+                // Négociation complète : un contexte neuf par connexion, sans session à reprendre
+                // (certificats de confiance chargés une fois, hors mesure)
+                TrustManager[] trust = trustManagers(truststore);
+                double full = connect(port, connections, threads, () -> {
+                    try {
+                        SSLContext context = SSLContext.getInstance("TLS");
+                        context.init(null, trust, null);
+                        return context;
+                    } catch (GeneralSecurityException e) {
+                        throw new IOException(e);
+                    }
+                });
+                print(mode, "TLS complète", full, "-", -1);
+
+                SSLContext shared = TlsChannel.clientContext(truststore.toString(), PASSWORD);
+                AtomicInteger resumed = new AtomicInteger();
+                double rate = connect(port, connections, threads, () -> shared, resumed);
+                ChatConnection.useTls(shared);
+                transfer(port, file);
+                print(mode, "TLS reprise", rate, resumed.get() + "/" + connections, transfer(port, file));
+            }
+        } finally {
+            ChatConnection.useTls(null);
+            server.stop();
+        }
+    }
+
+    private static TrustManager[] trustManagers(Path truststore) throws Exception {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(truststore)) {
+            store.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init(store);
+        return factory.getTrustManagers();
+    }
+
+    private static void print(String mode, String transport, double rate, String resumed, double throughput) {
+        System.out.println(String.format("%-8s %-14s %14.0f %10s %14s", mode, transport, rate, resumed,
+            throughput < 0 ? "-" : String.format("%.1f", throughput)));
+    }
+
+    private interface ContextSource {
+        SSLContext get() throws IOException;
+    }
+
+    private static double connect(int port, int connections, int threads, ContextSource contexts) throws Exception {
+        return connect(port, connections, threads, contexts, new AtomicInteger());
+    }
+
+    // Connexions successives réparties sur <threads> threads ; chacune compte une fois l'invite
+    // du serveur reçue (la négociation est alors terminée des deux côtés). Renvoie le débit.
+    private static double connect(int port, int connections, int threads, ContextSource contexts,
+                                  AtomicInteger resumed) throws Exception {
+        // Préchauffage non mesuré : JIT et première négociation (qui remplit le cache de sessions)
+        for (int i = 0; i < Math.min(200, connections); i++) {
+            connectOnce(port, contexts.get());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicInteger remaining = new AtomicInteger(connections);
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        try {
+                            if (connectOnce(port, contexts.get())) {
+                                resumed.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.MINUTES);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (failures.get() > 0) {
+            System.err.println(failures.get() + " connexions en échec");
+        }
+        return (connections - failures.get()) / seconds;
+    }
+
+    // Renvoie true si la session TLS a été reprise
+    private static boolean connectOnce(int port, SSLContext context) throws IOException {
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+            TlsChannel tls = null;
+            InputStream in = socket.socket().getInputStream();
+            if (context != null) {
+                tls = TlsChannel.client(socket, context, "localhost", port);
+                tls.handshake();
+                in = Channels.newInputStream(tls);
+            }
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                // Ignorer le contenu de l'invite
+            }
+            if (tls != null) {
+                tls.close();
+            }
+            return tls != null && tls.isResumed();
+        }
+    }
+
+    // Relais d'un fichier d'un client à l'autre (contexte TLS de ChatConnection) ; renvoie le débit en Mo/s
+    private static double transfer(int port, Path file) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicLong received = new AtomicLong();
+        long size = Files.size(file);
+        try (ChatConnection receiver = ChatConnection.connect("localhost", port, "destinataire", Collections.emptyList());
+             ChatConnection sender = ChatConnection.connect("localhost", port, "expediteur", Collections.emptyList())) {
+            Thread reader = new Thread(() -> receiver.readLoop(new ChatConnection.Listener() {
+                @Override
+                public void onMessage(String text) {
+                }
+
+                @Override
+                public void onFileChunk(long transferId, byte[] data, int length) {
+                    received.addAndGet(length);
+                }
+
+                @Override
+                public void onFileEnd(long transferId) {
+                    done.countDown();
+                }
+            }), "destinataire");
+            reader.setDaemon(true);
+            reader.start();
+            Thread drain = new Thread(() -> sender.readLoop(text -> { }), "expéditeur");
+            drain.setDaemon(true);
+            drain.start();
+            // Laisser le destinataire rejoindre le salon avant l'annonce du fichier
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+            // Sans empreinte : le fichier est toujours transmis, jamais dédupliqué
+            sender.sendFile(file, null);
+            if (!done.await(5, TimeUnit.MINUTES) || received.get() != size) {
+                throw new IOException("Fichier incomplet : " + received.get() + " octets sur " + size);
+            }
+            return size / (1024.0 * 1024.0) / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+}
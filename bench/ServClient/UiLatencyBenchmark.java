@@ -0,0 +1,118 @@
+package ServClient;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Banc d'essai de l'interface du client sous forte charge : un thread « lecteur » ajoute
+// <rate> messages par seconde à une ChatView, comme le ferait ChatClient, pendant qu'une sonde
+// poste une tâche vide sur l'EDT toutes les PROBE_MS ms. On mesure :
+//  - la latence de l'EDT : délai entre le dépôt d'une tâche de la sonde et son exécution
+//    (ce que ressent l'utilisateur qui clique ou tape pendant le flot de messages)
+//  - la latence d'affichage : délai entre l'ajout d'un message et son arrivée dans la liste
+// Avec un écran, la vue est affichée dans une fenêtre et son dessin entre dans la mesure ;
+// sans écran (-Djava.awt.headless=true), seul le traitement des lots est mesuré.
+// Usage : java ServClient.UiLatencyBenchmark --rates=1000,5000 --seconds=10
+public class UiLatencyBenchmark {
+    private static final long PROBE_MS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String[] rates = ChatServer.option(args, "rates", "1000").split(",");
+        int seconds = Integer.parseInt(ChatServer.option(args, "seconds", "10"));
+
+        System.out.println(String.format("%-10s %12s %12s %12s %12s %14s %14s", "messages/s", "affichés/s",
+            "EDT p50 (ms)", "EDT p99 (ms)", "EDT max (ms)", "affich. p50 (ms)", "affich. p99 (ms)"));
+        for (String rate : rates) {
+            run(Integer.parseInt(rate.trim()), seconds);
+        }
+        System.exit(0);
+    }
+
+    private static void run(int rate, int seconds) throws Exception {
+        int total = rate * seconds;
+        long[] sentAt = new long[total];
+        LatencyHistogram edt = new LatencyHistogram();
+        LatencyHistogram display = new LatencyHistogram();
+        AtomicLong edtMax = new AtomicLong();
+        ChatView[] view = new ChatView[1];
+        JFrame[] frame = new JFrame[1];
+        SwingUtilities.invokeAndWait(() -> {
+            view[0] = new ChatView(new Font("Dialog", Font.PLAIN, 14));
+            // Chaque lot ajouté : latence de chacun de ses messages (numéro en tête du texte)
+            view[0].lines().getModel().addListDataListener(new ListDataListener() {
+                @Override
+                public void intervalAdded(ListDataEvent e) {
+                    long now = System.nanoTime();
+                    ListModel<ChatView.ChatLine> model = view[0].lines().getModel();
+                    for (int i = e.getIndex0(); i <= e.getIndex1(); i++) {
+                        String text = model.getElementAt(i).text;
+                        display.record(now - sentAt[Integer.parseInt(text.substring(0, text.indexOf(' ')))]);
+                    }
+                }
+
+                @Override
+                public void intervalRemoved(ListDataEvent e) {
+                }
+
+                @Override
+                public void contentsChanged(ListDataEvent e) {
+                }
+            });
+            if (!GraphicsEnvironment.isHeadless()) {
+                frame[0] = new JFrame("UiLatencyBenchmark");
+                frame[0].setSize(800, 600);
+                frame[0].add(view[0]);
+                frame[0].setVisible(true);
+            }
+        });
+
+        Thread probe = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                long posted = System.nanoTime();
+                SwingUtilities.invokeLater(() -> {
+                    long delay = System.nanoTime() - posted;
+                    edt.record(delay);
+                    edtMax.accumulateAndGet(delay, Math::max);
+                });
+                try {
+                    Thread.sleep(PROBE_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "sonde EDT");
+        probe.setDaemon(true);
+        probe.start();
+
+        // Messages répartis régulièrement, comme un salon très actif
+        long intervalNs = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long next = start;
+        for (int i = 0; i < total; i++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+            sentAt[i] = System.nanoTime();
+            view[0].append(i + " alice: un message de chat de longueur habituelle", Color.BLUE);
+            next += intervalNs;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        // Laisser passer la dernière image
+        Thread.sleep(200);
+        probe.interrupt();
+
+        System.out.println(String.format("%-10d %12.0f %12.2f %12.2f %12.2f %14.2f %14.2f", rate,
+            display.count() / elapsed, edt.percentile(50) / 1000.0, edt.percentile(99) / 1000.0, edtMax.get() / 1e6,
+            display.percentile(50) / 1000.0, display.percentile(99) / 1000.0));
+
+        SwingUtilities.invokeAndWait(() -> {
+            view[0].close();
+            if (frame[0] != null) {
+                frame[0].dispose();
+            }
+        });
+    }
+}
@@ -0,0 +1,214 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Magasin de fichiers adressés par leur contenu : chaque fichier reçu entièrement est conservé
+// sous le nom de son empreinte SHA-256 (en hexadécimal). Un client qui annonce l'empreinte d'un
+// fichier déjà présent n'a pas à le renvoyer, et un destinataire qui le possède déjà reçoit une
+// simple référence (voir FrameCodec.FILE_OFFER et FILE_REF).
+// La taille totale est bornée : les fichiers les moins récemment utilisés sont évincés.
+// L'ordre d'utilisation survit au redémarrage grâce à la date de modification des fichiers.
+public class BlobStore {
+    public static final int HASH_SIZE = 32;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Empreinte -> taille, dans l'ordre d'utilisation (le plus ancien en premier)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private BlobStore(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Ouvrir (ou créer) le magasin et relire les fichiers présents, du moins au plus récemment utilisé
+    public static BlobStore open(Path directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        BlobStore store = new BlobStore(directory, maxBytes);
+        List<Path> blobs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".part")) {
+                    // Réception interrompue par un arrêt du serveur
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        System.err.println("Impossible de supprimer " + file + ": " + e.getMessage());
+                    }
+                } else if (name.length() == HASH_SIZE * 2) {
+                    blobs.add(file);
+                }
+            });
+        }
+        blobs.sort(Comparator.comparing(BlobStore::lastModified));
+        for (Path blob : blobs) {
+            long size = Files.size(blob);
+            store.entries.put(blob.getFileName().toString(), size);
+            store.totalBytes += size;
+        }
+        synchronized (store) {
+            store.evict();
+        }
+        ServerLog.info("Magasin de fichiers : " + store.entries.size() + " fichier(s), " + store.totalBytes / 1024 + " Ko");
+        return store;
+    }
+
+    // Taille maximale d'un fichier conservé (un fichier plus gros est seulement relayé)
+    public long maxBlobBytes() {
+        return maxBytes;
+    }
+
+    // Ouvrir un fichier conservé pour l'envoyer (transferTo) ; null s'il est absent.
+    // L'appelant libère la référence renvoyée, chaque trame d'envoi retient la sienne.
+    public SpooledFile open(byte[] hash) {
+        String name = toHex(hash);
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                return null;
+            }
+        }
+        Path path = directory.resolve(name);
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return SpooledFile.open(path);
+        } catch (IOException e) {
+            // Évincé entre-temps
+            return null;
+        }
+    }
+
+    // Commencer l'écriture d'un fichier reçu, conservé par commit si son contenu est complet
+    public Writer newWriter() throws IOException {
+        return new Writer(Files.createTempFile(directory, "blob-", ".part"));
+    }
+
+    private synchronized void add(String name, long size) {
+        if (entries.put(name, size) == null) {
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    // Évincer les fichiers les moins récemment utilisés jusqu'à revenir sous la taille maximale
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            try {
+                // Un envoi en cours garde son canal ouvert et se termine normalement
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+            } catch (IOException e) {
+                System.err.println("Impossible d'évincer " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    // Fichier en cours de réception : empreinte calculée au fil des morceaux
+    public class Writer {
+        private final Path path;
+        private final FileChannel channel;
+        private final MessageDigest digest = newDigest();
+        private long size = 0;
+
+        private Writer(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        }
+
+        // Écrire les octets restants de chunk, sans modifier sa position
+        public void append(ByteBuffer chunk) throws IOException {
+            digest.update(chunk.duplicate());
+            ByteBuffer buffer = chunk.duplicate();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            size += chunk.remaining();
+        }
+
+        public long size() {
+            return size;
+        }
+
+        // Conserver le fichier sous son empreinte (un contenu déjà présent n'est pas dupliqué)
+        public byte[] commit() throws IOException {
+            channel.close();
+            byte[] hash = digest.digest();
+            String name = toHex(hash);
+            try {
+                Files.move(path, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(path);
+            }
+            add(name, size);
+            return hash;
+        }
+
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Impossible de supprimer " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+
+    // Empreinte SHA-256 d'un fichier local (client qui annonce un envoi)
+    public static byte[] hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Protocol.CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
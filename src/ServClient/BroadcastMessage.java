@@ -0,0 +1,108 @@
+package ServClient;
+
+import java.nio.ByteBuffer;
+
+// Message diffusé aux abonnés d'un salon, encodé une seule fois par format : trame MSG pour les
+// clients binaires, ligne MSG: pour les anciens clients. Chaque encodage n'est fait qu'au premier
+// destinataire qui en a besoin, puis partagé (SharedFrame) : un salon de 1000 clients encode
+// un message une fois, et non 1000.
+// Chaque encodage est copié dans un tampon direct emprunté à BufferPool : l'écriture sur la
+// socket n'a pas à le recopier dans un tampon natif temporaire, et il est rendu à la réserve
+// quand le dernier destinataire l'a envoyé.
+// En grappe (ClusterNode), le nœud qui ordonne le salon numérote la diffusion : elle est alors
+// aussi relayée, en trame NODE_MSG, aux liens des nœuds qui ont des abonnés au salon.
+// Une commande diffusée (PRESENCE:..., voir PresenceFeed) part en trame COMMAND et non MSG.
+// Utilisé par le seul thread qui diffuse ; les destinataires ne conservent que les SharedFrame.
+public class BroadcastMessage {
+    private final String message;
+    private final boolean command;
+    private final boolean compressible;
+    private SharedFrame binaryFrame;
+    private SharedFrame lineFrame;
+
+    // Diffusion numérotée à relayer aux autres nœuds (room null sinon)
+    private final String room;
+    private final long sequence;
+    private final String originNode;
+    private final long originSequence;
+    private SharedFrame nodeFrame;
+
+    public BroadcastMessage(String message) {
+        this(message, null, 0, null, 0);
+    }
+
+    public BroadcastMessage(String message, String room, long sequence, String originNode, long originSequence) {
+        this(message, false, room, sequence, originNode, originSequence);
+    }
+
+    private BroadcastMessage(String message, boolean command, String room, long sequence, String originNode, long originSequence) {
+        this.message = message;
+        this.command = command;
+        this.compressible = !ChatServer.compressionCodecs.isEmpty() && message.length() >= ChatServer.compressMinBytes;
+        this.room = room;
+        this.sequence = sequence;
+        this.originNode = originNode;
+        this.originSequence = originSequence;
+    }
+
+    // Commande du protocole diffusée telle quelle, jamais relayée aux autres nœuds
+    public static BroadcastMessage command(String command) {
+        return new BroadcastMessage(command, true, null, 0, null, 0);
+    }
+
+    public String text() {
+        return message;
+    }
+
+    // Trame MSG (ou COMMAND) du protocole binaire
+    public SharedFrame binaryFrame() {
+        if (binaryFrame == null) {
+            binaryFrame = share(compressible, command ? FrameCodec.encodeText(FrameCodec.COMMAND, message)
+                : FrameCodec.encodeText(FrameCodec.MSG, message.startsWith("MSG:") ? message.substring(4) : message));
+        }
+        return binaryFrame;
+    }
+
+    // Ligne du protocole texte (jamais compressée)
+    public SharedFrame lineFrame() {
+        if (lineFrame == null) {
+            lineFrame = share(false, Protocol.encodeLine(message));
+        }
+        return lineFrame;
+    }
+
+    // La diffusion doit-elle être relayée aux autres nœuds de la grappe ?
+    public boolean relayedToNodes() {
+        return room != null;
+    }
+
+    // Trame NODE_MSG pour les liens vers les autres nœuds
+    public SharedFrame nodeFrame() {
+        if (nodeFrame == null) {
+            nodeFrame = share(false, FrameCodec.encodeNode(FrameCodec.NODE_MSG, sequence, originSequence,
+                room + "\n" + originNode + "\n" + message));
+        }
+        return nodeFrame;
+    }
+
+    // Fin de la diffusion : rendre les références du diffuseur
+    public void release() {
+        if (nodeFrame != null) {
+            nodeFrame.release();
+        }
+        if (binaryFrame != null) {
+            binaryFrame.release();
+        }
+        if (lineFrame != null) {
+            lineFrame.release();
+        }
+    }
+
+    private static SharedFrame share(boolean compressible, ByteBuffer encoded) {
+        PooledBuffer pooled = BufferPool.acquire(encoded.remaining());
+        ByteBuffer buffer = pooled.buffer();
+        buffer.put(encoded);
+        buffer.flip();
+        return new SharedFrame(compressible, pooled, buffer);
+    }
+}
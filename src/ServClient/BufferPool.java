@@ -0,0 +1,204 @@
+package ServClient;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Réserve de tampons directs du serveur, par classes de taille : morceaux de fichier relayés,
+// trames diffusées partagées entre destinataires, enregistrements TLS (TlsChannel). Les tampons
+// sont découpés dans de grandes plaques (slabs) allouées une fois, puis rendus à la réserve et
+// réutilisés : en régime établi, le relais de fichiers et la diffusion n'allouent plus de
+// mémoire native ni de tampons du tas.
+// Au-delà de la plus grande classe, ou quand la réserve a atteint sa taille maximale
+// (--buffer-pool-mb), le tampon est alloué à part et laissé au ramasse-miettes.
+//
+// Détection des fuites (--buffer-leak-detection=true, pour le débogage) : chaque tampon prêté
+// retient la pile de son emprunt ; s'il est ramassé sans avoir été rendu, la pile est affichée.
+// Ce mode alloue un suivi par emprunt et ne convient pas à la production.
+public final class BufferPool {
+    // Place réservée devant les données d'un morceau de fichier pour son en-tête FILE_CHUNK
+    static final int HEADER_ROOM = 16;
+    // Enregistrement TLS chiffré ou déchiffré (SSLSession.getPacketBufferSize : 16709 octets)
+    private static final int TLS_RECORD = 17 * 1024;
+
+    private static final int[] SIZES = { 512, 4 * 1024, 16 * 1024, TLS_RECORD, HEADER_ROOM + Protocol.CHUNK_SIZE };
+    private static final int SLAB_SIZE = 1024 * 1024;
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static volatile SizeClass[] classes = createClasses(DEFAULT_MAX_BYTES);
+    private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private static volatile boolean leakDetection = false;
+    private static final AtomicLong reservedBytes = new AtomicLong();
+
+    static final LongAdder acquired = new LongAdder();
+    static final LongAdder hits = new LongAdder();
+    static final LongAdder unpooled = new LongAdder();
+    static final LongAdder released = new LongAdder();
+    static final LongAdder leaks = new LongAdder();
+
+    private BufferPool() {
+    }
+
+    // À appeler au démarrage, avant le premier emprunt
+    static void configure(long maxPoolBytes, boolean detectLeaks) {
+        maxBytes = maxPoolBytes;
+        leakDetection = detectLeaks;
+        classes = createClasses(maxPoolBytes);
+    }
+
+    // Emprunter un tampon d'au moins capacity octets, position 0 et limite capacity.
+    // Il doit être rendu (PooledBuffer.release) une seule fois, et plus utilisé ensuite.
+    public static PooledBuffer acquire(int capacity) {
+        acquired.increment();
+        SizeClass sizeClass = classFor(capacity);
+        PooledBuffer buffer = null;
+        if (sizeClass != null) {
+            buffer = sizeClass.free.poll();
+            if (buffer != null) {
+                hits.increment();
+            } else {
+                buffer = sizeClass.carve();
+            }
+        }
+        if (buffer == null) {
+            unpooled.increment();
+            buffer = new PooledBuffer(null, ByteBuffer.allocateDirect(capacity));
+        }
+        buffer.lease(capacity);
+        if (leakDetection) {
+            buffer.leak = LeakDetector.track(buffer, capacity);
+        }
+        return buffer;
+    }
+
+    static void release(PooledBuffer buffer) {
+        released.increment();
+        if (buffer.leak != null) {
+            LeakDetector.untrack(buffer.leak);
+        }
+        if (buffer.owner == null) {
+            return;
+        }
+        if (leakDetection) {
+            // Nouveau porteur : l'ancien doit pouvoir être ramassé pour que son suivi se termine
+            buffer = new PooledBuffer(buffer.owner, buffer.buffer());
+        }
+        buffer.owner.free.offer(buffer);
+    }
+
+    // Part des emprunts servis par un tampon déjà découpé, en pourcentage
+    static long hitRatePercent() {
+        long total = acquired.sum();
+        return total == 0 ? 100 : hits.sum() * 100 / total;
+    }
+
+    static long reservedBytes() {
+        return reservedBytes.get();
+    }
+
+    static long outstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    private static SizeClass classFor(int capacity) {
+        for (SizeClass sizeClass : classes) {
+            if (capacity <= sizeClass.size) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    private static SizeClass[] createClasses(long maxPoolBytes) {
+        SizeClass[] created = new SizeClass[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            created[i] = new SizeClass(SIZES[i], maxPoolBytes);
+        }
+        return created;
+    }
+
+    // Tampons d'une même taille : plaque en cours de découpage et tampons rendus
+    static final class SizeClass {
+        final int size;
+        // File à tableau : rendre un tampon n'alloue pas de nœud
+        final ArrayBlockingQueue<PooledBuffer> free;
+        private ByteBuffer slab;
+
+        SizeClass(int size, long maxPoolBytes) {
+            this.size = size;
+            this.free = new ArrayBlockingQueue<>((int) Math.max(1, Math.min(Integer.MAX_VALUE, maxPoolBytes / size + 1)));
+        }
+
+        // Découper un nouveau tampon dans la plaque, null si la réserve est pleine
+        synchronized PooledBuffer carve() {
+            if (slab == null || slab.remaining() < size) {
+                int slabSize = Math.max(1, SLAB_SIZE / size) * size;
+                if (reservedBytes.addAndGet(slabSize) > maxBytes) {
+                    reservedBytes.addAndGet(-slabSize);
+                    return null;
+                }
+                slab = ByteBuffer.allocateDirect(slabSize);
+            }
+            slab.limit(slab.position() + size);
+            ByteBuffer buffer = slab.slice();
+            slab.position(slab.limit());
+            slab.limit(slab.capacity());
+            return new PooledBuffer(this, buffer);
+        }
+    }
+
+    // Suivi d'un emprunt en mode détection : référence fantôme vers son porteur, mise en file
+    // par le ramasse-miettes quand celui-ci n'est plus atteignable
+    static final class Leak extends PhantomReference<PooledBuffer> {
+        private final Throwable site = new Throwable("Tampon emprunté ici");
+        private final int capacity;
+
+        Leak(PooledBuffer buffer, int capacity, ReferenceQueue<PooledBuffer> queue) {
+            super(buffer, queue);
+            this.capacity = capacity;
+        }
+    }
+
+    // Emprunts en cours et thread de signalement, créés seulement si la détection est activée
+    private static final class LeakDetector {
+        private static final ReferenceQueue<PooledBuffer> collected = new ReferenceQueue<>();
+        private static final Set<Leak> outstanding = ConcurrentHashMap.newKeySet();
+
+        static {
+            Thread reporter = new Thread(LeakDetector::report, "fuites de tampons");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+
+        static Leak track(PooledBuffer buffer, int capacity) {
+            Leak leak = new Leak(buffer, capacity, collected);
+            outstanding.add(leak);
+            return leak;
+        }
+
+        static void untrack(Leak leak) {
+            outstanding.remove(leak);
+        }
+
+        // Un porteur ramassé encore suivi n'a jamais été rendu
+        private static void report() {
+            while (true) {
+                try {
+                    Leak leak = (Leak) collected.remove();
+                    if (outstanding.remove(leak)) {
+                        leaks.increment();
+                        System.err.println("Fuite de tampon : " + leak.capacity + " octets ramassés sans avoir été rendus");
+                        leak.site.printStackTrace();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -2,25 +2,45 @@ package ServClient;
 
 import javax.swing.*;
 import javax.swing.border.*;
-import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.awt.Desktop;
-import java.text.SimpleDateFormat;
-import javax.swing.event.HyperlinkEvent;
-import javax.swing.event.HyperlinkListener;
-import java.util.Date;
 
 public class ChatClient extends JFrame {
+    private static final long serialVersionUID = 1L;
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 800;
     private static final String DOWNLOADS_FOLDER = "downloads";
+    // Nombre de messages récents demandés à l'historique du serveur à la connexion
+    private static final int HISTORY_ON_JOIN = 50;
+    // Noms affichés dans l'infobulle de la liste des présents
+    private static final int ROSTER_TOOLTIP_NAMES = 50;
+    // Fichiers reçus par référence à partir de cette taille : téléchargés en plusieurs flux parallèles
+    private static final long PARALLEL_FETCH_MIN_BYTES = 32L * 1024 * 1024;
+    private static final int PARALLEL_STREAMS = 4;
+    // Morceaux d'un fichier reçu en attente d'écriture sur disque (64 Ko chacun)
+    private static final int MAX_PENDING_WRITES = 64;
+    
+    // Threads d'écriture des fichiers reçus, partagés par tous les téléchargements
+    private static final ExecutorService FILE_WRITERS = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "écriture fichiers");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     // Couleurs simplifiées pour une meilleure lisibilité
     private static final Color PRIMARY_COLOR = new Color(70, 130, 180); // Bleu acier
@@ -31,29 +51,31 @@ public class ChatClient extends JFrame {
     private static final Font MAIN_FONT = new Font("Segoe UI", Font.PLAIN, 14);
     private static final Font HEADER_FONT = new Font("Segoe UI", Font.BOLD, 16);
     
-    private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
-    private DataInputStream dataInputStream;
-    private DataOutputStream dataOutputStream;
+    // Connexion au serveur (protocole binaire), partagée avec LoadGenerator
+    private ChatConnection connection;
     private String clientName;
     private boolean isConnected = false;
     
     // Composants de l'interface graphique
-    private JTextPane chatArea;
+    private ChatView chatView;
     private JTextField messageField;
     private JButton sendButton;
     private JButton sendFileButton;
     private JButton disconnectButton;
     private JPanel inputPanel;
-    private JScrollPane scrollPane;
     private JLabel statusLabel;
     private JPanel headerPanel;
     
-    // Liste des fichiers reçus pour permettre leur ouverture
-    private Map<String, String> receivedFiles = new HashMap<>();
+    // Menu d'un fichier reçu (clic droit sur sa ligne)
     private JPopupMenu filePopupMenu;
     
+    // Fichiers en cours de réception, écrits sur disque morceau par morceau
+    private final Map<Long, IncomingFile> incomingFiles = new HashMap<>();
+    
+    // Fichiers déjà présents localement (reçus ou envoyés), par empreinte SHA-256 :
+    // un fichier annoncé par référence n'est ni retéléchargé ni copié une fois de plus
+    private final Map<String, String> localFiles = new ConcurrentHashMap<>();
+    
     // ExecutorService pour gérer les tâches asynchrones
     private ExecutorService executorService;
     
@@ -78,6 +100,9 @@ public class ChatClient extends JFrame {
         // Initialiser l'ExecutorService
         executorService = Executors.newFixedThreadPool(2);
         
+        // Indexer en arrière-plan les fichiers déjà téléchargés
+        executorService.submit(this::indexDownloads);
+        
         // Se connecter au serveur
         connectToServer();
     }
@@ -115,40 +140,38 @@ public class ChatClient extends JFrame {
         headerPanel.add(titleLabel, BorderLayout.WEST);
         headerPanel.add(statusLabel, BorderLayout.EAST);
         
-        // Zone d'affichage des messages avec style amélioré
-        chatArea = new JTextPane();
-        chatArea.setEditable(false);
-        chatArea.setFont(MAIN_FONT);
-        chatArea.setBackground(Color.WHITE);
-        chatArea.setForeground(TEXT_COLOR);
-        
-        // Activer les hyperliens dans la zone de chat
-        chatArea.setEditorKit(JEditorPane.createEditorKitForContentType("text/html"));
-        chatArea.setContentType("text/html");
-        chatArea.addHyperlinkListener(e -> {
-            if (e.getEventType() == HyperlinkEvent.EventType.ACTIVATED) {
-                String filePath = e.getDescription();
-                openFile(filePath);
-            }
-        });
-        
-        scrollPane = new JScrollPane(chatArea);
-        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
-        scrollPane.setBorder(BorderFactory.createLineBorder(PRIMARY_COLOR, 1));
+        // Zone d'affichage des messages : fenêtre bornée sur la session (voir ChatView)
+        chatView = new ChatView(MAIN_FONT);
+        chatView.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        chatView.setBorder(BorderFactory.createLineBorder(PRIMARY_COLOR, 1));
+        chatView.setHistoryPager((fromOffset, max) -> requestOlderHistory(fromOffset, max));
         
         // Configuration du menu contextuel pour les fichiers
         filePopupMenu = new JPopupMenu();
         
-        // Ajouter un écouteur de clic droit sur la zone de chat
-        chatArea.addMouseListener(new MouseAdapter() {
+        // Clic sur une ligne de fichier : chaque ligne connaît le fichier qu'elle annonce
+        JList<ChatView.ChatLine> chatList = chatView.lines();
+        chatList.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
+                String filePath = chatView.fileAt(e.getPoint());
+                if (filePath == null) {
+                    return;
+                }
                 if (SwingUtilities.isRightMouseButton(e)) {
-                    // On utilisera la position du clic pour déterminer si on est sur une mention de fichier
-                    showFileOptionsIfAvailable(e.getX(), e.getY());
+                    showFileOptions(e.getX(), e.getY(), filePath);
+                } else {
+                    openFile(filePath);
                 }
             }
         });
+        chatList.addMouseMotionListener(new MouseMotionAdapter() {
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                chatList.setCursor(Cursor.getPredefinedCursor(
+                    chatView.fileAt(e.getPoint()) != null ? Cursor.HAND_CURSOR : Cursor.DEFAULT_CURSOR));
+            }
+        });
         
         // Zone de saisie des messages avec style amélioré
         messageField = new JTextField();
@@ -198,7 +221,7 @@ public class ChatClient extends JFrame {
         
         // Ajouter les composants au panneau principal
         mainPanel.add(headerPanel, BorderLayout.NORTH);
-        mainPanel.add(scrollPane, BorderLayout.CENTER);
+        mainPanel.add(chatView, BorderLayout.CENTER);
         mainPanel.add(inputPanel, BorderLayout.SOUTH);
         
         // Ajouter le panneau principal au cadre
@@ -211,6 +234,7 @@ public class ChatClient extends JFrame {
                 if (isConnected) {
                     disconnect();
                 }
+                chatView.close();
                 executorService.shutdown();
             }
         });
@@ -284,13 +308,23 @@ public class ChatClient extends JFrame {
         }
     }
     
+    // Calculer l'empreinte des fichiers du dossier downloads
+    private void indexDownloads() {
+        File[] files = new File(DOWNLOADS_FOLDER).listFiles(File::isFile);
+        if (files == null) return;
+        for (File file : files) {
+            try {
+                localFiles.putIfAbsent(BlobStore.toHex(BlobStore.hash(file.toPath())), file.getPath());
+            } catch (IOException e) {
+                // Fichier illisible : simplement pas indexé
+            }
+        }
+    }
+    
     private void connectToServer() {
         try {
-            socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
-            dataInputStream = new DataInputStream(socket.getInputStream());
-            dataOutputStream = new DataOutputStream(socket.getOutputStream());
+            // Négocier le protocole binaire et envoyer le nom du client
+            connection = ChatConnection.connect(SERVER_ADDRESS, SERVER_PORT, clientName);
             
             isConnected = true;
             
@@ -298,17 +332,19 @@ public class ChatClient extends JFrame {
             statusLabel.setText("Statut: Connecté");
             disconnectButton.setText("Déconnecter");
             
-            // Envoyer le nom du client au serveur avant de lire le message de bienvenue
-            writer.println(clientName);
-            
-            // Lire le message de bienvenue du serveur
-            String welcomeMessage = reader.readLine();
-            if (welcomeMessage != null) {
-                appendToChatArea(welcomeMessage, Color.BLUE);
+            // Afficher le message de bienvenue du serveur
+            if (connection.getWelcomeMessage() != null) {
+                appendToChatArea(connection.getWelcomeMessage(), Color.BLUE);
             }
             
-            // Lancer un thread pour lire les messages du serveur
-            executorService.submit(this::readMessages);
+            // Afficher les derniers messages échangés avant notre arrivée
+            connection.sendCommand("HISTORY:-" + HISTORY_ON_JOIN);
+            
+            // Thread dédié à la lecture des messages du serveur : les envois de fichiers et
+            // l'indexation gardent les threads d'executorService
+            Thread reader = new Thread(() -> connection.readLoop(new ServerListener()), "lecture serveur");
+            reader.setDaemon(true);
+            reader.start();
             
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Erreur de connexion: " + e.getMessage(), 
@@ -317,169 +353,149 @@ public class ChatClient extends JFrame {
         }
     }
     
-    private void readMessages() {
-        try {
-            String message;
-            while (isConnected && (message = reader.readLine()) != null) {
-                if (message.startsWith("MSG:")) {
-                    // C'est un message texte
-                    final String textMessage = message.substring(4);
-                    
-                    // Déterminer la couleur en fonction de l'expéditeur
-                    final Color messageColor;
-                    if (textMessage.startsWith("Serveur:")) {
-                        messageColor = new Color(128, 0, 128); // Violet pour les messages du serveur
-                    } else if (textMessage.contains(clientName + ":")) {
-                        messageColor = new Color(0, 100, 0); // Vert foncé pour mes messages
-                    } else {
-                        messageColor = new Color(0, 0, 139); // Bleu foncé pour les autres
-                    }
-                    
-                    SwingUtilities.invokeLater(() -> appendToChatArea(textMessage, messageColor));
-                    
-                } else if (message.startsWith("FILE:")) {
-                    // C'est un fichier
-                    // Format: FILE:nom_fichier:taille
-                    String[] parts = message.split(":", 3);
-                    if (parts.length == 3) {
-                        String fileName = parts[1];
-                        try {
-                            int fileSize = Integer.parseInt(parts[2]);
-                            
-                            // Recevoir le fichier
-                            byte[] fileData = new byte[fileSize];
-                            dataInputStream.readFully(fileData);
-                            
-                            // Enregistrer le fichier dans le dossier downloads
-                            final String savedPath = saveFile(fileName, fileData);
-                            
-                            SwingUtilities.invokeLater(() -> {
-                                // Utiliser un lien hypertexte pour le fichier
-                                if (savedPath != null) {
-                                    appendFileLink(fileName, fileSize, savedPath);
-                                } else {
-                                    appendToChatArea("Erreur lors de la réception du fichier: " + fileName, Color.RED);
-                                }
-                            });
-                        } catch (NumberFormatException e) {
-                            SwingUtilities.invokeLater(() -> 
-                                appendToChatArea("Format de taille de fichier invalide: " + parts[2], Color.RED));
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            if (isConnected) {
-                SwingUtilities.invokeLater(() -> {
-                    appendToChatArea("Erreur lors de la lecture des messages: " + e.getMessage(), Color.RED);
-                });
+    // Événements du serveur, reçus sur le thread de lecture
+    private class ServerListener implements ChatConnection.Listener {
+        // Utilisateurs en ligne, d'après les messages PRESENCE: du serveur
+        private final TreeSet<String> online = new TreeSet<>();
+        
+        @Override
+        public void onMessage(String text) {
+            showChatMessage(text);
+        }
+        
+        @Override
+        public void onHistory(long offset, String text) {
+            // Historique de la connexion, ou page plus ancienne demandée en remontant la discussion
+            chatView.appendHistory(offset, text, messageColor(text));
+        }
+        
+        @Override
+        public void onFileStart(long transferId, String fileName, long fileSize) {
+            // Début d'un fichier découpé
+            incomingFiles.put(transferId, new IncomingFile(fileName, fileSize));
+        }
+        
+        @Override
+        public void onFileChunk(long transferId, byte[] data, int length) {
+            // Morceau de fichier, écrit directement sur disque
+            IncomingFile file = incomingFiles.get(transferId);
+            if (file != null) {
+                file.write(data, length);
             }
         }
-    }
-    
-    // Méthode pour ajouter un lien de fichier cliquable
-    private void appendFileLink(String fileName, int fileSize, String filePath) {
-        StyledDocument doc = chatArea.getStyledDocument();
-        
-        // Obtenir l'heure actuelle
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
-        String timestamp = "[" + timeFormat.format(new Date()) + "] ";
-        
-        // Créer un style pour l'horodatage
-        Style timestampStyle = chatArea.addStyle("Timestamp", null);
-        StyleConstants.setForeground(timestampStyle, Color.GRAY);
-        StyleConstants.setFontSize(timestampStyle, 12);
-        
-        // Créer un style pour les liens
-        Style linkStyle = chatArea.addStyle("Link", null);
-        StyleConstants.setForeground(linkStyle, Color.BLUE);
-        StyleConstants.setUnderline(linkStyle, true);
-        StyleConstants.setFontSize(linkStyle, 14);
-        StyleConstants.setBold(linkStyle, true);
-
-        // Texte du fichier
-        String fileText = "📎 Fichier reçu: " + fileName + " (" + formatFileSize(fileSize) + ")";
         
-        try {
-            // Ajouter l'horodatage
-            doc.insertString(doc.getLength(), timestamp, timestampStyle);
-            
-            // Ajouter le lien du fichier
-            insertFileLink(doc, fileText, filePath);
-            
-            // Ajouter une note explicative
-            doc.insertString(doc.getLength(), " [Cliquez pour ouvrir]\n", null);
-            
-            // Stocker la référence au fichier
-            receivedFiles.put(fileText, filePath);
-            
-            // Défiler automatiquement vers le bas
-            chatArea.setCaretPosition(doc.getLength());
-        } catch (Exception e) {
-            e.printStackTrace();
+        @Override
+        public void onFileEnd(long transferId) {
+            // Le lien s'affiche quand la dernière écriture sur disque est terminée
+            IncomingFile file = incomingFiles.remove(transferId);
+            if (file != null) {
+                file.finish();
+            }
         }
-    }
-    
-    // Méthode pour insérer un lien cliquable dans le document
-    private void insertFileLink(StyledDocument doc, String text, String filePath) throws BadLocationException {
-        // Créer l'action pour ouvrir le fichier
-        SimpleAttributeSet attributes = new SimpleAttributeSet();
-        StyleConstants.setForeground(attributes, Color.BLUE);
-        StyleConstants.setUnderline(attributes, true);
-        StyleConstants.setBold(attributes, true);
-        
-        // Utiliser un MouseListener pour gérer les clics sur le lien
-        final int startPosition = doc.getLength();
-        doc.insertString(startPosition, text, attributes);
-        final int endPosition = doc.getLength();
-        
-        // Mémoriser la position du lien pour le traitement des clics
-        chatArea.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                try {
-                    int pos = chatArea.viewToModel2D(e.getPoint());
-                    if (pos >= startPosition && pos <= endPosition) {
-                        openFile(filePath);
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
+        
+        @Override
+        public boolean onFileRef(long transferId, String fileName, long fileSize, byte[] hash) {
+            // Fichier déjà présent : afficher le lien vers la copie locale au lieu de le recevoir
+            String localPath = localFiles.get(BlobStore.toHex(hash));
+            if (localPath != null && new File(localPath).isFile()) {
+                appendFileLink(fileName, fileSize, localPath);
+                return true;
             }
-            
-            @Override
-            public void mouseEntered(MouseEvent e) {
-                try {
-                    int pos = chatArea.viewToModel2D(e.getPoint());
-                    if (pos >= startPosition && pos <= endPosition) {
-                        chatArea.setCursor(new Cursor(Cursor.HAND_CURSOR));
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
+            if (fileSize >= PARALLEL_FETCH_MIN_BYTES && connection.supportsResume()) {
+                // Gros fichier : plusieurs connexions de transfert, hors du thread de lecture
+                new Thread(() -> downloadInParallel(fileName, fileSize, hash), "téléchargement " + fileName).start();
+                return true;
             }
-            
-            @Override
-            public void mouseExited(MouseEvent e) {
-                chatArea.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+            return false;
+        }
+        
+        @Override
+        public void onFileAbort(long transferId) {
+            IncomingFile file = incomingFiles.remove(transferId);
+            if (file != null) {
+                file.discard();
+                appendToChatArea("Transfert interrompu: " + file.fileName, Color.RED);
             }
-        });
+        }
         
-        chatArea.addMouseMotionListener(new MouseMotionAdapter() {
-            @Override
-            public void mouseMoved(MouseEvent e) {
-                try {
-                    int pos = chatArea.viewToModel2D(e.getPoint());
-                    if (pos >= startPosition && pos <= endPosition) {
-                        chatArea.setCursor(new Cursor(Cursor.HAND_CURSOR));
-                    } else {
-                        chatArea.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+        @Override
+        public void onPresence(boolean snapshot, java.util.List<String> entries) {
+            // Liste tenue sur le thread de lecture ; l'EDT ne reçoit qu'un libellé par lot de changements
+            if (snapshot) {
+                online.clear();
+            }
+            for (String entry : entries) {
+                if (entry.charAt(0) == '+') {
+                    online.add(entry.substring(1));
+                } else {
+                    online.remove(entry.substring(1));
                 }
             }
-        });
+            String status = "Statut: Connecté · " + online.size() + " en ligne";
+            String names = String.join(", ", online.size() > ROSTER_TOOLTIP_NAMES
+                ? new ArrayList<>(online).subList(0, ROSTER_TOOLTIP_NAMES) : online);
+            SwingUtilities.invokeLater(() -> {
+                if (isConnected) {
+                    statusLabel.setText(status);
+                    statusLabel.setToolTipText(names);
+                }
+            });
+        }
+        
+        @Override
+        public void onDisconnected(IOException error) {
+            if (error != null && isConnected) {
+                appendToChatArea("Erreur lors de la lecture des messages: " + error.getMessage(), Color.RED);
+            }
+            for (IncomingFile file : incomingFiles.values()) {
+                file.discard();
+            }
+            incomingFiles.clear();
+        }
+    }
+    
+    // Afficher un message texte reçu
+    private void showChatMessage(String textMessage) {
+        // Pas de tâche par message pour l'EDT : la vue applique les lignes reçues par lots
+        appendToChatArea(textMessage, messageColor(textMessage));
+    }
+    
+    // Déterminer la couleur en fonction de l'expéditeur
+    private Color messageColor(String textMessage) {
+        if (textMessage.startsWith("Serveur:")) {
+            return new Color(128, 0, 128); // Violet pour les messages du serveur
+        } else if (textMessage.contains(clientName + ":")) {
+            return new Color(0, 100, 0); // Vert foncé pour mes messages
+        } else {
+            return new Color(0, 0, 139); // Bleu foncé pour les autres
+        }
+    }
+    
+    // Page d'historique antérieure à ce qu'affiche la discussion (appelée par ChatView)
+    private void requestOlderHistory(long fromOffset, int max) {
+        if (!isConnected) {
+            return;
+        }
+        try {
+            connection.sendCommand("HISTORY:" + fromOffset + ":" + max);
+        } catch (IOException e) {
+            appendToChatArea("Erreur lors de la demande d'historique: " + e.getMessage(), Color.RED);
+        }
+    }
+    
+    // Afficher le lien vers un fichier entièrement reçu
+    private void showReceivedFile(IncomingFile file) {
+        // Utiliser une ligne cliquable pour le fichier
+        if (file.savedPath != null && !file.isFailed()) {
+            appendFileLink(file.fileName, file.fileSize, file.savedPath);
+        } else {
+            appendToChatArea("Erreur lors de la réception du fichier: " + file.fileName, Color.RED);
+        }
+    }
+    
+    // Ligne cliquable annonçant un fichier reçu
+    private void appendFileLink(String fileName, long fileSize, String filePath) {
+        chatView.appendFile("📎 Fichier reçu: " + fileName + " (" + formatFileSize(fileSize) + ") [Cliquez pour ouvrir]", filePath);
     }
     
     private String formatFileSize(long size) {
@@ -492,57 +508,20 @@ public class ChatClient extends JFrame {
         }
     }
     
-    private void showFileOptionsIfAvailable(int x, int y) {
-        try {
-            int position = chatArea.viewToModel2D(new Point(x, y));
-            if (position >= 0) {
-                StyledDocument doc = chatArea.getStyledDocument();
-                
-                // Rechercher la ligne actuelle
-                String text = doc.getText(0, doc.getLength());
-                int lineStart = 0;
-                for (int i = position; i >= 0; i--) {
-                    if (i < text.length() && text.charAt(i) == '\n') {
-                        lineStart = i + 1;
-                        break;
-                    }
-                }
-                
-                int lineEnd = text.indexOf('\n', position);
-                if (lineEnd == -1) lineEnd = text.length();
-                
-                String currentLine = text.substring(lineStart, lineEnd);
-                
-                // Vérifier si cette ligne contient une notification de fichier
-                for (String key : receivedFiles.keySet()) {
-                    if (currentLine.contains(key)) {
-                        showFileOptions(x, y, key);
-                        return;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-    
-    private void showFileOptions(int x, int y, String fileKey) {
+    private void showFileOptions(int x, int y, String filePath) {
         filePopupMenu.removeAll();
         
-        String filePath = receivedFiles.get(fileKey);
-        if (filePath != null) {
-            JMenuItem openItem = new JMenuItem("Ouvrir le fichier");
-            openItem.setFont(MAIN_FONT);
-            openItem.addActionListener(e -> openFile(filePath));
-            
-            JMenuItem openFolderItem = new JMenuItem("Ouvrir le dossier contenant");
-            openFolderItem.setFont(MAIN_FONT);
-            openFolderItem.addActionListener(e -> openFolder(filePath));
-            
-            filePopupMenu.add(openItem);
-            filePopupMenu.add(openFolderItem);
-            filePopupMenu.show(chatArea, x, y);
-        }
+        JMenuItem openItem = new JMenuItem("Ouvrir le fichier");
+        openItem.setFont(MAIN_FONT);
+        openItem.addActionListener(e -> openFile(filePath));
+        
+        JMenuItem openFolderItem = new JMenuItem("Ouvrir le dossier contenant");
+        openFolderItem.setFont(MAIN_FONT);
+        openFolderItem.addActionListener(e -> openFolder(filePath));
+        
+        filePopupMenu.add(openItem);
+        filePopupMenu.add(openFolderItem);
+        filePopupMenu.show(chatView.lines(), x, y);
     }
     
     private void openFile(String filePath) {
@@ -585,12 +564,38 @@ public class ChatClient extends JFrame {
             if (messageText.equals("exit")) {
                 disconnect();
             } else {
-                writer.println("MSG:" + messageText);
-                messageField.setText("");
+                try {
+                    String command = toCommand(messageText);
+                    if (command != null) {
+                        connection.sendCommand(command);
+                    } else {
+                        connection.sendMessage(messageText);
+                    }
+                    messageField.setText("");
+                } catch (IOException e) {
+                    appendToChatArea("Erreur lors de l'envoi du message: " + e.getMessage(), Color.RED);
+                }
             }
         }
     }
     
+    // Commandes saisies dans la zone de message : /join salon, /leave salon, /msg nom texte,
+    // /search requête (voir Protocol) ; null pour un message ordinaire
+    private String toCommand(String messageText) {
+        String[] parts = messageText.split("\\s+", 3);
+        if (parts[0].equals("/search") && parts.length >= 2) {
+            return "SEARCH:" + messageText.substring(parts[0].length()).trim();
+        }
+        if (parts[0].equals("/join") && parts.length >= 2) {
+            return "JOIN:" + parts[1];
+        } else if (parts[0].equals("/leave") && parts.length >= 2) {
+            return "LEAVE:" + parts[1];
+        } else if (parts[0].equals("/msg") && parts.length == 3) {
+            return "PRIV:" + parts[1] + ":" + parts[2];
+        }
+        return null;
+    }
+    
     private void selectAndSendFile() {
         if (!isConnected) {
             JOptionPane.showMessageDialog(this, "Vous n'êtes pas connecté au serveur.",
@@ -611,59 +616,190 @@ public class ChatClient extends JFrame {
     private void sendFile(File file) {
         if (!isConnected) return;
         
+        // L'envoi se fait hors de l'EDT, morceau par morceau : la taille du fichier n'est plus
+        // limitée par la mémoire et les messages peuvent s'intercaler entre deux morceaux
+        executorService.submit(() -> streamFile(file));
+    }
+    
+    private void streamFile(File file) {
+        long fileSize = file.length();
         try {
-            long fileSize = file.length();
-            
-            // Vérifier si le fichier n'est pas trop gros (limite à 100 Mo)
-            if (fileSize > 100 * 1024 * 1024) {
-                JOptionPane.showMessageDialog(this, 
-                    "Le fichier est trop volumineux. La taille maximale est de 100 Mo.",
-                    "Fichier trop volumineux", JOptionPane.WARNING_MESSAGE);
-                return;
-            }
-            
-            byte[] fileData = Files.readAllBytes(file.toPath());
-            
-            // Envoyer d'abord les métadonnées du fichier
-            writer.println("FILE:" + file.getName() + ":" + fileData.length);
-            
-            // Puis envoyer les données du fichier
-            dataOutputStream.write(fileData);
-            dataOutputStream.flush();
+            // L'empreinte permet au serveur de ne pas recevoir un fichier qu'il possède déjà
+            byte[] hash = BlobStore.hash(file.toPath());
+            connection.sendFile(file.toPath(), hash);
+            localFiles.putIfAbsent(BlobStore.toHex(hash), file.getPath());
             
             appendToChatArea("📤 Vous avez envoyé: " + file.getName() + " (" + formatFileSize(fileSize) + ")", 
-                           new Color(0, 100, 0)); // Vert foncé
+                             new Color(0, 100, 0)); // Vert foncé
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Erreur lors de l'envoi du fichier: " + e.getMessage(), 
-                                         "Erreur", JOptionPane.ERROR_MESSAGE);
+            SwingUtilities.invokeLater(() -> 
+                JOptionPane.showMessageDialog(this, "Erreur lors de l'envoi du fichier: " + e.getMessage(), 
+                                             "Erreur", JOptionPane.ERROR_MESSAGE));
         }
     }
     
-    private String saveFile(String fileName, byte[] fileData) {
+    private void downloadInParallel(String fileName, long fileSize, byte[] hash) {
+        Path savedPath = null;
         try {
-            String filePath = DOWNLOADS_FOLDER + File.separator + fileName;
-            
-            // Si un fichier avec le même nom existe déjà, ajouter un suffixe numérique
-            File file = new File(filePath);
-            int counter = 1;
-            while (file.exists()) {
-                int dotIndex = fileName.lastIndexOf('.');
-                if (dotIndex > 0) {
-                    String name = fileName.substring(0, dotIndex);
-                    String extension = fileName.substring(dotIndex);
-                    filePath = DOWNLOADS_FOLDER + File.separator + name + "_" + counter + extension;
-                } else {
-                    filePath = DOWNLOADS_FOLDER + File.separator + fileName + "_" + counter;
+            savedPath = createDownloadFile(fileName);
+            ParallelDownload.fetch(SERVER_ADDRESS, SERVER_PORT, hash, fileName, fileSize, savedPath, PARALLEL_STREAMS);
+            localFiles.put(BlobStore.toHex(hash), savedPath.toString());
+            appendFileLink(fileName, fileSize, savedPath.toString());
+        } catch (IOException e) {
+            if (savedPath != null) {
+                savedPath.toFile().delete();
+            }
+            appendToChatArea("Erreur lors du téléchargement de " + fileName + ": " + e.getMessage(), Color.RED);
+        }
+    }
+    
+    // Créer un fichier vide au nom libre dans le dossier downloads, avec un suffixe numérique
+    // si le nom est pris. La création échoue si le fichier existe (CREATE_NEW) : deux fichiers
+    // reçus en même temps sous le même nom ne peuvent pas obtenir le même chemin.
+    // Le nom vient du serveur ou d'un autre client : seul son dernier élément est gardé, et un
+    // nom qui sortirait du dossier (.., chemin absolu) est refusé.
+    private Path createDownloadFile(String fileName) throws IOException {
+        Path folder = Paths.get(DOWNLOADS_FOLDER).toAbsolutePath().normalize();
+        String safeName = downloadName(fileName);
+        int dotIndex = safeName.lastIndexOf('.');
+        String name = dotIndex > 0 ? safeName.substring(0, dotIndex) : safeName;
+        String extension = dotIndex > 0 ? safeName.substring(dotIndex) : "";
+        for (int counter = 0; ; counter++) {
+            Path path = folder.resolve(counter == 0 ? safeName : name + "_" + counter + extension).normalize();
+            if (!path.startsWith(folder) || path.equals(folder)) {
+                throw new IOException("Nom de fichier refusé : " + fileName);
+            }
+            try {
+                return Files.createFile(path);
+            } catch (FileAlreadyExistsException e) {
+                // Nom pris : essayer le suffixe suivant
+            }
+        }
+    }
+    
+    // Dernier élément du nom reçu, sans répertoire
+    private static String downloadName(String fileName) throws IOException {
+        Path name;
+        try {
+            name = Paths.get(fileName).getFileName();
+        } catch (InvalidPathException e) {
+            throw new IOException("Nom de fichier refusé : " + fileName);
+        }
+        if (name == null || name.toString().isEmpty() || name.toString().equals("..") || name.toString().equals(".")) {
+            throw new IOException("Nom de fichier refusé : " + fileName);
+        }
+        return name.toString();
+    }
+    
+    // Fichier en cours de réception, écrit sur disque au fil des morceaux. Chaque morceau est
+    // copié puis écrit à sa position par un AsynchronousFileChannel sur les threads d'écriture
+    // (FILE_WRITERS) : le thread de lecture n'attend pas le disque et les messages continuent
+    // d'arriver. Il n'est freiné que si MAX_PENDING_WRITES morceaux attendent déjà leur écriture.
+    // La fin de l'enregistrement (lien ou erreur) est annoncée par le thread de la dernière écriture.
+    private class IncomingFile {
+        final String fileName;
+        final long fileSize;
+        String savedPath;
+        private AsynchronousFileChannel channel;
+        private final MessageDigest digest = BlobStore.newDigest();
+        private long position = 0;
+        private final Semaphore writeSlots = new Semaphore(MAX_PENDING_WRITES);
+        // Écritures en cours, plus un tant que la réception n'est pas terminée
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+        private volatile boolean discarded = false;
+        
+        IncomingFile(String fileName, long fileSize) {
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            try {
+                Path path = createDownloadFile(fileName);
+                savedPath = path.toString();
+                channel = AsynchronousFileChannel.open(path, EnumSet.of(StandardOpenOption.WRITE), FILE_WRITERS);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        
+        // Thread de lecture ; le tableau est réutilisé par la connexion, d'où la copie
+        void write(byte[] data, int length) {
+            if (failed.get()) return;
+            digest.update(data, 0, length);
+            ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(data, length));
+            try {
+                writeSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new IOException("réception interrompue"));
+                return;
+            }
+            outstanding.incrementAndGet();
+            writeAt(buffer, position);
+            position += length;
+        }
+        
+        private void writeAt(ByteBuffer buffer, long at) {
+            channel.write(buffer, at, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer written, Void attachment) {
+                    if (buffer.hasRemaining()) {
+                        writeAt(buffer, at + written);
+                        return;
+                    }
+                    writeSlots.release();
+                    writeDone();
                 }
-                file = new File(filePath);
-                counter++;
+                
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    writeSlots.release();
+                    fail(e);
+                    writeDone();
+                }
+            });
+        }
+        
+        // Dernier morceau reçu (thread de lecture)
+        void finish() {
+            writeDone();
+        }
+        
+        private void writeDone() {
+            if (outstanding.decrementAndGet() > 0 || discarded) {
+                return;
+            }
+            closeChannel();
+            if (!failed.get()) {
+                localFiles.put(BlobStore.toHex(digest.digest()), savedPath);
+            }
+            showReceivedFile(this);
+        }
+        
+        boolean isFailed() {
+            return failed.get();
+        }
+        
+        // Abandonner le fichier incomplet
+        void discard() {
+            discarded = true;
+            closeChannel();
+            if (savedPath != null) {
+                new File(savedPath).delete();
+            }
+        }
+        
+        private void closeChannel() {
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        
+        private void fail(Throwable e) {
+            if (failed.compareAndSet(false, true) && !discarded) {
+                appendToChatArea("Erreur lors de l'enregistrement du fichier: " + e.getMessage(), Color.RED);
             }
-            
-            Files.write(Paths.get(filePath), fileData);
-            return filePath;
-        } catch (IOException e) {
-            appendToChatArea("Erreur lors de l'enregistrement du fichier: " + e.getMessage(), Color.RED);
-            return null;
         }
     }
     
@@ -672,12 +808,8 @@ public class ChatClient extends JFrame {
             if (isConnected) {
                 isConnected = false;
                 
-                // Envoyer le message de déconnexion
-                if (writer != null) {
-                    writer.println("exit");
-                }
-                
                 statusLabel.setText("Statut: Déconnecté");
+                statusLabel.setToolTipText(null);
                 appendToChatArea("Vous êtes déconnecté du serveur.", Color.BLUE);
                 
                 // Changer le libellé du bouton
@@ -688,52 +820,27 @@ public class ChatClient extends JFrame {
                 sendButton.setEnabled(false);
                 sendFileButton.setEnabled(false);
                 
-                // Fermer les ressources
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                }
-                if (reader != null) reader.close();
-                if (writer != null) writer.close();
-                if (dataInputStream != null) dataInputStream.close();
-                if (dataOutputStream != null) dataOutputStream.close();
+                // Annoncer le départ au serveur et fermer la connexion
+                connection.close();
             }
         } catch (IOException e) {
             appendToChatArea("Erreur lors de la déconnexion: " + e.getMessage(), Color.RED);
         }
     }
     
+    // Utilisable depuis n'importe quel thread (voir ChatView)
     private void appendToChatArea(String message, Color color) {
-        StyledDocument doc = chatArea.getStyledDocument();
-        
-        // Obtenir l'heure actuelle
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
-        String timestamp = "[" + timeFormat.format(new Date()) + "] ";
-        
-        // Créer un style pour l'horodatage
-        Style timestampStyle = chatArea.addStyle("Timestamp", null);
-        StyleConstants.setForeground(timestampStyle, Color.GRAY);
-        StyleConstants.setFontSize(timestampStyle, 12);
-        
-        // Créer un style pour le message
-        Style messageStyle = chatArea.addStyle("Message", null);
-        StyleConstants.setForeground(messageStyle, color);
-        StyleConstants.setFontSize(messageStyle, 14);
-        
-        try {
-            // Ajouter l'horodatage
-            doc.insertString(doc.getLength(), timestamp, timestampStyle);
-            
-            // Ajouter le message
-            doc.insertString(doc.getLength(), message + "\n", messageStyle);
-            
-            // Défiler automatiquement vers le bas
-            chatArea.setCaretPosition(doc.getLength());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        chatView.append(message, color);
     }
     
     public static void main(String[] args) {
+        // Connexion chiffrée : --tls=true ou --tls-truststore=fichier.p12 (certificat autosigné du serveur)
+        try {
+            ChatConnection.useTls(TlsChannel.clientContext(args));
+        } catch (IOException e) {
+            System.err.println("TLS indisponible: " + e.getMessage());
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             ChatClient client = new ChatClient();
             client.setVisible(true);
@@ -0,0 +1,468 @@
+package ServClient;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLContext;
+
+// Connexion cliente au serveur en protocole binaire, sans interface graphique : négociation,
+// envoi des trames et boucle de réception. Partagée par ChatClient (Swing) et LoadGenerator.
+public class ChatConnection implements Closeable {
+    // Délai d'attente de la réponse du serveur à une annonce de fichier
+    private static final long OFFER_TIMEOUT_SECONDS = 30;
+
+    // Taille minimale d'un message pour qu'il soit compressé
+    private static final int COMPRESS_MIN_BYTES = 256;
+
+    // Événements reçus du serveur, appelés depuis le thread qui exécute readLoop
+    public interface Listener {
+        void onMessage(String text);
+
+        default void onHistory(long offset, String text) {
+            onMessage(text);
+        }
+
+        default void onFileStart(long transferId, String fileName, long fileSize) {
+        }
+
+        // Le tableau est réutilisé pour le morceau suivant : le copier s'il doit être conservé
+        default void onFileChunk(long transferId, byte[] data, int length) {
+        }
+
+        default void onFileEnd(long transferId) {
+        }
+
+        default void onFileAbort(long transferId) {
+        }
+
+        // Fichier désigné par son empreinte SHA-256 : renvoyer true s'il est déjà présent
+        // localement (ou récupéré autrement), sinon son contenu est demandé au serveur et arrive
+        // sous le même identifiant
+        default boolean onFileRef(long transferId, String fileName, long fileSize, byte[] hash) {
+            return false;
+        }
+
+        // Réponse à fetchRange : les morceaux qui suivent commencent à l'octet offset du fichier
+        default void onFileResume(long transferId, long offset) {
+        }
+
+        // Présence (PRESENCE:) : liste complète des utilisateurs en ligne (snapshot) ou changements
+        // depuis la précédente, chaque nom précédé de '+' (arrivé) ou '-' (parti)
+        default void onPresence(boolean snapshot, List<String> entries) {
+        }
+
+        // Fin de la boucle de réception ; error est null si la connexion a été fermée normalement
+        default void onDisconnected(IOException error) {
+        }
+    }
+
+    // Chiffrement des connexions (null : en clair). Un seul contexte pour tout le processus :
+    // les connexions suivantes (transferts parallèles, reconnexions) reprennent la session TLS
+    private static volatile SSLContext tlsContext;
+
+    // Socket, ou canal chiffré qui l'enveloppe (tls) : toutes les lectures et écritures y passent
+    private final ByteChannel channel;
+    private final TlsChannel tls;
+    private final DataInputStream in;
+    private String welcomeMessage;
+    private int protocolVersion;
+
+    // Verrou d'écriture : chaque trame part d'un seul tenant,
+    // les messages peuvent ainsi s'intercaler entre deux morceaux d'un gros fichier.
+    // ReentrantLock plutôt que synchronized : une écriture bloquée n'épingle pas le thread
+    // porteur d'un thread virtuel (utilisateurs simulés de LoadGenerator)
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Nos identifiants de transfert, distincts de ceux des fichiers relayés par le serveur
+    private final AtomicLong nextTransferId = new AtomicLong(FrameCodec.CLIENT_TRANSFER_IDS);
+
+    // Annonces de fichier en attente de la réponse du serveur : offset à partir duquel envoyer
+    // (0, ou position de reprise d'un envoi interrompu), -1 si le serveur a déjà le fichier
+    private final Map<Long, CompletableFuture<Long>> pendingOffers = new ConcurrentHashMap<>();
+
+    // Compression acceptée par le serveur : contexte de flux pour nos envois (sous writeLock),
+    // décompresseurs des trames reçues (thread de lecture)
+    private volatile CompressionCodec sendCodec;
+    private String compression;
+    private CompressionCodec frameInflater;
+    private CompressionCodec streamInflater;
+    private volatile boolean open = true;
+
+    private ChatConnection(SocketChannel socket, TlsChannel tls) throws IOException {
+        this.channel = tls != null ? tls : socket;
+        this.tls = tls;
+        // Un seul flux tamponné pour l'invite texte puis les trames binaires
+        this.in = new DataInputStream(new BufferedInputStream(
+            tls != null ? Channels.newInputStream(tls) : socket.socket().getInputStream()));
+    }
+
+    // Chiffrer les connexions ouvertes ensuite (null : revenir en clair)
+    public static void useTls(SSLContext context) {
+        tlsContext = context;
+    }
+
+    // Se connecter, négocier le protocole binaire et s'annoncer sous <name>, en proposant la compression
+    public static ChatConnection connect(String host, int port, String name) throws IOException {
+        return connect(host, port, name, CompressionCodec.NAMES);
+    }
+
+    // compression : algorithmes proposés au serveur, par ordre de préférence (liste vide : aucun).
+    // La présence est toujours demandée (un serveur plus ancien ignore ce qu'il ne connaît pas).
+    public static ChatConnection connect(String host, int port, String name, List<String> compression) throws IOException {
+        ByteBuffer hello = FrameCodec.encodeText(FrameCodec.HELLO, name);
+        List<String> caps = new ArrayList<>(compression);
+        caps.add(Protocol.CAPS_PRESENCE);
+        // La réponse CAPS: et la liste des présents arrivent plus tard, dans la boucle de réception
+        return open(host, port, hello, FrameCodec.encodeText(FrameCodec.COMMAND, "CAPS:" + String.join(",", caps)));
+    }
+
+    // Connexion de transfert : ne rejoint pas le chat, sert seulement à fetchRange (voir ParallelDownload)
+    public static ChatConnection connectForTransfer(String host, int port) throws IOException {
+        ChatConnection connection = open(host, port, FrameCodec.encodeText(FrameCodec.COMMAND, FrameCodec.TRANSFER));
+        if (connection.protocolVersion < FrameCodec.VERSION_RESUME) {
+            connection.channel.close();
+            throw new IOException("Le serveur ne prend pas en charge les connexions de transfert");
+        }
+        return connection;
+    }
+
+    private static ChatConnection open(String host, int port, ByteBuffer... greeting) throws IOException {
+        // SocketChannel bloquant : les fichiers sont envoyés par transferTo sans copie dans le tas
+        SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            TlsChannel tls = null;
+            SSLContext context = tlsContext;
+            if (context != null) {
+                tls = TlsChannel.client(socket, context, host, port);
+                tls.handshake();
+            }
+            ChatConnection connection = new ChatConnection(socket, tls);
+            ByteBuffer[] opening = new ByteBuffer[greeting.length + 1];
+            opening[0] = FrameCodec.handshake();
+            System.arraycopy(greeting, 0, opening, 1, greeting.length);
+            connection.write(opening);
+
+            // Invite du serveur (toujours en texte), puis confirmation du protocole binaire
+            connection.welcomeMessage = Protocol.readLine(connection.in);
+            if (connection.in.read() != FrameCodec.HELLO) {
+                throw new IOException("Le serveur ne prend pas en charge le protocole binaire");
+            }
+            ByteBuffer hello = FrameCodec.readPayload(connection.in, ByteBuffer.allocate(16), FrameCodec.readVarLong(connection.in));
+            connection.protocolVersion = hello.hasRemaining() ? hello.get() : 1;
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public String getWelcomeMessage() {
+        return welcomeMessage;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    // Connexion chiffrée dont la session TLS a été reprise d'une connexion précédente
+    public boolean isTlsResumed() {
+        return tls != null && tls.isResumed();
+    }
+
+    // Le serveur reprend les transferts interrompus et accepte les demandes de plages
+    public boolean supportsResume() {
+        return protocolVersion >= FrameCodec.VERSION_RESUME;
+    }
+
+    // ---- Envoi ----
+
+    public void sendMessage(String text) throws IOException {
+        ByteBuffer frame = FrameCodec.encodeText(FrameCodec.MSG, text);
+        writeLock.lock();
+        try {
+            CompressionCodec codec = sendCodec;
+            if (codec != null && frame.remaining() >= COMPRESS_MIN_BYTES) {
+                // Contexte de flux : l'ordre de compression doit être celui de l'écriture
+                frame = FrameCodec.encodeCompressed(CompressionCodec.STREAM,
+                    codec.compress(frame.array(), frame.position(), frame.remaining()));
+            }
+            FrameCodec.writeFully(channel, frame);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isCompressing() {
+        return sendCodec != null;
+    }
+
+    // Commande du protocole texte (JOIN:, PRIV:, HISTORY:...)
+    public void sendCommand(String command) throws IOException {
+        write(FrameCodec.encodeText(FrameCodec.COMMAND, command));
+    }
+
+    // Envoyer un fichier morceau par morceau (bloque jusqu'à la fin de l'envoi) ; renvoie son identifiant
+    public long sendFile(Path file) throws IOException {
+        return sendFile(file, protocolVersion >= FrameCodec.VERSION_DEDUP ? BlobStore.hash(file) : null);
+    }
+
+    // Envoyer un fichier dont l'empreinte SHA-256 est connue : le serveur qui le possède déjà
+    // le diffuse lui-même et le contenu n'est pas transmis. Si un envoi précédent du même fichier
+    // a été coupé (déconnexion), il reprend après le dernier morceau reçu par le serveur.
+    // La boucle de réception doit tourner.
+    public long sendFile(Path file, byte[] hash) throws IOException {
+        long transferId = nextTransferId.getAndIncrement();
+        long fromOffset = 0;
+        if (hash != null && protocolVersion >= FrameCodec.VERSION_DEDUP) {
+            fromOffset = offer(file, hash, transferId);
+            if (fromOffset < 0) {
+                return transferId;
+            }
+        }
+        CompressionCodec codec = sendCodec;
+        if (codec != null && CompressionCodec.isCompressible(file.getFileName().toString())) {
+            FileSender.sendCompressed(channel, writeLock, file, transferId, codec, fromOffset);
+        } else {
+            // transferTo n'écrit que sur la socket en clair : sous TLS, lecture par tampons puis chiffrement
+            FileSender.send(channel, writeLock, file, transferId, tls == null, fromOffset);
+        }
+        return transferId;
+    }
+
+    // Demander les octets [offset, offset + length) d'un fichier du magasin du serveur (length 0 :
+    // jusqu'à la fin) ; la réponse arrive par onFileResume, onFileChunk puis onFileEnd (ou onFileAbort)
+    public long fetchRange(byte[] hash, String fileName, long offset, long length) throws IOException {
+        if (!supportsResume()) {
+            throw new IOException("Le serveur ne prend pas en charge les demandes de plages");
+        }
+        long transferId = nextTransferId.getAndIncrement();
+        write(FrameCodec.encodeFetchRange(transferId, offset, length, hash, fileName));
+        return transferId;
+    }
+
+    // Annoncer le fichier ; renvoie l'offset à partir duquel l'envoyer, -1 si le serveur l'a déjà
+    private long offer(Path file, byte[] hash, long transferId) throws IOException {
+        CompletableFuture<Long> reply = new CompletableFuture<>();
+        pendingOffers.put(transferId, reply);
+        try {
+            write(FrameCodec.encodeFileDigest(FrameCodec.FILE_OFFER, transferId, Files.size(file), hash, file.getFileName().toString()));
+            return reply.get(OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Envoi interrompu");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EOFException) {
+                throw new IOException("Connexion fermée pendant l'annonce du fichier", e.getCause());
+            }
+            // Annonce refusée par le serveur
+            throw (IOException) e.getCause();
+        } catch (TimeoutException e) {
+            throw new IOException("Pas de réponse du serveur à l'annonce du fichier");
+        } finally {
+            pendingOffers.remove(transferId);
+        }
+    }
+
+    // Écrire une ou plusieurs trames d'un seul tenant
+    private void write(ByteBuffer... buffers) throws IOException {
+        writeLock.lock();
+        try {
+            FrameCodec.writeFully(channel, buffers);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // ---- Réception ----
+
+    // Lire les trames du serveur jusqu'à la fermeture de la connexion
+    public void readLoop(Listener listener) {
+        // Tampons de réception réutilisés : la boucle n'alloue rien en dehors du texte des messages
+        ByteBuffer payload = ByteBuffer.allocate(256);
+        byte[] chunkBuffer = new byte[Protocol.CHUNK_SIZE];
+        IOException error = null;
+        try {
+            int type;
+            while (open && (type = in.read()) != -1) {
+                long length = FrameCodec.readVarLong(in);
+
+                if (type == FrameCodec.FILE_CHUNK) {
+                    // Morceau de fichier transmis par tranches (un fichier entier peut arriver en un seul morceau)
+                    long transferId = FrameCodec.readVarLong(in);
+                    long remaining = length - FrameCodec.varLongSize(transferId);
+                    while (remaining > 0) {
+                        int chunkLength = (int) Math.min(remaining, chunkBuffer.length);
+                        in.readFully(chunkBuffer, 0, chunkLength);
+                        listener.onFileChunk(transferId, chunkBuffer, chunkLength);
+                        remaining -= chunkLength;
+                    }
+                    continue;
+                }
+
+                payload = FrameCodec.readPayload(in, payload, length);
+                if (type == FrameCodec.COMPRESSED) {
+                    onCompressed(payload, chunkBuffer, listener);
+                } else {
+                    dispatch(type, payload, chunkBuffer, listener);
+                }
+            }
+        } catch (IOException e) {
+            if (open) {
+                error = e;
+            }
+        } finally {
+            for (CompletableFuture<Long> reply : pendingOffers.values()) {
+                reply.completeExceptionally(new EOFException());
+            }
+            listener.onDisconnected(error);
+        }
+    }
+
+    // Trame COMPRESSED : décompresser puis traiter les trames qu'elle contient
+    private void onCompressed(ByteBuffer payload, byte[] chunkBuffer, Listener listener) throws IOException {
+        if (compression == null) {
+            throw new IOException("Trame compressée sans compression négociée");
+        }
+        CompressionCodec codec;
+        if (payload.get() == CompressionCodec.STREAM) {
+            if (streamInflater == null) {
+                streamInflater = CompressionCodec.create(compression, true);
+            }
+            codec = streamInflater;
+        } else {
+            if (frameInflater == null) {
+                frameInflater = CompressionCodec.create(compression, false);
+            }
+            codec = frameInflater;
+        }
+        // Une relecture d'historique compressée regroupe jusqu'à 64 Ko de trames
+        ByteBuffer frames = ByteBuffer.wrap(codec.decompress(payload.array(), payload.arrayOffset() + payload.position(),
+            payload.remaining(), FrameCodec.MAX_FRAME_SIZE));
+        while (frames.hasRemaining()) {
+            byte type = frames.get();
+            int length = (int) FrameCodec.getVarLong(frames);
+            if (type == FrameCodec.COMPRESSED || length < 0 || length > frames.remaining()) {
+                throw new IOException("Trame compressée invalide");
+            }
+            ByteBuffer inner = frames.slice();
+            inner.limit(length);
+            frames.position(frames.position() + length);
+            dispatch(type, inner, chunkBuffer, listener);
+        }
+    }
+
+    // Traiter une trame entièrement en mémoire
+    private void dispatch(int type, ByteBuffer payload, byte[] chunkBuffer, Listener listener) throws IOException {
+        switch (type) {
+            case FrameCodec.FILE_CHUNK: {
+                // Morceau décompressé : transmis par tranches comme un morceau lu sur la socket
+                long transferId = FrameCodec.getVarLong(payload);
+                while (payload.hasRemaining()) {
+                    int chunkLength = Math.min(payload.remaining(), chunkBuffer.length);
+                    payload.get(chunkBuffer, 0, chunkLength);
+                    listener.onFileChunk(transferId, chunkBuffer, chunkLength);
+                }
+                break;
+            }
+            case FrameCodec.COMMAND: {
+                String command = FrameCodec.getText(payload);
+                if (command.startsWith("CAPS:") && CompressionCodec.NAMES.contains(command.substring(5))) {
+                    // Le serveur a retenu cet algorithme : nos envois suivants peuvent être compressés
+                    compression = command.substring(5);
+                    sendCodec = CompressionCodec.create(compression, true);
+                } else if (command.startsWith(Protocol.PRESENCE)) {
+                    String list = command.substring(Protocol.PRESENCE.length());
+                    boolean snapshot = list.startsWith("=");
+                    listener.onPresence(snapshot, Protocol.presenceEntries(snapshot ? list.substring(1) : list));
+                }
+                break;
+            }
+            case FrameCodec.MSG:
+                listener.onMessage(FrameCodec.getText(payload));
+                break;
+            case FrameCodec.HISTORY: {
+                long offset = FrameCodec.getVarLong(payload);
+                listener.onHistory(offset, FrameCodec.getText(payload));
+                break;
+            }
+            case FrameCodec.FILE_START: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long fileSize = FrameCodec.getVarLong(payload);
+                listener.onFileStart(transferId, FrameCodec.getText(payload), fileSize);
+                break;
+            }
+            case FrameCodec.FILE_END:
+                listener.onFileEnd(FrameCodec.getVarLong(payload));
+                break;
+            case FrameCodec.FILE_ABORT: {
+                long transferId = FrameCodec.getVarLong(payload);
+                CompletableFuture<Long> reply = pendingOffers.get(transferId);
+                if (reply != null) {
+                    // Annonce refusée (fichier trop volumineux pour le serveur) : rien à envoyer
+                    reply.completeExceptionally(new IOException("Fichier refusé par le serveur"));
+                } else {
+                    listener.onFileAbort(transferId);
+                }
+                break;
+            }
+            case FrameCodec.FILE_ACCEPT: {
+                CompletableFuture<Long> reply = pendingOffers.get(FrameCodec.getVarLong(payload));
+                if (reply != null) {
+                    reply.complete(payload.get() == 1 ? -1L : 0L);
+                }
+                break;
+            }
+            case FrameCodec.FILE_RESUME: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long offset = FrameCodec.getVarLong(payload);
+                CompletableFuture<Long> reply = pendingOffers.get(transferId);
+                if (reply != null) {
+                    // Notre envoi précédent de ce fichier a été coupé : le serveur en a gardé le début
+                    reply.complete(offset);
+                } else {
+                    listener.onFileResume(transferId, offset);
+                }
+                break;
+            }
+            case FrameCodec.FILE_REF: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long fileSize = FrameCodec.getVarLong(payload);
+                byte[] hash = FrameCodec.getHash(payload);
+                String fileName = FrameCodec.getText(payload);
+                if (!listener.onFileRef(transferId, fileName, fileSize, hash)) {
+                    write(FrameCodec.encodeFileDigest(FrameCodec.FILE_FETCH, transferId, fileSize, hash, fileName));
+                }
+                break;
+            }
+            default:
+                // Type de trame inconnu : ignoré
+                break;
+        }
+    }
+
+    // Annoncer le départ au serveur puis fermer la connexion
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            if (channel.isOpen()) {
+                write(FrameCodec.encode(FrameCodec.EXIT, new byte[0]));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
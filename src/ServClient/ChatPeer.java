@@ -0,0 +1,36 @@
+package ServClient;
+
+import java.nio.ByteBuffer;
+
+// Interface commune à toutes les connexions clientes du serveur,
+// qu'elles soient servies par un thread dédié ou par une boucle NIO,
+// et aux liens vers les autres nœuds d'une grappe (ClusterLink).
+// room : salon du fichier, dont un client n'a pas besoin mais qu'un nœud doit transmettre
+public interface ChatPeer {
+    
+    // Envoyer un message texte à ce client
+    void sendMessage(String message);
+    
+    // Envoyer un message diffusé, encodé une seule fois pour tous les destinataires
+    void sendBroadcast(BroadcastMessage message);
+    
+    // Annoncer un fichier dont les morceaux vont suivre
+    void sendFileStart(long transferId, String room, String fileName, long fileSize);
+    
+    // Envoyer un morceau de fichier ; frame est sa trame FILE_CHUNK, encodée une seule fois pour
+    // tous les destinataires, et chunk une vue de ses données (à ne garder que via frame)
+    void sendFileChunk(long transferId, ByteBuffer chunk, SharedFrame frame);
+    
+    // Signaler la fin d'un fichier
+    void sendFileEnd(long transferId);
+    
+    // Signaler l'interruption d'un fichier
+    void sendFileAbort(long transferId);
+    
+    // Envoyer d'un seul tenant un fichier complet mis en attente sur disque
+    void sendSpooledFile(long transferId, String room, String fileName, SpooledFile file);
+    
+    // Envoyer un fichier du magasin : une référence par empreinte si le client sait la traiter,
+    // sinon le contenu complet
+    void sendStoredFile(long transferId, String room, String fileName, byte[] hash, SpooledFile file);
+}
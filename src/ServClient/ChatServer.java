@@ -1,133 +1,586 @@
 package ServClient;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
 
 public class ChatServer {
     private static final int PORT = 800;
-    private static HashSet<ClientHandler> clients = new HashSet<>();
+    
+    // Table de routage : salon -> abonnés. Les salons publics commencent par '#' ; chaque client
+    // est aussi seul abonné de sa boîte privée '@nom', ce qui fait passer les messages privés
+    // par le même chemin que les messages de salon. Le coût d'une diffusion suit la taille du salon.
+    static final String DEFAULT_ROOM = "#general";
+    private static final ConcurrentHashMap<String, Set<ChatPeer>> rooms = new ConcurrentHashMap<>();
+    
+    // Thread.startVirtualThread (JDK 21+), résolu par réflexion pour rester compilable sur les JDK plus anciens
+    private static Method startVirtualThread;
+    
+    // Files d'envoi par client : capacité (en trames) et politique en cas de débordement
+    static int queueCapacity = 1024;
+    static OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DISCONNECT;
+    static long backpressureTimeoutMs = 5000;
+    
+    // Regroupement des envois : un lot part dès qu'il atteint batchMaxBytes, ou au plus
+    // batchWindowNanos après sa première trame (0 : envoyer ce qui est déjà en file, sans attendre)
+    static long batchWindowNanos = 0;
+    static int batchMaxBytes = 64 * 1024;
+    
+    // Mettre les fichiers reçus en attente sur disque puis les diffuser par transferTo
+    static boolean spoolUploads = false;
+    
+    // Délai pendant lequel un envoi interrompu peut reprendre (0 : jamais), voir FileRelay.park
+    static long resumeTimeoutMs = 120000;
+    
+    // Historique persistant des messages diffusés (null si désactivé) et taille maximale d'une relecture
+    static HistoryLog history;
+    static int historyReplayMax = 10000;
+    // Index de recherche de l'historique (null si désactivé) et nombre maximal de résultats
+    static HistoryIndex searchIndex;
+    static int searchResultsMax = 20;
+    
+    // Magasin des fichiers reçus, adressés par leur empreinte SHA-256 (null si désactivé)
+    static BlobStore blobs;
+    
+    // Compression des trames binaires : algorithmes acceptés (liste vide : désactivée) et taille
+    // minimale d'un message pour qu'il soit compressé (les messages courts n'y gagnent rien)
+    static List<String> compressionCodecs = CompressionCodec.NAMES;
+    static int compressMinBytes = 256;
+    
+    // Grappe de serveurs (null pour un serveur seul) : voir ClusterNode
+    static ClusterNode cluster;
+    
+    // Chiffrement des connexions des clients (null : en clair), voir TlsChannel ; les liens de la
+    // grappe restent en clair
+    static SSLContext tlsContext;
     
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Serveur dmarr sur le port " + PORT);
+        int port = Integer.parseInt(option(args, "port", String.valueOf(PORT)));
+        String mode = option(args, "mode", "thread");
+        queueCapacity = Integer.parseInt(option(args, "queue-capacity", String.valueOf(queueCapacity)));
+        overflowPolicy = OutboundQueue.OverflowPolicy.valueOf(option(args, "overflow", overflowPolicy.name()).toUpperCase());
+        backpressureTimeoutMs = Long.parseLong(option(args, "backpressure-timeout", String.valueOf(backpressureTimeoutMs)));
+        spoolUploads = Boolean.parseBoolean(option(args, "spool-uploads", "false"));
+        resumeTimeoutMs = TimeUnit.SECONDS.toMillis(Long.parseLong(option(args, "resume-timeout-s", String.valueOf(resumeTimeoutMs / 1000))));
+        batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(option(args, "batch-window-us", "0")));
+        batchMaxBytes = Integer.parseInt(option(args, "batch-bytes", String.valueOf(batchMaxBytes)));
+        historyReplayMax = Integer.parseInt(option(args, "history-replay-max", String.valueOf(historyReplayMax)));
+        searchResultsMax = Integer.parseInt(option(args, "search-results", String.valueOf(searchResultsMax)));
+        String compression = option(args, "compression", String.join(",", CompressionCodec.NAMES));
+        compressionCodecs = compression.equals("off") ? Collections.emptyList() : Arrays.asList(compression.split(","));
+        compressMinBytes = Integer.parseInt(option(args, "compress-min-bytes", String.valueOf(compressMinBytes)));
+        BufferPool.configure(Long.parseLong(option(args, "buffer-pool-mb", String.valueOf(BufferPool.DEFAULT_MAX_BYTES / (1024 * 1024)))) * 1024 * 1024,
+            Boolean.parseBoolean(option(args, "buffer-leak-detection", "false")));
+        ServerLog.configure(ServerLog.Mode.valueOf(option(args, "log", "async").toUpperCase()),
+            Boolean.parseBoolean(option(args, "log-messages", "false")));
+        // Limites de débit, de taille des fichiers et de connexions (voir ServerLimits)
+        ServerLimits.configure(args);
+        PresenceFeed.windowMillis = Long.parseLong(option(args, "presence-window-ms", String.valueOf(PresenceFeed.windowMillis)));
+        
+        // Métriques : JMX toujours, point d'accès texte avec --metrics-port, sur la boucle locale
+        // sauf --metrics-bind=adresse
+        ServerMetrics.register();
+        String metricsPort = option(args, "metrics-port", "");
+        if (!metricsPort.isEmpty()) {
+            try {
+                String metricsBind = option(args, "metrics-bind", "");
+                ServerMetrics.startHttp(metricsBind.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(metricsBind),
+                    Integer.parseInt(metricsPort));
+            } catch (IOException e) {
+                System.err.println("Point d'accès des métriques indisponible: " + e.getMessage());
+            }
+        }
+        
+        // Historique : --history-dir= (vide) le désactive
+        String historyDir = option(args, "history-dir", "historique");
+        if (!historyDir.isEmpty()) {
+            try {
+                history = HistoryLog.open(Paths.get(historyDir),
+                    Long.parseLong(option(args, "history-segment-mb", "64")) * 1024 * 1024,
+                    HistoryLog.FsyncPolicy.valueOf(option(args, "history-fsync", "interval").toUpperCase()),
+                    Long.parseLong(option(args, "history-fsync-ms", "1000")));
+                Runtime.getRuntime().addShutdownHook(new Thread(history::close));
+            } catch (IOException e) {
+                System.err.println("Historique indisponible: " + e.getMessage());
+            }
+        }
+        
+        // Index de recherche de l'historique : --search-dir= (vide) le désactive
+        String searchDir = option(args, "search-dir", historyDir.isEmpty() ? "" : Paths.get(historyDir, "index").toString());
+        if (history != null && !searchDir.isEmpty()) {
+            try {
+                searchIndex = HistoryIndex.open(history, Paths.get(searchDir));
+                Runtime.getRuntime().addShutdownHook(new Thread(searchIndex::close));
+            } catch (IOException e) {
+                System.err.println("Index de recherche indisponible: " + e.getMessage());
+            }
+        }
+        
+        // Magasin de fichiers : --blob-dir= (vide) le désactive
+        String blobDir = option(args, "blob-dir", "blobs");
+        if (!blobDir.isEmpty()) {
+            try {
+                blobs = BlobStore.open(Paths.get(blobDir), Long.parseLong(option(args, "blob-cache-mb", "512")) * 1024 * 1024);
+            } catch (IOException e) {
+                System.err.println("Magasin de fichiers indisponible: " + e.getMessage());
+            }
+        }
+        
+        // TLS : --tls-keystore=fichier.p12 (clé et certificat du serveur, PKCS12) ; les sessions
+        // gardées en cache permettent aux clients de reprendre une négociation abrégée
+        String keystore = option(args, "tls-keystore", "");
+        if (!keystore.isEmpty()) {
+            try {
+                tlsContext = TlsChannel.serverContext(keystore, option(args, "tls-password", ""),
+                    Integer.parseInt(option(args, "tls-session-cache", "20000")),
+                    Integer.parseInt(option(args, "tls-session-timeout-s", "86400")));
+            } catch (IOException e) {
+                // Ne pas démarrer en clair un serveur configuré pour chiffrer
+                System.err.println("TLS indisponible: " + e.getMessage());
+                return;
+            }
+        }
+        
+        // Grappe : --cluster-port pour les liens entrants, --cluster-peers=hôte:port,... à joindre ;
+        // liens sur la boucle locale sauf --cluster-bind, qui exige alors un --cluster-secret commun
+        String clusterPort = option(args, "cluster-port", "");
+        if (!clusterPort.isEmpty()) {
+            try {
+                String clusterBind = option(args, "cluster-bind", "");
+                InetAddress bindAddress = clusterBind.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(clusterBind);
+                String clusterSecret = option(args, "cluster-secret", "");
+                if (clusterSecret.isEmpty() && !bindAddress.isLoopbackAddress()) {
+                    throw new IOException("--cluster-secret est requis pour écouter sur " + clusterBind);
+                }
+                cluster = new ClusterNode(option(args, "node-id", "noeud-" + port), bindAddress, Integer.parseInt(clusterPort),
+                    option(args, "cluster-peers", ""), clusterSecret);
+                cluster.start();
+            } catch (IOException e) {
+                System.err.println("Grappe indisponible: " + e.getMessage());
+                cluster = null;
+            }
+        }
+        
+        // Mode non bloquant (NIO) : quelques boucles d'E/S au lieu d'un thread par client
+        if (mode.equals("nio")) {
+            int loops = Integer.parseInt(option(args, "loops", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            try {
+                new NioChatServer(port, loops).start();
+            } catch (IOException e) {
+                System.err.println("Erreur du serveur: " + e.getMessage());
+            }
+            return;
+        }
+        
+        // Mode threads virtuels : un thread virtuel par client au lieu d'un thread de plateforme
+        if (mode.equals("virtual")) {
+            try {
+                startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            } catch (NoSuchMethodException e) {
+                System.err.println("Les threads virtuels nécessitent un JDK 21 ou plus récent.");
+                return;
+            }
+        }
+        
+        // ServerSocketChannel en mode bloquant : chaque client garde un SocketChannel,
+        // nécessaire pour envoyer les fichiers en attente par transferTo
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(port));
+            System.out.println("Serveur démarré sur le port " + port + " (mode " + mode + (tlsContext != null ? ", TLS" : "") + ")");
             System.out.println("En attente de connexions...");
             
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Nouvelle connexion de : " + clientSocket.getInetAddress().getHostAddress());
+                SocketChannel clientSocket = serverSocket.accept();
+                ServerMetrics.connectionsAccepted.increment();
+                if (!ServerLimits.admit(clientSocket)) {
+                    continue;
+                }
+                ServerLog.info("Nouvelle connexion de : " + clientSocket.socket().getInetAddress().getHostAddress());
                 
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
-                clients.add(clientHandler);
-                new Thread(clientHandler).start();
+                try {
+                    startHandler(new ClientHandler(clientSocket));
+                } catch (IOException e) {
+                    // Client parti avant d'être pris en charge : la boucle d'acceptation continue
+                    ServerLimits.release(clientSocket.socket().getInetAddress());
+                    clientSocket.close();
+                }
             }
         } catch (IOException e) {
             System.err.println("Erreur du serveur: " + e.getMessage());
         }
     }
     
-    // Mthode pour diffuser un message  tous les clients connects
-    public static void broadcast(String message, ClientHandler sender) {
-        for (ClientHandler client : clients) {
-            if (client != sender) {
-                client.sendMessage(message);
+    // Démarrer le traitement d'un client sur un thread virtuel si ce mode est actif,
+    // sinon sur un thread de plateforme (comportement par défaut)
+    static Thread startHandler(Runnable handler) {
+        if (startVirtualThread != null) {
+            try {
+                return (Thread) startVirtualThread.invoke(null, handler);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Impossible de démarrer un thread virtuel: " + e.getMessage());
+            }
+        }
+        Thread thread = new Thread(handler);
+        thread.start();
+        return thread;
+    }
+    
+    // Créer la file d'envoi d'un nouveau client selon la configuration du serveur
+    static OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(queueCapacity, overflowPolicy, backpressureTimeoutMs);
+    }
+
+    
+    // Lire une option de démarrage de la forme --nom=valeur
+    static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
             }
         }
+        return defaultValue;
     }
     
-    // Mthode pour diffuser un fichier  tous les clients
-    public static void broadcastFile(String fileName, byte[] fileData, ClientHandler sender) {
-        for (ClientHandler client : clients) {
-            if (client != sender) {
-                client.sendFile(fileName, fileData);
+    // Clients connectés (vue non modifiable, pour les métriques)
+    static Collection<ChatPeer> clients() {
+        return Collections.unmodifiableCollection(UserDirectory.sessions());
+    }
+    
+    // Inscrire un client qui vient de donner son nom dans l'annuaire ; renvoie son numéro de session
+    public static long addClient(ChatSession client, String name) {
+        return UserDirectory.add(client, name);
+    }
+    
+    // Méthode pour diffuser un message aux abonnés d'un salon (ou d'une boîte privée) ;
+    // renvoie false si personne n'y est abonné
+    // (chaque envoi ne fait que déposer le message dans la file du destinataire)
+    public static boolean broadcast(String room, String message, ChatPeer sender) {
+        if (cluster != null) {
+            // Ordonné par le noeud responsable du salon, puis relayé aux noeuds abonnés
+            return cluster.broadcast(room, message, sender);
+        }
+        return deliver(room, new BroadcastMessage(message), sender);
+    }
+    
+    // Déposer un message diffusé dans les files des abonnés d'un salon (clients locaux et liens
+    // vers les noeuds abonnés) ; la diffusion est libérée ensuite
+    static boolean deliver(String room, BroadcastMessage shared, ChatPeer sender) {
+        Set<ChatPeer> subscribers = rooms.get(room);
+        if (subscribers == null) {
+            shared.release();
+            return false;
+        }
+        if (history != null) {
+            // Avec son salon : une relecture ou une recherche ne rend que les salons du demandeur
+            history.append(room, shared.text());
+        }
+        long start = System.nanoTime();
+        // Encodé (et compressé) une seule fois, quel que soit le nombre de destinataires
+        try {
+            for (ChatPeer client : subscribers) {
+                if (client != sender) {
+                    client.sendBroadcast(shared);
+                }
             }
+        } finally {
+            shared.release();
         }
+        ServerMetrics.recordBroadcast(System.nanoTime() - start);
+        return true;
     }
     
-    // Mthode pour retirer un client de la liste des clients connects
-    public static void removeClient(ClientHandler client) {
-        clients.remove(client);
-        System.out.println("Client dconnect. Nombre de clients actifs : " + clients.size());
+    // Abonner un client à un salon, créé à la première inscription
+    public static void subscribe(String room, ChatPeer client) {
+        boolean added = rooms.computeIfAbsent(room, key -> Collections.newSetFromMap(new ConcurrentHashMap<>())).add(client);
+        if (added && cluster != null && !(client instanceof ClusterLink)) {
+            cluster.localSubscribed(room);
+        }
     }
     
-    // Classe interne pour grer chaque client dans un thread spar
-    static class ClientHandler implements Runnable {
-        private Socket socket;
-        private BufferedReader reader;
-        private PrintWriter writer;
-        private DataInputStream dataInputStream;
-        private DataOutputStream dataOutputStream;
-        private String clientName;
+    // Désabonner un client ; un salon vide disparaît de la table
+    public static void unsubscribe(String room, ChatPeer client) {
+        boolean[] removed = { false };
+        rooms.computeIfPresent(room, (key, subscribers) -> {
+            removed[0] = subscribers.remove(client);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+        if (removed[0] && cluster != null && !(client instanceof ClusterLink)) {
+            cluster.localUnsubscribed(room);
+        }
+    }
+    
+    // Désabonner un pair de tous ses salons (lien de grappe coupé)
+    static void unsubscribeEverywhere(ChatPeer peer) {
+        for (String room : rooms.keySet()) {
+            unsubscribe(room, peer);
+        }
+    }
+    
+    // Abonnés de ce noeud à un salon, sans les liens vers les autres noeuds
+    static List<ChatPeer> localSubscribers(String room) {
+        List<ChatPeer> local = new ArrayList<>();
+        for (ChatPeer peer : rooms.getOrDefault(room, Collections.emptySet())) {
+            if (!(peer instanceof ClusterLink)) {
+                local.add(peer);
+            }
+        }
+        return local;
+    }
+    
+    static boolean hasSubscribers(String room) {
+        return rooms.containsKey(room);
+    }
+    
+    // Préfixe affiché devant les messages d'un salon (aucun pour le salon par défaut)
+    static String roomLabel(String room) {
+        if (room.equals(DEFAULT_ROOM)) {
+            return "";
+        }
+        return room.startsWith("@") ? "[privé] " : "[" + room.substring(1) + "] ";
+    }
+    
+    // Méthode pour commencer le relais d'un fichier vers les autres abonnés d'un salon
+    // (les morceaux sont ensuite transmis au fil de leur réception)
+    public static FileRelay startFileRelay(ChatSession sender, String room, String fileName, long fileSize) {
+        return new FileRelay(sender, sender.clientName, room, fileName, fileSize,
+            rooms.getOrDefault(room, Collections.emptySet()));
+    }
+    
+    // Diffuser aux abonnés d'un salon un fichier déjà présent dans le magasin
+    public static void relayStoredFile(ChatSession sender, String room, String fileName, byte[] hash, SpooledFile blob) {
+        FileRelay.sendStored(sender, sender.clientName, room, fileName, hash, blob,
+            rooms.getOrDefault(room, Collections.emptySet()));
+    }
+    
+    // Méthode pour retirer un client de l'annuaire des clients connectés
+    public static void removeClient(long sessionId, String name) {
+        UserDirectory.remove(sessionId, name);
+        ServerLog.info("Client déconnecté. Nombre de clients actifs : " + UserDirectory.sessionCount());
+    }
+    
+    // Classe interne pour gérer chaque client dans un thread séparé
+    static class ClientHandler extends ChatSession implements Runnable {
+        protected SocketChannel socket;
+        // Canal chiffré quand TLS est activé (null sinon) : lectures et écritures y passent
+        private final TlsChannel tls;
+        protected DataInputStream dataInputStream;
+        private Thread writerThread;
+        
+        // Client admis par ServerLimits.admit, soumis aux limites de débit
+        public ClientHandler(SocketChannel socket) throws IOException {
+            this(socket, newOutboundQueue(), tlsContext != null ? TlsChannel.server(socket, tlsContext) : null, true);
+        }
+        
+        // Pair de confiance (lien de la grappe), sans limite
+        protected ClientHandler(SocketChannel socket, OutboundQueue outbound) throws IOException {
+            this(socket, outbound, null, false);
+        }
         
-        public ClientHandler(Socket socket) throws IOException {
+        private ClientHandler(SocketChannel socket, OutboundQueue outbound, TlsChannel tls, boolean limited) throws IOException {
+            super(outbound, limited ? socket.socket().getInetAddress() : null);
             this.socket = socket;
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.writer = new PrintWriter(socket.getOutputStream(), true);
-            this.dataInputStream = new DataInputStream(socket.getInputStream());
-            this.dataOutputStream = new DataOutputStream(socket.getOutputStream());
+            this.tls = tls;
+            // Un seul flux tamponné pour les lignes et les données binaires
+            InputStream in = ServerMetrics.countBytesIn(tls != null ? Channels.newInputStream(tls) : socket.socket().getInputStream());
+            this.dataInputStream = new DataInputStream(new BufferedInputStream(limited ? new ThrottledInputStream(in) : in));
+        }
+        
+        // Flux du client soumis aux limites de débit : après chaque lecture de la socket, attendre
+        // le délai imposé par onBytesIn (TCP freine alors l'expéditeur, rien n'est perdu)
+        private class ThrottledInputStream extends FilterInputStream {
+            ThrottledInputStream(InputStream in) {
+                super(in);
+            }
+            
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    pause(onBytesIn(1));
+                }
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    pause(onBytesIn(read));
+                }
+                return read;
+            }
+            
+            private void pause(long delayNanos) throws IOException {
+                try {
+                    while (delayNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delayNanos);
+                        delayNanos = transferDelay();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Lecture interrompue");
+                }
+            }
         }
         
         @Override
         public void run() {
             try {
-                // Demander le nom du client
-                writer.println("Entrez votre nom :");
-                clientName = reader.readLine();
-                broadcast("MSG:Serveur: " + clientName + " a rejoint le chat.", this);
-                
-                String message;
-                while ((message = reader.readLine()) != null) {
-                    if (message.equals("exit")) {
-                        break;
-                    } else if (message.startsWith("FILE:")) {
-                        // Format: FILE:nom_fichier:taille
-                        String[] parts = message.split(":", 3);
-                        String fileName = parts[1];
-                        int fileSize = Integer.parseInt(parts[2]);
-                        
-                        // Recevoir le fichier
-                        byte[] fileData = new byte[fileSize];
-                        dataInputStream.readFully(fileData);
-                        
-                        System.out.println("Fichier reu de " + clientName + ": " + fileName);
-                        broadcast("MSG:Serveur: " + clientName + " a partag un fichier: " + fileName, null);
-                        
-                        // Diffuser le fichier  tous les autres clients
-                        broadcastFile(fileName, fileData, this);
-                    } else if (message.startsWith("MSG:")) {
-                        System.out.println(clientName + ": " + message.substring(4));
-                        broadcast("MSG:" + clientName + ": " + message.substring(4), this);
-                    }
+                if (tls != null) {
+                    // Négocier avant tout échange : l'écrivain démarre sur un canal prêt
+                    tls.handshake();
                 }
-            } catch (IOException e) {
+                // Écrivain dédié : vide la file d'envoi, un client lent ne bloque plus les expéditeurs
+                writerThread = startHandler(this::writeLoop);
+                converse();
+            } catch (IOException | RuntimeException e) {
                 System.err.println("Erreur avec le client " + clientName + ": " + e.getMessage());
             } finally {
+                closed = true;
+                if (writerThread != null) {
+                    writerThread.interrupt();
+                }
+                outbound.close();
                 try {
-                    socket.close();
+                    // TLS : annonce de fermeture (close_notify) avant de fermer la socket
+                    (tls != null ? tls : socket).close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                broadcast("MSG:Serveur: " + clientName + " a quitt le chat.", this);
-                removeClient(this);
+                onDisconnect();
             }
         }
         
-        // Envoyer un message texte  ce client
-        public void sendMessage(String message) {
-            writer.println(message);
+        // Négocier le protocole puis lire jusqu'au départ du client
+        protected void converse() throws IOException {
+            // Demander le nom du client
+            sendMessage("Entrez votre nom :");
+            
+            // Un client binaire commence par FrameCodec.MAGIC, un ancien client par son nom
+            dataInputStream.mark(1);
+            int first = dataInputStream.read();
+            dataInputStream.reset();
+            if (first == FrameCodec.MAGIC[0]) {
+                byte[] handshake = new byte[FrameCodec.MAGIC.length + 1];
+                dataInputStream.readFully(handshake);
+                if (!Arrays.equals(Arrays.copyOf(handshake, FrameCodec.MAGIC.length), FrameCodec.MAGIC)) {
+                    throw new IOException("Négociation de protocole invalide");
+                }
+                enableBinary(handshake[FrameCodec.MAGIC.length]);
+                readFrames();
+            } else if (first != -1) {
+                readLines();
+            }
         }
         
-        // Envoyer un fichier  ce client
-        public void sendFile(String fileName, byte[] fileData) {
-            try {
-                // Envoyer d'abord les mtadonnes du fichier
-                writer.println("FILE:" + fileName + ":" + fileData.length);
+        // Protocole binaire : le tampon de réception est réutilisé d'une trame à l'autre
+        protected void readFrames() throws IOException {
+            ByteBuffer payload = ByteBuffer.allocate(256);
+            int type;
+            while ((type = dataInputStream.read()) != -1) {
+                payload = FrameCodec.readPayload(dataInputStream, payload, FrameCodec.readVarLong(dataInputStream));
+                if (onFrame((byte) type, payload) == Protocol.END_OF_SESSION) {
+                    break;
+                }
+            }
+        }
+        
+        // Ancien protocole ligne
+        private void readLines() throws IOException {
+            // Le flux ne lit que dans un tableau : octets bruts lus ici puis copiés dans un tampon de la réserve
+            byte[] scratch = null;
+            String message;
+            while ((message = Protocol.readLine(dataInputStream, Protocol.MAX_LINE_LENGTH)) != null) {
+                long bodyLength = onLine(message);
+                if (bodyLength == Protocol.END_OF_SESSION) {
+                    break;
+                }
                 
-                // Puis envoyer les donnes du fichier
-                dataOutputStream.write(fileData);
-                dataOutputStream.flush();
+                // Recevoir les octets du fichier morceau par morceau
+                while (bodyLength > 0) {
+                    if (scratch == null) {
+                        scratch = new byte[Protocol.CHUNK_SIZE];
+                    }
+                    int length = (int) Math.min(bodyLength, Protocol.CHUNK_SIZE);
+                    dataInputStream.readFully(scratch, 0, length);
+                    PooledBuffer chunk = FileRelay.newChunk(length);
+                    chunk.buffer().put(scratch, 0, length);
+                    bodyLength -= length;
+                    onBody(chunk);
+                }
+            }
+        }
+        
+        // Écrivain dédié : vide la file d'envoi vers la socket, par lots de trames
+        private void writeLoop() {
+            GatheringByteChannel channel = tls != null ? tls : socket;
+            OutboundBatch batch = new OutboundBatch();
+            try {
+                while (!closed) {
+                    batch.add(outbound.take());
+                    outbound.fill(batch, batchMaxBytes);
+                    
+                    // Fenêtre de regroupement : attendre d'autres trames tant que le lot n'est pas plein
+                    if (batchWindowNanos > 0) {
+                        long deadline = System.nanoTime() + batchWindowNanos;
+                        long wait;
+                        while (!batch.isFull(batchMaxBytes) && (wait = deadline - System.nanoTime()) > 0) {
+                            OutboundFrame frame = outbound.poll(wait, TimeUnit.NANOSECONDS);
+                            if (frame == null) {
+                                break;
+                            }
+                            batch.add(frame);
+                            outbound.fill(batch, batchMaxBytes);
+                        }
+                    }
+                    
+                    // Canal bloquant : chaque appel avance jusqu'à ce que le lot soit envoyé
+                    while (!batch.writeTo(channel)) {
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Client déconnecté
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Erreur lors de l'envoi à " + clientName + ": " + e.getMessage());
+                    // Comme pour un client lent : la fermeture réveille le thread de lecture, qui fait le
+                    // ménage ; sinon la file se remplirait sans écrivain jusqu'au prochain envoi refusé
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            } finally {
+                batch.release();
+            }
+        }
+        
+        @Override
+        protected void frameQueued() {
+            // L'écrivain est réveillé par la file elle-même
+        }
+        
+        @Override
+        protected void slowConsumer() {
+            ServerMetrics.slowConsumerDisconnects.increment();
+            ServerLog.info("Client lent déconnecté : " + clientName);
+            disconnect();
+        }
+        
+        @Override
+        protected void disconnect() {
+            try {
+                // La fermeture réveille le thread de lecture, qui fait le ménage habituel
+                socket.close();
             } catch (IOException e) {
-                System.err.println("Erreur lors de l'envoi du fichier  " + clientName + ": " + e.getMessage());
+                e.printStackTrace();
             }
         }
     }
@@ -0,0 +1,1077 @@
+package ServClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Session d'un client, indépendante du transport (thread bloquant ou boucle NIO) :
+// interprète les trames binaires, ou les lignes et octets bruts d'un ancien client,
+// et encode les envois dans la file d'envoi bornée que le transport vide vers la socket.
+public abstract class ChatSession implements ChatPeer {
+    private static final int REPLAY_FRAME_SIZE = 64 * 1024;
+    private static final int MAX_NAME_LENGTH = 32;
+
+    protected final OutboundQueue outbound;
+    protected volatile boolean closed = false;
+    protected volatile String clientName;
+    // Numéro de session dans l'annuaire (UserDirectory), attribué quand le client donne son nom
+    protected volatile long sessionId = 0;
+
+    // Protocole binaire négocié (voir FrameCodec) et sa version
+    private volatile boolean binary = false;
+    private volatile int protocolVersion = 0;
+
+    // Compression négociée (nom de l'algorithme, null sans compression) et décompresseurs
+    // des trames COMPRESSED reçues (thread de lecture uniquement)
+    private volatile String compression;
+    private CompressionCodec frameInflater;
+    private CompressionCodec streamInflater;
+
+    // Le client comprend les trames FSTART/FCHUNK/FEND
+    private volatile boolean chunkedFiles = false;
+
+    // Salons auxquels le client est abonné (dont sa boîte privée), et salon de ses messages MSG
+    private final Set<String> rooms = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile String currentRoom = ChatServer.DEFAULT_ROOM;
+
+    // Connexion de transfert (FrameCodec.TRANSFER) : pas de nom ni de salons, seulement des
+    // demandes FILE_FETCH_RANGE
+    private boolean transferOnly = false;
+
+    // Réception : fichiers en cours d'envoi par ce client, et empreintes des envois annoncés par
+    // FILE_OFFER en attente de leur FILE_START (thread de lecture uniquement)
+    private final Map<Long, FileRelay> uploads = new HashMap<>();
+    private final Map<Long, byte[]> offeredHashes = new HashMap<>();
+    private FileRelay bodyRelay;
+    private long bodyRemaining = 0;
+    private boolean bodyEndsRelay = false;
+
+    // Ancien client (format FILE:) : un seul fichier à la fois, d'un seul tenant ;
+    // les messages arrivés pendant ce temps sont mis de côté jusqu'à la fin du fichier.
+    // Verrou ReentrantLock plutôt que synchronized, pour les threads virtuels.
+    private final ReentrantLock legacyLock = new ReentrantLock();
+    private long legacyTransferId = -1;
+    private long legacyRemaining = 0;
+    private final List<OutboundFrame> deferredFrames = new ArrayList<>();
+
+    // Adresse d'un client admis par ServerLimits.admit, soumis aux limites de débit (null : pair
+    // de confiance, sans limite), et ses limites de messages et d'octets reçus (null : sans limite)
+    private final InetAddress address;
+    private final RateLimiter messageLimiter;
+    private final RateLimiter byteLimiter;
+    // Messages ignorés d'affilée, et dernier avertissement envoyé (thread de lecture uniquement)
+    private int throttledInARow = 0;
+    private long throttleNoticeAt = 0;
+
+    protected ChatSession() {
+        this(ChatServer.newOutboundQueue(), null);
+    }
+
+    protected ChatSession(OutboundQueue outbound, InetAddress address) {
+        this.outbound = outbound;
+        this.address = address;
+        this.messageLimiter = address != null ? ServerLimits.newMessageLimiter() : null;
+        this.byteLimiter = address != null ? ServerLimits.newByteLimiter() : null;
+    }
+
+    // Une trame vient d'être déposée dans la file d'envoi
+    protected abstract void frameQueued();
+
+    // La file d'envoi a débordé : le transport doit déconnecter ce client lent
+    protected abstract void slowConsumer();
+
+    // Le transport doit fermer la connexion (appelable depuis n'importe quel thread)
+    protected abstract void disconnect();
+
+    // ---- Réception ----
+
+    // Le client a envoyé la séquence MAGIC : passer au protocole binaire
+    protected void enableBinary(int clientVersion) {
+        binary = true;
+        chunkedFiles = true;
+        protocolVersion = Math.min(clientVersion, FrameCodec.VERSION);
+        enqueue(false, FrameCodec.encode(FrameCodec.HELLO, new byte[] { (byte) protocolVersion }));
+    }
+
+    // Traiter une trame binaire ; payload n'est valable que pendant l'appel.
+    // Renvoie Protocol.END_OF_SESSION si le client quitte.
+    protected long onFrame(byte type, ByteBuffer payload) {
+        if (transferOnly && type != FrameCodec.FILE_FETCH_RANGE && type != FrameCodec.EXIT) {
+            // Connexion de transfert : rien d'autre n'est accepté
+            return 0;
+        }
+        switch (type) {
+            case FrameCodec.HELLO:
+                if (clientName == null) {
+                    onJoin(FrameCodec.getText(payload));
+                }
+                break;
+            case FrameCodec.MSG:
+                if (clientName != null) {
+                    onChatMessage(FrameCodec.getText(payload));
+                }
+                break;
+            case FrameCodec.FILE_START: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long fileSize = FrameCodec.getVarLong(payload);
+                String fileName = FrameCodec.getText(payload);
+                byte[] hash = offeredHashes.remove(transferId);
+                if (!admitFile(fileName, fileSize)) {
+                    // Les morceaux qui suivent sont ignorés (aucun relais pour cet identifiant)
+                    enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_ABORT, transferId));
+                    break;
+                }
+                FileRelay relay = ChatServer.startFileRelay(this, currentRoom, fileName, fileSize);
+                if (hash != null) {
+                    relay.resumable(clientName, hash);
+                }
+                uploads.put(transferId, relay);
+                break;
+            }
+            case FrameCodec.FILE_CHUNK: {
+                FileRelay relay = uploads.get(FrameCodec.getVarLong(payload));
+                if (relay != null) {
+                    relay.relayFrame(payload);
+                }
+                break;
+            }
+            case FrameCodec.FILE_END: {
+                FileRelay relay = uploads.remove(FrameCodec.getVarLong(payload));
+                if (relay != null) {
+                    relay.finish();
+                }
+                break;
+            }
+            case FrameCodec.FILE_ABORT: {
+                FileRelay relay = uploads.remove(FrameCodec.getVarLong(payload));
+                if (relay != null) {
+                    relay.abort();
+                }
+                break;
+            }
+            case FrameCodec.FILE_OFFER: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long fileSize = FrameCodec.getVarLong(payload);
+                byte[] hash = FrameCodec.getHash(payload);
+                String fileName = FrameCodec.getText(payload);
+                if (!admitFile(fileName, fileSize)) {
+                    // Refus avant tout envoi : l'annonce du client échoue aussitôt
+                    enqueue(false, FrameCodec.encodeTransfer(FrameCodec.FILE_ABORT, transferId));
+                    break;
+                }
+                onFileOffer(transferId, hash, fileName);
+                break;
+            }
+            case FrameCodec.FILE_FETCH: {
+                long transferId = FrameCodec.getVarLong(payload);
+                FrameCodec.getVarLong(payload);
+                byte[] hash = FrameCodec.getHash(payload);
+                onFileFetch(transferId, hash, FrameCodec.getText(payload));
+                break;
+            }
+            case FrameCodec.FILE_FETCH_RANGE: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long offset = FrameCodec.getVarLong(payload);
+                long length = FrameCodec.getVarLong(payload);
+                byte[] hash = FrameCodec.getHash(payload);
+                onFileFetchRange(transferId, offset, length, hash, FrameCodec.getText(payload));
+                break;
+            }
+            case FrameCodec.EXIT:
+                return Protocol.END_OF_SESSION;
+            case FrameCodec.COMPRESSED:
+                return onCompressed(payload);
+            case FrameCodec.COMMAND: {
+                String command = FrameCodec.getText(payload);
+                if (clientName == null) {
+                    // Avant HELLO, seule une connexion de transfert s'annonce par une commande ;
+                    // toute autre serait prise pour le nom du client par onLine
+                    transferOnly = command.equals(FrameCodec.TRANSFER);
+                    break;
+                }
+                // Commande peu fréquente, même syntaxe que le protocole texte (sans données brutes)
+                if (onLine(command) > 0) {
+                    throw new IllegalArgumentException("Commande avec données brutes interdite en binaire");
+                }
+                break;
+            }
+            default:
+                // Type inconnu (version plus récente) : ignoré
+                break;
+        }
+        return 0;
+    }
+
+    // Trame COMPRESSED : décompresser puis traiter les trames qu'elle contient
+    private long onCompressed(ByteBuffer payload) {
+        if (compression == null) {
+            throw new IllegalArgumentException("Compression non négociée");
+        }
+        CompressionCodec codec;
+        if (payload.get() == CompressionCodec.STREAM) {
+            if (streamInflater == null) {
+                streamInflater = CompressionCodec.create(compression, true);
+            }
+            codec = streamInflater;
+        } else {
+            if (frameInflater == null) {
+                frameInflater = CompressionCodec.create(compression, false);
+            }
+            codec = frameInflater;
+        }
+        ByteBuffer frames;
+        try {
+            frames = ByteBuffer.wrap(codec.decompress(payload.array(), payload.arrayOffset() + payload.position(),
+                payload.remaining(), FrameCodec.MAX_FRAME_SIZE));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        while (frames.hasRemaining()) {
+            byte type = frames.get();
+            int length = (int) FrameCodec.getVarLong(frames);
+            if (type == FrameCodec.COMPRESSED || length < 0 || length > frames.remaining()) {
+                throw new IllegalArgumentException("Trame compressée invalide");
+            }
+            ByteBuffer inner = frames.slice();
+            inner.limit(length);
+            frames.position(frames.position() + length);
+            if (onFrame(type, inner) == Protocol.END_OF_SESSION) {
+                return Protocol.END_OF_SESSION;
+            }
+        }
+        return 0;
+    }
+
+    // Le client propose des algorithmes de compression : retenir le premier que le serveur accepte
+    private void negotiateCompression(List<String> offered) {
+        for (String codec : ChatServer.compressionCodecs) {
+            if (offered.contains(codec)) {
+                compression = codec;
+                enqueue(false, FrameCodec.encodeText(FrameCodec.COMMAND, "CAPS:" + codec));
+                return;
+            }
+        }
+    }
+
+    // Le client annonce un fichier par son empreinte : s'il est déjà dans le magasin, il est
+    // diffusé depuis le disque et le client n'a rien à envoyer ; si son envoi précédent du même
+    // fichier a été interrompu, il le reprend là où il s'est arrêté
+    private void onFileOffer(long transferId, byte[] hash, String fileName) {
+        boolean resumable = protocolVersion >= FrameCodec.VERSION_RESUME;
+        FileRelay parked = resumable ? FileRelay.resume(clientName, hash) : null;
+        if (parked != null) {
+            uploads.put(transferId, parked);
+            enqueue(false, FrameCodec.encodeFileResume(transferId, parked.getReceived()));
+            return;
+        }
+        SpooledFile blob = ChatServer.blobs != null ? ChatServer.blobs.open(hash) : null;
+        if (blob == null) {
+            if (resumable) {
+                offeredHashes.put(transferId, hash);
+            }
+            enqueue(false, FrameCodec.encodeFileAccept(transferId, false));
+            return;
+        }
+        try {
+            enqueue(false, FrameCodec.encodeFileAccept(transferId, true));
+            ChatServer.relayStoredFile(this, currentRoom, fileName, hash, blob);
+        } finally {
+            blob.release();
+        }
+    }
+
+    // Un destinataire qui a reçu une référence FILE_REF demande le contenu
+    private void onFileFetch(long transferId, byte[] hash, String fileName) {
+        SpooledFile blob = ChatServer.blobs != null ? ChatServer.blobs.open(hash) : null;
+        if (blob == null) {
+            sendMessage("MSG:Serveur: le fichier " + fileName + " n'est plus disponible.");
+            return;
+        }
+        try {
+            sendSpooledFile(transferId, null, fileName, blob);
+        } finally {
+            blob.release();
+        }
+    }
+
+    // Partie d'un fichier du magasin : reprise d'un téléchargement, ou l'un de plusieurs flux
+    // parallèles. Les morceaux sont lus sur disque au fil de l'envoi.
+    private void onFileFetchRange(long transferId, long offset, long length, byte[] hash, String fileName) {
+        SpooledFile blob = ChatServer.blobs != null ? ChatServer.blobs.open(hash) : null;
+        if (blob == null) {
+            enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_ABORT, transferId));
+            return;
+        }
+        try {
+            long fileSize = blob.size();
+            long end = length == 0 ? fileSize : Math.min(fileSize, offset + length);
+            if (offset > end) {
+                enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_ABORT, transferId));
+                return;
+            }
+            ServerMetrics.fileRangesServed.increment();
+            enqueueFile(FrameCodec.encodeFileResume(transferId, offset));
+            enqueueFileRegion(transferId, blob, offset, end);
+            enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_END, transferId));
+        } catch (IOException e) {
+            System.err.println("Fichier du magasin illisible: " + e.getMessage());
+            enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_ABORT, transferId));
+        } finally {
+            blob.release();
+        }
+    }
+
+    private void onJoin(String name) {
+        if (!validName(name)) {
+            // Le client reste sans nom et peut en proposer un autre
+            if (admitMessage()) {
+                sendMessage("MSG:Serveur: nom invalide, choisissez-en un autre (1 à " + MAX_NAME_LENGTH
+                    + " caractères, sans < > & : ni caractère de contrôle).");
+            }
+            return;
+        }
+        clientName = name;
+        // Le client ne reçoit les diffusions qu'une fois le protocole négocié et son nom connu.
+        // Son arrivée est annoncée par PresenceFeed, regroupée avec les autres de la même fenêtre.
+        sessionId = ChatServer.addClient(this, name);
+        subscribe("@" + clientName);
+        subscribe(ChatServer.DEFAULT_ROOM);
+    }
+
+    // Commande WHO (liste des utilisateurs en ligne) ou WHO:nom
+    private void who(String name) {
+        if (!admitMessage()) {
+            return;
+        }
+        if (name != null) {
+            int sessions = UserDirectory.sessions(name).size();
+            sendMessage("MSG:Serveur: " + name + (sessions == 0 ? " n'est pas en ligne."
+                : sessions == 1 ? " est en ligne." : " est en ligne (" + sessions + " sessions)."));
+            return;
+        }
+        List<String> names = UserDirectory.names();
+        StringBuilder text = new StringBuilder("MSG:Serveur: " + names.size() + " utilisateur(s) en ligne : ");
+        for (int i = 0; i < names.size(); i++) {
+            if (text.length() > Protocol.MAX_LINE_LENGTH / 2) {
+                text.append("... (").append(names.size() - i).append(" autres)");
+                break;
+            }
+            text.append(i == 0 ? "" : ", ").append(names.get(i));
+        }
+        sendMessage(text.toString());
+    }
+
+    private void onChatMessage(String text) {
+        sendToRoom(currentRoom, text);
+    }
+
+    private void sendToRoom(String room, String text) {
+        if (!admitMessage()) {
+            return;
+        }
+        if (!rooms.contains(room)) {
+            sendMessage("MSG:Serveur: vous n'êtes pas dans le salon " + room.substring(1) + ".");
+            return;
+        }
+        ServerMetrics.messagesReceived.increment();
+        ServerLog.message(room + " " + clientName + ": " + text);
+        ChatServer.broadcast(room, "MSG:" + ChatServer.roomLabel(room) + clientName + ": " + text, this);
+    }
+
+    private void subscribe(String room) {
+        rooms.add(room);
+        ChatServer.subscribe(room, this);
+    }
+
+    private void joinRoom(String name) {
+        String room = roomKey(name);
+        if (room == null) {
+            invalidRoom(name);
+            return;
+        }
+        if (!admitMessage()) {
+            return;
+        }
+        if (rooms.contains(room)) {
+            currentRoom = room;
+            return;
+        }
+        subscribe(room);
+        currentRoom = room;
+        ChatServer.broadcast(room, "MSG:" + ChatServer.roomLabel(room) + "Serveur: " + clientName + " a rejoint le salon.", this);
+        sendMessage("MSG:Serveur: vous êtes dans le salon " + room.substring(1) + ".");
+    }
+
+    private void leaveRoom(String name) {
+        String room = roomKey(name);
+        if (room == null) {
+            invalidRoom(name);
+            return;
+        }
+        if (!admitMessage() || !rooms.remove(room)) {
+            return;
+        }
+        ChatServer.unsubscribe(room, this);
+        ChatServer.broadcast(room, "MSG:" + ChatServer.roomLabel(room) + "Serveur: " + clientName + " a quitté le salon.", this);
+        if (room.equals(currentRoom)) {
+            // Retour au salon par défaut, auquel le client se réabonne au besoin
+            if (!rooms.contains(ChatServer.DEFAULT_ROOM)) {
+                subscribe(ChatServer.DEFAULT_ROOM);
+            }
+            currentRoom = ChatServer.DEFAULT_ROOM;
+        }
+    }
+
+    private void sendPrivate(String recipient, String text) {
+        if (!admitMessage()) {
+            return;
+        }
+        if (!ChatServer.broadcast("@" + recipient, "MSG:[privé] " + clientName + ": " + text, this)) {
+            sendMessage("MSG:Serveur: utilisateur inconnu: " + recipient);
+        }
+    }
+
+    // Limite de débit des messages, par client puis globale. Le jeton du client n'est prélevé
+    // qu'une fois la limite globale passée : un refus global ne lui coûte rien, et seul un
+    // client qui dépasse sa propre limite est déconnecté s'il insiste. Un message refusé est
+    // ignoré et le client prévenu, au plus une fois par seconde.
+    private boolean admitMessage() {
+        if (messageLimiter != null && !messageLimiter.canAcquire(1)) {
+            if (ServerLimits.floodExceeded(++throttledInARow)) {
+                throw new IllegalArgumentException("Trop de messages, client déconnecté");
+            }
+            return throttled("MSG:Serveur: trop de messages, les derniers ont été ignorés. Ralentissez.");
+        }
+        // Limite globale, même sans limite par client (--msg-rate=0) ; les pairs de la grappe en
+        // sont exempts. Le client n'y est pour rien : sa série de refus reste en l'état
+        if (address != null && ServerLimits.globalMessages != null && !ServerLimits.globalMessages.tryAcquire(1)) {
+            return throttled("MSG:Serveur: serveur saturé, les derniers messages ont été ignorés.");
+        }
+        if (messageLimiter != null) {
+            messageLimiter.tryAcquire(1);
+        }
+        throttledInARow = 0;
+        return true;
+    }
+
+    // Message refusé : compté, et le client prévenu au plus une fois par seconde ; renvoie false
+    private boolean throttled(String notice) {
+        ServerMetrics.messagesThrottled.increment();
+        long now = System.nanoTime();
+        if (throttleNoticeAt == 0 || now - throttleNoticeAt >= 1_000_000_000L) {
+            throttleNoticeAt = now;
+            sendMessage(notice);
+        }
+        return false;
+    }
+
+    // Taille annoncée d'un fichier : au-delà de --max-file-mb, le fichier est refusé et le client prévenu
+    private boolean admitFile(String fileName, long fileSize) {
+        if (address == null || (fileSize >= 0 && !ServerLimits.fileTooLarge(fileSize))) {
+            return true;
+        }
+        ServerMetrics.filesRejected.increment();
+        sendMessage("MSG:Serveur: fichier " + fileName + " refusé (plus de " + ServerLimits.maxFileSize / (1024 * 1024) + " Mo).");
+        return false;
+    }
+
+    // Octets reçus du client (thread de lecture) : renvoie le délai en nanosecondes à respecter
+    // avant de lire la suite, 0 pour continuer. Le transport suspend la lecture de la socket
+    // pendant ce délai, puis attend encore tant que transferDelay() n'est pas nul.
+    protected long onBytesIn(int count) {
+        long delay = 0;
+        if (address != null) {
+            if (byteLimiter != null) {
+                delay = byteLimiter.acquire(count);
+            }
+            if (ServerLimits.globalBytes != null) {
+                delay = Math.max(delay, ServerLimits.globalBytes.acquire(count));
+            }
+            if (delay > 0) {
+                ServerMetrics.readsPaused.increment();
+            }
+        }
+        return Math.max(delay, transferDelay());
+    }
+
+    // Budget des transferts en cours épuisé : un client qui envoie un fichier n'est plus lu
+    // (ses morceaux rempliraient encore la mémoire) ; délai avant de vérifier de nouveau, 0 sinon
+    protected long transferDelay() {
+        if (address == null || (uploads.isEmpty() && bodyRelay == null) || !ServerLimits.transferBudgetExhausted()) {
+            return 0;
+        }
+        ServerMetrics.readsPaused.increment();
+        return ServerLimits.TRANSFER_RETRY_NANOS;
+    }
+
+    // Nom d'utilisateur : il précède chaque message diffusé, il ne doit donc contenir ni balisage
+    // (Swing affiche en HTML un texte qui commence par <html>), ni ':' (séparateur du protocole,
+    // un tel nom ne pourrait pas recevoir de PRIV:), ni caractère de contrôle
+    static boolean validName(String name) {
+        if (name.trim().isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '<' || c == '>' || c == '&' || c == ':' || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Nom de salon public (lettres, chiffres, '-' et '_') vers sa clé de routage ; null si invalide
+    private static String roomKey(String name) {
+        return name.matches("[A-Za-z0-9_-]{1,32}") ? "#" + name : null;
+    }
+
+    // Commande mal formée (faute de frappe) : le client est prévenu, la session continue.
+    // L'avertissement compte comme un message pour la limite de débit.
+    private void invalidCommand(String usage) {
+        if (admitMessage()) {
+            sendMessage("MSG:Serveur: commande invalide, format attendu : " + usage + ".");
+        }
+    }
+
+    private void invalidRoom(String name) {
+        if (admitMessage()) {
+            sendMessage("MSG:Serveur: nom de salon invalide : " + name + " (lettres, chiffres, - et _, 32 au plus).");
+        }
+    }
+
+    // Traiter une ligne reçue ; renvoie le nombre d'octets bruts qui la suivent,
+    // ou Protocol.END_OF_SESSION si le client quitte
+    protected long onLine(String message) {
+        if (clientName == null) {
+            onJoin(message);
+        } else if (message.equals("exit")) {
+            return Protocol.END_OF_SESSION;
+        } else if (message.startsWith("MSG:")) {
+            onChatMessage(message.substring(4));
+        } else if (message.startsWith("FCHUNK:")) {
+            // Format: FCHUNK:id:longueur
+            String[] parts = message.split(":", 3);
+            int length = Integer.parseInt(parts[2]);
+            if (length < 0 || length > Protocol.MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Morceau de fichier invalide: " + length);
+            }
+            return expectBody(uploads.get(Long.parseLong(parts[1])), length, false);
+        } else if (message.startsWith("FSTART:")) {
+            // Format: FSTART:id:taille:nom_fichier
+            String[] parts = message.split(":", 4);
+            long fileSize = Long.parseLong(parts[2]);
+            if (admitFile(parts[3], fileSize)) {
+                uploads.put(Long.parseLong(parts[1]), ChatServer.startFileRelay(this, currentRoom, parts[3], fileSize));
+            }
+        } else if (message.startsWith("FEND:")) {
+            FileRelay relay = uploads.remove(Long.parseLong(message.substring(5)));
+            if (relay != null) {
+                relay.finish();
+            }
+        } else if (message.startsWith("FILE:")) {
+            // Ancien format: FILE:nom_fichier:taille, suivi des octets bruts
+            String[] parts = message.split(":", 3);
+            long fileSize = Long.parseLong(parts[2]);
+            if (!admitFile(parts[1], fileSize)) {
+                // Les octets bruts suivent aussitôt : impossible de les ignorer sans les lire tous
+                throw new IllegalArgumentException("Fichier trop volumineux: " + fileSize + " octets");
+            }
+            FileRelay relay = ChatServer.startFileRelay(this, currentRoom, parts[1], fileSize);
+            if (fileSize == 0) {
+                relay.finish();
+                return 0;
+            }
+            return expectBody(relay, fileSize, true);
+        } else if (message.startsWith("JOIN:")) {
+            joinRoom(message.substring(5));
+        } else if (message.startsWith("LEAVE:")) {
+            leaveRoom(message.substring(6));
+        } else if (message.startsWith("ROOM:")) {
+            // Format: ROOM:salon:texte
+            String[] parts = message.split(":", 3);
+            String room = parts.length < 3 ? null : roomKey(parts[1]);
+            if (parts.length < 3) {
+                invalidCommand("ROOM:salon:texte");
+            } else if (room == null) {
+                invalidRoom(parts[1]);
+            } else {
+                sendToRoom(room, parts[2]);
+            }
+        } else if (message.startsWith("PRIV:")) {
+            // Format: PRIV:destinataire:texte
+            String[] parts = message.split(":", 3);
+            if (parts.length < 3) {
+                invalidCommand("PRIV:destinataire:texte");
+            } else {
+                sendPrivate(parts[1], parts[2]);
+            }
+        } else if (message.startsWith("HISTORY:")) {
+            // Format: HISTORY:offset ou HISTORY:offset:max
+            String[] parts = message.split(":", 3);
+            long fromOffset;
+            int max;
+            try {
+                fromOffset = Long.parseLong(parts[1]);
+                max = parts.length == 3 ? Math.min(Integer.parseInt(parts[2]), ChatServer.historyReplayMax) : ChatServer.historyReplayMax;
+            } catch (NumberFormatException e) {
+                invalidCommand("HISTORY:offset ou HISTORY:offset:max");
+                return 0;
+            }
+            replayHistory(fromOffset, max);
+        } else if (message.startsWith("SEARCH:")) {
+            search(message.substring(7));
+        } else if (message.equals("WHO") || message.startsWith("WHO:")) {
+            who(message.length() > 4 ? message.substring(4) : null);
+        } else if (message.startsWith("CAPS:")) {
+            List<String> caps = Arrays.asList(message.substring(5).split(","));
+            if (binary) {
+                negotiateCompression(caps);
+            } else {
+                chunkedFiles = caps.contains(Protocol.CAPS_CHUNKED_FILES);
+            }
+            if (caps.contains(Protocol.CAPS_PRESENCE)) {
+                PresenceFeed.subscribe(this);
+            }
+        }
+        return 0;
+    }
+
+    // Commande SEARCH:requête (voir HistoryIndex.Query) : la recherche s'exécute hors du thread
+    // du client ; les résultats arrivent en MSG:, du plus récent au plus ancien, limités aux
+    // salons du client comme la relecture de l'historique
+    private void search(String text) {
+        if (!admitMessage()) {
+            return;
+        }
+        HistoryIndex index = ChatServer.searchIndex;
+        if (index == null) {
+            sendMessage("MSG:Serveur: recherche non disponible.");
+            return;
+        }
+        HistoryIndex.Query query;
+        try {
+            query = HistoryIndex.Query.parse(text, System.currentTimeMillis());
+        } catch (IllegalArgumentException e) {
+            sendMessage("MSG:Serveur: recherche invalide : " + e.getMessage() + ".");
+            return;
+        }
+        boolean submitted = index.submit(() -> {
+            long start = System.nanoTime();
+            List<HistoryIndex.Hit> hits = index.search(query, rooms::contains, ChatServer.searchResultsMax);
+            String took = String.format("%.1f ms", (System.nanoTime() - start) / 1e6);
+            if (hits.isEmpty()) {
+                sendMessage("MSG:Serveur: aucun résultat pour « " + text + " » (" + took + ").");
+                return;
+            }
+            sendMessage("MSG:Serveur: " + (hits.size() == ChatServer.searchResultsMax ? "les " + hits.size() + " plus récents" : hits.size())
+                + " résultat(s) pour « " + text + " » (" + took + ") :");
+            SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy HH:mm");
+            for (HistoryIndex.Hit hit : hits) {
+                sendMessage("MSG:Serveur: » " + (hit.time == 0 ? "" : format.format(new Date(hit.time)) + " ") + hit.text);
+            }
+        });
+        if (!submitted) {
+            sendMessage("MSG:Serveur: trop de recherches en cours, réessayez plus tard.");
+        }
+    }
+
+    // Renvoyer l'historique depuis un offset, regroupé en trames d'environ REPLAY_FRAME_SIZE
+    // octets pour ne pas remplir la file d'envoi d'une trame par message
+    private void replayHistory(long fromOffset, int max) {
+        if (!admitMessage()) {
+            return;
+        }
+        HistoryLog log = ChatServer.history;
+        if (log == null) {
+            sendMessage("MSG:Serveur: historique non disponible.");
+            return;
+        }
+        if (fromOffset < 0) {
+            fromOffset = Math.max(log.startOffset(), log.endOffset() + fromOffset);
+        }
+        ByteArrayOutputStream replay = new ByteArrayOutputStream(REPLAY_FRAME_SIZE);
+        log.read(fromOffset, max, (offset, room, time, text) -> {
+            // Ne rendre que les salons du client
+            if (!rooms.contains(room)) {
+                return;
+            }
+            ByteBuffer encoded = binary
+                ? FrameCodec.encodeHistory(offset, text.startsWith("MSG:") ? text.substring(4) : text)
+                : Protocol.encodeLine("HIST:" + offset + ":" + text);
+            replay.write(encoded.array(), encoded.position(), encoded.remaining());
+            if (replay.size() >= REPLAY_FRAME_SIZE) {
+                enqueueReplay(replay.toByteArray());
+                replay.reset();
+            }
+        });
+        if (replay.size() > 0) {
+            enqueueReplay(replay.toByteArray());
+        }
+    }
+
+    // Un paquet de relecture est propre à ce client : compressé ici, s'il y a lieu
+    private void enqueueReplay(byte[] frames) {
+        String codec = compression;
+        if (codec != null) {
+            CompressionCodec compressor = CompressionCodec.borrow(codec);
+            try {
+                byte[] compressed = compressor.compress(frames, 0, frames.length);
+                if (compressed != null) {
+                    ServerMetrics.compressionBytesSaved.add(frames.length - compressed.length);
+                    enqueue(false, FrameCodec.encodeCompressed(CompressionCodec.FRAME, compressed));
+                    return;
+                }
+            } finally {
+                CompressionCodec.giveBack(compressor);
+            }
+        }
+        enqueue(false, ByteBuffer.wrap(frames));
+    }
+
+    private long expectBody(FileRelay relay, long length, boolean endsRelay) {
+        bodyRelay = relay;
+        bodyRemaining = length;
+        bodyEndsRelay = endsRelay;
+        return length;
+    }
+
+    // Octets bruts reçus après une ligne FCHUNK: ou FILE: (au plus Protocol.CHUNK_SIZE à la fois
+    // pour l'ancien format), remplis dans un tampon de FileRelay.newChunk confié à la session
+    protected void onBody(PooledBuffer chunk) {
+        bodyRemaining -= chunk.buffer().position() - BufferPool.HEADER_ROOM;
+        if (bodyRelay != null) {
+            bodyRelay.relay(chunk);
+            if (bodyRemaining == 0 && bodyEndsRelay) {
+                bodyRelay.finish();
+            }
+        } else {
+            chunk.release();
+        }
+        if (bodyRemaining == 0) {
+            bodyRelay = null;
+        }
+    }
+
+    // Le client est parti : interrompre ses envois en cours (ou les garder pour une reprise)
+    // et prévenir les autres
+    protected void onDisconnect() {
+        if (address != null) {
+            ServerLimits.release(address);
+        }
+        if (transferOnly) {
+            return;
+        }
+        if (bodyRelay != null && bodyEndsRelay) {
+            bodyRelay.abort();
+        }
+        for (FileRelay relay : uploads.values()) {
+            if (!relay.park()) {
+                relay.abort();
+            }
+        }
+        uploads.clear();
+        offeredHashes.clear();
+        bodyRelay = null;
+
+        // Messages mis de côté pendant un fichier en ancien format : rendre leurs tampons
+        legacyLock.lock();
+        try {
+            for (OutboundFrame frame : deferredFrames) {
+                frame.release();
+            }
+            deferredFrames.clear();
+        } finally {
+            legacyLock.unlock();
+        }
+
+        PresenceFeed.unsubscribe(this);
+        for (String room : rooms) {
+            ChatServer.unsubscribe(room, this);
+            // Le départ du chat est annoncé au salon par défaut par PresenceFeed
+            if (room.startsWith("#") && !room.equals(ChatServer.DEFAULT_ROOM)) {
+                ChatServer.broadcast(room, "MSG:" + ChatServer.roomLabel(room) + "Serveur: " + clientName + " a quitté le chat.", this);
+            }
+        }
+        rooms.clear();
+        ChatServer.removeClient(sessionId, clientName);
+    }
+
+    // ---- Envoi ----
+
+    // Envoyer un message texte à ce client
+    @Override
+    public void sendMessage(String message) {
+        ServerMetrics.messagesDelivered.increment();
+        if (binary) {
+            enqueue(true, FrameCodec.encodeText(FrameCodec.MSG, message.startsWith("MSG:") ? message.substring(4) : message));
+            return;
+        }
+        OutboundFrame frame = new OutboundFrame(Protocol.encodeLine(message));
+        if (!chunkedFiles && deferIfLegacyFile(frame)) {
+            return;
+        }
+        enqueue(true, frame);
+    }
+
+    @Override
+    public void sendBroadcast(BroadcastMessage message) {
+        ServerMetrics.messagesDelivered.increment();
+        if (binary) {
+            SharedFrame frame = message.binaryFrame();
+            if (!enqueueCompressed(true, frame)) {
+                enqueue(true, new OutboundFrame(frame, frame.plainBuffers()));
+            }
+            return;
+        }
+        SharedFrame line = message.lineFrame();
+        OutboundFrame frame = new OutboundFrame(line, line.plainBuffers());
+        if (!chunkedFiles && deferIfLegacyFile(frame)) {
+            return;
+        }
+        enqueue(true, frame);
+    }
+
+    // Déposer la version compressée d'une trame partagée si ce client a négocié la compression
+    // et si elle est rentable ; renvoie false sinon
+    private boolean enqueueCompressed(boolean droppable, SharedFrame frame) {
+        ByteBuffer compressed = compressedView(frame);
+        if (compressed == null) {
+            return false;
+        }
+        enqueue(droppable, new OutboundFrame(frame, compressed));
+        return true;
+    }
+
+    private ByteBuffer compressedView(SharedFrame frame) {
+        String codec = compression;
+        if (codec == null) {
+            return null;
+        }
+        ByteBuffer compressed = frame.compressed(codec);
+        if (compressed != null) {
+            ServerMetrics.compressionBytesSaved.add(frame.plainSize() - compressed.remaining());
+        }
+        return compressed;
+    }
+
+    @Override
+    public void sendFileStart(long transferId, String room, String fileName, long fileSize) {
+        if (binary) {
+            enqueueFile(FrameCodec.encodeFileStart(transferId, fileSize, fileName));
+            return;
+        }
+        if (chunkedFiles) {
+            enqueueFile(Protocol.encodeLine("FSTART:" + transferId + ":" + fileSize + ":" + fileName));
+            return;
+        }
+        legacyLock.lock();
+        try {
+            if (legacyTransferId != -1 || fileSize > Integer.MAX_VALUE) {
+                // L'ancien format ne permet ni deux fichiers simultanés ni une taille au-delà d'un int
+                enqueue(true, Protocol.encodeLine("MSG:Serveur: fichier " + fileName + " non transmis (client trop ancien)."));
+                return;
+            }
+            legacyTransferId = transferId;
+            legacyRemaining = fileSize;
+            enqueue(false, Protocol.encodeLine("FILE:" + fileName + ":" + fileSize));
+            if (fileSize == 0) {
+                endLegacyFile();
+            }
+        } finally {
+            legacyLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendFileChunk(long transferId, ByteBuffer chunk, SharedFrame frame) {
+        if (binary) {
+            ByteBuffer compressed = compressedView(frame);
+            enqueueFile(compressed != null ? new OutboundFrame(frame, compressed) : new OutboundFrame(frame, frame.plainBuffers()));
+            return;
+        }
+        if (chunkedFiles) {
+            enqueueFile(new OutboundFrame(frame, Protocol.encodeLine("FCHUNK:" + transferId + ":" + chunk.remaining()), chunk.duplicate()));
+            return;
+        }
+        legacyLock.lock();
+        try {
+            if (transferId == legacyTransferId) {
+                legacyRemaining -= chunk.remaining();
+                enqueue(false, new OutboundFrame(frame, chunk.duplicate()));
+            }
+        } finally {
+            legacyLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendFileEnd(long transferId) {
+        if (binary) {
+            enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_END, transferId));
+            return;
+        }
+        if (chunkedFiles) {
+            enqueueFile(Protocol.encodeLine("FEND:" + transferId));
+            return;
+        }
+        legacyLock.lock();
+        try {
+            if (transferId == legacyTransferId) {
+                endLegacyFile();
+            }
+        } finally {
+            legacyLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendFileAbort(long transferId) {
+        if (binary) {
+            enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_ABORT, transferId));
+            return;
+        }
+        if (chunkedFiles) {
+            enqueueFile(Protocol.encodeLine("FABORT:" + transferId));
+            return;
+        }
+        legacyLock.lock();
+        try {
+            if (transferId != legacyTransferId) {
+                return;
+            }
+            // L'ancien format ne sait pas signaler une interruption : le client attend encore
+            // legacyRemaining octets bruts. Plutôt que de les combler (jusqu'à des milliers de
+            // trames pour un client peut-être déjà parti), fermer sa connexion.
+            legacyTransferId = -1;
+            for (OutboundFrame frame : deferredFrames) {
+                frame.release();
+            }
+            deferredFrames.clear();
+        } finally {
+            legacyLock.unlock();
+        }
+        ServerLog.info("Ancien client déconnecté, fichier interrompu : " + clientName);
+        disconnect();
+    }
+
+    @Override
+    public void sendSpooledFile(long transferId, String room, String fileName, SpooledFile file) {
+        long fileSize;
+        try {
+            fileSize = file.size();
+        } catch (IOException e) {
+            System.err.println("Fichier en attente illisible: " + e.getMessage());
+            return;
+        }
+        if (binary) {
+            enqueueFile(FrameCodec.encodeFileStart(transferId, fileSize, fileName));
+            enqueueFileRegion(transferId, file, 0, fileSize);
+            enqueueFile(FrameCodec.encodeTransfer(FrameCodec.FILE_END, transferId));
+            return;
+        }
+        if (chunkedFiles) {
+            // Morceaux envoyés par transferTo, détachés un à un par la file d'envoi
+            enqueueFile(Protocol.encodeLine("FSTART:" + transferId + ":" + fileSize + ":" + fileName));
+            if (fileSize > 0) {
+                enqueueFile(new OutboundFrame(file, 0, fileSize, length -> Protocol.encodeLine("FCHUNK:" + transferId + ":" + length)));
+            }
+            enqueueFile(Protocol.encodeLine("FEND:" + transferId));
+            return;
+        }
+        legacyLock.lock();
+        try {
+            if (legacyTransferId != -1 || fileSize > Integer.MAX_VALUE) {
+                enqueue(true, new OutboundFrame(Protocol.encodeLine("MSG:Serveur: fichier " + fileName + " non transmis (client trop ancien).")));
+                return;
+            }
+            // La trame contient tout le fichier : rien ne peut s'intercaler, inutile de différer les messages
+            enqueue(false, new OutboundFrame(file, fileSize, Protocol.encodeLine("FILE:" + fileName + ":" + fileSize)));
+        } finally {
+            legacyLock.unlock();
+        }
+    }
+
+    @Override
+    public void sendStoredFile(long transferId, String room, String fileName, byte[] hash, SpooledFile file) {
+        if (binary && protocolVersion >= FrameCodec.VERSION_DEDUP) {
+            long fileSize;
+            try {
+                fileSize = file.size();
+            } catch (IOException e) {
+                System.err.println("Fichier du magasin illisible: " + e.getMessage());
+                return;
+            }
+            ServerMetrics.fileReferencesSent.increment();
+            enqueue(false, FrameCodec.encodeFileDigest(FrameCodec.FILE_REF, transferId, fileSize, hash, fileName));
+            return;
+        }
+        sendSpooledFile(transferId, room, fileName, file);
+    }
+
+    private boolean deferIfLegacyFile(OutboundFrame frame) {
+        legacyLock.lock();
+        try {
+            if (legacyTransferId == -1) {
+                return false;
+            }
+            deferredFrames.add(frame);
+            return true;
+        } finally {
+            legacyLock.unlock();
+        }
+    }
+
+    // Fin du fichier en ancien format : libérer les messages mis de côté (verrou détenu)
+    private void endLegacyFile() {
+        legacyTransferId = -1;
+        for (OutboundFrame frame : deferredFrames) {
+            enqueue(true, frame);
+        }
+        deferredFrames.clear();
+    }
+
+    // Déposer une trame de fichier, que les messages déposés ensuite peuvent dépasser (voir
+    // OutboundQueue) ; pas pour un ancien client, dont le fichier d'un seul tenant ne supporte
+    // aucune insertion
+    protected void enqueueFile(OutboundFrame frame) {
+        enqueue(false, binary || chunkedFiles ? frame.bulk() : frame);
+    }
+
+    protected void enqueueFile(ByteBuffer... buffers) {
+        enqueueFile(new OutboundFrame(buffers));
+    }
+
+    // Région [position, end) d'un fichier en attente, en trames FILE_CHUNK envoyées par transferTo
+    // et détachées une à une par la file d'envoi
+    protected void enqueueFileRegion(long transferId, SpooledFile file, long position, long end) {
+        if (end > position) {
+            enqueueFile(new OutboundFrame(file, position, end - position, length -> FrameCodec.encodeChunkHeader(transferId, length)));
+        }
+    }
+
+    // Déposer une trame ; un morceau de fichier ne peut pas être abandonné sans corrompre
+    // le transfert, il n'est donc jamais soumis à la politique DROP
+    protected void enqueue(boolean droppable, ByteBuffer... buffers) {
+        enqueue(droppable, new OutboundFrame(buffers));
+    }
+
+    // Client parti : la file fermée libère elle-même la trame ; le test de closed, sans
+    // synchronisation, ne fait qu'éviter de réveiller l'écrivain pour rien
+    protected void enqueue(boolean droppable, OutboundFrame frame) {
+        if (closed) {
+            frame.release();
+            return;
+        }
+        boolean accepted = droppable ? outbound.offer(frame) : outbound.offerReliable(frame);
+        if (accepted) {
+            frameQueued();
+        } else {
+            slowConsumer();
+        }
+    }
+}
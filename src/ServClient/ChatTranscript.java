@@ -0,0 +1,109 @@
+package ServClient;
+
+import java.awt.Color;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Transcription de la session sur disque : toutes les lignes affichées par ChatView, dans
+// l'ordre, pour que la vue ne garde en mémoire qu'une fenêtre et relise le reste à la demande.
+// Fichier temporaire supprimé à la fermeture ; seules les positions des lignes (8 octets par
+// ligne) restent en mémoire.
+// Les écritures sont regroupées dans un tampon, vidé quand il est plein ou avant une lecture.
+// Utilisée par le seul thread de l'interface (EDT).
+//
+// Format d'une ligne : horodatage, texte, couleur (RGB), offset dans l'historique du serveur
+// (-1 si aucun), chemin du fichier reçu ("" si aucun).
+public class ChatTranscript implements Closeable {
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    private final Path path;
+    private final RandomAccessFile file;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(FLUSH_BYTES);
+    private final DataOutputStream out = new DataOutputStream(pending);
+    private long written;
+    private long[] positions = new long[1024];
+    private int size;
+
+    public ChatTranscript() throws IOException {
+        path = Files.createTempFile("chat", ".transcript");
+        path.toFile().deleteOnExit();
+        file = new RandomAccessFile(path.toFile(), "rw");
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void append(ChatView.ChatLine line) throws IOException {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        positions[size++] = written + pending.size();
+        writeText(line.timestamp);
+        writeText(line.text);
+        out.writeInt(line.color.getRGB());
+        out.writeLong(line.offset);
+        writeText(line.filePath != null ? line.filePath : "");
+        if (pending.size() >= FLUSH_BYTES) {
+            flush();
+        }
+    }
+
+    // Lignes [from, to) de la transcription
+    public List<ChatView.ChatLine> read(int from, int to) throws IOException {
+        flush();
+        long start = positions[from];
+        long end = to < size ? positions[to] : written;
+        byte[] bytes = new byte[(int) (end - start)];
+        file.seek(start);
+        file.readFully(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        List<ChatView.ChatLine> lines = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            String timestamp = readText(in);
+            String text = readText(in);
+            Color color = new Color(in.readInt(), true);
+            long offset = in.readLong();
+            String filePath = readText(in);
+            lines.add(new ChatView.ChatLine(timestamp, text, color, offset, filePath.isEmpty() ? null : filePath));
+        }
+        return lines;
+    }
+
+    // Longueur sur 4 octets : writeUTF est limité à 64 Ko
+    private void writeText(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void flush() throws IOException {
+        if (pending.size() > 0) {
+            file.seek(written);
+            file.write(pending.toByteArray());
+            written += pending.size();
+            pending.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package ServClient;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Zone de discussion du client : liste (JList) de lignes horodatées, dont seule une fenêtre de
+// WINDOW_LINES lignes est gardée en mémoire, dans un tampon circulaire. Toutes les lignes de la
+// session sont écrites dans une transcription sur disque (ChatTranscript) :
+//  - en haut de la fenêtre, les lignes plus anciennes sont relues de la transcription par pages
+//    de PAGE_LINES, puis, au-delà du début de la session, demandées à l'historique du serveur
+//    (HISTORY:n:max) ; les lignes du bas sortent alors de la fenêtre
+//  - en bas, les lignes plus récentes sont relues de la transcription ; tant que la fenêtre est
+//    au bout de la session, les nouvelles lignes s'y ajoutent et font sortir les plus anciennes
+// Les lignes ont toutes la même hauteur : la liste ne mesure ni ne dessine que les lignes
+// visibles, quelle que soit la longueur de la session.
+// Les lignes peuvent être ajoutées depuis n'importe quel thread : elles attendent dans une file
+// sans verrou, vidée à chaque image (FRAME_MS) par un javax.swing.Timer, et chaque lot est
+// appliqué en une seule mise à jour du modèle et un seul défilement. À des centaines de
+// messages par seconde, le thread de l'interface (EDT) ne reçoit ainsi qu'une tâche par image.
+// Le reste de la vue n'est utilisé que par l'EDT.
+public class ChatView extends JScrollPane {
+    private static final long serialVersionUID = 1L;
+
+    static final int WINDOW_LINES = 2000;
+    static final int PAGE_LINES = 200;
+    // Délai avant de redemander une page d'historique restée sans réponse
+    private static final long OLDER_RETRY_MS = 1000;
+    // Intervalle entre deux applications des lignes reçues (une image à 60 Hz)
+    static final int FRAME_MS = 16;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final Color TIMESTAMP_COLOR = Color.GRAY;
+    private static final Color FILE_COLOR = Color.BLUE;
+
+    // Ligne affichée ; filePath désigne le fichier reçu qu'elle annonce (null sinon)
+    public static final class ChatLine {
+        final String timestamp;
+        final String text;
+        final Color color;
+        // Offset dans l'historique du serveur, -1 pour une ligne qui n'en vient pas
+        final long offset;
+        final String filePath;
+
+        ChatLine(String timestamp, String text, Color color, long offset, String filePath) {
+            this.timestamp = timestamp;
+            this.text = text;
+            this.color = color;
+            this.offset = offset;
+            this.filePath = filePath;
+        }
+    }
+
+    // Demande d'une page d'historique du serveur : au plus max messages à partir de fromOffset
+    public interface HistoryPager {
+        void requestOlder(long fromOffset, int max);
+    }
+
+    // Lignes ajoutées par les autres threads, en attente de la prochaine image
+    private final ConcurrentLinkedQueue<ChatLine> incoming = new ConcurrentLinkedQueue<>();
+    private final Timer drainTimer = new Timer(FRAME_MS, e -> drain());
+
+    private final LineModel model = new LineModel(WINDOW_LINES);
+    private final JList<ChatLine> list;
+    private final int cellHeight;
+    private ChatTranscript transcript;
+    private HistoryPager pager;
+
+    // Position dans la transcription de la première ligne de la fenêtre ; négative quand la
+    // fenêtre commence par des lignes de l'historique antérieures à la session
+    private int start;
+    // Plus petit offset d'historique reçu pendant la session (-1 : aucun)
+    private long sessionFloor = -1;
+    // Page d'historique demandée : offsets acceptés (inférieurs à olderBelow) et place de la suivante
+    private long olderBelow = -1;
+    private int olderInsert;
+    private long olderRequestedAt;
+    private long lastFloor = -1;
+    private long lastFrom = -1;
+    // Défilement provoqué par la vue elle-même : ne pas y réagir comme à celui de l'utilisateur
+    private boolean shifting = false;
+
+    public ChatView(Font font) {
+        list = new JList<>(model);
+        list.setFont(font);
+        list.setCellRenderer(new LineRenderer(font));
+        // Les infobulles des lignes sont affichées par la liste : pas de HTML non plus (voir LineRenderer)
+        list.putClientProperty("html.disable", Boolean.TRUE);
+        cellHeight = list.getFontMetrics(font).getHeight() + 4;
+        list.setFixedCellHeight(cellHeight);
+        // Largeur fixe : la liste suit la largeur de la vue au lieu de mesurer chaque ligne
+        list.setFixedCellWidth(1);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        setViewportView(list);
+        try {
+            transcript = new ChatTranscript();
+        } catch (IOException e) {
+            // Sans transcription, la fenêtre reste un simple tampon des dernières lignes
+            System.err.println("Transcription de la discussion impossible: " + e.getMessage());
+        }
+        JScrollBar bar = getVerticalScrollBar();
+        bar.addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                atEdge(0);
+            }
+        });
+        // La molette contre un bord ne change pas la position : pas d'événement de la barre
+        addMouseWheelListener(e -> atEdge(e.getWheelRotation()));
+        drainTimer.start();
+    }
+
+    public JList<ChatLine> lines() {
+        return list;
+    }
+
+    public void setHistoryPager(HistoryPager pager) {
+        this.pager = pager;
+    }
+
+    // ---- Ajout (tout thread) ----
+
+    public void append(String text, Color color) {
+        incoming.offer(new ChatLine(now(), text, color, -1, null));
+    }
+
+    // Ligne de l'historique du serveur : page plus ancienne attendue, ou historique de la connexion
+    public void appendHistory(long offset, String text, Color color) {
+        incoming.offer(new ChatLine(now(), text, color, offset, null));
+    }
+
+    public void appendFile(String text, String filePath) {
+        incoming.offer(new ChatLine(now(), text, FILE_COLOR, -1, filePath));
+    }
+
+    // Fichier annoncé par la ligne sous ce point de la liste, ou null
+    public String fileAt(Point point) {
+        int index = list.locationToIndex(point);
+        if (index < 0 || !list.getCellBounds(index, index).contains(point)) {
+            return null;
+        }
+        return model.getElementAt(index).filePath;
+    }
+
+    public void close() {
+        drainTimer.stop();
+        if (transcript != null) {
+            transcript.close();
+        }
+    }
+
+    private static String now() {
+        return "[" + LocalTime.now().format(TIME_FORMAT) + "] ";
+    }
+
+    // ---- Fenêtre ----
+
+    private int end() {
+        return start + model.getSize();
+    }
+
+    // Appliquer les lignes arrivées depuis la dernière image (EDT, minuterie)
+    void drain() {
+        if (incoming.isEmpty()) {
+            return;
+        }
+        List<ChatLine> batch = new ArrayList<>();
+        ChatLine line;
+        while ((line = incoming.poll()) != null) {
+            if (line.offset >= 0 && line.offset < olderBelow) {
+                // Page d'historique plus ancienne, insérée en haut de la fenêtre
+                insertOlder(line);
+                continue;
+            }
+            if (line.offset >= 0 && (sessionFloor < 0 || line.offset < sessionFloor)) {
+                sessionFloor = line.offset;
+            }
+            batch.add(line);
+        }
+        if (!batch.isEmpty()) {
+            appendLines(batch);
+        }
+    }
+
+    private void appendLines(List<ChatLine> lines) {
+        boolean following = transcript == null || end() == transcript.size();
+        if (transcript != null) {
+            try {
+                for (ChatLine line : lines) {
+                    transcript.append(line);
+                }
+            } catch (IOException e) {
+                System.err.println("Transcription de la discussion interrompue: " + e.getMessage());
+                transcript.close();
+                transcript = null;
+            }
+        }
+        if (!following) {
+            // Fenêtre remontée dans la session : les lignes seront relues en redescendant
+            if (atBottom()) {
+                loadNewer();
+            }
+            return;
+        }
+        boolean atBottom = atBottom();
+        int evicted = model.addAll(lines);
+        start += evicted;
+        if (atBottom) {
+            scrollToBottom();
+        } else {
+            shiftView(-evicted);
+        }
+    }
+
+    // direction : < 0 vers le haut, > 0 vers le bas, 0 selon la position de la barre
+    private void atEdge(int direction) {
+        JScrollBar bar = getVerticalScrollBar();
+        if (shifting) {
+            return;
+        }
+        if (direction == 0 && bar.getMaximum() <= bar.getVisibleAmount()) {
+            // Tout tient à l'écran : seule la molette demande des lignes plus anciennes
+            return;
+        }
+        if (direction <= 0 && bar.getValue() == bar.getMinimum() && model.getSize() > 0) {
+            loadOlder();
+        } else if (direction >= 0 && atBottom()) {
+            loadNewer();
+        }
+    }
+
+    private boolean atBottom() {
+        JScrollBar bar = getVerticalScrollBar();
+        return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - cellHeight;
+    }
+
+    private void loadOlder() {
+        if (start > 0) {
+            int from = Math.max(0, start - PAGE_LINES);
+            List<ChatLine> lines = read(from, start);
+            if (lines == null) {
+                return;
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                model.insert(i, lines.get(i));
+            }
+            start = from;
+            shiftView(lines.size());
+            return;
+        }
+        // Début de la session atteint : page précédente de l'historique du serveur
+        long floor = start < 0 ? model.getElementAt(0).offset : sessionFloor;
+        if (pager == null || floor <= 0 || System.currentTimeMillis() - olderRequestedAt < OLDER_RETRY_MS) {
+            return;
+        }
+        // Page précédente sans message des salons du client : remonter plus loin
+        long below = floor == lastFloor ? lastFrom : floor;
+        if (below <= 0) {
+            return;
+        }
+        long from = Math.max(0, below - PAGE_LINES);
+        lastFloor = floor;
+        lastFrom = from;
+        olderBelow = floor;
+        olderInsert = 0;
+        olderRequestedAt = System.currentTimeMillis();
+        pager.requestOlder(from, (int) (floor - from));
+    }
+
+    private void insertOlder(ChatLine line) {
+        if (start > 0 || olderInsert > model.getSize()) {
+            // Fenêtre redescendue entre-temps : la page n'y a plus sa place
+            return;
+        }
+        model.insert(olderInsert++, line);
+        start--;
+        shiftView(1);
+    }
+
+    private void loadNewer() {
+        if (transcript == null || end() >= transcript.size()) {
+            return;
+        }
+        List<ChatLine> lines = read(end(), Math.min(transcript.size(), end() + PAGE_LINES));
+        if (lines == null) {
+            return;
+        }
+        int evicted = model.addAll(lines);
+        start += evicted;
+        shiftView(-evicted);
+    }
+
+    private List<ChatLine> read(int from, int to) {
+        try {
+            return transcript.read(from, to);
+        } catch (IOException e) {
+            System.err.println("Relecture de la discussion impossible: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Garder les mêmes lignes à l'écran après l'ajout (rows > 0) ou le retrait (rows < 0) de lignes au-dessus
+    private void shiftView(int rows) {
+        if (rows != 0) {
+            shifting = true;
+            try {
+                validate();
+                JScrollBar bar = getVerticalScrollBar();
+                bar.setValue(bar.getValue() + rows * cellHeight);
+            } finally {
+                shifting = false;
+            }
+        }
+    }
+
+    private void scrollToBottom() {
+        shifting = true;
+        try {
+            validate();
+            JScrollBar bar = getVerticalScrollBar();
+            bar.setValue(bar.getMaximum());
+        } finally {
+            shifting = false;
+        }
+    }
+
+    // ---- Modèle et rendu ----
+
+    // Tampon circulaire de lignes : ajout en bas en O(1) par ligne (les plus anciennes sortent
+    // quand il est plein), insertion près du haut en O(position) (la plus récente sort)
+    static final class LineModel extends AbstractListModel<ChatLine> {
+        private static final long serialVersionUID = 1L;
+        private final ChatLine[] lines;
+        private int head;
+        private int count;
+
+        LineModel(int capacity) {
+            lines = new ChatLine[capacity];
+        }
+
+        @Override
+        public int getSize() {
+            return count;
+        }
+
+        @Override
+        public ChatLine getElementAt(int index) {
+            return lines[(head + index) % lines.length];
+        }
+
+        // Ajouter un lot en bas, en un seul événement de retrait et un seul d'ajout ;
+        // renvoie le nombre de lignes sorties par le haut (ou jamais entrées, lot trop grand)
+        int addAll(List<ChatLine> added) {
+            int skipped = Math.max(0, added.size() - lines.length);
+            int evicted = Math.max(0, count + added.size() - skipped - lines.length);
+            if (evicted > 0) {
+                for (int i = 0; i < evicted; i++) {
+                    lines[(head + i) % lines.length] = null;
+                }
+                head = (head + evicted) % lines.length;
+                count -= evicted;
+                fireIntervalRemoved(this, 0, evicted - 1);
+            }
+            int first = count;
+            for (int i = skipped; i < added.size(); i++) {
+                lines[(head + count) % lines.length] = added.get(i);
+                count++;
+            }
+            if (count > first) {
+                fireIntervalAdded(this, first, count - 1);
+            }
+            return evicted + skipped;
+        }
+
+        void insert(int index, ChatLine line) {
+            if (count == lines.length) {
+                count--;
+                lines[(head + count) % lines.length] = null;
+                fireIntervalRemoved(this, count, count);
+            }
+            head = (head + lines.length - 1) % lines.length;
+            count++;
+            for (int i = 0; i < index; i++) {
+                lines[(head + i) % lines.length] = lines[(head + i + 1) % lines.length];
+            }
+            lines[(head + index) % lines.length] = line;
+            fireIntervalAdded(this, index, index);
+        }
+    }
+
+    // Une ligne : horodatage en gris, texte dans sa couleur, fichier souligné. Les composants
+    // et les polices sont créés une fois et réutilisés pour chaque ligne dessinée.
+    private static final class LineRenderer extends JPanel implements ListCellRenderer<ChatLine> {
+        private static final long serialVersionUID = 1L;
+        private final JLabel timestamp = new JLabel();
+        private final JLabel text = new JLabel();
+        private final Font textFont;
+        private final Font fileFont;
+
+        LineRenderer(Font font) {
+            super(new BorderLayout());
+            textFont = font;
+            fileFont = font.deriveFont(Font.BOLD)
+                .deriveFont(Collections.singletonMap(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON));
+            timestamp.setFont(font.deriveFont(12f));
+            timestamp.setForeground(TIMESTAMP_COLOR);
+            // Le texte vient des autres utilisateurs : Swing interpréterait "<html>..." comme du HTML
+            // (images distantes, mise en page), il doit s'afficher tel quel
+            text.putClientProperty("html.disable", Boolean.TRUE);
+            add(timestamp, BorderLayout.WEST);
+            add(text, BorderLayout.CENTER);
+            setBackground(Color.WHITE);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends ChatLine> list, ChatLine line,
+                                                      int index, boolean isSelected, boolean cellHasFocus) {
+            timestamp.setText(line.timestamp);
+            text.setText(line.text);
+            text.setForeground(line.color);
+            text.setFont(line.filePath != null ? fileFont : textFont);
+            // Ligne coupée à la largeur de la vue : texte complet en infobulle
+            setToolTipText(line.text);
+            setBackground(isSelected ? list.getSelectionBackground() : Color.WHITE);
+            return this;
+        }
+    }
+}
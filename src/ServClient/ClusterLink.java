@@ -0,0 +1,250 @@
+package ServClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+
+// Lien TCP vers un autre nœud de la grappe (voir ClusterNode). Côté envoi, le lien est une
+// session binaire comme une autre : abonné aux salons qui intéressent le nœud distant, il reçoit
+// les diffusions numérotées et les morceaux de fichier par les mêmes trames partagées que les
+// clients, dans une file d'envoi plus grande qui fait patienter l'expéditeur plutôt que de
+// couper le lien. Côté réception, il traite les trames NODE_* et les fichiers relayés.
+public class ClusterLink extends ChatServer.ClientHandler {
+    // Diffusions transmises au nœud responsable en attente de leur retour, pour en écarter
+    // l'expéditeur ; les plus anciennes sont oubliées (nœud responsable parti entre-temps)
+    private static final int MAX_PENDING = 10000;
+
+    private final ClusterNode node;
+    private final boolean initiatedHere;
+    private final InetSocketAddress address;
+    private volatile String remoteId;
+    private volatile long remoteEpoch;
+    // Défi envoyé au nœud distant, et identifiant qu'il annonce en attendant sa preuve
+    private final long challenge = ClusterNode.newChallenge();
+    private String helloId;
+    private boolean registered = false;
+
+    private final Map<Long, ChatPeer> pendingSenders = new LinkedHashMap<Long, ChatPeer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ChatPeer> eldest) {
+            return size() > MAX_PENDING;
+        }
+    };
+
+    // Fichiers reçus du nœud distant, relayés aux clients locaux (thread de lecture uniquement)
+    private final Map<Long, FileRelay> transfers = new HashMap<>();
+
+    ClusterLink(ClusterNode node, SocketChannel socket, boolean initiatedHere, InetSocketAddress address) throws IOException {
+        super(socket, new OutboundQueue(ChatServer.queueCapacity * 16, OutboundQueue.OverflowPolicy.BACKPRESSURE,
+            ChatServer.backpressureTimeoutMs));
+        this.node = node;
+        this.initiatedHere = initiatedHere;
+        this.address = address;
+    }
+
+    boolean initiatedHere() {
+        return initiatedHere;
+    }
+
+    String remoteId() {
+        return remoteId;
+    }
+
+    long remoteEpoch() {
+        return remoteEpoch;
+    }
+
+    // Pas d'invite ni de nom : chaque nœud se présente avec son défi puis ne parle que par trames
+    @Override
+    protected void converse() throws IOException {
+        enableBinary(FrameCodec.VERSION);
+        enqueue(false, FrameCodec.encodeNode(FrameCodec.NODE_HELLO, node.epoch, challenge, node.id));
+        readFrames();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ---- Envoi ----
+
+    void sendInterest(String room, boolean subscribed) {
+        enqueue(false, FrameCodec.encodeNode(FrameCodec.NODE_ROOMS, subscribed ? 1 : 0, 0, room));
+    }
+
+    // Transmettre une diffusion locale au nœud responsable du salon
+    void forward(long originSequence, String room, String message, ChatPeer sender) {
+        if (sender != null) {
+            synchronized (pendingSenders) {
+                pendingSenders.put(originSequence, sender);
+            }
+        }
+        enqueue(false, FrameCodec.encodeNode(FrameCodec.NODE_FORWARD, originSequence, 0, room + "\n" + message));
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        // Message adressé à un seul client : rien à transmettre au nœud
+    }
+
+    @Override
+    public void sendBroadcast(BroadcastMessage message) {
+        // Seul le nœud responsable du salon relaie ; les autres ne font que distribuer à leurs clients
+        if (message.relayedToNodes()) {
+            SharedFrame frame = message.nodeFrame();
+            enqueue(false, new OutboundFrame(frame, frame.plainBuffers()));
+        }
+    }
+
+    @Override
+    public void sendFileStart(long transferId, String room, String fileName, long fileSize) {
+        enqueueFile(FrameCodec.encodeNode(FrameCodec.NODE_FILE_START, transferId, fileSize, room + "\n" + fileName));
+    }
+
+    // Fichier complet sur disque : morceaux envoyés par transferTo, détachés un à un par la file d'envoi
+    @Override
+    public void sendSpooledFile(long transferId, String room, String fileName, SpooledFile file) {
+        long fileSize;
+        try {
+            fileSize = file.size();
+        } catch (IOException e) {
+            System.err.println("Fichier en attente illisible: " + e.getMessage());
+            return;
+        }
+        sendFileStart(transferId, room, fileName, fileSize);
+        enqueueFileRegion(transferId, file, 0, fileSize);
+        sendFileEnd(transferId);
+    }
+
+    // Le nœud distant n'a pas forcément le fichier dans son magasin : envoyer le contenu
+    @Override
+    public void sendStoredFile(long transferId, String room, String fileName, byte[] hash, SpooledFile file) {
+        sendSpooledFile(transferId, room, fileName, file);
+    }
+
+    @Override
+    protected void slowConsumer() {
+        ServerLog.info("Lien vers le nœud " + remoteId + " saturé, fermeture");
+        close();
+    }
+
+    // ---- Réception ----
+
+    @Override
+    protected long onFrame(byte type, ByteBuffer payload) {
+        if (type == FrameCodec.NODE_HELLO) {
+            if (helloId != null) {
+                return Protocol.END_OF_SESSION;
+            }
+            remoteEpoch = FrameCodec.getVarLong(payload);
+            long remoteChallenge = FrameCodec.getVarLong(payload);
+            helloId = FrameCodec.getText(payload);
+            clientName = "nœud " + helloId;
+            enqueue(false, FrameCodec.encodeNode(FrameCodec.NODE_AUTH, 0, 0, node.proof(remoteChallenge, node.id, helloId)));
+            return 0;
+        }
+        if (type == FrameCodec.NODE_AUTH) {
+            FrameCodec.getVarLong(payload);
+            FrameCodec.getVarLong(payload);
+            if (helloId == null || registered) {
+                return Protocol.END_OF_SESSION;
+            }
+            if (!node.verify(challenge, helloId, FrameCodec.getText(payload))) {
+                ServerLog.info("Lien de la grappe refusé : " + clientName + " ne connaît pas le secret");
+                return Protocol.END_OF_SESSION;
+            }
+            if (!node.register(this, helloId, address)) {
+                return Protocol.END_OF_SESSION;
+            }
+            remoteId = helloId;
+            registered = true;
+            return 0;
+        }
+        if (!registered) {
+            // Trame HELLO du protocole client envoyée par enableBinary, ou nœud pas encore authentifié
+            return 0;
+        }
+        switch (type) {
+            case FrameCodec.NODE_ROOMS: {
+                boolean subscribed = FrameCodec.getVarLong(payload) == 1;
+                FrameCodec.getVarLong(payload);
+                String room = FrameCodec.getText(payload);
+                if (subscribed) {
+                    ChatServer.subscribe(room, this);
+                } else {
+                    ChatServer.unsubscribe(room, this);
+                }
+                break;
+            }
+            case FrameCodec.NODE_FORWARD: {
+                long originSequence = FrameCodec.getVarLong(payload);
+                FrameCodec.getVarLong(payload);
+                String[] parts = FrameCodec.getText(payload).split("\n", 2);
+                node.sequence(parts[0], parts[1], null, remoteId, originSequence);
+                break;
+            }
+            case FrameCodec.NODE_MSG: {
+                long sequence = FrameCodec.getVarLong(payload);
+                long originSequence = FrameCodec.getVarLong(payload);
+                String[] parts = FrameCodec.getText(payload).split("\n", 3);
+                ChatPeer sender = null;
+                if (parts[1].equals(node.id)) {
+                    synchronized (pendingSenders) {
+                        sender = pendingSenders.remove(originSequence);
+                    }
+                }
+                node.onSequenced(this, sequence, parts[0], parts[2], sender);
+                break;
+            }
+            case FrameCodec.NODE_FILE_START: {
+                long transferId = FrameCodec.getVarLong(payload);
+                long fileSize = FrameCodec.getVarLong(payload);
+                String[] parts = FrameCodec.getText(payload).split("\n", 2);
+                transfers.put(transferId, new FileRelay(this, clientName, parts[0], parts[1], fileSize,
+                    ChatServer.localSubscribers(parts[0]), false));
+                break;
+            }
+            case FrameCodec.FILE_CHUNK: {
+                FileRelay relay = transfers.get(FrameCodec.getVarLong(payload));
+                if (relay != null) {
+                    relay.relayFrame(payload);
+                }
+                break;
+            }
+            case FrameCodec.FILE_END: {
+                FileRelay relay = transfers.remove(FrameCodec.getVarLong(payload));
+                if (relay != null) {
+                    relay.finish();
+                }
+                break;
+            }
+            case FrameCodec.FILE_ABORT: {
+                FileRelay relay = transfers.remove(FrameCodec.getVarLong(payload));
+                if (relay != null) {
+                    relay.abort();
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return 0;
+    }
+
+    // Lien coupé : les salons du nœud distant ne le concernent plus, ses fichiers sont interrompus
+    @Override
+    protected void onDisconnect() {
+        for (FileRelay relay : transfers.values()) {
+            relay.abort();
+        }
+        transfers.clear();
+        ChatServer.unsubscribeEverywhere(this);
+        node.unregister(this, remoteId);
+    }
+}
@@ -0,0 +1,361 @@
+package ServClient;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Nœud d'une grappe de serveurs : chaque nœud garde ses propres clients et relie les autres
+// nœuds par un lien TCP (ClusterLink, port --cluster-port). Une grappe de test sur une machine :
+//   java ServClient.ChatServer --port=8001 --cluster-port=7001
+//   java ServClient.ChatServer --port=8002 --cluster-port=7002 --cluster-peers=localhost:7001
+//   java ServClient.ChatServer --port=8003 --cluster-port=7003 --cluster-peers=localhost:7001,localhost:7002
+// Les liens écoutent sur la boucle locale ; entre machines, --cluster-bind=adresse exige un
+// --cluster-secret commun : chaque nœud prouve qu'il le connaît en répondant au défi de l'autre
+// (NODE_HELLO puis NODE_AUTH), sans jamais le transmettre. Le secret n'apporte pas de
+// chiffrement : les messages des salons circulent en clair entre les nœuds.
+//
+// Routage :
+//  - chaque nœud annonce à tous les autres les salons auxquels ses clients sont abonnés
+//    (NODE_ROOMS) ; le lien d'un nœud est abonné à ces salons comme un client, un nœud ne
+//    reçoit donc que les salons de ses utilisateurs
+//  - chaque salon a un nœud responsable, choisi par hachage cohérent du nom du salon sur un
+//    anneau des nœuds joignables (VIRTUAL_NODES points par nœud : l'arrivée ou le départ d'un
+//    nœud ne déplace qu'une part des salons)
+//  - une diffusion est transmise au nœud responsable (NODE_FORWARD), qui la numérote puis la
+//    distribue à ses clients et aux nœuds abonnés (NODE_MSG) : tous les nœuds voient les
+//    messages d'un salon dans le même ordre, et écartent un numéro déjà reçu (doublon)
+//  - un fichier va directement du nœud de l'expéditeur aux nœuds abonnés au salon ; son
+//    annonce est une diffusion ordinaire
+// Si les nœuds ne voient pas les mêmes voisins (lien coupé d'un seul côté), un salon peut avoir
+// deux responsables le temps que les liens se rétablissent ; l'ordre n'est alors plus garanti.
+public class ClusterNode {
+    private static final int VIRTUAL_NODES = 64;
+    private static final long RECONNECT_MS = 2000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    final String id;
+    // Époque du nœud : un nœud redémarré recommence ses numéros, ses pairs remettent leur suivi à zéro
+    final long epoch = System.currentTimeMillis();
+    private final InetAddress bindAddress;
+    private final int port;
+    private final List<InetSocketAddress> peers = new ArrayList<>();
+    // Clé HMAC du secret de grappe, null sans secret
+    private final SecretKeySpec secret;
+
+    // Liens établis, par identifiant du nœud distant, et identifiant connu de chaque adresse jointe
+    private final ConcurrentHashMap<String, ClusterLink> links = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetSocketAddress, String> peerIds = new ConcurrentHashMap<>();
+
+    // Anneau de hachage cohérent, remplacé à chaque changement des liens
+    private volatile Ring ring;
+
+    // Ordre de chaque salon : numérotation (nœud responsable) ou dernier numéro distribué (autres nœuds)
+    private final ConcurrentHashMap<String, RoomOrder> orders = new ConcurrentHashMap<>();
+    private final AtomicLong originSequence = new AtomicLong();
+
+    // Salons auxquels des clients de ce nœud sont abonnés (nombre d'abonnés locaux)
+    private final Map<String, Integer> localRooms = new HashMap<>();
+    private final ReentrantLock interestLock = new ReentrantLock();
+
+    public ClusterNode(String id, InetAddress bindAddress, int port, String peerList, String secret) {
+        this.id = id;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret.isEmpty() ? null : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        for (String peer : peerList.split(",")) {
+            if (!peer.isEmpty()) {
+                int colon = peer.lastIndexOf(':');
+                peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+            }
+        }
+        rebuildRing();
+    }
+
+    // Écouter les liens entrants et joindre les nœuds configurés (en réessayant tant qu'ils sont absents)
+    public void start() throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(bindAddress, port));
+        Thread acceptor = new Thread(() -> accept(listener), "grappe");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (InetSocketAddress peer : peers) {
+            Thread connector = new Thread(() -> connect(peer), "grappe " + peer);
+            connector.setDaemon(true);
+            connector.start();
+        }
+        ServerLog.info("Nœud " + id + " de la grappe, liens sur " + bindAddress.getHostAddress() + ":" + port
+            + (secret != null ? " (secret partagé)" : ""));
+    }
+
+    private void accept(ServerSocketChannel listener) {
+        while (true) {
+            try {
+                SocketChannel channel = listener.accept();
+                ChatServer.startHandler(new ClusterLink(this, channel, false, null));
+            } catch (IOException e) {
+                System.err.println("Erreur de la grappe: " + e.getMessage());
+            }
+        }
+    }
+
+    private void connect(InetSocketAddress peer) {
+        while (true) {
+            String peerId = peerIds.get(peer);
+            if (peerId == null || !links.containsKey(peerId)) {
+                try {
+                    SocketChannel channel = SocketChannel.open(peer);
+                    ClusterLink link = new ClusterLink(this, channel, true, peer);
+                    // Le lien s'exécute dans ce thread : une nouvelle tentative suit sa fermeture
+                    link.run();
+                } catch (IOException e) {
+                    // Nœud absent : réessayer plus tard
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // ---- Liens ----
+
+    // Défi d'un lien, envoyé dans NODE_HELLO
+    static long newChallenge() {
+        return RANDOM.nextLong();
+    }
+
+    // Preuve de la connaissance du secret en réponse au défi du destinataire ; elle ne vaut que
+    // pour ce défi et ce sens du lien (un nœud ne peut pas renvoyer au défieur sa propre preuve)
+    String proof(long challenge, String from, String to) {
+        if (secret == null) {
+            return "";
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            byte[] digest = mac.doFinal((challenge + "\n" + from + "\n" + to).getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 indisponible", e);
+        }
+    }
+
+    // Vérifier la preuve du nœud distant en réponse au défi de ce lien (comparaison à temps constant)
+    boolean verify(long challenge, String remoteId, String proof) {
+        return MessageDigest.isEqual(proof(challenge, remoteId, id).getBytes(StandardCharsets.UTF_8),
+            proof.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Le nœud distant s'est présenté ; renvoie false si le lien fait double emploi
+    boolean register(ClusterLink link, String remoteId, InetSocketAddress address) {
+        if (remoteId.equals(id)) {
+            System.err.println("Lien de la grappe vers soi-même ignoré");
+            return false;
+        }
+        if (address != null) {
+            peerIds.put(address, remoteId);
+        }
+        ClusterLink existing = links.putIfAbsent(remoteId, link);
+        if (existing != null) {
+            // Deux liens entre les mêmes nœuds : chacun garde celui ouvert par le plus petit identifiant
+            boolean keepNew = link.initiatedHere() == (id.compareTo(remoteId) < 0);
+            if (!keepNew || !links.replace(remoteId, existing, link)) {
+                return false;
+            }
+            existing.close();
+        }
+        ServerLog.info("Nœud " + remoteId + " rejoint la grappe");
+        rebuildRing();
+        interestLock.lock();
+        try {
+            for (String room : localRooms.keySet()) {
+                link.sendInterest(room, true);
+            }
+        } finally {
+            interestLock.unlock();
+        }
+        return true;
+    }
+
+    void unregister(ClusterLink link, String remoteId) {
+        if (remoteId != null && links.remove(remoteId, link)) {
+            ServerLog.info("Nœud " + remoteId + " a quitté la grappe");
+            rebuildRing();
+        }
+    }
+
+    int size() {
+        return links.size() + 1;
+    }
+
+    // ---- Hachage cohérent ----
+
+    // Nœud responsable d'un salon
+    String home(String room) {
+        return ring.home(room);
+    }
+
+    private synchronized void rebuildRing() {
+        List<String> nodes = new ArrayList<>(links.keySet());
+        nodes.add(id);
+        ring = new Ring(nodes);
+    }
+
+    // FNV-1a 64 bits suivi d'un brassage (finaliseur de MurmurHash3)
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // ---- Diffusion ----
+
+    // Diffusion d'un client de ce nœud
+    boolean broadcast(String room, String message, ChatPeer sender) {
+        String home = home(room);
+        ClusterLink link = home.equals(id) ? null : links.get(home);
+        if (link == null) {
+            return sequence(room, message, sender, id, originSequence.incrementAndGet());
+        }
+        // Distribuée ici quand elle reviendra numérotée ; l'expéditeur en sera alors écarté
+        ServerMetrics.clusterForwarded.increment();
+        link.forward(originSequence.incrementAndGet(), room, message, sender);
+        return ChatServer.hasSubscribers(room);
+    }
+
+    // Nœud responsable : numéroter puis distribuer (verrou du salon : même ordre partout)
+    boolean sequence(String room, String message, ChatPeer sender, String originNode, long originSeq) {
+        RoomOrder order = orders.computeIfAbsent(room, key -> new RoomOrder());
+        order.lock.lock();
+        try {
+            long sequence = ++order.sequence;
+            return ChatServer.deliver(room, new BroadcastMessage(message, room, sequence, originNode, originSeq), sender);
+        } finally {
+            order.lock.unlock();
+        }
+    }
+
+    // Diffusion numérotée reçue du nœud responsable : écarter les doublons, distribuer aux clients locaux
+    void onSequenced(ClusterLink from, long sequence, String room, String message, ChatPeer sender) {
+        RoomOrder order = orders.computeIfAbsent(room, key -> new RoomOrder());
+        order.lock.lock();
+        try {
+            String sequencer = from.remoteId() + "/" + from.remoteEpoch();
+            if (!sequencer.equals(order.sequencer)) {
+                // Nouveau responsable (changement de l'anneau ou redémarrage) : nouvelle numérotation
+                order.sequencer = sequencer;
+                order.delivered = sequence - 1;
+            }
+            if (sequence <= order.delivered) {
+                ServerMetrics.clusterDuplicates.increment();
+                return;
+            }
+            if (sequence > order.delivered + 1) {
+                ServerMetrics.clusterGaps.increment();
+                ServerLog.info("Messages perdus dans " + room + " : " + (sequence - order.delivered - 1));
+            }
+            order.delivered = sequence;
+            ServerMetrics.clusterRelayed.increment();
+            ChatServer.deliver(room, new BroadcastMessage(message), sender);
+        } finally {
+            order.lock.unlock();
+        }
+    }
+
+    // ---- Abonnements ----
+
+    void localSubscribed(String room) {
+        interestLock.lock();
+        try {
+            if (localRooms.merge(room, 1, Integer::sum) == 1) {
+                // Les diffusions du salon manquées depuis le dernier abonnement ne sont pas des pertes
+                RoomOrder order = orders.get(room);
+                if (order != null) {
+                    order.lock.lock();
+                    try {
+                        order.sequencer = null;
+                    } finally {
+                        order.lock.unlock();
+                    }
+                }
+                for (ClusterLink link : links.values()) {
+                    link.sendInterest(room, true);
+                }
+            }
+        } finally {
+            interestLock.unlock();
+        }
+    }
+
+    void localUnsubscribed(String room) {
+        interestLock.lock();
+        try {
+            Integer count = localRooms.get(room);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                localRooms.put(room, count - 1);
+                return;
+            }
+            localRooms.remove(room);
+            for (ClusterLink link : links.values()) {
+                link.sendInterest(room, false);
+            }
+        } finally {
+            interestLock.unlock();
+        }
+    }
+
+    // Points de l'anneau et nœud responsable de chaque salon déjà consulté
+    private static class Ring {
+        private final TreeMap<Long, String> points = new TreeMap<>();
+        private final ConcurrentHashMap<String, String> homes = new ConcurrentHashMap<>();
+
+        Ring(List<String> nodes) {
+            for (String node : nodes) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    points.put(hash(node + "#" + i), node);
+                }
+            }
+        }
+
+        String home(String room) {
+            return homes.computeIfAbsent(room, key -> {
+                Map.Entry<Long, String> entry = points.ceilingEntry(hash(key));
+                return entry != null ? entry.getValue() : points.firstEntry().getValue();
+            });
+        }
+    }
+
+    private static class RoomOrder {
+        final ReentrantLock lock = new ReentrantLock();
+        // Nœud responsable : dernier numéro attribué
+        long sequence;
+        // Autres nœuds : responsable (identifiant/époque) et dernier numéro distribué
+        String sequencer;
+        long delivered;
+    }
+}
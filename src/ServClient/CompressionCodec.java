@@ -0,0 +1,63 @@
+package ServClient;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Algorithme de compression des trames binaires, négocié par connexion (voir FrameCodec.COMPRESSED).
+// Deux modes :
+//  - par trame (FRAME) : chaque trame est compressée indépendamment ; le serveur compresse ainsi
+//    une diffusion une seule fois et partage le résultat entre tous les destinataires
+//  - en flux (STREAM) : le contexte (dictionnaire) est conservé d'une trame à l'autre dans un
+//    sens de la connexion, meilleur taux pour les petits messages d'un même client
+// Ajouter un algorithme : l'implémenter et l'enregistrer dans create() et NAMES.
+public interface CompressionCodec {
+    byte FRAME = 0;
+    byte STREAM = 1;
+
+    // Algorithmes disponibles, par ordre de préférence
+    List<String> NAMES = Collections.singletonList(DeflateCodec.NAME);
+
+    String name();
+
+    // Compresser ; en mode trame, renvoie null si le gain ne vaut pas la trame compressée
+    byte[] compress(byte[] data, int offset, int length);
+
+    // Décompresser ; IOException si les données sont invalides ou dépassent maxLength octets
+    byte[] decompress(byte[] data, int offset, int length, int maxLength) throws IOException;
+
+    static CompressionCodec create(String name, boolean streaming) {
+        if (DeflateCodec.NAME.equals(name)) {
+            return new DeflateCodec(streaming);
+        }
+        throw new IllegalArgumentException("Compression inconnue: " + name);
+    }
+
+    // ---- Compresseurs partagés par le serveur (mode trame) ----
+
+    // Réserve de compresseurs par algorithme : les threads (virtuels compris) les empruntent le
+    // temps d'une trame au lieu d'en garder chacun un, avec sa mémoire native
+    Map<String, Queue<CompressionCodec>> POOL = new ConcurrentHashMap<>();
+
+    static CompressionCodec borrow(String name) {
+        CompressionCodec codec = POOL.computeIfAbsent(name, key -> new ConcurrentLinkedQueue<>()).poll();
+        return codec != null ? codec : create(name, false);
+    }
+
+    static void giveBack(CompressionCodec codec) {
+        POOL.get(codec.name()).offer(codec);
+    }
+
+    // ---- Types de fichiers déjà compressés ----
+
+    Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "pdf", "jpg", "jpeg", "png", "gif", "webp", "heic", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar",
+        "jar", "apk", "mp3", "m4a", "ogg", "mp4", "mkv", "avi", "mov", "webm", "docx", "xlsx", "pptx", "odt"));
+
+    // Le contenu de ce fichier a-t-il des chances de se compresser (d'après son extension) ?
+    static boolean isCompressible(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 || !COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,79 @@
+package ServClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression Deflate du JDK (java.util.zip), sans en-tête zlib.
+// En mode flux, chaque trame se termine par un SYNC_FLUSH : le destinataire peut la décompresser
+// dès réception, et le dictionnaire des trames précédentes reste utilisé pour les suivantes.
+public class DeflateCodec implements CompressionCodec {
+    public static final String NAME = "deflate";
+
+    private final boolean streaming;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] buffer = new byte[16 * 1024];
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+
+    public DeflateCodec(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        output.reset();
+        deflater.setInput(data, offset, length);
+        if (streaming) {
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                output.write(buffer, 0, count);
+            } while (count == buffer.length);
+            return output.toByteArray();
+        }
+        deflater.finish();
+        // Trame compressée au moins 1/8 plus petite, sinon l'envoyer telle quelle
+        int limit = length - length / 8;
+        while (!deflater.finished() && output.size() < limit) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        boolean worthIt = deflater.finished() && output.size() < limit;
+        deflater.reset();
+        return worthIt ? output.toByteArray() : null;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int maxLength) throws IOException {
+        output.reset();
+        inflater.setInput(data, offset, length);
+        try {
+            while (true) {
+                int count = inflater.inflate(buffer);
+                output.write(buffer, 0, count);
+                if (output.size() > maxLength) {
+                    throw new IOException("Trame décompressée trop grande");
+                }
+                if (count == 0 && (inflater.needsInput() || inflater.finished())) {
+                    break;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Données compressées invalides");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Données compressées invalides: " + e.getMessage());
+        }
+        if (!streaming) {
+            inflater.reset();
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,284 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Relais d'un fichier en cours de réception : chaque morceau est transmis aux
+// destinataires dès son arrivée, sans jamais conserver le fichier entier en mémoire.
+// Les destinataires (abonnés du salon de l'expéditeur) sont fixés au début du transfert.
+// Avec --spool-uploads, le fichier est d'abord mis en attente sur disque puis envoyé
+// à chaque destinataire par FileChannel.transferTo une fois complet.
+// Si le magasin de fichiers est actif, le contenu y est aussi écrit et conservé sous son
+// empreinte SHA-256 : un nouvel envoi du même fichier n'aura plus à transiter (voir BlobStore).
+// Un envoi annoncé par son empreinte (FILE_OFFER) et interrompu par une déconnexion est gardé
+// --resume-timeout-s secondes (park) : si l'expéditeur revient proposer le même fichier, il
+// reprend après le dernier morceau reçu et les destinataires ne voient aucune interruption.
+public class FileRelay {
+    private static final AtomicLong nextTransferId = new AtomicLong(1);
+
+    // Envois interrompus en attente de reprise, par expéditeur et empreinte
+    private static final ConcurrentHashMap<String, FileRelay> parked = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService expiry;
+
+    private final long transferId = nextTransferId.getAndIncrement();
+    private final String fileName;
+    private final long fileSize;
+    private final String senderName;
+    private final String room;
+    private final List<ChatPeer> recipients = new ArrayList<>();
+    private long received = 0;
+    private SpooledFile spool;
+    private BlobStore.Writer blob;
+    // Clé de reprise (expéditeur et empreinte annoncée), null si l'envoi ne peut pas reprendre
+    private String resumeKey;
+    // Mise en attente en cours : numéro (un envoi repris peut être interrompu de nouveau) et
+    // expiration programmée, annulée à la reprise
+    private volatile long parkGeneration = 0;
+    private volatile ScheduledFuture<?> parkExpiry;
+    
+    // Annoncer le fichier dans le salon une fois reçu (pas pour un fichier venu d'un autre nœud,
+    // dont l'annonce est diffusée par le nœud de l'expéditeur)
+    private final boolean announce;
+    
+    // Les morceaux sont compressés (une fois pour tous les destinataires) tant qu'ils s'y prêtent
+    private boolean compressible;
+
+    public FileRelay(ChatPeer sender, String senderName, String room, String fileName, long fileSize, Collection<ChatPeer> clients) {
+        this(sender, senderName, room, fileName, fileSize, clients, true);
+    }
+
+    public FileRelay(ChatPeer sender, String senderName, String room, String fileName, long fileSize,
+                     Collection<ChatPeer> clients, boolean announce) {
+        this.room = room;
+        this.announce = announce;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.senderName = senderName;
+        this.compressible = !ChatServer.compressionCodecs.isEmpty() && CompressionCodec.isCompressible(fileName);
+        for (ChatPeer client : clients) {
+            if (client != sender) {
+                recipients.add(client);
+            }
+        }
+        if (ChatServer.blobs != null && fileSize <= ChatServer.blobs.maxBlobBytes()) {
+            try {
+                blob = ChatServer.blobs.newWriter();
+            } catch (IOException e) {
+                System.err.println("Conservation du fichier impossible: " + e.getMessage());
+            }
+        }
+        if (ChatServer.spoolUploads) {
+            try {
+                spool = SpooledFile.create();
+                return;
+            } catch (IOException e) {
+                System.err.println("Mise en attente impossible, relais direct: " + e.getMessage());
+            }
+        }
+        for (ChatPeer recipient : recipients) {
+            recipient.sendFileStart(transferId, room, fileName, fileSize);
+        }
+    }
+
+    // Tampon pour un morceau de length octets reçu de l'expéditeur : à remplir depuis sa position
+    // jusqu'à sa limite, puis à passer à relay(). La place devant les données reçoit l'en-tête.
+    // Le tampon compte dans le budget des transferts en cours (ServerLimits) jusqu'à ce qu'il soit rendu.
+    public static PooledBuffer newChunk(int length) {
+        PooledBuffer chunk = BufferPool.acquire(BufferPool.HEADER_ROOM + length);
+        chunk.charge();
+        chunk.buffer().position(BufferPool.HEADER_ROOM);
+        return chunk;
+    }
+
+    // Relayer les données d'une trame FILE_CHUNK reçue (payload n'est valable que pendant l'appel) :
+    // le morceau est partagé par les files des destinataires, il est donc copié hors du tampon de
+    // réception, dans des tampons de la réserve d'au plus Protocol.CHUNK_SIZE octets
+    public void relayFrame(ByteBuffer payload) {
+        while (payload.hasRemaining()) {
+            PooledBuffer chunk = newChunk(Math.min(payload.remaining(), Protocol.CHUNK_SIZE));
+            ByteBuffer slice = payload.duplicate();
+            slice.limit(slice.position() + chunk.buffer().remaining());
+            chunk.buffer().put(slice);
+            payload.position(slice.position());
+            relay(chunk);
+        }
+    }
+
+    // Relayer un morceau rempli (voir newChunk) ; le tampon est confié au relais, qui le rend
+    // à la réserve une fois le morceau envoyé à tous les destinataires
+    public void relay(PooledBuffer chunk) {
+        ByteBuffer data = chunk.buffer();
+        data.position(BufferPool.HEADER_ROOM);
+        int length = data.remaining();
+        received += length;
+        ServerMetrics.fileBytesRelayed.add(length);
+        if (blob != null) {
+            try {
+                blob.append(data);
+            } catch (IOException e) {
+                System.err.println("Erreur d'écriture dans le magasin: " + e.getMessage());
+                blob.abort();
+                blob = null;
+            }
+        }
+        if (spool != null) {
+            try {
+                spool.append(data);
+            } catch (IOException e) {
+                System.err.println("Erreur d'écriture du fichier en attente: " + e.getMessage());
+                spool.release();
+                spool = null;
+                recipients.clear();
+            }
+            chunk.release();
+            return;
+        }
+        // En-tête encodé une seule fois, juste devant les données : la trame est d'un seul tenant,
+        // partagée par tous les destinataires
+        ByteBuffer content = data.asReadOnlyBuffer();
+        int start = BufferPool.HEADER_ROOM - FrameCodec.chunkHeaderSize(transferId, length);
+        data.position(start);
+        FrameCodec.putChunkHeader(data, transferId, length);
+        data.position(start);
+        SharedFrame frame = new SharedFrame(compressible, chunk, data);
+        for (ChatPeer recipient : recipients) {
+            recipient.sendFileChunk(transferId, content, frame);
+        }
+        if (!frame.isCompressible()) {
+            // Contenu déjà compressé malgré son extension : ne plus essayer pour ce fichier
+            compressible = false;
+        }
+        frame.release();
+    }
+
+    // Le fichier est complet
+    public void finish() {
+        ServerMetrics.filesRelayed.increment();
+        ServerLog.info("Fichier reçu de " + senderName + ": " + fileName);
+        if (blob != null) {
+            try {
+                if (received == fileSize) {
+                    blob.commit();
+                } else {
+                    blob.abort();
+                }
+            } catch (IOException e) {
+                System.err.println("Conservation du fichier impossible: " + e.getMessage());
+                blob.abort();
+            }
+        }
+        if (announce) {
+            ChatServer.broadcast(room, "MSG:" + ChatServer.roomLabel(room) + "Serveur: " + senderName + " a partagé un fichier: " + fileName, null);
+        }
+        if (spool != null) {
+            for (ChatPeer recipient : recipients) {
+                recipient.sendSpooledFile(transferId, room, fileName, spool);
+            }
+            spool.release();
+            return;
+        }
+        for (ChatPeer recipient : recipients) {
+            recipient.sendFileEnd(transferId);
+        }
+    }
+
+    // Envoi annoncé par FILE_OFFER : il pourra reprendre après une déconnexion
+    public void resumable(String senderName, byte[] hash) {
+        resumeKey = senderName + "\n" + BlobStore.toHex(hash);
+    }
+
+    // L'expéditeur s'est déconnecté : garder l'envoi pour une reprise, ou renvoyer false s'il
+    // ne peut pas reprendre (il faut alors l'interrompre)
+    public boolean park() {
+        if (resumeKey == null || ChatServer.resumeTimeoutMs <= 0) {
+            return false;
+        }
+        // Numéro changé avant l'entrée dans la table : l'expiration d'une mise en attente
+        // précédente ne retire plus ce relais
+        long generation = ++parkGeneration;
+        FileRelay previous = parked.put(resumeKey, this);
+        if (previous != null) {
+            previous.abort();
+        }
+        ServerLog.info("Envoi interrompu gardé pour reprise : " + fileName + " (" + received + "/" + fileSize + " octets)");
+        parkExpiry = expiry().schedule(() -> {
+            if (parkGeneration == generation && parked.remove(resumeKey, this)) {
+                abort();
+            }
+        }, ChatServer.resumeTimeoutMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // L'expéditeur propose de nouveau un fichier : envoi interrompu à reprendre, ou null
+    public static FileRelay resume(String senderName, byte[] hash) {
+        FileRelay relay = parked.remove(senderName + "\n" + BlobStore.toHex(hash));
+        if (relay != null) {
+            ScheduledFuture<?> timer = relay.parkExpiry;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            ServerMetrics.uploadsResumed.increment();
+            ServerLog.info("Reprise de l'envoi de " + senderName + ": " + relay.fileName + " à l'octet " + relay.received);
+        }
+        return relay;
+    }
+
+    private static synchronized ScheduledExecutorService expiry() {
+        if (expiry == null) {
+            expiry = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "reprises");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return expiry;
+    }
+
+    // L'expéditeur est parti avant la fin du fichier
+    public void abort() {
+        ServerMetrics.filesAborted.increment();
+        if (blob != null) {
+            blob.abort();
+        }
+        ServerLog.info("Transfert interrompu de " + senderName + ": " + fileName
+            + " (" + received + "/" + fileSize + " octets)");
+        if (spool != null) {
+            spool.release();
+            return;
+        }
+        for (ChatPeer recipient : recipients) {
+            recipient.sendFileAbort(transferId);
+        }
+    }
+
+    // Fichier annoncé par son empreinte et déjà présent dans le magasin : rien à recevoir,
+    // chaque destinataire reçoit une référence ou le contenu lu sur disque
+    public static void sendStored(ChatPeer sender, String senderName, String room, String fileName,
+                                  byte[] hash, SpooledFile blob, Collection<ChatPeer> clients) {
+        long transferId = nextTransferId.getAndIncrement();
+        ServerMetrics.filesDeduplicated.increment();
+        try {
+            ServerMetrics.uploadBytesSaved.add(blob.size());
+        } catch (IOException e) {
+            // Taille seulement utile aux métriques
+        }
+        ServerLog.info("Fichier déjà présent, envoyé par " + senderName + ": " + fileName);
+        ChatServer.broadcast(room, "MSG:" + ChatServer.roomLabel(room) + "Serveur: " + senderName + " a partagé un fichier: " + fileName, null);
+        for (ChatPeer client : clients) {
+            if (client != sender) {
+                client.sendStoredFile(transferId, room, fileName, hash, blob);
+            }
+        }
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+}
@@ -0,0 +1,160 @@
+package ServClient;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Envoi d'un fichier en trames binaires FILE_START/FILE_CHUNK/FILE_END sur un canal bloquant
+// (SocketChannel, ou TlsChannel pour une connexion chiffrée).
+// Par défaut les données passent du fichier à la socket par FileChannel.transferTo :
+// le noyau les copie directement, elles n'entrent jamais dans le tas Java.
+// Chaque trame est écrite sous writeLock, les messages peuvent donc s'intercaler entre deux morceaux.
+// Un envoi repris (fromOffset > 0, voir FrameCodec.FILE_RESUME) commence à cet octet, sans FILE_START.
+public final class FileSender {
+    // Place réservée devant les données d'un morceau pour son en-tête FILE_CHUNK
+    private static final int HEADER_ROOM = 16;
+
+    private FileSender() {
+    }
+
+    public static void send(WritableByteChannel channel, ReentrantLock writeLock, Path file, long transferId) throws IOException {
+        send(channel, writeLock, file, transferId, true);
+    }
+
+    // Envoi compressé (contexte de flux <codec>, partagé avec les autres trames de la connexion) :
+    // les données passent forcément par le tas. Si les premiers morceaux ne gagnent presque rien,
+    // la suite part sans compression.
+    public static void sendCompressed(WritableByteChannel channel, ReentrantLock writeLock, Path file, long transferId, CompressionCodec codec) throws IOException {
+        sendCompressed(channel, writeLock, file, transferId, codec, 0);
+    }
+
+    public static void sendCompressed(WritableByteChannel channel, ReentrantLock writeLock, Path file, long transferId, CompressionCodec codec,
+                                      long fromOffset) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (fromOffset == 0) {
+                writeLock.lock();
+                try {
+                    FrameCodec.writeFully(channel, FrameCodec.encodeFileStart(transferId, fileChannel.size(), file.getFileName().toString()));
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            fileChannel.position(fromOffset);
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_ROOM + Protocol.CHUNK_SIZE);
+            int poorChunks = 0;
+            while (true) {
+                buffer.clear();
+                buffer.position(HEADER_ROOM);
+                if (fileChannel.read(buffer) == -1) {
+                    break;
+                }
+                int dataLength = buffer.position() - HEADER_ROOM;
+                if (poorChunks >= 2) {
+                    buffer.flip().position(HEADER_ROOM);
+                    writeLock.lock();
+                    try {
+                        FrameCodec.writeFully(channel, FrameCodec.encodeChunkHeader(transferId, dataLength), buffer);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    continue;
+                }
+                // En-tête FILE_CHUNK placé juste avant les données, pour compresser la trame d'un bloc
+                ByteBuffer chunkHeader = FrameCodec.encodeChunkHeader(transferId, dataLength);
+                int start = HEADER_ROOM - chunkHeader.remaining();
+                buffer.position(start);
+                buffer.put(chunkHeader);
+                int frameLength = HEADER_ROOM + dataLength - start;
+                writeLock.lock();
+                try {
+                    byte[] compressed = codec.compress(buffer.array(), start, frameLength);
+                    if (compressed.length > frameLength - frameLength / 8) {
+                        poorChunks++;
+                    }
+                    FrameCodec.writeFully(channel, FrameCodec.encodeCompressed(CompressionCodec.STREAM, compressed));
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            writeLock.lock();
+            try {
+                FrameCodec.writeFully(channel, FrameCodec.encodeTransfer(FrameCodec.FILE_END, transferId));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // zeroCopy = false : ancien chemin, lecture dans un tableau du tas puis écriture (comparaison)
+    public static void send(WritableByteChannel channel, ReentrantLock writeLock, Path file, long transferId, boolean zeroCopy) throws IOException {
+        send(channel, writeLock, file, transferId, zeroCopy, 0);
+    }
+
+    public static void send(WritableByteChannel channel, ReentrantLock writeLock, Path file, long transferId, boolean zeroCopy,
+                            long fromOffset) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            if (fromOffset == 0) {
+                writeLock.lock();
+                try {
+                    FrameCodec.writeFully(channel, FrameCodec.encodeFileStart(transferId, fileSize, file.getFileName().toString()));
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            if (zeroCopy) {
+                long position = fromOffset;
+                while (position < fileSize) {
+                    long length = Math.min(fileSize - position, Protocol.MAX_CHUNK_SIZE);
+                    writeLock.lock();
+                    try {
+                        FrameCodec.writeFully(channel, FrameCodec.encodeChunkHeader(transferId, length));
+                        long end = position + length;
+                        while (position < end) {
+                            // Canal bloquant : 0 signifie que le fichier a raccourci depuis son annonce
+                            long written = fileChannel.transferTo(position, end - position, channel);
+                            if (written <= 0) {
+                                throw new EOFException("Fichier tronqué pendant l'envoi : " + file);
+                            }
+                            position += written;
+                        }
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            } else {
+                // Tampon direct de la réserve : la socket l'écrit sans copie intermédiaire
+                PooledBuffer pooled = BufferPool.acquire(Protocol.CHUNK_SIZE);
+                fileChannel.position(fromOffset);
+                try {
+                    ByteBuffer buffer = pooled.buffer();
+                    while (fileChannel.read(buffer) != -1) {
+                        buffer.flip();
+                        writeLock.lock();
+                        try {
+                            FrameCodec.writeFully(channel, FrameCodec.encodeChunkHeader(transferId, buffer.remaining()), buffer);
+                        } finally {
+                            writeLock.unlock();
+                        }
+                        buffer.clear();
+                        buffer.limit(Protocol.CHUNK_SIZE);
+                    }
+                } finally {
+                    pooled.release();
+                }
+            }
+
+            writeLock.lock();
+            try {
+                FrameCodec.writeFully(channel, FrameCodec.encodeTransfer(FrameCodec.FILE_END, transferId));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
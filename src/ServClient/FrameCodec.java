@@ -0,0 +1,345 @@
+package ServClient;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Protocole binaire versionné : chaque trame est un octet de type, une longueur en varint
+// (7 bits par octet, poids faibles d'abord) puis le contenu.
+//
+// Négociation : le serveur envoie toujours l'invite texte "Entrez votre nom :". Un client
+// binaire répond par MAGIC suivi de l'octet de version, puis d'une trame HELLO portant son nom ;
+// le serveur répond par une trame HELLO contenant la version retenue. Tout autre premier
+// octet signifie un ancien client qui parle le protocole ligne (voir Protocol).
+//
+// Contenu des trames (texte en UTF-8, identifiants et tailles en varint) :
+//   HELLO        nom (client) ou octet de version (serveur)
+//   MSG          texte du message, au même format que les lignes MSG:
+//   FILE_START   id, taille, nom du fichier
+//   FILE_CHUNK   id, octets du morceau
+//   FILE_END     id
+//   FILE_ABORT   id
+//   EXIT         vide
+//   COMMAND      ligne de commande du protocole texte, pour les commandes peu fréquentes
+//   HISTORY      offset, texte d'un message de l'historique (réponse à COMMAND HISTORY:n)
+//
+// Version 2, fichiers dédupliqués par empreinte SHA-256 (voir BlobStore) :
+//   FILE_OFFER   id, taille, empreinte (32 octets), nom : le client annonce un envoi
+//   FILE_ACCEPT  id, octet 1 si le serveur a déjà le fichier (envoi terminé), 0 pour l'envoyer
+//                ensuite par FILE_START/FILE_CHUNK/FILE_END avec le même id
+//   FILE_REF     id, taille, empreinte, nom : fichier connu du serveur ; le destinataire qui ne
+//                le possède pas le demande par FILE_FETCH (mêmes champs) et le reçoit sous cet id
+//
+// Version 3, reprise des transferts interrompus et téléchargement en plusieurs flux :
+//   FILE_RESUME       id, offset : réponse à FILE_OFFER quand le serveur a gardé un envoi
+//                     interrompu du même fichier par le même utilisateur ; le client reprend à
+//                     offset par FILE_CHUNK/FILE_END sous cet id, sans FILE_START. Précède aussi
+//                     les morceaux d'une réponse à FILE_FETCH_RANGE.
+//   FILE_FETCH_RANGE  id, offset, longueur (0 : jusqu'à la fin), empreinte, nom : demander une
+//                     partie d'un fichier du magasin (reprise d'un téléchargement, ou un flux
+//                     parmi plusieurs) ; réponse FILE_RESUME, FILE_CHUNK..., FILE_END ou FILE_ABORT
+// Une connexion de transfert envoie COMMAND "TRANSFER" au lieu de HELLO : elle ne rejoint pas
+// le chat et ne sert qu'aux demandes FILE_FETCH_RANGE.
+// Identifiants de transfert : le serveur numérote les fichiers qu'il relaie à partir de 1, le
+// client ses annonces, envois et demandes de plage à partir de CLIENT_TRANSFER_IDS. Un FILE_ABORT
+// ou un FILE_RESUME désigne ainsi sans ambiguïté une demande du client ou un fichier relayé.
+//
+// Compression (voir CompressionCodec), négociée après HELLO : le client envoie COMMAND
+// "CAPS:deflate,..." et le serveur répond COMMAND "CAPS:<algorithme retenu>". Ensuite :
+//   COMPRESSED   octet de mode (FRAME : indépendante, STREAM : contexte conservé dans ce sens
+//                de la connexion), puis une ou plusieurs trames complètes compressées
+//
+// Liens entre les nœuds d'une grappe (ClusterLink, port --cluster-port, jamais côté client) :
+// les fichiers passent par FILE_CHUNK/FILE_END/FILE_ABORT, annoncés par NODE_FILE_START.
+//   NODE_HELLO       époque (démarrage du nœud, en ms), défi (nombre aléatoire), identifiant du nœud
+//   NODE_AUTH        0, 0, preuve : HMAC-SHA256 par le secret de grappe de « défi reçu \n émetteur
+//                    \n destinataire », en Base64 (vide sans secret) ; le lien n'est enregistré
+//                    qu'une fois la preuve du nœud distant vérifiée
+//   NODE_ROOMS       1 (abonnement) ou 0 (désabonnement), 0, salon : le nœud a (ou n'a plus)
+//                    d'abonnés locaux à ce salon
+//   NODE_FORWARD     numéro d'origine, 0, salon \n message : diffusion transmise au nœud qui
+//                    ordonne le salon
+//   NODE_MSG         numéro dans le salon, numéro d'origine, salon \n nœud d'origine \n message :
+//                    diffusion ordonnée, relayée aux nœuds qui ont des abonnés au salon
+//   NODE_FILE_START  id, taille, salon \n nom du fichier
+public final class FrameCodec {
+    public static final byte[] MAGIC = { 0, 'C', 'H', 'A', 'T' };
+    public static final int VERSION = 3;
+    public static final int VERSION_DEDUP = 2;
+    public static final int VERSION_RESUME = 3;
+
+    public static final byte HELLO = 1;
+    public static final byte MSG = 2;
+    public static final byte FILE_START = 3;
+    public static final byte FILE_CHUNK = 4;
+    public static final byte FILE_END = 5;
+    public static final byte FILE_ABORT = 6;
+    public static final byte EXIT = 7;
+    public static final byte COMMAND = 8;
+    public static final byte HISTORY = 9;
+    public static final byte FILE_OFFER = 10;
+    public static final byte FILE_ACCEPT = 11;
+    public static final byte FILE_REF = 12;
+    public static final byte FILE_FETCH = 13;
+    public static final byte COMPRESSED = 14;
+    public static final byte FILE_RESUME = 15;
+    public static final byte FILE_FETCH_RANGE = 16;
+    // Commande d'une connexion de transfert, à la place de HELLO
+    public static final String TRANSFER = "TRANSFER";
+    // Premier identifiant de transfert attribué par un client (voir ci-dessus)
+    public static final long CLIENT_TRANSFER_IDS = 1L << 40;
+
+    public static final byte NODE_HELLO = 32;
+    public static final byte NODE_ROOMS = 33;
+    public static final byte NODE_FORWARD = 34;
+    public static final byte NODE_MSG = 35;
+    public static final byte NODE_FILE_START = 36;
+    public static final byte NODE_AUTH = 37;
+
+    // Taille maximale d'une trame reçue par le serveur (un morceau de fichier et son identifiant)
+    public static final int MAX_FRAME_SIZE = Protocol.MAX_CHUNK_SIZE + 16;
+
+    private static final int MAX_HEADER_SIZE = 1 + 10;
+
+    private FrameCodec() {
+    }
+
+    // ---- Encodage ----
+
+    public static ByteBuffer encode(byte type, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + payload.length);
+        buffer.put(type);
+        putVarLong(buffer, payload.length);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeText(byte type, String text) {
+        return encode(type, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Trame ne contenant qu'un identifiant de transfert (FILE_END, FILE_ABORT)
+    public static ByteBuffer encodeTransfer(byte type, long transferId) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 10);
+        buffer.put(type);
+        putVarLong(buffer, varLongSize(transferId));
+        putVarLong(buffer, transferId);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeHistory(long offset, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 10 + text.length);
+        buffer.put(HISTORY);
+        putVarLong(buffer, varLongSize(offset) + text.length);
+        putVarLong(buffer, offset);
+        buffer.put(text);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Trame entre nœuds : deux varint puis un texte
+    public static ByteBuffer encodeNode(byte type, long first, long second, String content) {
+        byte[] text = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 20 + text.length);
+        buffer.put(type);
+        putVarLong(buffer, varLongSize(first) + varLongSize(second) + text.length);
+        putVarLong(buffer, first);
+        putVarLong(buffer, second);
+        buffer.put(text);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeFileStart(long transferId, long fileSize, String fileName) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 20 + name.length);
+        buffer.put(FILE_START);
+        putVarLong(buffer, varLongSize(transferId) + varLongSize(fileSize) + name.length);
+        putVarLong(buffer, transferId);
+        putVarLong(buffer, fileSize);
+        buffer.put(name);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Trame FILE_OFFER, FILE_REF ou FILE_FETCH : fichier désigné par son empreinte
+    public static ByteBuffer encodeFileDigest(byte type, long transferId, long fileSize, byte[] hash, String fileName) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 20 + hash.length + name.length);
+        buffer.put(type);
+        putVarLong(buffer, varLongSize(transferId) + varLongSize(fileSize) + hash.length + name.length);
+        putVarLong(buffer, transferId);
+        putVarLong(buffer, fileSize);
+        buffer.put(hash);
+        buffer.put(name);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeFileResume(long transferId, long offset) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 20);
+        buffer.put(FILE_RESUME);
+        putVarLong(buffer, varLongSize(transferId) + varLongSize(offset));
+        putVarLong(buffer, transferId);
+        putVarLong(buffer, offset);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeFetchRange(long transferId, long offset, long length, byte[] hash, String fileName) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 30 + hash.length + name.length);
+        buffer.put(FILE_FETCH_RANGE);
+        putVarLong(buffer, varLongSize(transferId) + varLongSize(offset) + varLongSize(length) + hash.length + name.length);
+        putVarLong(buffer, transferId);
+        putVarLong(buffer, offset);
+        putVarLong(buffer, length);
+        buffer.put(hash);
+        buffer.put(name);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeFileAccept(long transferId, boolean held) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 11);
+        buffer.put(FILE_ACCEPT);
+        putVarLong(buffer, varLongSize(transferId) + 1);
+        putVarLong(buffer, transferId);
+        buffer.put((byte) (held ? 1 : 0));
+        buffer.flip();
+        return buffer;
+    }
+
+    // Trame COMPRESSED contenant des trames compressées selon <mode>
+    public static ByteBuffer encodeCompressed(byte mode, byte[] compressed) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 1 + compressed.length);
+        buffer.put(COMPRESSED);
+        putVarLong(buffer, 1 + compressed.length);
+        buffer.put(mode);
+        buffer.put(compressed);
+        buffer.flip();
+        return buffer;
+    }
+
+    // En-tête d'un morceau de fichier ; les <dataLength> octets de données suivent à part
+    // (tableau partagé ou région de fichier envoyée par transferTo)
+    public static ByteBuffer encodeChunkHeader(long transferId, long dataLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE + 10);
+        putChunkHeader(buffer, transferId, dataLength);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Écrire l'en-tête d'un morceau sur place, juste avant ses données (voir BufferPool.HEADER_ROOM)
+    public static void putChunkHeader(ByteBuffer buffer, long transferId, long dataLength) {
+        buffer.put(FILE_CHUNK);
+        putVarLong(buffer, varLongSize(transferId) + dataLength);
+        putVarLong(buffer, transferId);
+    }
+
+    public static int chunkHeaderSize(long transferId, long dataLength) {
+        return 1 + varLongSize(varLongSize(transferId) + dataLength) + varLongSize(transferId);
+    }
+
+    public static ByteBuffer handshake() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + 1);
+        buffer.put(MAGIC).put((byte) VERSION);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // ---- Décodage ----
+
+    public static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint trop long");
+    }
+
+    // Lire une varint sur un flux bloquant ; -1 en fin de flux avant le premier octet
+    public static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint trop long");
+    }
+
+    public static byte[] getHash(ByteBuffer payload) {
+        byte[] hash = new byte[BlobStore.HASH_SIZE];
+        payload.get(hash);
+        return hash;
+    }
+
+    public static String getText(ByteBuffer payload) {
+        String text = new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+        payload.position(payload.limit());
+        return text;
+    }
+
+    // Agrandir si besoin un tampon de réception réutilisé
+    public static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() >= capacity) {
+            return buffer;
+        }
+        return ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+    }
+
+    // Lire le contenu d'une trame sur un flux bloquant dans un tampon réutilisé
+    public static ByteBuffer readPayload(DataInputStream in, ByteBuffer buffer, long length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Trame invalide: " + length + " octets");
+        }
+        buffer = ensureCapacity(buffer, (int) length);
+        buffer.clear();
+        in.readFully(buffer.array(), 0, (int) length);
+        buffer.limit((int) length);
+        return buffer;
+    }
+
+    // Écrire des tampons en entier sur un canal bloquant
+    public static void writeFully(WritableByteChannel channel, ByteBuffer... buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
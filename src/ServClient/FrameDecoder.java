@@ -0,0 +1,72 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Décodeur incrémental de trames binaires pour les lectures non bloquantes (NIO) :
+// l'en-tête peut arriver octet par octet, le contenu est accumulé dans un tampon
+// réutilisé d'une trame à l'autre (agrandi seulement pour un morceau de fichier).
+public class FrameDecoder {
+
+    public interface Handler {
+        // Traiter une trame complète ; payload n'est valable que pendant l'appel.
+        // Renvoie false pour arrêter le décodage (client parti).
+        boolean onFrame(byte type, ByteBuffer payload);
+    }
+
+    private int type = -1;
+    private boolean readingLength = false;
+    private long length;
+    private int shift;
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+
+    // Consommer les octets disponibles ; renvoie false si le gestionnaire a demandé l'arrêt
+    public boolean decode(ByteBuffer in, Handler handler) throws IOException {
+        while (true) {
+            if (type != -1 && !readingLength && !payload.hasRemaining()) {
+                // Trame complète
+                payload.flip();
+                byte frameType = (byte) type;
+                type = -1;
+                if (!handler.onFrame(frameType, payload)) {
+                    return false;
+                }
+                continue;
+            }
+            if (!in.hasRemaining()) {
+                return true;
+            }
+
+            if (type == -1) {
+                type = in.get() & 0xFF;
+                readingLength = true;
+                length = 0;
+                shift = 0;
+            } else if (readingLength) {
+                byte b = in.get();
+                length |= (long) (b & 0x7F) << shift;
+                shift += 7;
+                if ((b & 0x80) != 0) {
+                    if (shift >= 64) {
+                        throw new IOException("Varint trop long");
+                    }
+                    continue;
+                }
+                readingLength = false;
+                if (length > FrameCodec.MAX_FRAME_SIZE) {
+                    throw new IOException("Trame invalide: " + length + " octets");
+                }
+                payload = FrameCodec.ensureCapacity(payload, (int) length);
+                payload.clear();
+                payload.limit((int) length);
+            } else {
+                // Copier autant de contenu que possible d'un coup
+                int count = Math.min(in.remaining(), payload.remaining());
+                ByteBuffer slice = in.duplicate();
+                slice.limit(slice.position() + count);
+                payload.put(slice);
+                in.position(in.position() + count);
+            }
+        }
+    }
+}
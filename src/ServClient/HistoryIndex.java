@@ -0,0 +1,900 @@
+package ServClient;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+// Index plein texte de l'historique (HistoryLog) : index inversé terme -> messages, pour
+// retrouver un message par mots, auteur, salon et plage de dates sans parcourir le journal.
+//
+// L'indexation ne touche pas au chemin de diffusion : un thread dédié suit le journal, comme un
+// lecteur de HISTORY, et indexe les messages écrits depuis son dernier passage.
+//  - les nouveaux messages vont dans un segment en mémoire, interrogeable aussitôt
+//  - plein (MEMORY_DOCS messages) ou assez ancien (FLUSH_INTERVAL_NANOS), il est écrit sur disque
+//    en un segment immuable, projeté en mémoire (MappedByteBuffer)
+//  - quand MERGE_FACTOR segments de même niveau se suivent, ils sont fusionnés en un seul
+//    (politique logarithmique : peu de segments à interroger, chaque message réécrit peu de fois)
+// Le journal reste la référence : l'index est reconstruit à partir de lui s'il manque ou est
+// endommagé, et un redémarrage ne réindexe que les messages pas encore écrits sur disque.
+//
+// Un document est un message du journal ; dans un segment, il est désigné par son rang (0..n-1).
+// Termes : mots du message (minuscules, sans accents), auteur et salon, chacun préfixé par son
+// champ (w, u, r) pour ne pas se confondre. Les documents d'un segment, et les segments entre
+// eux, sont rangés par offset donc par date (le journal date les messages de façon croissante) :
+// une plage de dates est une plage de rangs, trouvée par dichotomie.
+//
+// Format d'un segment sur disque ("premier-dernier.idx", premier et dernier offsets indexés) :
+//   en-tête       magie, version, documents, salons, termes (int), position du dictionnaire (long)
+//   documents     offsets (long), dates (long), puis numéro de salon (int) de chaque document
+//   salons        noms (varint longueur + UTF-8)
+//   listes        rangs des documents de chaque terme, croissants, en varint par différence
+//   dictionnaire  termes triés (varint longueur + UTF-8), nombre de documents et position de
+//                 leur liste (varint) ; seul un terme sur DICTIONARY_INTERVAL est gardé dans le tas
+final class HistoryIndex {
+    private static final int MAGIC = 0x43494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int DICTIONARY_INTERVAL = 32;
+
+    private static final int MEMORY_DOCS = 64 * 1024;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MERGE_FACTOR = 8;
+    // Un segment fusionné ne dépasse pas cette taille (fichier bien en deçà de 2 Go)
+    private static final int MAX_SEGMENT_DOCS = 4 * 1024 * 1024;
+    private static final int READ_BATCH = 4096;
+    // Attente du thread d'indexation quand il a rattrapé le journal
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long ERROR_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_NAME_LENGTH = 32;
+    private static final int SEARCH_THREADS = 2;
+    private static final int SEARCH_QUEUE = 256;
+
+    private final HistoryLog log;
+    private final Path directory;
+
+    // Lecteurs : les recherches ; écrivain : le thread d'indexation, qui ajoute au segment en
+    // mémoire et remplace les segments. ReentrantReadWriteLock plutôt que synchronized, pour les
+    // threads virtuels.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private MemorySegment memory = new MemorySegment();
+    // Segments sur disque par offsets croissants (liste remplacée, jamais modifiée)
+    private volatile List<FileSegment> segments;
+
+    // Thread d'indexation seulement
+    private long nextOffset;
+    private long lastTime = 0;
+    private long memorySince;
+    // Premier offset pas encore indexé (métriques)
+    private volatile long indexedOffset;
+
+    private volatile boolean closed = false;
+    private Thread indexer;
+
+    // Recherches : hors des threads clients et des boucles NIO, en nombre borné
+    private final ThreadPoolExecutor searchers = new ThreadPoolExecutor(SEARCH_THREADS, SEARCH_THREADS,
+        0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(SEARCH_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "recherche");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private HistoryIndex(HistoryLog log, Path directory) {
+        this.log = log;
+        this.directory = directory;
+    }
+
+    // Ouvrir (ou créer) l'index d'un journal et démarrer son thread d'indexation
+    public static HistoryIndex open(HistoryLog log, Path directory) throws IOException {
+        HistoryIndex index = new HistoryIndex(log, directory);
+        index.recover();
+        index.indexer = new Thread(index::indexLoop, "history-index");
+        index.indexer.setDaemon(true);
+        index.indexer.start();
+        return index;
+    }
+
+    // Charger les segments existants ; ceux qui restent d'une fusion interrompue (contenus dans
+    // un autre) sont supprimés, et un segment illisible est abandonné avec tous les suivants :
+    // leurs messages sont réindexés depuis le journal
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{idx,tmp}")) {
+            for (Path file : stream) {
+                if (file.toString().endsWith(".tmp")) {
+                    Files.delete(file);
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        // Par premier offset, puis du plus grand segment au plus petit
+        files.sort(Comparator.comparingLong((Path file) -> range(file)[0]).thenComparingLong(file -> -range(file)[1]));
+
+        List<FileSegment> loaded = new ArrayList<>();
+        long covered = -1;
+        boolean broken = false;
+        for (Path file : files) {
+            long[] range = range(file);
+            if (!broken && range[0] > covered && range[1] < log.endOffset()) {
+                try {
+                    loaded.add(FileSegment.open(file));
+                    covered = range[1];
+                    continue;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Segment d'index illisible, réindexation : " + file.getFileName());
+                    broken = true;
+                }
+            }
+            Files.delete(file);
+        }
+        segments = Collections.unmodifiableList(loaded);
+        nextOffset = Math.max(covered + 1, log.startOffset());
+        indexedOffset = nextOffset;
+        ServerLog.info("Index de recherche : " + loaded.size() + " segment(s), reprise à l'offset " + nextOffset);
+    }
+
+    // Premier et dernier offsets d'un fichier "premier-dernier.idx"
+    private static long[] range(Path file) {
+        String name = file.getFileName().toString();
+        String[] parts = name.substring(0, name.length() - ".idx".length()).split("-");
+        return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+    }
+
+    // ---- Indexation ----
+
+    private void indexLoop() {
+        while (!closed) {
+            try {
+                if (indexBatch() == 0) {
+                    if (memory.size() > 0 && System.nanoTime() - memorySince >= FLUSH_INTERVAL_NANOS) {
+                        flush();
+                    }
+                    LockSupport.parkNanos(POLL_NANOS);
+                } else if (memory.size() >= MEMORY_DOCS) {
+                    flush();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Erreur d'indexation de l'historique: " + e.getMessage());
+                LockSupport.parkNanos(ERROR_RETRY_NANOS);
+            }
+        }
+    }
+
+    // Indexer les messages écrits depuis le dernier passage (au plus READ_BATCH) ; renvoie leur nombre
+    private int indexBatch() {
+        if (nextOffset >= log.endOffset()) {
+            return 0;
+        }
+        // Découpage en termes hors du verrou : les recherches n'attendent que l'ajout
+        List<Document> batch = new ArrayList<>(READ_BATCH);
+        nextOffset = log.read(nextOffset, READ_BATCH, (offset, room, time, text) -> {
+            // Enregistrements plus anciens sans date : celle du précédent
+            lastTime = Math.max(lastTime, time);
+            batch.add(new Document(offset, lastTime, room, terms(room, text)));
+        });
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        if (memory.size() == 0) {
+            memorySince = System.nanoTime();
+        }
+        lock.writeLock().lock();
+        try {
+            for (Document document : batch) {
+                memory.add(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        indexedOffset = nextOffset;
+        return batch.size();
+    }
+
+    // Écrire le segment en mémoire sur disque, puis fusionner si besoin (thread d'indexation)
+    private void flush() throws IOException {
+        // Seul ce thread modifie le segment en mémoire : il peut le lire sans verrou
+        FileSegment written = write(Collections.singletonList(memory));
+        List<FileSegment> updated = new ArrayList<>(segments);
+        updated.add(written);
+        lock.writeLock().lock();
+        try {
+            // Segment et mémoire échangés ensemble : une recherche voit chaque message une fois
+            segments = Collections.unmodifiableList(updated);
+            memory = new MemorySegment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        merge();
+    }
+
+    // Fusionner les MERGE_FACTOR derniers segments tant qu'ils sont de même niveau
+    private void merge() throws IOException {
+        while (true) {
+            List<FileSegment> current = segments;
+            if (current.size() < MERGE_FACTOR) {
+                return;
+            }
+            List<FileSegment> last = current.subList(current.size() - MERGE_FACTOR, current.size());
+            int level = level(last.get(0).size());
+            long documents = 0;
+            for (FileSegment segment : last) {
+                if (level(segment.size()) != level) {
+                    return;
+                }
+                documents += segment.size();
+            }
+            if (documents > MAX_SEGMENT_DOCS) {
+                return;
+            }
+            FileSegment merged = write(last);
+            List<FileSegment> updated = new ArrayList<>(current.subList(0, current.size() - MERGE_FACTOR));
+            updated.add(merged);
+            // Aucun document n'est ajouté ni retiré : pas besoin du verrou
+            segments = Collections.unmodifiableList(updated);
+            for (FileSegment segment : last) {
+                segment.delete();
+            }
+        }
+    }
+
+    // Niveau d'un segment : 0 jusqu'à MEMORY_DOCS documents, puis +1 par facteur MERGE_FACTOR
+    private static int level(int documents) {
+        int level = 0;
+        for (long size = MEMORY_DOCS; documents > size; size *= MERGE_FACTOR) {
+            level++;
+        }
+        return level;
+    }
+
+    // Arrêter l'indexation et écrire le segment en mémoire (arrêt du serveur)
+    public void close() {
+        closed = true;
+        searchers.shutdownNow();
+        LockSupport.unpark(indexer);
+        try {
+            indexer.join(TimeUnit.SECONDS.toMillis(5));
+            if (!indexer.isAlive() && memory.size() > 0) {
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Erreur d'écriture de l'index: " + e.getMessage());
+        }
+    }
+
+    // ---- Termes ----
+
+    // Termes d'un message "MSG:[salon] nom: texte" : salon, auteur (s'il y en a un) et mots
+    static List<String> terms(String room, String text) {
+        List<String> terms = new ArrayList<>();
+        terms.add("r" + room);
+        int start = text.startsWith("MSG:") ? 4 : 0;
+        if (text.startsWith("[", start)) {
+            int label = text.indexOf("] ", start);
+            if (label > 0) {
+                start = label + 2;
+            }
+        }
+        int colon = text.indexOf(": ", start);
+        int space = text.indexOf(' ', start);
+        if (colon > start && colon - start <= MAX_NAME_LENGTH && (space < 0 || space > colon)) {
+            terms.add("u" + text.substring(start, colon).toLowerCase(Locale.ROOT));
+            start = colon + 2;
+        }
+        for (String word : words(text.substring(start))) {
+            terms.add("w" + word);
+        }
+        return terms;
+    }
+
+    // Mots d'un texte : suites de lettres et de chiffres, en minuscules et sans accents. Les mots
+    // d'une seule lettre (pas les nombres) et ceux de plus de MAX_TERM_LENGTH caractères sont ignorés.
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        // Décomposer les lettres accentuées (é -> e + accent) seulement si le texte en contient
+        String plain = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                plain = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= plain.length(); i++) {
+            char c = i < plain.length() ? plain.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                // Accent détaché de sa lettre : ignoré
+            } else if (word.length() > 0) {
+                if (word.length() <= MAX_TERM_LENGTH && (word.length() > 1 || Character.isDigit(word.charAt(0)))) {
+                    words.add(word.toString());
+                }
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    // ---- Recherche ----
+
+    // Requête SEARCH: : mots (tous présents), from:nom, in:salon, after:date et before:date, où une
+    // date est 2026-10-18, 2026-10-18T14:30 ou une durée écoulée (30m, 2h, 7d)
+    static final class Query {
+        final List<String> terms = new ArrayList<>();
+        // Plage de dates [after, before) en millisecondes
+        long after = Long.MIN_VALUE;
+        long before = Long.MAX_VALUE;
+
+        // Lève IllegalArgumentException (message destiné au client) si la requête est invalide
+        static Query parse(String text, long now) {
+            Query query = new Query();
+            for (String token : text.trim().split("\\s+")) {
+                int colon = token.indexOf(':');
+                String field = colon < 0 ? "" : token.substring(0, colon).toLowerCase(Locale.ROOT);
+                String value = token.substring(colon + 1);
+                if (field.equals("from")) {
+                    query.terms.add("u" + value.toLowerCase(Locale.ROOT));
+                } else if (field.equals("in")) {
+                    if (!value.matches("[A-Za-z0-9_-]{1,32}")) {
+                        throw new IllegalArgumentException("salon invalide: " + value);
+                    }
+                    query.terms.add("r#" + value);
+                } else if (field.equals("after")) {
+                    query.after = date(value, now);
+                } else if (field.equals("before")) {
+                    query.before = date(value, now);
+                } else {
+                    for (String word : words(token)) {
+                        query.terms.add("w" + word);
+                    }
+                }
+            }
+            if (query.terms.isEmpty()) {
+                throw new IllegalArgumentException("indiquez au moins un mot, from:nom ou in:salon");
+            }
+            return query;
+        }
+
+        private static long date(String value, long now) {
+            if (value.matches("\\d+[mhd]")) {
+                long amount = Long.parseLong(value.substring(0, value.length() - 1));
+                TimeUnit unit = value.endsWith("m") ? TimeUnit.MINUTES : value.endsWith("h") ? TimeUnit.HOURS : TimeUnit.DAYS;
+                return now - unit.toMillis(amount);
+            }
+            try {
+                ZoneId zone = ZoneId.systemDefault();
+                return (value.contains("T") ? LocalDateTime.parse(value).atZone(zone)
+                    : LocalDate.parse(value).atStartOfDay(zone)).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("date invalide: " + value);
+            }
+        }
+    }
+
+    static final class Hit {
+        final long offset;
+        final long time;
+        final String room;
+        String text;
+
+        Hit(long offset, long time, String room) {
+            this.offset = offset;
+            this.time = time;
+            this.room = room;
+        }
+    }
+
+    // Exécuter une recherche sur le groupe de threads de recherche ; false s'il est saturé
+    public boolean submit(Runnable search) {
+        try {
+            searchers.execute(search);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // Au plus max messages correspondant à la requête, du plus récent au plus ancien, parmi
+    // ceux des salons acceptés par visible
+    public List<Hit> search(Query query, Predicate<String> visible, int max) {
+        List<Hit> hits = new ArrayList<>();
+        List<FileSegment> files;
+        lock.readLock().lock();
+        try {
+            collect(memory, query, visible, max, hits);
+            // Même instantané que le segment en mémoire
+            files = segments;
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = files.size() - 1; i >= 0 && hits.size() < max; i--) {
+            collect(files.get(i), query, visible, max, hits);
+        }
+        for (Hit hit : hits) {
+            log.read(hit.offset, 1, (offset, room, time, text) -> hit.text = text.startsWith("MSG:") ? text.substring(4) : text);
+        }
+        ServerMetrics.searchQueries.increment();
+        return hits;
+    }
+
+    // Documents du segment ayant tous les termes, du plus récent au plus ancien
+    private static void collect(IndexSegment segment, Query query, Predicate<String> visible, int max, List<Hit> hits) {
+        int from = firstDocumentAt(segment, query.after);
+        int to = firstDocumentAt(segment, query.before);
+        if (from >= to) {
+            return;
+        }
+        int[][] lists = new int[query.terms.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = segment.postings(query.terms.get(i));
+            if (lists[i] == null) {
+                return;
+            }
+        }
+        // Parcourir la liste la plus courte, chercher chacun de ses documents dans les autres
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+        int[] ends = new int[lists.length];
+        for (int i = 1; i < lists.length; i++) {
+            ends[i] = lists[i].length;
+        }
+        int[] shortest = lists[0];
+        int position = Arrays.binarySearch(shortest, to);
+        for (position = (position < 0 ? -position - 1 : position) - 1; position >= 0 && shortest[position] >= from; position--) {
+            int document = shortest[position];
+            boolean everywhere = true;
+            for (int i = 1; i < lists.length && everywhere; i++) {
+                // Documents décroissants : la recherche suivante se limite à ce qui précède
+                int found = Arrays.binarySearch(lists[i], 0, ends[i], document);
+                ends[i] = found < 0 ? -found - 1 : found;
+                everywhere = found >= 0;
+            }
+            if (!everywhere) {
+                continue;
+            }
+            String room = segment.room(document);
+            if (visible.test(room)) {
+                hits.add(new Hit(segment.offset(document), segment.time(document), room));
+                if (hits.size() >= max) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Rang du premier document daté de time ou plus tard (dates croissantes avec les rangs)
+    private static int firstDocumentAt(IndexSegment segment, long time) {
+        int low = 0;
+        int high = segment.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segment.time(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Messages du journal pas encore indexés
+    public long lag() {
+        return Math.max(0, log.endOffset() - indexedOffset);
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    // ---- Segments ----
+
+    private static final class Document {
+        final long offset;
+        final long time;
+        final String room;
+        final List<String> terms;
+
+        Document(long offset, long time, String room, List<String> terms) {
+            this.offset = offset;
+            this.time = time;
+            this.room = room;
+            this.terms = terms;
+        }
+    }
+
+    private abstract static class IndexSegment {
+        abstract int size();
+
+        abstract long offset(int document);
+
+        abstract long time(int document);
+
+        abstract int roomId(int document);
+
+        abstract List<String> rooms();
+
+        String room(int document) {
+            return rooms().get(roomId(document));
+        }
+
+        // Rangs croissants des documents contenant le terme ; null s'il n'y en a aucun
+        abstract int[] postings(String term);
+
+        // Termes par ordre croissant (écriture et fusion)
+        abstract TermCursor terms();
+    }
+
+    private interface TermCursor {
+        // Passer au terme suivant ; false après le dernier
+        boolean next();
+
+        String term();
+
+        int[] postings();
+    }
+
+    // Segment en cours de remplissage ; modifié sous le verrou en écriture de l'index
+    private static final class MemorySegment extends IndexSegment {
+        private final HashMap<String, IntList> postings = new HashMap<>();
+        private final HashMap<String, Integer> roomIds = new HashMap<>();
+        private final List<String> rooms = new ArrayList<>();
+        private long[] offsets = new long[1024];
+        private long[] times = new long[1024];
+        private int[] documentRooms = new int[1024];
+        private int count = 0;
+
+        void add(Document document) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+                documentRooms = Arrays.copyOf(documentRooms, count * 2);
+            }
+            offsets[count] = document.offset;
+            times[count] = document.time;
+            Integer roomId = roomIds.get(document.room);
+            if (roomId == null) {
+                roomId = rooms.size();
+                roomIds.put(document.room, roomId);
+                rooms.add(document.room);
+            }
+            documentRooms[count] = roomId;
+            for (String term : document.terms) {
+                postings.computeIfAbsent(term, key -> new IntList()).addOnce(count);
+            }
+            count++;
+        }
+
+        @Override int size() { return count; }
+        @Override long offset(int document) { return offsets[document]; }
+        @Override long time(int document) { return times[document]; }
+        @Override int roomId(int document) { return documentRooms[document]; }
+        @Override List<String> rooms() { return rooms; }
+
+        @Override
+        int[] postings(String term) {
+            IntList list = postings.get(term);
+            // Copie : la liste continue de grandir une fois le verrou rendu
+            return list == null ? null : Arrays.copyOf(list.values, list.size);
+        }
+
+        @Override
+        TermCursor terms() {
+            String[] sorted = postings.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            return new TermCursor() {
+                private int index = -1;
+
+                @Override public boolean next() { return ++index < sorted.length; }
+                @Override public String term() { return sorted[index]; }
+                @Override public int[] postings() { return MemorySegment.this.postings(sorted[index]); }
+            };
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        // Un mot répété dans un message ne compte qu'une fois
+        void addOnce(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    // Segment immuable sur disque, projeté en mémoire
+    private static final class FileSegment extends IndexSegment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private final int count;
+        private final List<String> rooms;
+        private final int termCount;
+        private final int dictionaryPosition;
+        // Dictionnaire clairsemé : un terme sur DICTIONARY_INTERVAL et la position de son entrée
+        private final String[] sampledTerms;
+        private final int[] sampledPositions;
+
+        private FileSegment(Path file, MappedByteBuffer buffer) throws IOException {
+            this.file = file;
+            this.buffer = buffer;
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Segment d'index invalide");
+            }
+            count = buffer.getInt(8);
+            int roomCount = buffer.getInt(12);
+            termCount = buffer.getInt(16);
+            dictionaryPosition = (int) buffer.getLong(20);
+
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(HEADER_SIZE + count * 20);
+            rooms = new ArrayList<>(roomCount);
+            for (int i = 0; i < roomCount; i++) {
+                rooms.add(getString(reader));
+            }
+            int samples = (termCount + DICTIONARY_INTERVAL - 1) / DICTIONARY_INTERVAL;
+            sampledTerms = new String[samples];
+            sampledPositions = new int[samples];
+            reader.position(dictionaryPosition);
+            for (int i = 0; i < termCount; i++) {
+                if (i % DICTIONARY_INTERVAL == 0) {
+                    sampledPositions[i / DICTIONARY_INTERVAL] = reader.position();
+                    sampledTerms[i / DICTIONARY_INTERVAL] = getString(reader);
+                } else {
+                    int length = (int) FrameCodec.getVarLong(reader);
+                    reader.position(reader.position() + length);
+                }
+                FrameCodec.getVarLong(reader);
+                FrameCodec.getVarLong(reader);
+            }
+        }
+
+        static FileSegment open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // La projection reste valable une fois le canal fermé
+                return new FileSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        @Override int size() { return count; }
+        @Override long offset(int document) { return buffer.getLong(HEADER_SIZE + document * 8); }
+        @Override long time(int document) { return buffer.getLong(HEADER_SIZE + count * 8 + document * 8); }
+        @Override int roomId(int document) { return buffer.getInt(HEADER_SIZE + count * 16 + document * 4); }
+        @Override List<String> rooms() { return rooms; }
+
+        @Override
+        int[] postings(String term) {
+            int sample = Arrays.binarySearch(sampledTerms, term);
+            if (sample < 0) {
+                sample = -sample - 2;
+                if (sample < 0) {
+                    return null;
+                }
+            }
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(sampledPositions[sample]);
+            int entries = Math.min(DICTIONARY_INTERVAL, termCount - sample * DICTIONARY_INTERVAL);
+            for (int i = 0; i < entries; i++) {
+                int order = getString(reader).compareTo(term);
+                int documents = (int) FrameCodec.getVarLong(reader);
+                int position = (int) FrameCodec.getVarLong(reader);
+                if (order == 0) {
+                    return decode(position, documents);
+                }
+                if (order > 0) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private int[] decode(int position, int documents) {
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(position);
+            int[] postings = new int[documents];
+            int document = 0;
+            for (int i = 0; i < documents; i++) {
+                document += (int) FrameCodec.getVarLong(reader);
+                postings[i] = document;
+            }
+            return postings;
+        }
+
+        @Override
+        TermCursor terms() {
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(dictionaryPosition);
+            return new TermCursor() {
+                private int index = 0;
+                private String term;
+                private int documents;
+                private int position;
+
+                @Override
+                public boolean next() {
+                    if (index++ == termCount) {
+                        return false;
+                    }
+                    term = getString(reader);
+                    documents = (int) FrameCodec.getVarLong(reader);
+                    position = (int) FrameCodec.getVarLong(reader);
+                    return true;
+                }
+
+                @Override public String term() { return term; }
+                @Override public int[] postings() { return decode(position, documents); }
+            };
+        }
+
+        // Une recherche en cours garde sa projection : sous Windows la suppression peut échouer,
+        // le fichier, contenu dans un autre, est alors supprimé à la prochaine ouverture
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Voir ci-dessus
+            }
+        }
+    }
+
+    // Écrire un segment réunissant les documents de parts (consécutives, par offsets croissants)
+    private FileSegment write(List<? extends IndexSegment> parts) throws IOException {
+        int documents = 0;
+        for (IndexSegment part : parts) {
+            documents += part.size();
+        }
+        IndexSegment lastPart = parts.get(parts.size() - 1);
+        Path target = directory.resolve(String.format("%020d-%020d.idx", parts.get(0).offset(0), lastPart.offset(lastPart.size() - 1)));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+
+        // Salons renumérotés pour le segment réuni
+        List<String> rooms = new ArrayList<>();
+        Map<String, Integer> roomIds = new HashMap<>();
+        int[][] roomMapping = new int[parts.size()][];
+        for (int p = 0; p < parts.size(); p++) {
+            List<String> partRooms = parts.get(p).rooms();
+            roomMapping[p] = new int[partRooms.size()];
+            for (int i = 0; i < partRooms.size(); i++) {
+                Integer id = roomIds.get(partRooms.get(i));
+                if (id == null) {
+                    id = rooms.size();
+                    roomIds.put(partRooms.get(i), id);
+                    rooms.add(partRooms.get(i));
+                }
+                roomMapping[p][i] = id;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            // En-tête complété à la fin
+            out.write(new byte[HEADER_SIZE]);
+            for (IndexSegment part : parts) {
+                for (int d = 0; d < part.size(); d++) {
+                    out.writeLong(part.offset(d));
+                }
+            }
+            for (IndexSegment part : parts) {
+                for (int d = 0; d < part.size(); d++) {
+                    out.writeLong(part.time(d));
+                }
+            }
+            for (int p = 0; p < parts.size(); p++) {
+                IndexSegment part = parts.get(p);
+                for (int d = 0; d < part.size(); d++) {
+                    out.writeInt(roomMapping[p][part.roomId(d)]);
+                }
+            }
+            for (String room : rooms) {
+                putString(out, room);
+            }
+
+            // Fusion des dictionnaires : les rangs d'une partie sont décalés du nombre de
+            // documents des parties précédentes, les listes restent donc croissantes
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+            TermCursor[] cursors = new TermCursor[parts.size()];
+            String[] current = new String[parts.size()];
+            int[] bases = new int[parts.size()];
+            for (int p = 0, base = 0; p < parts.size(); base += parts.get(p).size(), p++) {
+                cursors[p] = parts.get(p).terms();
+                current[p] = cursors[p].next() ? cursors[p].term() : null;
+                bases[p] = base;
+            }
+            int termCount = 0;
+            while (true) {
+                String term = null;
+                for (String candidate : current) {
+                    if (candidate != null && (term == null || candidate.compareTo(term) < 0)) {
+                        term = candidate;
+                    }
+                }
+                if (term == null) {
+                    break;
+                }
+                int position = out.size();
+                int postings = 0;
+                int previous = 0;
+                for (int p = 0; p < parts.size(); p++) {
+                    if (term.equals(current[p])) {
+                        for (int document : cursors[p].postings()) {
+                            putVarLong(out, document + bases[p] - previous);
+                            previous = document + bases[p];
+                            postings++;
+                        }
+                        current[p] = cursors[p].next() ? cursors[p].term() : null;
+                    }
+                }
+                putString(dictionary, term);
+                putVarLong(dictionary, postings);
+                putVarLong(dictionary, position);
+                termCount++;
+            }
+            int dictionaryPosition = out.size();
+            dictionary.writeTo(out);
+            out.flush();
+            // DataOutputStream.size s'arrête à Integer.MAX_VALUE
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("Segment d'index trop grand");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(documents).putInt(rooms.size()).putInt(termCount).putLong(dictionaryPosition);
+            header.flip();
+            for (long position = 0; header.hasRemaining(); ) {
+                position += channel.write(header, position);
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return FileSegment.open(target);
+    }
+
+    private static void putVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void putString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[(int) FrameCodec.getVarLong(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
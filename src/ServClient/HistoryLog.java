@@ -0,0 +1,406 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Historique des messages diffusés : journal en ajout seul, découpé en segments de taille fixe
+// écrits à travers un MappedByteBuffer. Chaque message reçoit un numéro (offset) croissant ;
+// un index clairsemé (offset -> position, tous les INDEX_INTERVAL octets) permet de relire
+// « tout depuis l'offset N » par une simple lecture séquentielle du segment concerné.
+//
+// La diffusion ne fait qu'attribuer l'offset et déposer le message dans une file : un thread
+// dédié écrit les messages par groupes et applique la politique de synchronisation disque.
+//
+// Format d'un enregistrement : longueur (int), offset (long), puis en UTF-8 "salon date\nmessage"
+// (date de diffusion en millisecondes, absente des enregistrements plus anciens : "salon\nmessage").
+// La longueur est écrite en dernier : une longueur nulle marque la fin du segment.
+public class HistoryLog {
+
+    // Politique de synchronisation (force) du journal sur disque
+    public enum FsyncPolicy {
+        NONE,      // laisser le système écrire les pages modifiées quand il le souhaite
+        BATCH,     // synchroniser après chaque groupe d'écritures
+        INTERVAL   // synchroniser au plus une fois par intervalle
+    }
+
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int GROUP_SIZE = 4096;
+    // Dernière entrée déposée par close : le thread d'écriture s'arrête après elle
+    private static final Entry END = new Entry(-1, null, 0, null);
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private Segment active;
+
+    // Attribution des offsets et dépôt dans la file sous le même verrou, pour garder l'ordre
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ArrayBlockingQueue<Entry> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private long nextOffset;
+    private long lastTime = 0;
+    private long dropped = 0;
+    // Fermeture commencée (sous appendLock) : plus aucun ajout accepté
+    private boolean closing = false;
+
+    // Premier offset non encore écrit (les lecteurs ne voient que les offsets inférieurs)
+    private volatile long writtenOffset;
+    private long lastFsync = System.nanoTime();
+    private boolean dirty = false;
+    private Thread writer;
+
+    private HistoryLog(Path directory, long segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMs) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncIntervalMs * 1_000_000;
+    }
+
+    // Ouvrir (ou créer) le journal d'un répertoire et démarrer son thread d'écriture
+    public static HistoryLog open(Path directory, long segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMs) throws IOException {
+        HistoryLog log = new HistoryLog(directory, segmentBytes, fsyncPolicy, fsyncIntervalMs);
+        log.recover();
+        log.writer = new Thread(log::writeLoop, "history-writer");
+        log.writer.setDaemon(true);
+        log.writer.start();
+        return log;
+    }
+
+    // Relire les segments existants : reconstruire les index et retrouver la fin du journal
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        nextOffset = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            long baseOffset = Long.parseLong(file.getFileName().toString().replace(".log", ""));
+            boolean last = i == files.size() - 1;
+            Segment segment = Segment.open(file, baseOffset, last ? Math.max(segmentBytes, Files.size(file)) : Files.size(file));
+            segment.scan();
+            segments.put(baseOffset, segment);
+            nextOffset = Math.max(baseOffset, segment.nextOffset);
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        writtenOffset = nextOffset;
+        ServerLog.info("Historique : " + segments.size() + " segment(s), prochain offset " + nextOffset);
+    }
+
+    // ---- Écriture ----
+
+    // Ajouter un message diffusé dans un salon (thread de diffusion) ; renvoie son offset, ou -1
+    // si la file est pleine ou le journal fermé. L'encodage est laissé au thread d'écriture.
+    public long append(String room, String message) {
+        appendLock.lock();
+        try {
+            if (closing) {
+                return -1;
+            }
+            // Dates croissantes avec les offsets, même si l'horloge recule : une plage de dates
+            // correspond à une plage d'offsets (voir HistoryIndex)
+            lastTime = Math.max(lastTime, System.currentTimeMillis());
+            if (!pending.offer(new Entry(nextOffset, room, lastTime, message))) {
+                // Écritures en retard sur les diffusions : le message manquera à l'historique
+                if (dropped++ == 0) {
+                    System.err.println("Historique saturé : des messages ne seront pas conservés.");
+                }
+                return -1;
+            }
+            return nextOffset++;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> group = new ArrayList<>(GROUP_SIZE);
+        while (true) {
+            try {
+                // Politique INTERVAL : ne pas laisser des écritures non synchronisées en période calme
+                Entry first = fsyncPolicy == FsyncPolicy.INTERVAL && dirty
+                    ? pending.poll(fsyncIntervalNanos, TimeUnit.NANOSECONDS)
+                    : pending.take();
+                if (first == null) {
+                    sync(true);
+                    continue;
+                }
+                group.add(first);
+                pending.drainTo(group, GROUP_SIZE - 1);
+                boolean end = false;
+                for (Entry entry : group) {
+                    if (entry == END) {
+                        // Rien ne peut suivre : close n'accepte plus d'ajout avant de déposer END
+                        end = true;
+                        break;
+                    }
+                    write(entry);
+                    writtenOffset = entry.offset + 1;
+                }
+                group.clear();
+                if (end) {
+                    return;
+                }
+                sync(false);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Erreur d'écriture de l'historique: " + e.getMessage());
+                group.clear();
+            }
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        byte[] bytes = (entry.room + " " + entry.time + "\n" + entry.message).getBytes(StandardCharsets.UTF_8);
+        int recordSize = HEADER_SIZE + bytes.length;
+        if (recordSize > segmentBytes) {
+            System.err.println("Message trop long pour l'historique : offset " + entry.offset + " ignoré");
+            return;
+        }
+        if (!active.hasRoom(recordSize)) {
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                active.force();
+            }
+            roll(entry.offset);
+        }
+        active.append(entry.offset, bytes);
+        dirty = true;
+    }
+
+    // Commencer un nouveau segment nommé d'après son premier offset
+    private void roll(long baseOffset) throws IOException {
+        Path file = directory.resolve(String.format("%020d.log", baseOffset));
+        active = Segment.open(file, baseOffset, segmentBytes);
+        segments.put(baseOffset, active);
+    }
+
+    // Appliquer la politique de synchronisation (toujours en fin d'exécution)
+    private void sync(boolean always) {
+        long now = System.nanoTime();
+        if (always || fsyncPolicy == FsyncPolicy.BATCH
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsync >= fsyncIntervalNanos)) {
+            active.force();
+            lastFsync = now;
+            dirty = false;
+        }
+    }
+
+    // Arrêt du serveur : refuser les ajouts, laisser le thread d'écriture vider la file (un seul
+    // thread écrit dans le segment actif), puis synchroniser
+    public void close() {
+        appendLock.lock();
+        try {
+            if (closing) {
+                return;
+            }
+            closing = true;
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            pending.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        sync(true);
+    }
+
+    // ---- Lecture ----
+
+    // Premier offset encore présent dans le journal
+    public long startOffset() {
+        return segments.firstKey();
+    }
+
+    // Offset suivant le dernier message écrit
+    public long endOffset() {
+        return writtenOffset;
+    }
+
+    // time : date de diffusion en millisecondes, 0 si l'enregistrement n'en a pas
+    public interface EntryReader {
+        void accept(long offset, String room, long time, String message);
+    }
+
+    // Relire au plus <max> messages à partir de <fromOffset> ; renvoie l'offset suivant le dernier lu
+    public long read(long fromOffset, int max, EntryReader reader) {
+        long end = writtenOffset;
+        long offset = Math.max(fromOffset, startOffset());
+        int count = 0;
+        Map.Entry<Long, Segment> current = segments.floorEntry(offset);
+        while (current != null && offset < end && count < max) {
+            Segment segment = current.getValue();
+            ByteBuffer view = segment.buffer.duplicate();
+            int position = segment.indexedPosition(offset);
+            int limit = segment.size;
+            while (position < limit && count < max) {
+                int length = view.getInt(position);
+                long recordOffset = view.getLong(position + 4);
+                if (recordOffset >= end) {
+                    return end;
+                }
+                if (recordOffset >= offset) {
+                    byte[] bytes = new byte[length];
+                    view.position(position + HEADER_SIZE);
+                    view.get(bytes);
+                    offset = recordOffset + 1;
+                    count++;
+                    accept(recordOffset, new String(bytes, StandardCharsets.UTF_8), reader);
+                }
+                position += HEADER_SIZE + length;
+            }
+            current = segments.higherEntry(current.getKey());
+            if (current != null && count < max) {
+                offset = Math.max(offset, current.getKey());
+            }
+        }
+        return offset;
+    }
+
+    // Découper un enregistrement "salon date\nmessage" (ou "salon\nmessage") pour le lecteur
+    private static void accept(long offset, String record, EntryReader reader) {
+        int separator = record.indexOf('\n');
+        if (separator < 0) {
+            return;
+        }
+        int space = record.lastIndexOf(' ', separator);
+        String room = space < 0 ? record.substring(0, separator) : record.substring(0, space);
+        long time = space < 0 ? 0 : Long.parseLong(record.substring(space + 1, separator));
+        reader.accept(offset, room, time, record.substring(separator + 1));
+    }
+
+    private static class Entry {
+        final long offset;
+        final String room;
+        final long time;
+        final String message;
+
+        Entry(long offset, String room, long time, String message) {
+            this.offset = offset;
+            this.room = room;
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    // Segment du journal : un fichier projeté en mémoire et son index clairsemé
+    private static class Segment {
+        final long baseOffset;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        // Octets écrits ; publié après chaque enregistrement pour les lecteurs
+        volatile int size = 0;
+        long nextOffset;
+
+        // Index clairsemé : offsets et positions, par offsets croissants
+        private long[] indexOffsets = new long[64];
+        private int[] indexPositions = new int[64];
+        private volatile int indexCount = 0;
+        private int lastIndexedPosition = -INDEX_INTERVAL;
+
+        private Segment(long baseOffset, FileChannel channel, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.nextOffset = baseOffset;
+        }
+
+        static Segment open(Path file, long baseOffset, long length) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(length, Integer.MAX_VALUE));
+            return new Segment(baseOffset, channel, buffer);
+        }
+
+        // Parcourir les enregistrements existants (ouverture du journal)
+        void scan() {
+            int position = 0;
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                long offset = buffer.getLong(position + 4);
+                index(offset, position);
+                nextOffset = offset + 1;
+                position += HEADER_SIZE + length;
+            }
+            size = position;
+        }
+
+        boolean hasRoom(int recordSize) {
+            return size + recordSize <= buffer.capacity();
+        }
+
+        void append(long offset, byte[] message) {
+            int position = size;
+            buffer.putLong(position + 4, offset);
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + HEADER_SIZE);
+            target.put(message);
+            // Longueur en dernier : l'enregistrement n'existe qu'une fois complet
+            buffer.putInt(position, message.length);
+            index(offset, position);
+            nextOffset = offset + 1;
+            size = position + HEADER_SIZE + message.length;
+        }
+
+        private void index(long offset, int position) {
+            if (position - lastIndexedPosition < INDEX_INTERVAL) {
+                return;
+            }
+            if (indexCount == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+                indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+            }
+            indexOffsets[indexCount] = offset;
+            indexPositions[indexCount] = position;
+            lastIndexedPosition = position;
+            indexCount++;
+        }
+
+        // Position de l'entrée d'index la plus proche avant <offset>
+        int indexedPosition(long offset) {
+            // Lire le compteur (volatile) avant les tableaux, que l'écrivain peut agrandir
+            int count = indexCount;
+            long[] offsets = indexOffsets;
+            int[] positions = indexPositions;
+            count = Math.min(count, Math.min(offsets.length, positions.length));
+            int found = Arrays.binarySearch(offsets, 0, count, offset);
+            if (found >= 0) {
+                return positions[found];
+            }
+            int insertion = -found - 1;
+            return insertion == 0 ? 0 : positions[insertion - 1];
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
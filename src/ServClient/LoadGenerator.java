@@ -0,0 +1,202 @@
+package ServClient;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Générateur de charge sans interface : N utilisateurs simulés, chacun avec sa propre
+// ChatConnection (même code protocolaire que ChatClient), envoient des messages selon un
+// processus de Poisson et, pour une part des actions, un fichier. Affiche chaque seconde le débit
+// envoyé/reçu, puis l'histogramme des latences de bout en bout et le nombre d'erreurs.
+// Les utilisateurs tournent sur des threads virtuels (JDK 21+) ou, à défaut, de plateforme.
+// Usage : java ServClient.LoadGenerator --host=localhost --port=800 --users=1000 --rate=1
+//         --seconds=30 --rooms=0 --file-ratio=0.01 --file-kb=256 --threads=virtual --compression=deflate
+//         [--tls-truststore=serveur.p12 --tls-password=...]
+public class LoadGenerator {
+    private static final String MARKER = "lg ";
+
+    private static final AtomicLong messagesSent = new AtomicLong();
+    private static final AtomicLong filesSent = new AtomicLong();
+    private static final AtomicLong messagesReceived = new AtomicLong();
+    private static final AtomicLong fileBytesReceived = new AtomicLong();
+    private static final AtomicLong connectErrors = new AtomicLong();
+    private static final AtomicLong sendErrors = new AtomicLong();
+    private static final AtomicLong disconnects = new AtomicLong();
+    private static final LatencyHistogram latencies = new LatencyHistogram();
+    private static final AtomicLong maxLatency = new AtomicLong();
+
+    private static volatile boolean running = true;
+    private static Method startVirtualThread;
+
+    public static void main(String[] args) throws Exception {
+        String host = ChatServer.option(args, "host", "localhost");
+        int port = Integer.parseInt(ChatServer.option(args, "port", "800"));
+        int users = Integer.parseInt(ChatServer.option(args, "users", "1000"));
+        double rate = Double.parseDouble(ChatServer.option(args, "rate", "1"));
+        int seconds = Integer.parseInt(ChatServer.option(args, "seconds", "30"));
+        int rooms = Integer.parseInt(ChatServer.option(args, "rooms", "0"));
+        double fileRatio = Double.parseDouble(ChatServer.option(args, "file-ratio", "0"));
+        int fileKb = Integer.parseInt(ChatServer.option(args, "file-kb", "256"));
+        String compression = ChatServer.option(args, "compression", String.join(",", CompressionCodec.NAMES));
+        List<String> codecs = compression.equals("off") ? Collections.emptyList() : Arrays.asList(compression.split(","));
+        // --tls=true ou --tls-truststore=fichier.p12 : connexions chiffrées (sessions reprises après la première)
+        ChatConnection.useTls(TlsChannel.clientContext(args));
+        if (ChatServer.option(args, "threads", "virtual").equals("virtual")) {
+            try {
+                startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            } catch (NoSuchMethodException e) {
+                System.out.println("Threads virtuels indisponibles (JDK 21+) : threads de plateforme utilisés.");
+            }
+        }
+
+        // Fichier envoyé par les utilisateurs qui partagent un fichier
+        Path upload = null;
+        if (fileRatio > 0) {
+            upload = Files.createTempFile("charge-", ".bin");
+            try (RandomAccessFile raf = new RandomAccessFile(upload.toFile(), "rw")) {
+                raf.setLength(fileKb * 1024L);
+            }
+            upload.toFile().deleteOnExit();
+        }
+
+        // Connexion de tous les utilisateurs avant la mesure
+        List<ChatConnection> connections = new ArrayList<>(users);
+        long rampStart = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            try {
+                ChatConnection connection = ChatConnection.connect(host, port, "charge" + i, codecs);
+                if (rooms > 0) {
+                    connection.sendCommand("JOIN:charge-" + (i % rooms));
+                }
+                start(() -> connection.readLoop(new Receiver()));
+                connections.add(connection);
+            } catch (IOException e) {
+                connectErrors.incrementAndGet();
+            }
+        }
+        System.out.println(connections.size() + " utilisateurs connectés en "
+            + (System.nanoTime() - rampStart) / 1_000_000 + " ms (" + connectErrors.get() + " échecs)");
+
+        long start = System.nanoTime();
+        for (ChatConnection connection : connections) {
+            Path file = upload;
+            start(() -> simulateUser(connection, rate, fileRatio, file));
+        }
+
+        System.out.println(String.format("%6s %12s %12s %12s %10s", "t (s)", "envoyés/s", "reçus/s", "fichiers", "erreurs"));
+        long lastSent = 0;
+        long lastReceived = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(1000);
+            long sent = messagesSent.get();
+            long received = messagesReceived.get();
+            System.out.println(String.format("%6d %12d %12d %12d %10d", second, sent - lastSent, received - lastReceived,
+                filesSent.get(), sendErrors.get() + disconnects.get()));
+            lastSent = sent;
+            lastReceived = received;
+        }
+        running = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        // Laisser arriver les derniers messages avant de fermer
+        Thread.sleep(1000);
+        for (ChatConnection connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Déjà fermée
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("Messages envoyés : %d (%.0f/s), reçus : %d (%.0f/s)",
+            messagesSent.get(), messagesSent.get() / elapsed, messagesReceived.get(), messagesReceived.get() / elapsed));
+        System.out.println(String.format("Fichiers envoyés : %d, octets de fichier reçus : %d", filesSent.get(), fileBytesReceived.get()));
+        System.out.println(String.format("Latence (ms) : p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f (%d mesures)",
+            latencies.percentile(50) / 1000.0, latencies.percentile(90) / 1000.0, latencies.percentile(99) / 1000.0,
+            latencies.percentile(99.9) / 1000.0, maxLatency.get() / 1e6, latencies.count()));
+        System.out.println(String.format("Erreurs : connexion %d, envoi %d, déconnexions %d",
+            connectErrors.get(), sendErrors.get(), disconnects.get()));
+        System.exit(0);
+    }
+
+    // Actions d'un utilisateur : intervalles exponentiels de moyenne 1/rate
+    private static void simulateUser(ChatConnection connection, double rate, double fileRatio, Path file) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (running && connection.isOpen()) {
+                Thread.sleep((long) (-Math.log(1 - random.nextDouble()) / rate * 1000));
+                if (!running) {
+                    break;
+                }
+                if (file != null && random.nextDouble() < fileRatio) {
+                    connection.sendFile(file);
+                    filesSent.incrementAndGet();
+                } else {
+                    // Le message porte son heure d'envoi (System.nanoTime, même processus que les lecteurs)
+                    connection.sendMessage(MARKER + System.nanoTime());
+                    messagesSent.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (running) {
+                sendErrors.incrementAndGet();
+            }
+        }
+    }
+
+    // Réception d'un utilisateur : latence des messages du générateur, volume des fichiers
+    private static class Receiver implements ChatConnection.Listener {
+
+        @Override
+        public void onMessage(String text) {
+            long now = System.nanoTime();
+            // Format : "[salon] chargeN: lg <nanoTime>" ; les messages du serveur sont ignorés
+            int marker = text.indexOf(": " + MARKER);
+            if (marker < 0) {
+                return;
+            }
+            messagesReceived.incrementAndGet();
+            long latency = now - Long.parseLong(text.substring(marker + 2 + MARKER.length()));
+            latencies.record(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+        }
+
+        @Override
+        public void onHistory(long offset, String text) {
+            // Historique rejoué : pas de mesure de latence
+        }
+
+        @Override
+        public void onFileChunk(long transferId, byte[] data, int length) {
+            fileBytesReceived.addAndGet(length);
+        }
+
+        @Override
+        public void onDisconnected(IOException error) {
+            if (running) {
+                disconnects.incrementAndGet();
+            }
+        }
+    }
+
+    private static void start(Runnable task) {
+        if (startVirtualThread != null) {
+            try {
+                startVirtualThread.invoke(null, task);
+                return;
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Impossible de démarrer un thread virtuel: " + e.getMessage());
+            }
+        }
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,583 @@
+package ServClient;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Serveur non bloquant basé sur ServerSocketChannel/Selector : un petit nombre fixe
+// de boucles d'E/S (une par cœur) sert toutes les connexions, avec le même protocole
+// (binaire négocié, ou ligne MSG:/FILE: pour les anciens clients) que ChatServer.ClientHandler
+public class NioChatServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Négociations TLS dont les calculs attendent un thread ; au-delà, la connexion est refusée
+    private static final int TLS_TASK_QUEUE = 1024;
+
+    // Calculs des négociations TLS (signatures, certificats) : hors des boucles d'E/S, en
+    // nombre borné ; une boucle qui les exécutait elle-même faisait attendre toutes ses connexions
+    private static final ThreadPoolExecutor tlsTasks = new ThreadPoolExecutor(
+        Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+        0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(TLS_TASK_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "tls-negociation");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final int port;
+    private final IoLoop[] loops;
+    private int nextLoop = 0;
+
+    public NioChatServer(int port, int loopCount) throws IOException {
+        // Une boucle d'E/S ne doit jamais attendre : la contre-pression bloquerait toutes
+        // les connexions de la boucle (voire la boucle du client lent elle-même)
+        if (ChatServer.overflowPolicy == OutboundQueue.OverflowPolicy.BACKPRESSURE) {
+            System.out.println("Politique BACKPRESSURE non disponible en mode NIO : DISCONNECT utilisée.");
+            ChatServer.overflowPolicy = OutboundQueue.OverflowPolicy.DISCONNECT;
+        }
+        this.port = port;
+        this.loops = new IoLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop();
+        }
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            new Thread(loops[i], "nio-loop-" + i).start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            System.out.println("Serveur NIO démarré sur le port " + port + " (" + loops.length + " boucles d'E/S"
+                + (ChatServer.tlsContext != null ? ", TLS" : "") + ")");
+            System.out.println("En attente de connexions...");
+
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                ServerMetrics.connectionsAccepted.increment();
+                if (!ServerLimits.admit(channel)) {
+                    continue;
+                }
+                ServerLog.info("Nouvelle connexion de : " + channel.socket().getInetAddress().getHostAddress());
+
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    // Client parti avant d'être pris en charge : la boucle d'acceptation continue
+                    ServerLimits.release(channel.socket().getInetAddress());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                    continue;
+                }
+
+                // Répartir les connexions entre les boucles à tour de rôle
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        }
+    }
+
+    // Boucle d'E/S : un Selector et un thread pour un sous-ensemble des connexions
+    static class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingFlushes = new ConcurrentLinkedQueue<>();
+        // Connexions dont les calculs de négociation TLS viennent de se terminer
+        private final Queue<Connection> pendingHandshakes = new ConcurrentLinkedQueue<>();
+
+        // Envois retardés par la fenêtre de regroupement, par échéance croissante (thread de la boucle)
+        private final ArrayDeque<Deadline> delayedFlushes = new ArrayDeque<>();
+        // Lectures suspendues par les limites de débit, par échéance de reprise (thread de la boucle) ;
+        // les délais diffèrent d'une connexion à l'autre, d'où la file de priorité
+        private final PriorityQueue<Deadline> suspendedReads = new PriorityQueue<>((a, b) -> Long.signum(a.deadline - b.deadline));
+
+        // Tampon de lecture partagé par toutes les connexions de la boucle
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        // Appelé depuis le thread d'acceptation
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        // Appelé depuis n'importe quel thread qui a mis des données en file pour une connexion
+        void requestFlush(Connection connection) {
+            pendingFlushes.add(connection);
+            selector.wakeup();
+        }
+
+        // Appelé depuis un thread de tlsTasks : reprendre la négociation dans la boucle
+        void requestHandshake(Connection connection) {
+            pendingHandshakes.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    select();
+                    registerPendingChannels();
+                    resumeHandshakes();
+                    flushPendingConnections();
+                    flushDueConnections();
+                    resumeDueConnections();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Erreur dans la boucle d'E/S: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                try {
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+
+                    // Demander le nom du client
+                    connection.sendMessage("Entrez votre nom :");
+                } catch (IOException e) {
+                    ServerLimits.release(channel.socket().getInetAddress());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        // Calculs terminés : des enregistrements reçus attendent peut-être déjà dans le canal TLS,
+        // la reprise passe donc par la lecture (qui envoie ensuite la réponse), pas par le sélecteur
+        private void resumeHandshakes() {
+            Connection connection;
+            while ((connection = pendingHandshakes.poll()) != null) {
+                if (connection.closed) {
+                    continue;
+                }
+                try {
+                    connection.onReadable(readBuffer);
+                } catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        // Attendre un événement, ou au plus jusqu'à l'échéance du prochain envoi retardé
+        // ou de la prochaine reprise de lecture
+        private void select() throws IOException {
+            Deadline next = delayedFlushes.peek();
+            Deadline read = suspendedReads.peek();
+            if (next == null || (read != null && read.deadline - next.deadline < 0)) {
+                next = read;
+            }
+            if (next == null) {
+                selector.select();
+                return;
+            }
+            long delayMs = (next.deadline - System.nanoTime() + 999_999) / 1_000_000;
+            if (delayMs <= 0) {
+                selector.selectNow();
+            } else {
+                selector.select(delayMs);
+            }
+        }
+
+        private void flushPendingConnections() {
+            long now = System.nanoTime();
+            Connection connection;
+            while ((connection = pendingFlushes.poll()) != null) {
+                // Fenêtre de regroupement : laisser le lot grossir, sauf s'il a déjà atteint sa taille maximale
+                if (ChatServer.batchWindowNanos > 0 && !connection.closeRequested
+                        && connection.outbound.queuedBytes() < ChatServer.batchMaxBytes) {
+                    if (connection.flushDeadline == 0) {
+                        connection.flushDeadline = now + ChatServer.batchWindowNanos;
+                        delayedFlushes.add(new Deadline(connection, connection.flushDeadline));
+                    }
+                    continue;
+                }
+                flush(connection);
+            }
+        }
+
+        private void flushDueConnections() {
+            long now = System.nanoTime();
+            Deadline next;
+            while ((next = delayedFlushes.peek()) != null && next.deadline - now <= 0) {
+                delayedFlushes.poll();
+                // Une connexion déjà vidée entre-temps a changé (ou remis à zéro) son échéance
+                if (next.connection.flushDeadline == next.deadline) {
+                    flush(next.connection);
+                }
+            }
+        }
+
+        // Suspendre la lecture d'une connexion jusqu'à l'échéance (thread de la boucle)
+        void suspendReading(Connection connection, long deadline) {
+            suspendedReads.add(new Deadline(connection, deadline));
+        }
+
+        private void resumeDueConnections() {
+            long now = System.nanoTime();
+            Deadline next;
+            while ((next = suspendedReads.peek()) != null && next.deadline - now <= 0) {
+                suspendedReads.poll();
+                try {
+                    next.connection.resumeReading(readBuffer);
+                } catch (IOException | CancelledKeyException e) {
+                    next.connection.close();
+                }
+            }
+        }
+
+        private void flush(Connection connection) {
+            try {
+                connection.flush();
+            } catch (IOException | CancelledKeyException e) {
+                connection.close();
+            }
+        }
+    }
+
+    // Échéance d'une connexion : envoi retardé ou reprise de la lecture
+    private static class Deadline {
+        final Connection connection;
+        final long deadline;
+
+        Deadline(Connection connection, long deadline) {
+            this.connection = connection;
+            this.deadline = deadline;
+        }
+    }
+
+    // Connexion cliente non bloquante : décode les lignes et les morceaux de fichier
+    // au fil de l'eau, et met les envois en file jusqu'à ce que la socket soit prête
+    static class Connection extends ChatSession {
+        private final SocketChannel channel;
+        // Canal chiffré quand TLS est activé (null sinon) ; la négociation avance au fil des
+        // événements de la socket, les trames en file attendent qu'elle soit terminée
+        private final TlsChannel tls;
+        private final IoLoop loop;
+        private SelectionKey key;
+
+        // Lot de trames en cours d'écriture, conservé tant que la socket est pleine
+        private final OutboundBatch batch = new OutboundBatch();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private long flushDeadline = 0;
+        private final AtomicBoolean closing = new AtomicBoolean();
+        private volatile boolean slowConsumer = false;
+        // Fermeture demandée par un autre thread, faite par la boucle propriétaire
+        private volatile boolean closeRequested = false;
+        // Lecture suspendue par les limites de débit jusqu'à une échéance de la boucle
+        private boolean readSuspended = false;
+
+        // Protocole du client, déterminé par son premier octet
+        private static final int UNKNOWN = 0, NEGOTIATING = 1, TEXT = 2, BINARY = 3;
+        private int protocol = UNKNOWN;
+        private final byte[] handshake = new byte[FrameCodec.MAGIC.length + 1];
+        private int handshakeFilled = 0;
+        private FrameDecoder frameDecoder;
+
+        private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(128);
+
+        // Octets bruts attendus après la dernière ligne, et morceau en cours de remplissage
+        private long bodyRemaining = 0;
+        private PooledBuffer chunk;
+
+        Connection(SocketChannel channel, IoLoop loop) throws IOException {
+            super(ChatServer.newOutboundQueue(), channel.socket().getInetAddress());
+            this.channel = channel;
+            this.tls = ChatServer.tlsContext != null ? TlsChannel.server(channel, ChatServer.tlsContext) : null;
+            this.loop = loop;
+            if (tls != null) {
+                tls.delegateTasks(tlsTasks, () -> loop.requestHandshake(this));
+            }
+        }
+
+        void onReadable(ByteBuffer buffer) throws IOException {
+            if (tls == null) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                ServerMetrics.bytesIn.add(read);
+                buffer.flip();
+                consume(buffer);
+                throttle(read);
+                return;
+            }
+            // TLS : tout déchiffrer maintenant, le sélecteur ne signalera plus les octets déjà
+            // retirés de la socket par TlsChannel
+            while (!closed) {
+                buffer.clear();
+                int read = tls.read(buffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                if (read == 0) {
+                    break;
+                }
+                ServerMetrics.bytesIn.add(read);
+                buffer.flip();
+                consume(buffer);
+                if (throttle(read)) {
+                    break;
+                }
+            }
+            // Réponse de négociation à envoyer, ou négociation terminée : trames en file à envoyer
+            flush();
+        }
+
+        // Après une lecture : suspendre la lecture de la socket si le client dépasse ses limites ;
+        // renvoie true dans ce cas
+        private boolean throttle(int read) {
+            long delay = onBytesIn(read);
+            if (delay <= 0 || closed) {
+                return false;
+            }
+            readSuspended = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            loop.suspendReading(this, System.nanoTime() + delay);
+            return true;
+        }
+
+        // Échéance de reprise atteinte (thread de la boucle) ; le budget des transferts peut
+        // encore être épuisé, la reprise est alors repoussée
+        void resumeReading(ByteBuffer buffer) throws IOException {
+            if (closed) {
+                return;
+            }
+            long delay = transferDelay();
+            if (delay > 0) {
+                loop.suspendReading(this, System.nanoTime() + delay);
+                return;
+            }
+            readSuspended = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            if (tls != null) {
+                // Enregistrements déjà retirés de la socket par TlsChannel : le sélecteur ne les signalera pas
+                onReadable(buffer);
+            }
+        }
+
+        // Choisir les événements attendus de la socket (la lecture peut être suspendue)
+        private void interest(boolean write) {
+            key.interestOps((readSuspended ? 0 : SelectionKey.OP_READ) | (write ? SelectionKey.OP_WRITE : 0));
+        }
+
+        // Décoder les octets reçus (lignes, morceaux de fichier ou trames binaires)
+        private void consume(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining() && !closed) {
+                if (protocol == BINARY) {
+                    frameDecoder.decode(buffer, this::onFrameReceived);
+                    continue;
+                }
+                if (protocol == UNKNOWN) {
+                    protocol = buffer.get(buffer.position()) == FrameCodec.MAGIC[0] ? NEGOTIATING : TEXT;
+                }
+                if (protocol == NEGOTIATING) {
+                    handshake[handshakeFilled++] = buffer.get();
+                    if (handshakeFilled == handshake.length) {
+                        if (!Arrays.equals(Arrays.copyOf(handshake, FrameCodec.MAGIC.length), FrameCodec.MAGIC)) {
+                            throw new IOException("Négociation de protocole invalide");
+                        }
+                        frameDecoder = new FrameDecoder();
+                        protocol = BINARY;
+                        enableBinary(handshake[FrameCodec.MAGIC.length]);
+                    }
+                } else if (chunk != null) {
+                    ByteBuffer target = chunk.buffer();
+                    ByteBuffer slice = buffer.duplicate();
+                    slice.limit(slice.position() + Math.min(buffer.remaining(), target.remaining()));
+                    target.put(slice);
+                    buffer.position(slice.position());
+                    if (!target.hasRemaining()) {
+                        PooledBuffer complete = chunk;
+                        bodyRemaining -= target.position() - BufferPool.HEADER_ROOM;
+                        nextChunk();
+                        onBody(complete);
+                    }
+                } else {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        onLineReceived();
+                    } else if (lineBuffer.size() >= Protocol.MAX_LINE_LENGTH) {
+                        throw new IOException("Ligne trop longue");
+                    } else {
+                        lineBuffer.write(b);
+                    }
+                }
+            }
+        }
+
+        private boolean onFrameReceived(byte type, ByteBuffer payload) {
+            try {
+                if (onFrame(type, payload) == Protocol.END_OF_SESSION) {
+                    close();
+                    return false;
+                }
+                return true;
+            } catch (RuntimeException e) {
+                System.err.println("Erreur avec le client " + clientName + ": " + e.getMessage());
+                close();
+                return false;
+            }
+        }
+
+        private void onLineReceived() {
+            String message = Protocol.decodeLine(lineBuffer.toByteArray(), lineBuffer.size());
+            lineBuffer.reset();
+            try {
+                long bodyLength = onLine(message);
+                if (bodyLength == Protocol.END_OF_SESSION) {
+                    close();
+                    return;
+                }
+                bodyRemaining = bodyLength;
+                nextChunk();
+            } catch (RuntimeException e) {
+                System.err.println("Erreur avec le client " + clientName + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        // Préparer le prochain morceau à remplir, ou revenir à la lecture de lignes
+        private void nextChunk() {
+            chunk = bodyRemaining > 0 ? FileRelay.newChunk((int) Math.min(bodyRemaining, Protocol.CHUNK_SIZE)) : null;
+        }
+
+        @Override
+        protected void frameQueued() {
+            // Peut être appelé depuis n'importe quel thread : l'écriture a lieu dans la boucle.
+            // Un lot retardé qui atteint sa taille maximale est envoyé sans attendre la fin de sa fenêtre.
+            if (flushScheduled.compareAndSet(false, true)
+                    || (ChatServer.batchWindowNanos > 0 && outbound.queuedBytes() >= ChatServer.batchMaxBytes)) {
+                loop.requestFlush(this);
+            }
+        }
+
+        @Override
+        protected void slowConsumer() {
+            // File pleine : la boucle propriétaire déconnectera ce client lent
+            slowConsumer = true;
+            disconnect();
+        }
+
+        @Override
+        protected void disconnect() {
+            closeRequested = true;
+            frameQueued();
+        }
+
+        // Écrire autant que possible sans bloquer (thread de la boucle uniquement)
+        void flush() throws IOException {
+            flushScheduled.set(false);
+            flushDeadline = 0;
+            if (closed) {
+                return;
+            }
+            if (closeRequested) {
+                if (slowConsumer) {
+                    ServerMetrics.slowConsumerDisconnects.increment();
+                    ServerLog.info("Client lent déconnecté : " + clientName);
+                }
+                close();
+                return;
+            }
+
+            if (tls != null) {
+                if (!tls.flush()) {
+                    interest(true);
+                    return;
+                }
+                if (tls.isHandshaking()) {
+                    // Réponse du client attendue : les trames restent en file
+                    interest(false);
+                    return;
+                }
+            }
+
+            GatheringByteChannel out = tls != null ? tls : channel;
+            while (true) {
+                if (batch.isEmpty()) {
+                    outbound.fill(batch, ChatServer.batchMaxBytes);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                }
+                // Écriture groupée des tampons du lot, puis transferTo pour un fichier en attente
+                if (!batch.writeTo(out)) {
+                    // Socket pleine : attendre qu'elle redevienne disponible
+                    interest(true);
+                    return;
+                }
+            }
+            // TLS : les derniers enregistrements chiffrés peuvent encore attendre la socket
+            if (tls != null && !tls.flush()) {
+                interest(true);
+                return;
+            }
+            interest(false);
+        }
+
+        void close() {
+            if (!closing.compareAndSet(false, true)) {
+                return;
+            }
+            closed = true;
+            outbound.close();
+            batch.release();
+            if (chunk != null) {
+                chunk.release();
+                chunk = null;
+            }
+            try {
+                if (key != null) {
+                    key.cancel();
+                }
+                if (tls != null) {
+                    tls.close();
+                } else {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            onDisconnect();
+        }
+    }
+}
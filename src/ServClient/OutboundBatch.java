@@ -0,0 +1,83 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Lot de trames d'un même client envoyées par une seule écriture groupée (write sur un
+// tableau de tampons) : un salon animé ne coûte plus un appel système et un segment TCP
+// par message et par destinataire. Une trame suivie d'une région de fichier termine le lot,
+// sa région part ensuite par transferTo comme pour une trame seule.
+public class OutboundBatch {
+    private final List<OutboundFrame> frames = new ArrayList<>();
+    private ByteBuffer[] buffers = new ByteBuffer[16];
+    private int bufferCount = 0;
+    private int firstRemaining = 0;
+    private long byteCount = 0;
+
+    // Ajouter une trame au lot ; renvoie false si le lot ne peut plus rien recevoir
+    public boolean add(OutboundFrame frame) {
+        frames.add(frame);
+        for (ByteBuffer buffer : frame.buffers()) {
+            if (bufferCount == buffers.length) {
+                ByteBuffer[] larger = new ByteBuffer[bufferCount * 2];
+                System.arraycopy(buffers, 0, larger, 0, bufferCount);
+                buffers = larger;
+            }
+            buffers[bufferCount++] = buffer;
+        }
+        byteCount += frame.byteCount();
+        return !frame.hasFile();
+    }
+
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    public boolean isFull(long maxBytes) {
+        return byteCount >= maxBytes || (!frames.isEmpty() && frames.get(frames.size() - 1).hasFile());
+    }
+
+    public int frameCount() {
+        return frames.size();
+    }
+
+    // Écrire autant que possible ; renvoie true quand tout le lot est envoyé (et libéré).
+    // Sur un canal bloquant, il suffit de rappeler la méthode jusqu'à obtenir true.
+    public boolean writeTo(GatheringByteChannel channel) throws IOException {
+        while (firstRemaining < bufferCount && !buffers[firstRemaining].hasRemaining()) {
+            firstRemaining++;
+        }
+        if (firstRemaining < bufferCount) {
+            ServerMetrics.bytesOut.add(channel.write(buffers, firstRemaining, bufferCount - firstRemaining));
+            while (firstRemaining < bufferCount && !buffers[firstRemaining].hasRemaining()) {
+                firstRemaining++;
+            }
+            if (firstRemaining < bufferCount) {
+                return false;
+            }
+        }
+        // Tous les tampons sont partis : seule la dernière trame peut encore avoir un fichier à envoyer
+        if (!frames.isEmpty() && !frames.get(frames.size() - 1).writeTo(channel)) {
+            return false;
+        }
+        release();
+        return true;
+    }
+
+    // Libérer les trames du lot et le préparer pour le suivant
+    public void release() {
+        for (OutboundFrame frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = null;
+        }
+        bufferCount = 0;
+        firstRemaining = 0;
+        byteCount = 0;
+    }
+}
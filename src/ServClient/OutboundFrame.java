@@ -0,0 +1,178 @@
+package ServClient;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.function.LongFunction;
+
+// Trame de la file d'envoi d'un client : des tampons mémoire (en-têtes, messages, morceaux),
+// éventuellement suivis d'une région de fichier envoyée par FileChannel.transferTo,
+// que le noyau copie directement vers la socket sans passer par le tas Java.
+// Chaque destinataire a ses propres instances : l'avancement de l'écriture leur est propre,
+// même quand leurs tampons sont des vues d'une trame encodée une seule fois (SharedFrame).
+public class OutboundFrame {
+    private final ByteBuffer[] buffers;
+    private final SpooledFile file;
+    private final SharedFrame shared;
+    private final long byteCount;
+    private final LongFunction<ByteBuffer> chunkHeader;
+    private long filePosition = 0;
+    private long fileRemaining = 0;
+    private boolean released = false;
+    // Trame d'un fichier (voir OutboundQueue) : les messages déposés ensuite peuvent la dépasser
+    private boolean bulk = false;
+
+    public OutboundFrame(ByteBuffer... buffers) {
+        this.buffers = buffers;
+        this.file = null;
+        this.shared = null;
+        this.byteCount = remaining(buffers);
+        this.chunkHeader = null;
+    }
+
+    // Trame dont les tampons sont des vues d'une trame partagée ; la retient jusqu'à l'envoi
+    public OutboundFrame(SharedFrame shared, ByteBuffer... views) {
+        this.buffers = views;
+        this.file = null;
+        this.shared = shared;
+        this.byteCount = remaining(views);
+        this.chunkHeader = null;
+        shared.retain();
+    }
+
+    // Trame suivie du contenu entier d'un fichier en attente ; retient le fichier jusqu'à l'envoi
+    public OutboundFrame(SpooledFile file, long length, ByteBuffer... header) {
+        this(file, 0, length, header);
+    }
+
+    // Trame suivie d'une région d'un fichier en attente
+    public OutboundFrame(SpooledFile file, long position, long length, ByteBuffer... header) {
+        this.buffers = header;
+        this.file = file;
+        this.shared = null;
+        this.filePosition = position;
+        this.fileRemaining = length;
+        this.byteCount = remaining(header) + length;
+        this.chunkHeader = null;
+        file.retain();
+    }
+
+    // Région d'un fichier en attente envoyée en morceaux d'au plus Protocol.CHUNK_SIZE octets,
+    // chacun précédé de l'en-tête que donne chunkHeader pour sa longueur. La file d'envoi en
+    // détache un morceau à la fois (nextChunk) : les messages passent entre deux morceaux.
+    public OutboundFrame(SpooledFile file, long position, long length, LongFunction<ByteBuffer> chunkHeader) {
+        this.buffers = new ByteBuffer[0];
+        this.file = file;
+        this.shared = null;
+        this.filePosition = position;
+        this.fileRemaining = length;
+        this.byteCount = length;
+        this.chunkHeader = chunkHeader;
+        this.bulk = true;
+        file.retain();
+    }
+
+    // Écrire autant que possible ; renvoie true quand la trame est entièrement envoyée.
+    // Sur un canal bloquant, il suffit de rappeler la méthode jusqu'à obtenir true.
+    public boolean writeTo(GatheringByteChannel channel) throws IOException {
+        if (hasRemainingBuffers()) {
+            ServerMetrics.bytesOut.add(channel.write(buffers));
+            if (hasRemainingBuffers()) {
+                return false;
+            }
+        }
+        while (fileRemaining > 0) {
+            // TLS : le fichier doit passer par le chiffrement, pas de transferTo vers la socket
+            long written = channel instanceof TlsChannel
+                ? ((TlsChannel) channel).transferFrom(file.channel(), filePosition, fileRemaining)
+                : file.channel().transferTo(filePosition, fileRemaining, channel);
+            if (written <= 0) {
+                // Fichier raccourci sous nos pieds : transferTo renverrait 0 indéfiniment alors que la
+                // socket reste prête, et l'en-tête du morceau est déjà parti ; la connexion est perdue
+                if (written < 0 || filePosition >= file.channel().size()) {
+                    throw new EOFException("Fichier tronqué pendant l'envoi");
+                }
+                // Socket pleine : attendre qu'elle redevienne disponible
+                return false;
+            }
+            ServerMetrics.bytesOut.add(written);
+            filePosition += written;
+            fileRemaining -= written;
+        }
+        release();
+        return true;
+    }
+
+    // Classer la trame avec les fichiers ; renvoie la trame
+    public OutboundFrame bulk() {
+        bulk = true;
+        return this;
+    }
+
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    boolean isChunked() {
+        return chunkHeader != null;
+    }
+
+    // Détacher le prochain morceau d'une région (voir ci-dessus) ; il retient le fichier de son côté
+    OutboundFrame nextChunk() {
+        long length = Math.min(Protocol.CHUNK_SIZE, fileRemaining);
+        OutboundFrame chunk = new OutboundFrame(file, filePosition, length, chunkHeader.apply(length)).bulk();
+        filePosition += length;
+        fileRemaining -= length;
+        return chunk;
+    }
+
+    long fileRemaining() {
+        return fileRemaining;
+    }
+
+    // Taille totale de la trame à sa création (tampons et région de fichier)
+    public long byteCount() {
+        return byteCount;
+    }
+
+    // Tampons mémoire de la trame, pour une écriture groupée de plusieurs trames (OutboundBatch)
+    ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    boolean hasFile() {
+        return file != null;
+    }
+
+    private static long remaining(ByteBuffer[] buffers) {
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        return total;
+    }
+
+    private boolean hasRemainingBuffers() {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Libérer le fichier ou la trame partagée référencés (trame envoyée, abandonnée ou client parti)
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (file != null) {
+            file.release();
+        }
+        if (shared != null) {
+            shared.release();
+        }
+    }
+}
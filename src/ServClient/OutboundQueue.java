@@ -0,0 +1,186 @@
+package ServClient;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// File d'envoi bornée d'un client : une diffusion ne fait qu'y déposer des trames et
+// rend la main, l'écrivain propre au client les vide ensuite vers la socket.
+// Une trame (OutboundFrame) est envoyée d'un seul tenant (ex. en-tête FILE: + données) ;
+// une trame refusée ou abandonnée est libérée ici.
+// Deux voies, chacune dans l'ordre de dépôt : les messages et trames de contrôle passent avant
+// les trames de fichier (OutboundFrame.isBulk), un message n'attend donc jamais la fin d'un gros
+// fichier mais seulement celle du morceau en cours d'envoi.
+public class OutboundQueue {
+
+    // Politique appliquée quand la file d'un client lent est pleine
+    public enum OverflowPolicy {
+        DROP,          // abandonner la trame pour ce client
+        DISCONNECT,    // déconnecter le client lent
+        BACKPRESSURE   // faire attendre l'expéditeur, puis déconnecter après le délai
+    }
+
+    private final ArrayBlockingQueue<OutboundFrame> queue;
+    private final ArrayBlockingQueue<OutboundFrame> bulk;
+    // Une autorisation par trame déposée, toutes voies confondues : réveille l'écrivain
+    private final Semaphore ready = new Semaphore(0);
+    // Région de fichier en cours de découpage (OutboundFrame.isChunked), en tête de la voie des fichiers
+    private OutboundFrame remainder;
+    private final OverflowPolicy policy;
+    private final long backpressureTimeoutMs;
+    // File fermée (client parti) : toute trame déposée ensuite est libérée aussitôt
+    private volatile boolean closed = false;
+
+    // Octets en attente dans la file, pour déclencher l'envoi d'un lot avant la fin de sa fenêtre
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long backpressureTimeoutMs) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.bulk = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.backpressureTimeoutMs = backpressureTimeoutMs;
+    }
+
+    // Déposer une trame ; renvoie false si le client doit être déconnecté (jamais une fois la
+    // file fermée : la trame est libérée, le client est déjà parti)
+    public boolean offer(OutboundFrame frame) {
+        if (closed) {
+            frame.release();
+            return true;
+        }
+        ArrayBlockingQueue<OutboundFrame> lane = laneOf(frame);
+        boolean accepted;
+        switch (policy) {
+            case DROP:
+                if (lane.offer(frame)) {
+                    added(frame);
+                } else {
+                    ServerMetrics.droppedFrames.increment();
+                    frame.release();
+                }
+                return true;
+            case BACKPRESSURE:
+                try {
+                    accepted = lane.offer(frame, backpressureTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+                break;
+            default:
+                accepted = lane.offer(frame);
+                break;
+        }
+        if (accepted) {
+            added(frame);
+        } else {
+            frame.release();
+        }
+        return accepted;
+    }
+
+    // Déposer une trame qui ne peut pas être abandonnée (morceau de fichier) :
+    // avec la politique DROP, une file pleine entraîne la déconnexion
+    public boolean offerReliable(OutboundFrame frame) {
+        if (closed) {
+            frame.release();
+            return true;
+        }
+        if (policy == OverflowPolicy.DROP) {
+            if (!laneOf(frame).offer(frame)) {
+                frame.release();
+                return false;
+            }
+            added(frame);
+            return true;
+        }
+        return offer(frame);
+    }
+
+    // Attendre la prochaine trame (écrivain bloquant)
+    public OutboundFrame take() throws InterruptedException {
+        ready.acquire();
+        return next();
+    }
+
+    // Prochaine trame ou null si la file est vide (écrivain non bloquant)
+    public OutboundFrame poll() {
+        return ready.tryAcquire() ? next() : null;
+    }
+
+    // Prochaine trame, en attendant au plus le délai donné
+    public OutboundFrame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.tryAcquire(timeout, unit) ? next() : null;
+    }
+
+    // Compléter un lot avec les trames déjà en file, sans attendre
+    public void fill(OutboundBatch batch, long maxBytes) {
+        OutboundFrame frame;
+        while (!batch.isFull(maxBytes) && (frame = poll()) != null) {
+            batch.add(frame);
+        }
+    }
+
+    private ArrayBlockingQueue<OutboundFrame> laneOf(OutboundFrame frame) {
+        return frame.isBulk() ? bulk : queue;
+    }
+
+    private void added(OutboundFrame frame) {
+        queuedBytes.addAndGet(frame.byteCount());
+        ready.release();
+        // Fermeture pendant le dépôt : close() a pu vider la file avant l'arrivée de la trame
+        if (closed) {
+            clear();
+        }
+    }
+
+    // Autorisation acquise : une trame est présente dans l'une des voies
+    private synchronized OutboundFrame next() {
+        OutboundFrame frame = queue.poll();
+        if (frame == null) {
+            frame = remainder != null ? remainder : bulk.poll();
+            remainder = null;
+            if (frame.isChunked()) {
+                // Un morceau à la fois : le reste de la région garde sa place et son autorisation
+                OutboundFrame chunk = frame.nextChunk();
+                queuedBytes.addAndGet(-chunk.fileRemaining());
+                if (frame.fileRemaining() > 0) {
+                    remainder = frame;
+                    ready.release();
+                } else {
+                    frame.release();
+                }
+                return chunk;
+            }
+        }
+        queuedBytes.addAndGet(-frame.byteCount());
+        return frame;
+    }
+
+    public long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty() && bulk.isEmpty();
+    }
+
+    public int size() {
+        return queue.size() + bulk.size();
+    }
+
+    // Fermer la file (client parti) : la vider et refuser les dépôts suivants
+    public void close() {
+        closed = true;
+        clear();
+    }
+
+    // Vider la file en libérant les fichiers référencés
+    public void clear() {
+        OutboundFrame frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+}
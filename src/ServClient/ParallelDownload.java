@@ -0,0 +1,146 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Téléchargement d'un fichier du magasin du serveur en plusieurs flux parallèles : le fichier est
+// découpé en plages, chacune demandée (FILE_FETCH_RANGE) sur sa propre connexion de transfert et
+// écrite à sa place dans le fichier cible. Sur une liaison à forte latence, une seule connexion
+// TCP n'utilise pas tout le débit disponible ; plusieurs connexions, si.
+// Une plage interrompue (connexion coupée) est redemandée à partir du dernier octet écrit.
+public final class ParallelDownload {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private ParallelDownload() {
+    }
+
+    // Télécharger le fichier d'empreinte <hash> dans <target> sur <streams> connexions ;
+    // l'empreinte du résultat est vérifiée
+    public static void fetch(String host, int port, byte[] hash, String fileName, long fileSize, Path target, int streams) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(streams, task -> {
+            Thread thread = new Thread(task, "téléchargement " + fileName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long step = Math.max(Protocol.CHUNK_SIZE, (fileSize + streams - 1) / streams);
+            List<Future<Void>> ranges = new ArrayList<>();
+            for (long start = 0; start < fileSize; start += step) {
+                long from = start;
+                long end = Math.min(fileSize, start + step);
+                ranges.add(pool.submit(() -> {
+                    fetchRange(host, port, hash, fileName, out, from, end);
+                    return null;
+                }));
+            }
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Téléchargement interrompu");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!Arrays.equals(BlobStore.hash(target), hash)) {
+            throw new IOException("Empreinte du fichier téléchargé incorrecte: " + fileName);
+        }
+    }
+
+    // Une plage [start, end), reprise après le dernier octet écrit si la connexion est coupée
+    private static void fetchRange(String host, int port, byte[] hash, String fileName, FileChannel out,
+                                   long start, long end) throws IOException, InterruptedException {
+        long position = start;
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && position < end; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_DELAY_MS);
+            }
+            RangeWriter writer = new RangeWriter(out, position);
+            try (ChatConnection connection = ChatConnection.connectForTransfer(host, port)) {
+                writer.connection = connection;
+                connection.fetchRange(hash, fileName, position, end - position);
+                connection.readLoop(writer);
+            } catch (IOException e) {
+                failure = e;
+            }
+            position = writer.position;
+            if (writer.error != null) {
+                failure = writer.error;
+            }
+            if (writer.aborted) {
+                throw new IOException("Fichier indisponible sur le serveur: " + fileName);
+            }
+        }
+        if (position < end) {
+            throw failure != null ? failure : new IOException("Plage incomplète: " + fileName);
+        }
+    }
+
+    // Écrit les morceaux reçus à leur place dans le fichier cible (thread de lecture de la connexion)
+    private static class RangeWriter implements ChatConnection.Listener {
+        private final FileChannel out;
+        private ChatConnection connection;
+        private long position;
+        private boolean aborted = false;
+        private IOException error;
+
+        RangeWriter(FileChannel out, long position) {
+            this.out = out;
+            this.position = position;
+        }
+
+        @Override
+        public void onMessage(String text) {
+        }
+
+        @Override
+        public void onFileResume(long transferId, long offset) {
+            position = offset;
+        }
+
+        @Override
+        public void onFileChunk(long transferId, byte[] data, int length) {
+            try {
+                ByteBuffer chunk = ByteBuffer.wrap(data, 0, length);
+                while (chunk.hasRemaining()) {
+                    position += out.write(chunk, position);
+                }
+            } catch (IOException e) {
+                error = e;
+                finish();
+            }
+        }
+
+        @Override
+        public void onFileEnd(long transferId) {
+            finish();
+        }
+
+        @Override
+        public void onFileAbort(long transferId) {
+            aborted = true;
+            finish();
+        }
+
+        // Fin de la plage : fermer la connexion termine sa boucle de réception
+        private void finish() {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Connexion déjà coupée
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ServClient;
+
+import java.nio.ByteBuffer;
+
+// Tampon direct emprunté à BufferPool. Un seul propriétaire à la fois : celui qui l'a emprunté,
+// ou la trame partagée (SharedFrame) à qui il l'a confié, le rend une fois qu'il n'en a plus besoin.
+// Hors détection des fuites, le porteur lui-même est réutilisé d'un emprunt à l'autre.
+public final class PooledBuffer {
+    final BufferPool.SizeClass owner;
+    private final ByteBuffer buffer;
+    private boolean released;
+    // Octets comptés dans le budget des transferts en cours (ServerLimits), rendus avec le tampon
+    private int charged;
+    BufferPool.Leak leak;
+
+    PooledBuffer(BufferPool.SizeClass owner, ByteBuffer buffer) {
+        this.owner = owner;
+        this.buffer = buffer;
+    }
+
+    // Nouvel emprunt : tampon vide, limité à la capacité demandée
+    void lease(int capacity) {
+        released = false;
+        charged = 0;
+        leak = null;
+        buffer.clear();
+        buffer.limit(capacity);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // Compter ce tampon dans le budget des transferts en cours jusqu'à ce qu'il soit rendu
+    void charge() {
+        charged = buffer.limit();
+        ServerLimits.addTransferBytes(charged);
+    }
+
+    public void release() {
+        if (released) {
+            throw new IllegalStateException("Tampon rendu deux fois");
+        }
+        released = true;
+        if (charged > 0) {
+            ServerLimits.addTransferBytes(-charged);
+            charged = 0;
+        }
+        BufferPool.release(this);
+    }
+}
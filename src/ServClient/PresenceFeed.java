@@ -0,0 +1,173 @@
+package ServClient;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Diffusion de la présence des utilisateurs de ce nœud (voir UserDirectory), par deltas regroupés :
+// les arrivées et départs d'une fenêtre (--presence-window-ms) partent ensemble à la fin de
+// celle-ci, et un utilisateur parti puis revenu pendant la fenêtre (ou l'inverse) ne produit aucun
+// événement. Une tempête de reconnexions (des centaines d'utilisateurs en une seconde) coûte ainsi
+// quelques diffusions au lieu d'une par utilisateur et par destinataire.
+//  - clients abonnés (CAPS:presence) : la liste complète une fois, à l'abonnement, puis seulement
+//    les deltas (PRESENCE:+a,-b, voir Protocol), encodés une fois pour tous les abonnés
+//  - salon par défaut : un seul avis par fenêtre ("a, b et c ont rejoint le chat.")
+// Les deltas sont calculés et envoyés par un seul thread, dans l'ordre des fenêtres ; un abonné
+// reçoit sa liste complète avant tout delta qui n'y figure pas déjà.
+final class PresenceFeed {
+    // Taille visée d'une ligne PRESENCE: (une longue liste est découpée en plusieurs lignes)
+    private static final int MAX_LINE_CHARS = 16 * 1024;
+    // Noms cités dans l'avis du salon par défaut, les suivants sont seulement comptés
+    private static final int NOTICE_NAMES = 5;
+
+    static long windowMillis = 250;
+
+    private static final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "présence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Verrou ReentrantLock plutôt que synchronized, pour les threads virtuels
+    private static final ReentrantLock lock = new ReentrantLock();
+    // Dernier état de chaque nom changé pendant la fenêtre, dans l'ordre des changements
+    private static final LinkedHashMap<String, Boolean> pending = new LinkedHashMap<>();
+    // Utilisateurs en ligne tels que les abonnés les connaissent (dernière fenêtre publiée)
+    private static final Set<String> published = new HashSet<>();
+    private static boolean publishScheduled = false;
+    private static final Set<ChatSession> subscribers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private PresenceFeed() {
+    }
+
+    // Un utilisateur vient d'arriver (online) ou de partir ; publié à la fin de la fenêtre en cours
+    static void changed(String name, boolean online) {
+        lock.lock();
+        try {
+            pending.put(name, online);
+            if (publishScheduled) {
+                return;
+            }
+            publishScheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        publisher.schedule(PresenceFeed::publish, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Abonner un client : il reçoit la liste complète, puis les deltas des fenêtres suivantes
+    static void subscribe(ChatSession session) {
+        lock.lock();
+        try {
+            if (!subscribers.add(session)) {
+                return;
+            }
+            List<String> entries = new ArrayList<>(published.size());
+            for (String name : published) {
+                entries.add(Protocol.presenceEntry('+', name));
+            }
+            List<String> lines = lines(entries);
+            lines.set(0, Protocol.PRESENCE + "=" + lines.get(0).substring(Protocol.PRESENCE.length()));
+            for (String line : lines) {
+                BroadcastMessage message = BroadcastMessage.command(line);
+                try {
+                    session.sendBroadcast(message);
+                } finally {
+                    message.release();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void unsubscribe(ChatSession session) {
+        subscribers.remove(session);
+    }
+
+    // Fin de fenêtre (thread de publication) : comparer l'état final de chaque nom à ce que les
+    // abonnés connaissent, et n'envoyer que les différences
+    private static void publish() {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        List<ChatSession> recipients;
+        lock.lock();
+        try {
+            publishScheduled = false;
+            for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+                String name = change.getKey();
+                if (change.getValue() ? published.add(name) : published.remove(name)) {
+                    (change.getValue() ? joined : left).add(name);
+                } else {
+                    // Arrivée et départ (ou l'inverse) dans la même fenêtre : rien à annoncer
+                    ServerMetrics.presenceChangesCoalesced.increment();
+                }
+            }
+            pending.clear();
+            // Abonnés arrivés après ce calcul : leur liste complète contient déjà ces changements
+            recipients = new ArrayList<>(subscribers);
+        } finally {
+            lock.unlock();
+        }
+        if (joined.isEmpty() && left.isEmpty()) {
+            return;
+        }
+        ServerMetrics.presenceUpdates.increment();
+
+        List<String> entries = new ArrayList<>(joined.size() + left.size());
+        for (String name : joined) {
+            entries.add(Protocol.presenceEntry('+', name));
+        }
+        for (String name : left) {
+            entries.add(Protocol.presenceEntry('-', name));
+        }
+        for (String line : lines(entries)) {
+            BroadcastMessage message = BroadcastMessage.command(line);
+            try {
+                for (ChatSession session : recipients) {
+                    session.sendBroadcast(message);
+                }
+            } finally {
+                message.release();
+            }
+        }
+
+        if (!joined.isEmpty()) {
+            ChatServer.broadcast(ChatServer.DEFAULT_ROOM, "MSG:Serveur: " + notice(joined, "a rejoint", "ont rejoint") + " le chat.", null);
+        }
+        if (!left.isEmpty()) {
+            ChatServer.broadcast(ChatServer.DEFAULT_ROOM, "MSG:Serveur: " + notice(left, "a quitté", "ont quitté") + " le chat.", null);
+        }
+    }
+
+    // Lignes PRESENCE: d'au plus MAX_LINE_CHARS caractères environ (au moins une, même vide)
+    private static List<String> lines(List<String> entries) {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder(Protocol.PRESENCE);
+        for (String entry : entries) {
+            if (line.length() > Protocol.PRESENCE.length() && line.length() + entry.length() > MAX_LINE_CHARS) {
+                lines.add(line.toString());
+                line.setLength(Protocol.PRESENCE.length());
+            }
+            if (line.length() > Protocol.PRESENCE.length()) {
+                line.append(',');
+            }
+            line.append(entry);
+        }
+        lines.add(line.toString());
+        return lines;
+    }
+
+    // "a a rejoint", "a, b et c ont rejoint", "a, b, c, d, e et 95 autres ont rejoint"
+    private static String notice(List<String> names, String singular, String plural) {
+        if (names.size() == 1) {
+            return names.get(0) + " " + singular;
+        }
+        int cited = names.size() > NOTICE_NAMES + 1 ? NOTICE_NAMES : names.size() - 1;
+        String last = cited == names.size() - 1 ? names.get(cited) : (names.size() - cited) + " autres";
+        return String.join(", ", names.subList(0, cited)) + " et " + last + " " + plural;
+    }
+}
@@ -0,0 +1,117 @@
+package ServClient;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Constantes et utilitaires du protocole ligne, partagés par le serveur et le client.
+//
+// Transfert de fichier découpé (clients annonçant CAPS:chunked-files) :
+//   FSTART:id:taille:nom    début d'un fichier (taille sur un long)
+//   FCHUNK:id:longueur      suivi de <longueur> octets bruts (au plus MAX_CHUNK_SIZE du client
+//                           vers le serveur ; un fichier en attente sur disque est renvoyé
+//                           par le serveur en un seul morceau de longueur quelconque)
+//   FEND:id                 fin du fichier
+//   FABORT:id               transfert interrompu (l'expéditeur s'est déconnecté)
+// Les messages MSG: peuvent s'intercaler entre deux morceaux.
+// L'ancien format FILE:nom:taille suivi des octets bruts reste accepté.
+//
+// Salons et messages privés (voir ChatServer.broadcast) ; MSG: va au salon courant :
+//   JOIN:salon              s'abonner à un salon et en faire le salon courant
+//   LEAVE:salon             se désabonner (retour au salon par défaut s'il était courant)
+//   ROOM:salon:texte        message à un salon auquel le client est abonné
+//   PRIV:nom:texte          message privé, routé vers la boîte '@nom' du destinataire
+// Les messages reçus d'un autre salon que le salon par défaut sont préfixés par [salon] ou [privé].
+//
+// Historique (voir HistoryLog) :
+//   HISTORY:n               demander les messages depuis l'offset n (n < 0 : les -n derniers),
+//                           au plus ChatServer.historyReplayMax par demande, limitées aux
+//                           salons du client
+//   HISTORY:n:max           idem, en ne parcourant que max messages à partir de n (page
+//                           d'historique plus ancienne que ce que le client affiche déjà)
+//   HIST:offset:message     réponse du serveur, une ligne par message conservé
+//
+// Recherche dans l'historique (voir HistoryIndex), limitée aux salons du client :
+//   SEARCH:requête          mots (tous présents, sans tenir compte des accents ni de la casse),
+//                           from:nom, in:salon, after:date, before:date (2026-10-18,
+//                           2026-10-18T14:30 ou durée écoulée : 30m, 2h, 7d) ; réponse en
+//                           MSG:, les résultats du plus récent au plus ancien
+//
+// Présence (voir UserDirectory et PresenceFeed) :
+//   WHO                     liste des utilisateurs en ligne sur ce serveur (réponse MSG:)
+//   WHO:nom                 savoir si un utilisateur est en ligne (réponse MSG:)
+//   CAPS:presence           s'abonner aux changements de présence, envoyés par le serveur en :
+//   PRESENCE:=+a,+b         liste complète des utilisateurs en ligne (une fois, à l'abonnement ;
+//                           une longue liste se poursuit par des lignes PRESENCE:+...)
+//   PRESENCE:+c,-a          deltas regroupés : c s'est connecté, a est parti
+//   Les noms sont séparés par des virgules, '%' et ',' y sont échappés en %25 et %2C.
+// En binaire, ces commandes passent par des trames COMMAND.
+public final class Protocol {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    public static final String CAPS_CHUNKED_FILES = "chunked-files";
+    public static final String CAPS_PRESENCE = "presence";
+    public static final String PRESENCE = "PRESENCE:";
+    // Longueur maximale d'une ligne reçue par le serveur (un client ne peut pas lui faire
+    // accumuler une ligne sans fin)
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // Valeur renvoyée par ChatSession.onLine quand le client a demandé à quitter
+    public static final long END_OF_SESSION = -1;
+
+    private Protocol() {
+    }
+
+    // Encoder une ligne (même jeu de caractères et fin de ligne que PrintWriter.println)
+    public static ByteBuffer encodeLine(String line) {
+        return ByteBuffer.wrap((line + System.lineSeparator()).getBytes());
+    }
+
+    // Décoder une ligne reçue, sans le '\r' final éventuel
+    public static String decodeLine(byte[] bytes, int length) {
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length);
+    }
+
+    // Entrée d'une liste de présence : '+' ou '-' suivi du nom échappé
+    public static String presenceEntry(char change, String name) {
+        return change + name.replace("%", "%25").replace(",", "%2C");
+    }
+
+    // Entrées d'une liste de présence (après PRESENCE: et l'éventuel '='), noms déséchappés
+    // et précédés de leur '+' ou '-'
+    public static List<String> presenceEntries(String list) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            if (entry.length() > 1) {
+                entries.add(entry.replace("%2C", ",").replace("%25", "%"));
+            }
+        }
+        return entries;
+    }
+
+    // Lire une ligne octet par octet : contrairement à BufferedReader, rien n'est lu
+    // au-delà du '\n', les données binaires qui suivent restent donc dans le flux
+    public static String readLine(InputStream in) throws IOException {
+        return readLine(in, Integer.MAX_VALUE);
+    }
+
+    // Idem, en refusant une ligne de plus de maxLength octets
+    public static String readLine(InputStream in, int maxLength) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return decodeLine(line.toByteArray(), line.size());
+            }
+            if (line.size() >= maxLength) {
+                throw new IOException("Ligne trop longue");
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? decodeLine(line.toByteArray(), line.size()) : null;
+    }
+}
@@ -0,0 +1,65 @@
+package ServClient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Seau de jetons sans verrou (algorithme GCRA) : au lieu de compter les jetons restants, on
+// retient l'instant où le seau sera de nouveau plein. Prélever n unités repousse cet instant de
+// n fois l'intervalle entre deux unités ; la demande passe tant qu'il ne dépasse pas maintenant
+// de plus de la rafale autorisée. Un seul AtomicLong, mis à jour par compareAndSet : une limite
+// globale est partagée par les threads clients et les boucles NIO sans verrou ni contention
+// (et sans épingler les threads virtuels).
+final class RateLimiter {
+    private final double nanosPerUnit;
+    private final long burstNanos;
+    // Instant (System.nanoTime) où le seau sera plein
+    private final AtomicLong fullAt;
+
+    private RateLimiter(double ratePerSecond, double burst) {
+        this.nanosPerUnit = 1e9 / ratePerSecond;
+        this.burstNanos = (long) (Math.max(1, burst) * nanosPerUnit);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    // ratePerSecond unités par seconde, rafales d'au plus burst unités ; null sans limite (rate <= 0)
+    static RateLimiter create(double ratePerSecond, double burst) {
+        return ratePerSecond > 0 ? new RateLimiter(ratePerSecond, burst) : null;
+    }
+
+    // Prélever n unités si le seau les contient ; sinon rien n'est prélevé et la demande est refusée
+    boolean tryAcquire(long n) {
+        long now = System.nanoTime();
+        long cost = (long) (n * nanosPerUnit);
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + cost;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Le seau contient-il n unités ? Rien n'est prélevé : à suivre de tryAcquire par le même
+    // appelant, qui réussira (le seau ne fait que se remplir entre-temps)
+    boolean canAcquire(long n) {
+        long now = System.nanoTime();
+        long current = fullAt.get();
+        return (current - now > 0 ? current : now) + (long) (n * nanosPerUnit) - now <= burstNanos;
+    }
+
+    // Prélever n unités, quitte à s'endetter (les octets sont déjà lus) : renvoie le délai en
+    // nanosecondes à attendre avant de lire la suite pour revenir au débit autorisé, 0 sans dette
+    long acquire(long n) {
+        long now = System.nanoTime();
+        long cost = (long) (n * nanosPerUnit);
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + cost;
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, next - now - burstNanos);
+            }
+        }
+    }
+}
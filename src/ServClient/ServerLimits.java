@@ -0,0 +1,153 @@
+package ServClient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Protection du serveur contre les clients abusifs ou trop nombreux. Un client ne doit pas
+// pouvoir dégrader la latence des autres ni épuiser la mémoire de la JVM :
+//  - débit de messages (MSG, ROOM, PRIV, JOIN, LEAVE, HISTORY) par client et pour tout le serveur :
+//    au-delà, le message est ignoré et le client prévenu ; un client qui insiste est déconnecté
+//  - débit d'octets reçus par client et pour tout le serveur : au-delà, la lecture de la socket
+//    est suspendue le temps nécessaire (le contrôle de flux de TCP freine alors l'expéditeur)
+//  - taille maximale d'un fichier annoncé (FILE_OFFER, FILE_START, FSTART:, FILE:)
+//  - budget mémoire des morceaux de fichier en transit (tampons de FileRelay.newChunk encore en
+//    file chez des destinataires) : une fois épuisé, les clients qui envoient un fichier ne sont
+//    plus lus jusqu'à ce que les destinataires aient vidé leurs files
+//  - nombre de connexions (au total et par adresse) et rythme des nouvelles connexions : au-delà,
+//    la connexion est refusée dès l'acceptation, avant thread, négociation TLS ou tampon
+// Les pairs de confiance (liens de la grappe) ne sont soumis à aucune de ces limites.
+final class ServerLimits {
+    // Un client dont autant de messages d'affilée ont été ignorés est déconnecté
+    private static final int MAX_THROTTLED_IN_A_ROW = 1000;
+    // Attente avant de vérifier de nouveau le budget des transferts
+    static final long TRANSFER_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // Limites par client (0 : sans limite)
+    static double messageRate = 20;
+    static double messageBurst = 40;
+    static double byteRate = 0;
+    static double byteBurst = 0;
+
+    // Limites globales (null : sans limite)
+    static RateLimiter globalMessages;
+    static RateLimiter globalBytes;
+    static RateLimiter accepts;
+
+    static long maxFileSize = 4L * 1024 * 1024 * 1024;
+    static long transferBudget = 256L * 1024 * 1024;
+    static int maxConnections = 20000;
+    static int maxConnectionsPerAddress = 0;
+
+    private static final AtomicLong transferBytes = new AtomicLong();
+    private static final AtomicInteger connections = new AtomicInteger();
+    private static final ConcurrentHashMap<InetAddress, Integer> connectionsPerAddress = new ConcurrentHashMap<>();
+
+    private ServerLimits() {
+    }
+
+    // Lire les options --msg-rate, --msg-burst, --byte-rate-kb, --byte-burst-kb,
+    // --global-msg-rate, --global-byte-rate-kb, --accept-rate, --max-file-mb,
+    // --transfer-budget-mb, --max-connections et --max-connections-per-ip (0 : sans limite)
+    static void configure(String[] args) {
+        messageRate = Double.parseDouble(ChatServer.option(args, "msg-rate", String.valueOf(messageRate)));
+        messageBurst = Double.parseDouble(ChatServer.option(args, "msg-burst", String.valueOf(Math.max(messageBurst, messageRate))));
+        byteRate = Double.parseDouble(ChatServer.option(args, "byte-rate-kb", "0")) * 1024;
+        // Rafale par défaut : une seconde de débit, et au moins un morceau de fichier
+        byteBurst = Math.max(Protocol.CHUNK_SIZE, Double.parseDouble(ChatServer.option(args, "byte-burst-kb", String.valueOf(byteRate / 1024))) * 1024);
+        double globalMessageRate = Double.parseDouble(ChatServer.option(args, "global-msg-rate", "0"));
+        globalMessages = RateLimiter.create(globalMessageRate, globalMessageRate);
+        double globalByteRate = Double.parseDouble(ChatServer.option(args, "global-byte-rate-kb", "0")) * 1024;
+        globalBytes = RateLimiter.create(globalByteRate, Math.max(Protocol.CHUNK_SIZE, globalByteRate));
+        double acceptRate = Double.parseDouble(ChatServer.option(args, "accept-rate", "0"));
+        accepts = RateLimiter.create(acceptRate, acceptRate);
+        maxFileSize = Long.parseLong(ChatServer.option(args, "max-file-mb", String.valueOf(maxFileSize / (1024 * 1024)))) * 1024 * 1024;
+        transferBudget = Long.parseLong(ChatServer.option(args, "transfer-budget-mb", String.valueOf(transferBudget / (1024 * 1024)))) * 1024 * 1024;
+        maxConnections = Integer.parseInt(ChatServer.option(args, "max-connections", String.valueOf(maxConnections)));
+        maxConnectionsPerAddress = Integer.parseInt(ChatServer.option(args, "max-connections-per-ip", "0"));
+    }
+
+    // ---- Messages ----
+
+    static RateLimiter newMessageLimiter() {
+        return RateLimiter.create(messageRate, messageBurst);
+    }
+
+    static RateLimiter newByteLimiter() {
+        return RateLimiter.create(byteRate, byteBurst);
+    }
+
+    static boolean floodExceeded(int throttledInARow) {
+        return throttledInARow >= MAX_THROTTLED_IN_A_ROW;
+    }
+
+    // ---- Fichiers ----
+
+    static boolean fileTooLarge(long fileSize) {
+        return maxFileSize > 0 && fileSize > maxFileSize;
+    }
+
+    // Tampons de morceaux empruntés (bytes > 0) ou rendus (bytes < 0), voir PooledBuffer.charge
+    static void addTransferBytes(long bytes) {
+        transferBytes.addAndGet(bytes);
+    }
+
+    static long transferBytes() {
+        return transferBytes.get();
+    }
+
+    static boolean transferBudgetExhausted() {
+        return transferBudget > 0 && transferBytes.get() >= transferBudget;
+    }
+
+    // ---- Connexions ----
+
+    // Admettre une connexion acceptée (thread d'acceptation) : au-delà des limites, le client en
+    // clair reçoit une ligne d'explication et la connexion est fermée ; renvoie false dans ce cas.
+    // Une connexion admise doit être rendue par release une fois fermée.
+    static boolean admit(SocketChannel channel) {
+        InetAddress address = channel.socket().getInetAddress();
+        String refusal = null;
+        if (accepts != null && !accepts.tryAcquire(1)) {
+            refusal = "Serveur: trop de connexions en ce moment, réessayez plus tard.";
+        } else if (connections.incrementAndGet() > maxConnections && maxConnections > 0) {
+            connections.decrementAndGet();
+            refusal = "Serveur: serveur complet, réessayez plus tard.";
+        } else if (maxConnectionsPerAddress > 0
+                && connectionsPerAddress.merge(address, 1, Integer::sum) > maxConnectionsPerAddress) {
+            release(address);
+            refusal = "Serveur: trop de connexions depuis votre adresse.";
+        }
+        if (refusal == null) {
+            return true;
+        }
+        ServerMetrics.connectionsRejected.increment();
+        ServerLog.info("Connexion refusée : " + address.getHostAddress());
+        try {
+            if (ChatServer.tlsContext == null) {
+                // Socket encore bloquante et tampon d'envoi vide : l'écriture ne bloque pas
+                channel.write(Protocol.encodeLine(refusal));
+            }
+        } catch (IOException ignored) {
+            // Le client est déjà parti
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return false;
+    }
+
+    // Une connexion admise est fermée
+    static void release(InetAddress address) {
+        connections.decrementAndGet();
+        if (maxConnectionsPerAddress > 0) {
+            connectionsPerAddress.merge(address, -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ServClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Journal du serveur (connexions, départs, fichiers, messages) : en mode asynchrone, les lignes
+// sont déposées dans une file bornée et écrites par un thread dédié, par paquets ; un thread
+// client ou une boucle NIO n'attend donc plus jamais la console. Si la file est pleine, la ligne
+// est abandonnée et comptée (ServerMetrics). Les erreurs restent écrites directement sur System.err.
+// Options : --log=async|sync|off (async par défaut, y compris avant configure) et
+// --log-messages=true pour journaliser chaque message de salon.
+public class ServerLog {
+
+    public enum Mode { ASYNC, SYNC, OFF }
+
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static volatile Mode mode = Mode.ASYNC;
+    private static boolean logMessages = false;
+    private static final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicBoolean writerStarted = new AtomicBoolean();
+
+    static void configure(Mode newMode, boolean messages) {
+        mode = newMode;
+        logMessages = messages;
+        if (newMode == Mode.ASYNC) {
+            startWriter();
+        }
+    }
+
+    // Thread d'écriture et vidage à l'arrêt, démarrés une seule fois, au premier usage du mode
+    // asynchrone : une ligne journalisée avant configure n'attend pas un écrivain absent
+    private static void startWriter() {
+        if (writerStarted.compareAndSet(false, true)) {
+            Thread writer = new Thread(ServerLog::writeLoop, "journal");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::drain));
+        }
+    }
+
+    // Journaliser un événement du serveur
+    static void info(String line) {
+        switch (mode) {
+            case ASYNC:
+                if (!writerStarted.get()) {
+                    startWriter();
+                }
+                if (!queue.offer(line)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+            case SYNC:
+                System.out.println(line);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Journaliser un message de salon, seulement avec --log-messages=true
+    static void message(String line) {
+        if (logMessages) {
+            info(line);
+        }
+    }
+
+    static long droppedLines() {
+        return dropped.get();
+    }
+
+    private static void writeLoop() {
+        List<String> lines = new ArrayList<>();
+        StringBuilder text = new StringBuilder(8192);
+        try {
+            while (true) {
+                lines.add(queue.take());
+                queue.drainTo(lines);
+                // Un seul appel à la console par paquet de lignes
+                for (String line : lines) {
+                    text.append(line).append(System.lineSeparator());
+                }
+                System.out.print(text);
+                lines.clear();
+                text.setLength(0);
+            }
+        } catch (InterruptedException e) {
+            // Arrêt du serveur
+        }
+    }
+
+    // Écrire les lignes encore en file à l'arrêt du serveur
+    private static void drain() {
+        List<String> lines = new ArrayList<>();
+        queue.drainTo(lines);
+        for (String line : lines) {
+            System.out.println(line);
+        }
+    }
+}
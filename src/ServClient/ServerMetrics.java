@@ -0,0 +1,353 @@
+package ServClient;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Compteurs et jauges du serveur, publiés par JMX (ServClient:type=ChatServer, visible dans
+// jconsole/VisualVM) et, avec --metrics-port, en texte brut sur http://hôte:port/metrics.
+// Les compteurs sont des LongAdder : les threads clients et les boucles NIO les incrémentent
+// sans se disputer une même ligne de cache. Les débits par seconde sont calculés par un
+// thread d'échantillonnage, une fois par seconde.
+public class ServerMetrics {
+
+    // Interface de gestion exposée par JMX (MXBean : les Map deviennent des données tabulaires)
+    public interface ServerMXBean {
+        int getActiveConnections();
+        long getConnectionsAccepted();
+        long getMessagesReceived();
+        long getMessagesPerSecond();
+        long getMessagesDelivered();
+        long getDeliveriesPerSecond();
+        long getBytesIn();
+        long getBytesOut();
+        long getBytesInPerSecond();
+        long getBytesOutPerSecond();
+        long getBroadcasts();
+        long getBroadcastFanoutP50Micros();
+        long getBroadcastFanoutP99Micros();
+        long getFileBytesRelayed();
+        long getFileBytesPerSecond();
+        long getFilesRelayed();
+        long getFilesAborted();
+        long getSlowConsumerDisconnects();
+        long getDroppedFrames();
+        long getQueuedBytes();
+        int getMaxOutboundQueueDepth();
+        Map<String, Integer> getOutboundQueueDepths();
+        long getLogLinesDropped();
+        long getFilesDeduplicated();
+        long getUploadBytesSaved();
+        long getFileReferencesSent();
+        long getUploadsResumed();
+        long getFileRangesServed();
+        int getStoredBlobs();
+        long getStoredBlobBytes();
+        long getCompressionBytesSaved();
+        long getBufferAcquisitions();
+        long getBufferPoolHitRatePercent();
+        long getBufferPoolReservedBytes();
+        long getBuffersOutstanding();
+        long getBuffersUnpooled();
+        long getBufferLeaks();
+        int getClusterNodes();
+        long getClusterMessagesForwarded();
+        long getClusterMessagesRelayed();
+        long getClusterDuplicatesDropped();
+        long getClusterSequenceGaps();
+        long getTlsHandshakes();
+        long getTlsSessionsResumed();
+        long getConnectionsRejected();
+        long getMessagesThrottled();
+        long getReadsPaused();
+        long getFilesRejected();
+        long getTransferBytesInFlight();
+        int getUsersOnline();
+        long getPresenceUpdates();
+        long getPresenceChangesCoalesced();
+        long getSearchQueries();
+        long getSearchIndexLag();
+        int getSearchSegments();
+    }
+
+    static final LongAdder connectionsAccepted = new LongAdder();
+    static final LongAdder messagesReceived = new LongAdder();
+    static final LongAdder messagesDelivered = new LongAdder();
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+    static final LongAdder fileBytesRelayed = new LongAdder();
+    static final LongAdder filesRelayed = new LongAdder();
+    static final LongAdder filesAborted = new LongAdder();
+    static final LongAdder slowConsumerDisconnects = new LongAdder();
+    static final LongAdder droppedFrames = new LongAdder();
+    static final LongAdder filesDeduplicated = new LongAdder();
+    static final LongAdder uploadBytesSaved = new LongAdder();
+    static final LongAdder fileReferencesSent = new LongAdder();
+    static final LongAdder uploadsResumed = new LongAdder();
+    static final LongAdder fileRangesServed = new LongAdder();
+    static final LongAdder compressionBytesSaved = new LongAdder();
+    static final LongAdder clusterForwarded = new LongAdder();
+    static final LongAdder clusterRelayed = new LongAdder();
+    static final LongAdder clusterDuplicates = new LongAdder();
+    static final LongAdder clusterGaps = new LongAdder();
+    static final LongAdder tlsHandshakes = new LongAdder();
+    static final LongAdder tlsSessionsResumed = new LongAdder();
+    static final LongAdder connectionsRejected = new LongAdder();
+    static final LongAdder messagesThrottled = new LongAdder();
+    static final LongAdder readsPaused = new LongAdder();
+    static final LongAdder filesRejected = new LongAdder();
+    static final LongAdder presenceUpdates = new LongAdder();
+    static final LongAdder presenceChangesCoalesced = new LongAdder();
+    static final LongAdder searchQueries = new LongAdder();
+    private static final LatencyHistogram broadcastFanout = new LatencyHistogram();
+
+    // Débits de la dernière seconde écoulée, mis à jour par le thread d'échantillonnage
+    private static volatile long messagesPerSecond, deliveriesPerSecond, bytesInPerSecond, bytesOutPerSecond, fileBytesPerSecond;
+
+    private static final Server server = new Server();
+
+    // Temps passé à déposer un message dans les files des abonnés d'un salon
+    static void recordBroadcast(long nanos) {
+        broadcastFanout.record(nanos);
+    }
+
+    // Enregistrer le MXBean et démarrer l'échantillonnage des débits
+    static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(server, new ObjectName("ServClient:type=ChatServer"));
+        } catch (Exception e) {
+            System.err.println("Enregistrement JMX impossible: " + e.getMessage());
+        }
+        Thread sampler = new Thread(ServerMetrics::sampleRates, "métriques");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // Point d'accès texte (serveur HTTP du JDK), une ligne « nom valeur » par mesure ; sans
+    // authentification, il n'écoute que sur l'adresse donnée (la boucle locale par défaut)
+    static void startHttp(InetAddress address, int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(address, port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        ServerLog.info("Métriques disponibles sur http://" + address.getHostAddress() + ":" + port + "/metrics");
+    }
+
+    // Flux d'entrée qui compte les octets reçus (mode thread ; la boucle NIO compte ses lectures)
+    static InputStream countBytesIn(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytesIn.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    static String render() {
+        StringBuilder text = new StringBuilder(1024);
+        line(text, "chat_active_connections", server.getActiveConnections());
+        line(text, "chat_connections_accepted_total", server.getConnectionsAccepted());
+        line(text, "chat_messages_received_total", server.getMessagesReceived());
+        line(text, "chat_messages_per_second", server.getMessagesPerSecond());
+        line(text, "chat_messages_delivered_total", server.getMessagesDelivered());
+        line(text, "chat_deliveries_per_second", server.getDeliveriesPerSecond());
+        line(text, "chat_bytes_in_total", server.getBytesIn());
+        line(text, "chat_bytes_out_total", server.getBytesOut());
+        line(text, "chat_bytes_in_per_second", server.getBytesInPerSecond());
+        line(text, "chat_bytes_out_per_second", server.getBytesOutPerSecond());
+        line(text, "chat_broadcasts_total", server.getBroadcasts());
+        line(text, "chat_broadcast_fanout_p50_micros", server.getBroadcastFanoutP50Micros());
+        line(text, "chat_broadcast_fanout_p99_micros", server.getBroadcastFanoutP99Micros());
+        line(text, "chat_file_bytes_relayed_total", server.getFileBytesRelayed());
+        line(text, "chat_file_bytes_per_second", server.getFileBytesPerSecond());
+        line(text, "chat_files_relayed_total", server.getFilesRelayed());
+        line(text, "chat_files_aborted_total", server.getFilesAborted());
+        line(text, "chat_slow_consumer_disconnects_total", server.getSlowConsumerDisconnects());
+        line(text, "chat_dropped_frames_total", server.getDroppedFrames());
+        line(text, "chat_queued_bytes", server.getQueuedBytes());
+        line(text, "chat_log_lines_dropped_total", server.getLogLinesDropped());
+        line(text, "chat_files_deduplicated_total", server.getFilesDeduplicated());
+        line(text, "chat_upload_bytes_saved_total", server.getUploadBytesSaved());
+        line(text, "chat_file_references_sent_total", server.getFileReferencesSent());
+        line(text, "chat_uploads_resumed_total", server.getUploadsResumed());
+        line(text, "chat_file_ranges_served_total", server.getFileRangesServed());
+        line(text, "chat_stored_blobs", server.getStoredBlobs());
+        line(text, "chat_stored_blob_bytes", server.getStoredBlobBytes());
+        line(text, "chat_compression_bytes_saved_total", server.getCompressionBytesSaved());
+        line(text, "chat_buffer_acquisitions_total", server.getBufferAcquisitions());
+        line(text, "chat_buffer_pool_hit_rate_percent", server.getBufferPoolHitRatePercent());
+        line(text, "chat_buffer_pool_reserved_bytes", server.getBufferPoolReservedBytes());
+        line(text, "chat_buffers_outstanding", server.getBuffersOutstanding());
+        line(text, "chat_buffers_unpooled_total", server.getBuffersUnpooled());
+        line(text, "chat_buffer_leaks_total", server.getBufferLeaks());
+        line(text, "chat_cluster_nodes", server.getClusterNodes());
+        line(text, "chat_cluster_messages_forwarded_total", server.getClusterMessagesForwarded());
+        line(text, "chat_cluster_messages_relayed_total", server.getClusterMessagesRelayed());
+        line(text, "chat_cluster_duplicates_dropped_total", server.getClusterDuplicatesDropped());
+        line(text, "chat_cluster_sequence_gaps_total", server.getClusterSequenceGaps());
+        line(text, "chat_tls_handshakes_total", server.getTlsHandshakes());
+        line(text, "chat_tls_sessions_resumed_total", server.getTlsSessionsResumed());
+        line(text, "chat_connections_rejected_total", server.getConnectionsRejected());
+        line(text, "chat_messages_throttled_total", server.getMessagesThrottled());
+        line(text, "chat_reads_paused_total", server.getReadsPaused());
+        line(text, "chat_files_rejected_total", server.getFilesRejected());
+        line(text, "chat_transfer_bytes_in_flight", server.getTransferBytesInFlight());
+        line(text, "chat_users_online", server.getUsersOnline());
+        line(text, "chat_presence_updates_total", server.getPresenceUpdates());
+        line(text, "chat_presence_changes_coalesced_total", server.getPresenceChangesCoalesced());
+        line(text, "chat_search_queries_total", server.getSearchQueries());
+        line(text, "chat_search_index_lag", server.getSearchIndexLag());
+        line(text, "chat_search_segments", server.getSearchSegments());
+        for (ChatPeer peer : ChatServer.clients()) {
+            if (peer instanceof ChatSession) {
+                ChatSession session = (ChatSession) peer;
+                // Numéro de session : deux sessions du même nom restent deux séries distinctes
+                String label = "{client=\"" + String.valueOf(session.clientName).replace("\\", "\\\\").replace("\"", "\\\"")
+                    + "\",session=\"" + session.sessionId + "\"}";
+                line(text, "chat_outbound_queue_frames" + label, session.outbound.size());
+                line(text, "chat_outbound_queue_bytes" + label, session.outbound.queuedBytes());
+            }
+        }
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sampleRates() {
+        long messages = 0, deliveries = 0, in = 0, out = 0, files = 0;
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long value;
+            messagesPerSecond = (value = messagesReceived.sum()) - messages;
+            messages = value;
+            deliveriesPerSecond = (value = messagesDelivered.sum()) - deliveries;
+            deliveries = value;
+            bytesInPerSecond = (value = bytesIn.sum()) - in;
+            in = value;
+            bytesOutPerSecond = (value = bytesOut.sum()) - out;
+            out = value;
+            fileBytesPerSecond = (value = fileBytesRelayed.sum()) - files;
+            files = value;
+        }
+    }
+
+    private static class Server implements ServerMXBean {
+        @Override public int getActiveConnections() { return ChatServer.clients().size(); }
+        @Override public long getConnectionsAccepted() { return connectionsAccepted.sum(); }
+        @Override public long getMessagesReceived() { return messagesReceived.sum(); }
+        @Override public long getMessagesPerSecond() { return messagesPerSecond; }
+        @Override public long getMessagesDelivered() { return messagesDelivered.sum(); }
+        @Override public long getDeliveriesPerSecond() { return deliveriesPerSecond; }
+        @Override public long getBytesIn() { return bytesIn.sum(); }
+        @Override public long getBytesOut() { return bytesOut.sum(); }
+        @Override public long getBytesInPerSecond() { return bytesInPerSecond; }
+        @Override public long getBytesOutPerSecond() { return bytesOutPerSecond; }
+        @Override public long getBroadcasts() { return broadcastFanout.count(); }
+        @Override public long getBroadcastFanoutP50Micros() { return broadcastFanout.percentile(50); }
+        @Override public long getBroadcastFanoutP99Micros() { return broadcastFanout.percentile(99); }
+        @Override public long getFileBytesRelayed() { return fileBytesRelayed.sum(); }
+        @Override public long getFileBytesPerSecond() { return fileBytesPerSecond; }
+        @Override public long getFilesRelayed() { return filesRelayed.sum(); }
+        @Override public long getFilesAborted() { return filesAborted.sum(); }
+        @Override public long getSlowConsumerDisconnects() { return slowConsumerDisconnects.sum(); }
+        @Override public long getDroppedFrames() { return droppedFrames.sum(); }
+        @Override public long getLogLinesDropped() { return ServerLog.droppedLines(); }
+        @Override public long getFilesDeduplicated() { return filesDeduplicated.sum(); }
+        @Override public long getUploadBytesSaved() { return uploadBytesSaved.sum(); }
+        @Override public long getFileReferencesSent() { return fileReferencesSent.sum(); }
+        @Override public long getUploadsResumed() { return uploadsResumed.sum(); }
+        @Override public long getFileRangesServed() { return fileRangesServed.sum(); }
+        @Override public int getStoredBlobs() { return ChatServer.blobs != null ? ChatServer.blobs.size() : 0; }
+        @Override public long getCompressionBytesSaved() { return compressionBytesSaved.sum(); }
+        @Override public long getStoredBlobBytes() { return ChatServer.blobs != null ? ChatServer.blobs.totalBytes() : 0; }
+        @Override public long getBufferAcquisitions() { return BufferPool.acquired.sum(); }
+        @Override public long getBufferPoolHitRatePercent() { return BufferPool.hitRatePercent(); }
+        @Override public long getBufferPoolReservedBytes() { return BufferPool.reservedBytes(); }
+        @Override public long getBuffersOutstanding() { return BufferPool.outstanding(); }
+        @Override public long getBuffersUnpooled() { return BufferPool.unpooled.sum(); }
+        @Override public long getBufferLeaks() { return BufferPool.leaks.sum(); }
+        @Override public int getClusterNodes() { return ChatServer.cluster != null ? ChatServer.cluster.size() : 1; }
+        @Override public long getClusterMessagesForwarded() { return clusterForwarded.sum(); }
+        @Override public long getClusterMessagesRelayed() { return clusterRelayed.sum(); }
+        @Override public long getClusterDuplicatesDropped() { return clusterDuplicates.sum(); }
+        @Override public long getClusterSequenceGaps() { return clusterGaps.sum(); }
+        @Override public long getTlsHandshakes() { return tlsHandshakes.sum(); }
+        @Override public long getTlsSessionsResumed() { return tlsSessionsResumed.sum(); }
+        @Override public long getConnectionsRejected() { return connectionsRejected.sum(); }
+        @Override public long getMessagesThrottled() { return messagesThrottled.sum(); }
+        @Override public long getReadsPaused() { return readsPaused.sum(); }
+        @Override public long getFilesRejected() { return filesRejected.sum(); }
+        @Override public long getTransferBytesInFlight() { return ServerLimits.transferBytes(); }
+        @Override public int getUsersOnline() { return UserDirectory.userCount(); }
+        @Override public long getPresenceUpdates() { return presenceUpdates.sum(); }
+        @Override public long getPresenceChangesCoalesced() { return presenceChangesCoalesced.sum(); }
+        @Override public long getSearchQueries() { return searchQueries.sum(); }
+        @Override public long getSearchIndexLag() { return ChatServer.searchIndex == null ? 0 : ChatServer.searchIndex.lag(); }
+        @Override public int getSearchSegments() { return ChatServer.searchIndex == null ? 0 : ChatServer.searchIndex.segmentCount(); }
+
+        @Override
+        public long getQueuedBytes() {
+            long total = 0;
+            for (ChatPeer peer : ChatServer.clients()) {
+                if (peer instanceof ChatSession) {
+                    total += ((ChatSession) peer).outbound.queuedBytes();
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public int getMaxOutboundQueueDepth() {
+            int max = 0;
+            for (ChatPeer peer : ChatServer.clients()) {
+                if (peer instanceof ChatSession) {
+                    max = Math.max(max, ((ChatSession) peer).outbound.size());
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public Map<String, Integer> getOutboundQueueDepths() {
+            Map<String, Integer> depths = new TreeMap<>();
+            for (ChatPeer peer : ChatServer.clients()) {
+                if (peer instanceof ChatSession) {
+                    ChatSession session = (ChatSession) peer;
+                    depths.put(session.clientName + "#" + session.sessionId, session.outbound.size());
+                }
+            }
+            return depths;
+        }
+    }
+}
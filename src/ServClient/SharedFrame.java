@@ -0,0 +1,152 @@
+package ServClient;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Trame binaire encodée une seule fois et envoyée à plusieurs destinataires (message diffusé,
+// morceau de fichier relayé) : chaque file d'envoi reçoit une vue (duplicate) des mêmes tampons,
+// en lecture seule, avec sa propre position d'écriture.
+// La trame est compressée une fois par algorithme, pour le premier destinataire qui l'a négocié,
+// et le résultat est partagé par tous les autres. Aucun verrou : la compression se fait hors de
+// tout moniteur (pas de thread virtuel épinglé, pas de destinataire bloqué derrière un autre) et
+// son résultat est publié par compareAndSet ; deux destinataires simultanés peuvent compresser
+// chacun de leur côté, le premier résultat publié est gardé.
+// Comptée par références : le diffuseur détient la première, chaque trame d'envoi (OutboundFrame)
+// qui la référence en retient une autre, libérée une fois envoyée ou abandonnée. La dernière
+// référence rendue rend aussi à BufferPool le tampon dans lequel la trame a été encodée.
+public class SharedFrame {
+    private final ByteBuffer[] plain;
+    private final PooledBuffer pooled;
+    private final long plainSize;
+    private final boolean compressible;
+    // Résultats par algorithme, le plus récent en tête (liste immuable remplacée par compareAndSet)
+    private final AtomicReference<Compression> compressions = new AtomicReference<>();
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    // compressible : false pour un contenu déjà compressé ou trop court pour y gagner
+    public SharedFrame(boolean compressible, ByteBuffer... plain) {
+        this(compressible, null, plain);
+    }
+
+    // pooled : tampon emprunté qui contient la trame, confié à celle-ci (null si aucun)
+    public SharedFrame(boolean compressible, PooledBuffer pooled, ByteBuffer... plain) {
+        this.compressible = compressible;
+        this.pooled = pooled;
+        this.plain = plain;
+        long size = 0;
+        for (ByteBuffer buffer : plain) {
+            size += buffer.remaining();
+        }
+        this.plainSize = size;
+    }
+
+    public long plainSize() {
+        return plainSize;
+    }
+
+    // Vues des tampons non compressés pour un destinataire
+    public ByteBuffer[] plainBuffers() {
+        ByteBuffer[] views = new ByteBuffer[plain.length];
+        for (int i = 0; i < plain.length; i++) {
+            views[i] = plain[i].asReadOnlyBuffer();
+        }
+        return views;
+    }
+
+    // Trame COMPRESSED pour l'algorithme donné, ou null si elle ne réduit pas assez la taille
+    public ByteBuffer compressed(String codecName) {
+        if (!compressible) {
+            return null;
+        }
+        Compression found = find(compressions.get(), codecName);
+        if (found == null) {
+            ByteBuffer data = compress(codecName);
+            while (true) {
+                Compression head = compressions.get();
+                found = find(head, codecName);
+                if (found != null) {
+                    break;
+                }
+                Compression added = new Compression(codecName, data, head);
+                if (compressions.compareAndSet(head, added)) {
+                    found = added;
+                    break;
+                }
+            }
+        }
+        return found.data != null ? found.data.asReadOnlyBuffer() : null;
+    }
+
+    // false si le contenu n'est pas compressible, ou si tous les algorithmes essayés sont restés
+    // sans gain (un échec ne concerne que son algorithme : les autres sont encore tentés)
+    public boolean isCompressible() {
+        if (!compressible) {
+            return false;
+        }
+        Compression compression = compressions.get();
+        if (compression == null) {
+            return true;
+        }
+        for (; compression != null; compression = compression.next) {
+            if (compression.data != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining < 0) {
+            throw new IllegalStateException("Trame partagée libérée trop de fois");
+        }
+        if (remaining == 0 && pooled != null) {
+            pooled.release();
+        }
+    }
+
+    private static Compression find(Compression compression, String codecName) {
+        for (; compression != null; compression = compression.next) {
+            if (compression.codec.equals(codecName)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer compress(String codecName) {
+        byte[] bytes = new byte[(int) plainSize];
+        int position = 0;
+        for (ByteBuffer buffer : plain) {
+            ByteBuffer copy = buffer.duplicate();
+            int length = copy.remaining();
+            copy.get(bytes, position, length);
+            position += length;
+        }
+        CompressionCodec compressor = CompressionCodec.borrow(codecName);
+        try {
+            byte[] data = compressor.compress(bytes, 0, bytes.length);
+            return data != null ? FrameCodec.encodeCompressed(CompressionCodec.FRAME, data) : null;
+        } finally {
+            CompressionCodec.giveBack(compressor);
+        }
+    }
+
+    // Résultat d'un algorithme : trame COMPRESSED, ou null si la compression n'a rien gagné
+    private static final class Compression {
+        final String codec;
+        final ByteBuffer data;
+        final Compression next;
+
+        Compression(String codec, ByteBuffer data, Compression next) {
+            this.codec = codec;
+            this.data = data;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ServClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fichier reçu mis en attente sur disque (option --spool-uploads), puis envoyé à chaque
+// destinataire par FileChannel.transferTo. Compté par références : le fichier temporaire
+// est supprimé quand la dernière trame qui le référence a été envoyée ou abandonnée.
+// Un fichier du magasin (BlobStore) est seulement fermé, jamais supprimé.
+public class SpooledFile {
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean temporary;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SpooledFile(Path path, boolean temporary) throws IOException {
+        this.path = path;
+        this.temporary = temporary;
+        this.channel = temporary
+            ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    public static SpooledFile create() throws IOException {
+        return new SpooledFile(Files.createTempFile("chat-upload-", ".part"), true);
+    }
+
+    // Fichier existant, en lecture seule
+    public static SpooledFile open(Path path) throws IOException {
+        return new SpooledFile(path, false);
+    }
+
+    // Ajouter un morceau reçu à la fin du fichier (thread de lecture de l'expéditeur),
+    // sans modifier sa position
+    public void append(ByteBuffer chunk) throws IOException {
+        ByteBuffer buffer = chunk.duplicate();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    // Lectures positionnelles uniquement : le canal peut être partagé entre destinataires
+    public FileChannel channel() {
+        return channel;
+    }
+
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+                if (temporary) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                System.err.println("Impossible de supprimer " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
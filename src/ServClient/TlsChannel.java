@@ -0,0 +1,591 @@
+package ServClient;
+
+import javax.net.ssl.*;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Canal chiffré (TLS) au-dessus d'un SocketChannel, construit sur SSLEngine : il fonctionne en
+// mode bloquant (ChatServer.ClientHandler, ChatConnection) comme en mode non bloquant (boucles
+// NIO), où read et write renvoient 0 quand la socket n'est pas prête. La négociation avance au
+// fil des lectures et des écritures ; en mode bloquant, handshake() la mène à son terme.
+//
+// Tampons : chiffré reçu, clair déchiffré d'avance et chiffré à envoyer sont empruntés à
+// BufferPool quand ils servent et rendus dès qu'ils sont vides, une connexion inactive n'en
+// garde aucun. Jusqu'à OUT_RECORDS enregistrements sont chiffrés puis écrits d'un seul appel.
+// Un lecteur et un écrivain peuvent travailler en même temps (SSLEngine le permet) ; les
+// étapes de négociation à envoyer passent sous le verrou de l'écrivain.
+//
+// Calculs délégués de la négociation (signature, vérification du certificat) : exécutés sur
+// place en mode bloquant ; une boucle NIO les confie à un exécuteur (delegateTasks) pour ne pas
+// faire attendre ses autres connexions, et relance la négociation quand ils sont terminés.
+//
+// Reprise de session : les moteurs d'un même SSLContext partagent son cache de sessions ;
+// côté client, le moteur est créé pour l'hôte et le port du serveur pour que le cache le retrouve.
+public class TlsChannel implements ByteChannel, GatheringByteChannel {
+    private static final int OUT_RECORDS = 3;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final int packetSize;
+    private final int appSize;
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    private final long handshakeStart = System.currentTimeMillis();
+
+    // Chiffré reçu (mode écriture), clair déchiffré d'avance et chiffré à envoyer (mode lecture)
+    private PooledBuffer netIn;
+    private PooledBuffer appIn;
+    private PooledBuffer netOut;
+
+    // Exécuteur des calculs délégués (null : sur place) et relance une fois ceux-ci terminés
+    private Executor taskExecutor;
+    private Runnable tasksDone;
+    private final AtomicBoolean tasksRunning = new AtomicBoolean();
+
+    private volatile boolean handshakeDone = false;
+    private boolean resumed = false;
+    private boolean inputDone = false;
+
+    public TlsChannel(SocketChannel channel, SSLEngine engine) throws IOException {
+        this.channel = channel;
+        this.engine = engine;
+        this.packetSize = engine.getSession().getPacketBufferSize();
+        this.appSize = engine.getSession().getApplicationBufferSize();
+        // Les enregistrements sont déjà regroupés avant chaque écriture : Nagle ne ferait que retarder
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        engine.beginHandshake();
+    }
+
+    // Côté serveur : un moteur par connexion acceptée
+    public static TlsChannel server(SocketChannel channel, SSLContext context) throws IOException {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return new TlsChannel(channel, engine);
+    }
+
+    // Côté client : le nom du serveur est vérifié contre son certificat
+    public static TlsChannel client(SocketChannel channel, SSLContext context, String host, int port) throws IOException {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return new TlsChannel(channel, engine);
+    }
+
+    // Contexte du serveur : clé et certificat d'un magasin PKCS12, cache de sessions pour la reprise
+    public static SSLContext serverContext(String keystore, String password, int sessionCacheSize,
+                                           int sessionTimeoutSeconds) throws IOException {
+        try {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(loadKeyStore(keystore, password), password.toCharArray());
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), null, null);
+            context.getServerSessionContext().setSessionCacheSize(sessionCacheSize);
+            context.getServerSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Magasin de clés TLS inutilisable: " + e.getMessage(), e);
+        }
+    }
+
+    // Contexte d'un client : certificats de confiance d'un magasin PKCS12 (vide : ceux du JDK).
+    // Partager un même contexte entre connexions permet de reprendre leurs sessions.
+    public static SSLContext clientContext(String truststore, String password) throws IOException {
+        try {
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(truststore.isEmpty() ? null : loadKeyStore(truststore, password));
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trust.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Magasin de confiance TLS inutilisable: " + e.getMessage(), e);
+        }
+    }
+
+    // Contexte client des options --tls=true (certificats du JDK) ou --tls-truststore=fichier.p12
+    // (--tls-password) ; null si TLS n'est pas demandé
+    static SSLContext clientContext(String[] args) throws IOException {
+        String truststore = ChatServer.option(args, "tls-truststore", "");
+        if (truststore.isEmpty() && !Boolean.parseBoolean(ChatServer.option(args, "tls", "false"))) {
+            return null;
+        }
+        return clientContext(truststore, ChatServer.option(args, "tls-password", ""));
+    }
+
+    private static KeyStore loadKeyStore(String path, String password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(path)) {
+            store.load(in, password.toCharArray());
+        }
+        return store;
+    }
+
+    // Confier les calculs délégués à executor ; done est appelé depuis son thread quand ils sont
+    // terminés, la négociation attend jusque-là (read et flush renvoient sans avancer)
+    public void delegateTasks(Executor executor, Runnable done) {
+        this.taskExecutor = executor;
+        this.tasksDone = done;
+    }
+
+    public boolean isHandshaking() {
+        return !handshakeDone;
+    }
+
+    // Session reprise d'une connexion précédente (valable une fois la négociation terminée)
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public String protocol() {
+        return engine.getSession().getProtocol();
+    }
+
+    // Mener la négociation à son terme (canal bloquant uniquement)
+    public void handshake() throws IOException {
+        readLock.lock();
+        try {
+            if (!negotiate(true)) {
+                throw new SSLHandshakeException("Connexion fermée pendant la négociation TLS");
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // ---- Lecture ----
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        readLock.lock();
+        try {
+            if (!open.get()) {
+                throw new ClosedChannelException();
+            }
+            if (!handshakeDone && !negotiate(true)) {
+                return inputDone ? -1 : 0;
+            }
+            while (true) {
+                if (!dst.hasRemaining()) {
+                    return 0;
+                }
+                if (appIn != null) {
+                    int copied = drainAppIn(dst);
+                    if (copied > 0) {
+                        return copied;
+                    }
+                }
+                if (inputDone) {
+                    return -1;
+                }
+                // Déchiffrer directement dans dst s'il peut recevoir un enregistrement entier
+                boolean direct = dst.remaining() >= appSize;
+                ByteBuffer target = direct ? dst : appInForUnwrap();
+                SSLEngineResult result;
+                try {
+                    result = unwrap(target);
+                } finally {
+                    if (!direct) {
+                        settleAppIn();
+                    }
+                }
+                if (result == null) {
+                    return inputDone ? -1 : 0;
+                }
+                if (result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                        && !negotiate(true) && tasksRunning.get()) {
+                    // Message de négociation après coup (ticket de reprise, mise à jour des clés)
+                    // dont les calculs sont en cours ailleurs : la lecture reprendra après eux
+                    return direct ? result.bytesProduced() : 0;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    inputDone = true;
+                } else if (direct && result.bytesProduced() > 0) {
+                    return result.bytesProduced();
+                }
+            }
+        } finally {
+            if (!open.get()) {
+                releaseReadBuffers();
+            }
+            readLock.unlock();
+        }
+    }
+
+    private int drainAppIn(ByteBuffer dst) {
+        ByteBuffer source = appIn.buffer();
+        int length = Math.min(source.remaining(), dst.remaining());
+        if (length > 0) {
+            ByteBuffer slice = source.duplicate();
+            slice.limit(slice.position() + length);
+            dst.put(slice);
+            source.position(source.position() + length);
+        }
+        if (!source.hasRemaining()) {
+            appIn.release();
+            appIn = null;
+        }
+        return length;
+    }
+
+    // Tampon clair prêt à recevoir (mode écriture), ce qui reste à lire conservé au début
+    private ByteBuffer appInForUnwrap() {
+        if (appIn == null) {
+            appIn = BufferPool.acquire(appSize);
+        } else {
+            appIn.buffer().compact();
+        }
+        return appIn.buffer();
+    }
+
+    // Retour en mode lecture après un déchiffrement ; rendu tout de suite s'il est resté vide
+    private void settleAppIn() {
+        appIn.buffer().flip();
+        if (!appIn.buffer().hasRemaining()) {
+            appIn.release();
+            appIn = null;
+        }
+    }
+
+    // Déchiffrer un enregistrement reçu vers target, en lisant la socket tant qu'il est incomplet.
+    // Renvoie null si la socket n'a rien de plus pour l'instant (ou est fermée : inputDone).
+    private SSLEngineResult unwrap(ByteBuffer target) throws IOException {
+        while (true) {
+            if (netIn != null && netIn.buffer().position() > 0) {
+                ByteBuffer in = netIn.buffer();
+                in.flip();
+                SSLEngineResult result;
+                try {
+                    result = engine.unwrap(in, target);
+                } finally {
+                    in.compact();
+                }
+                if (in.position() == 0) {
+                    netIn.release();
+                    netIn = null;
+                }
+                if (result.getStatus() != SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    return result;
+                }
+            }
+            if (netIn == null) {
+                netIn = BufferPool.acquire(packetSize);
+            } else if (!netIn.buffer().hasRemaining()) {
+                throw new SSLException("Enregistrement TLS trop grand");
+            }
+            int read = channel.read(netIn.buffer());
+            if (read < 0) {
+                inputDone = true;
+            }
+            if (read <= 0) {
+                return null;
+            }
+        }
+    }
+
+    // ---- Écriture ----
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    // Chiffrer autant d'octets que le tampon d'envoi peut en contenir puis l'écrire ;
+    // renvoie le nombre d'octets clairs pris en charge (0 tant que la négociation n'est pas finie
+    // ou que l'envoi précédent n'est pas parti)
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        writeLock.lock();
+        try {
+            if (!open.get()) {
+                throw new ClosedChannelException();
+            }
+            if (!flushNet() || (!handshakeDone && !negotiate(false)) || !handshakeDone) {
+                return 0;
+            }
+            netOut = BufferPool.acquire(OUT_RECORDS * packetSize);
+            ByteBuffer out = netOut.buffer();
+            long consumed = 0;
+            try {
+                while (out.remaining() >= packetSize && hasRemaining(srcs, offset, length)) {
+                    SSLEngineResult result = engine.wrap(srcs, offset, length, out);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new ClosedChannelException();
+                    }
+                    consumed += result.bytesConsumed();
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        break;
+                    }
+                }
+            } finally {
+                out.flip();
+            }
+            flushNet();
+            return consumed;
+        } finally {
+            if (!open.get()) {
+                releaseWriteBuffers();
+            }
+            writeLock.unlock();
+        }
+    }
+
+    // Envoyer une région de fichier : lue dans un tampon de la réserve puis chiffrée (transferTo
+    // ne peut pas chiffrer) ; renvoie le nombre d'octets pris en charge, comme transferTo
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        PooledBuffer plain = BufferPool.acquire((int) Math.min(count, (long) OUT_RECORDS * appSize));
+        try {
+            ByteBuffer buffer = plain.buffer();
+            int read = file.read(buffer, position);
+            if (read <= 0) {
+                return read;
+            }
+            buffer.flip();
+            return write(buffer);
+        } finally {
+            plain.release();
+        }
+    }
+
+    // Écrire le chiffré en attente et faire avancer les étapes de négociation à envoyer ;
+    // renvoie true quand plus rien n'attend la socket (la négociation peut attendre une réponse)
+    public boolean flush() throws IOException {
+        writeLock.lock();
+        try {
+            if (!open.get()) {
+                return true;
+            }
+            if (flushNet()) {
+                negotiate(false);
+            }
+            return netOut == null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean flushNet() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        ByteBuffer out = netOut.buffer();
+        while (out.hasRemaining()) {
+            if (channel.write(out) == 0) {
+                return false;
+            }
+        }
+        netOut.release();
+        netOut = null;
+        return true;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- Négociation ----
+
+    // Faire avancer la négociation autant que possible sans attendre ; le lecteur seul déchiffre
+    // ce qui arrive. Renvoie false si elle attend la socket (ou si celle-ci est fermée).
+    private boolean negotiate(boolean reader) throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK: {
+                    if (taskExecutor == null) {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        break;
+                    }
+                    if (tasksRunning.compareAndSet(false, true)) {
+                        runTasks();
+                    }
+                    return false;
+                }
+                case NEED_WRAP:
+                    if (!wrapHandshake()) {
+                        return false;
+                    }
+                    break;
+                case NOT_HANDSHAKING:
+                case FINISHED:
+                    finishHandshake();
+                    return true;
+                default:
+                    // NEED_UNWRAP : une fois la session établie, read s'en charge au fil des données
+                    if (handshakeDone) {
+                        return true;
+                    }
+                    if (!reader || inputDone) {
+                        return false;
+                    }
+                    SSLEngineResult result;
+                    try {
+                        result = unwrap(appInForUnwrap());
+                    } finally {
+                        settleAppIn();
+                    }
+                    if (result == null) {
+                        return false;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        inputDone = true;
+                        return false;
+                    }
+                    break;
+            }
+        }
+    }
+
+    // Exécuter les calculs délégués en attente sur l'exécuteur, puis prévenir tasksDone
+    private void runTasks() throws SSLException {
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } finally {
+                    tasksRunning.set(false);
+                    tasksDone.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            tasksRunning.set(false);
+            throw new SSLException("Trop de négociations TLS en cours");
+        }
+    }
+
+    private boolean wrapHandshake() throws IOException {
+        writeLock.lock();
+        try {
+            if (!flushNet()) {
+                return false;
+            }
+            // Les messages d'un même tour de négociation partent ensemble : pas d'écriture (ni de
+            // segment TCP, retardé par Nagle) par enregistrement
+            netOut = BufferPool.acquire(OUT_RECORDS * packetSize);
+            ByteBuffer out = netOut.buffer();
+            try {
+                do {
+                    SSLEngineResult result = engine.wrap(EMPTY, out);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED && result.bytesProduced() == 0) {
+                        throw new ClosedChannelException();
+                    }
+                } while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP
+                    && out.remaining() >= packetSize);
+            } finally {
+                out.flip();
+            }
+            flushNet();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private synchronized void finishHandshake() {
+        if (handshakeDone) {
+            return;
+        }
+        // Une session reprise a été créée lors d'une connexion précédente
+        resumed = engine.getSession().getCreationTime() < handshakeStart;
+        handshakeDone = true;
+        if (!engine.getUseClientMode()) {
+            ServerMetrics.tlsHandshakes.increment();
+            if (resumed) {
+                ServerMetrics.tlsSessionsResumed.increment();
+            }
+        }
+    }
+
+    // ---- Fermeture ----
+
+    @Override
+    public boolean isOpen() {
+        return open.get() && channel.isOpen();
+    }
+
+    // Annoncer la fermeture (close_notify) sans attendre si l'écrivain est occupé, puis fermer la
+    // socket. Les tampons sont rendus ici, ou par le lecteur ou l'écrivain en cours à leur sortie.
+    @Override
+    public void close() throws IOException {
+        if (!open.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            engine.closeOutbound();
+            if (writeLock.tryLock()) {
+                try {
+                    if (handshakeDone && flushNet()) {
+                        netOut = BufferPool.acquire(packetSize);
+                        ByteBuffer out = netOut.buffer();
+                        engine.wrap(EMPTY, out);
+                        out.flip();
+                        flushNet();
+                    }
+                } catch (IOException e) {
+                    // Pair déjà parti : la socket est fermée de toute façon
+                } finally {
+                    releaseWriteBuffers();
+                    writeLock.unlock();
+                }
+            }
+        } finally {
+            channel.close();
+            if (readLock.tryLock()) {
+                try {
+                    releaseReadBuffers();
+                } finally {
+                    readLock.unlock();
+                }
+            }
+        }
+    }
+
+    private void releaseReadBuffers() {
+        if (netIn != null) {
+            netIn.release();
+            netIn = null;
+        }
+        if (appIn != null) {
+            appIn.release();
+            appIn = null;
+        }
+    }
+
+    private void releaseWriteBuffers() {
+        if (netOut != null) {
+            netOut.release();
+            netOut = null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ServClient;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Annuaire des utilisateurs connectés à ce nœud, indexé par numéro de session et par nom :
+// savoir qui est en ligne, ou trouver les sessions d'un utilisateur, se fait en O(1) sans
+// parcourir les clients. Un même nom peut avoir plusieurs sessions (plusieurs appareils) :
+// l'utilisateur est en ligne tant qu'il lui en reste une, et sa présence (PresenceFeed) ne
+// change qu'à l'arrivée de la première et au départ de la dernière.
+// Les connexions de transfert, qui ne rejoignent pas le chat, n'y figurent pas.
+final class UserDirectory {
+    private static final AtomicLong nextSessionId = new AtomicLong(1);
+    private static final ConcurrentHashMap<Long, ChatSession> sessions = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Set<ChatSession>> users = new ConcurrentHashMap<>();
+
+    private UserDirectory() {
+    }
+
+    // Inscrire un client qui vient de donner son nom ; renvoie son numéro de session
+    static long add(ChatSession session, String name) {
+        long sessionId = nextSessionId.getAndIncrement();
+        sessions.put(sessionId, session);
+        // Le changement de présence est signalé pendant compute, sous le verrou de l'entrée du nom :
+        // un départ et une arrivée simultanés du même nom restent dans l'ordre
+        users.compute(name, (key, named) -> {
+            if (named == null) {
+                named = Collections.newSetFromMap(new ConcurrentHashMap<>());
+                PresenceFeed.changed(name, true);
+            }
+            named.add(session);
+            return named;
+        });
+        return sessionId;
+    }
+
+    // Retirer une session (sans effet si elle n'a jamais été inscrite)
+    static void remove(long sessionId, String name) {
+        ChatSession session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        users.computeIfPresent(name, (key, named) -> {
+            named.remove(session);
+            if (!named.isEmpty()) {
+                return named;
+            }
+            PresenceFeed.changed(name, false);
+            return null;
+        });
+    }
+
+    static boolean isOnline(String name) {
+        return users.containsKey(name);
+    }
+
+    // Sessions ouvertes sous ce nom (vide s'il n'est pas en ligne)
+    static Set<ChatSession> sessions(String name) {
+        return users.getOrDefault(name, Collections.emptySet());
+    }
+
+    // Toutes les sessions (vue non modifiable, pour les métriques)
+    static Collection<ChatSession> sessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    static int sessionCount() {
+        return sessions.size();
+    }
+
+    static int userCount() {
+        return users.size();
+    }
+
+    // Noms en ligne, triés
+    static List<String> names() {
+        List<String> names = new ArrayList<>(users.keySet());
+        Collections.sort(names);
+        return names;
+    }
+}
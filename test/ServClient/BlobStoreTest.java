@@ -0,0 +1,121 @@
+package ServClient;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BlobStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commitStoresUnderHash() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BlobStore store = BlobStore.open(directory, 1000);
+        byte[] hash = store(store, 'a', 100);
+        assertEquals(BlobStore.HASH_SIZE, hash.length);
+        assertTrue(Files.exists(directory.resolve(BlobStore.toHex(hash))));
+        // Même contenu : une seule copie
+        assertArrayEquals(hash, store(store, 'a', 100));
+        assertEquals(1, store.size());
+        assertEquals(100, store.totalBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        BlobStore store = BlobStore.open(folder.getRoot().toPath(), 300);
+        byte[] a = store(store, 'a', 100);
+        byte[] b = store(store, 'b', 100);
+        byte[] c = store(store, 'c', 100);
+        // A utilisé après B et C : B devient le plus ancien
+        SpooledFile file = store.open(a);
+        assertNotNull(file);
+        file.release();
+
+        byte[] d = store(store, 'd', 100);
+        assertEquals(3, store.size());
+        assertEquals(300, store.totalBytes());
+        assertNull(store.open(b));
+        for (byte[] kept : Arrays.asList(a, c, d)) {
+            SpooledFile keptFile = store.open(kept);
+            assertNotNull(keptFile);
+            keptFile.release();
+        }
+    }
+
+    @Test
+    public void reopenWithSmallerLimitEvictsOldest() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BlobStore store = BlobStore.open(directory, 1000);
+        byte[] a = store(store, 'a', 100);
+        byte[] b = store(store, 'b', 100);
+        byte[] c = store(store, 'c', 100);
+        // L'ordre d'utilisation est relu depuis les dates de modification
+        long now = System.currentTimeMillis();
+        touch(directory, b, now - 30000);
+        touch(directory, a, now - 20000);
+        touch(directory, c, now - 10000);
+
+        BlobStore reopened = BlobStore.open(directory, 200);
+        assertEquals(2, reopened.size());
+        assertEquals(200, reopened.totalBytes());
+        assertFalse(Files.exists(directory.resolve(BlobStore.toHex(b))));
+        assertTrue(Files.exists(directory.resolve(BlobStore.toHex(a))));
+        assertTrue(Files.exists(directory.resolve(BlobStore.toHex(c))));
+    }
+
+    @Test
+    public void deletesInterruptedReceptionsOnOpen() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BlobStore store = BlobStore.open(directory, 1000);
+        BlobStore.Writer writer = store.newWriter();
+        writer.append(ByteBuffer.wrap(new byte[50]));
+        // Arrêt du serveur pendant la réception : ni commit ni abort
+
+        BlobStore reopened = BlobStore.open(directory, 1000);
+        assertEquals(0, reopened.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void abortLeavesNothing() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BlobStore store = BlobStore.open(directory, 1000);
+        BlobStore.Writer writer = store.newWriter();
+        writer.append(ByteBuffer.wrap(new byte[50]));
+        writer.abort();
+        assertEquals(0, store.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static byte[] store(BlobStore store, char fill, int size) throws IOException {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) fill);
+        BlobStore.Writer writer = store.newWriter();
+        // En deux morceaux, comme à la réception
+        writer.append(ByteBuffer.wrap(content, 0, size / 2));
+        writer.append(ByteBuffer.wrap(content, size / 2, size - size / 2));
+        assertEquals(size, writer.size());
+        byte[] hash = writer.commit();
+        assertArrayEquals(BlobStore.newDigest().digest(content), hash);
+        return hash;
+    }
+
+    private static void touch(Path directory, byte[] hash, long millis) throws IOException {
+        Files.setLastModifiedTime(directory.resolve(BlobStore.toHex(hash)), FileTime.fromMillis(millis));
+    }
+}
@@ -0,0 +1,99 @@
+package ServClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    // Réserve neuve : pas de tampons rendus par d'autres tests
+    @Before
+    @After
+    public void restoreDefaults() {
+        BufferPool.configure(BufferPool.DEFAULT_MAX_BYTES, false);
+    }
+
+    @Test
+    public void leaseIsEmptyAndLimitedToCapacity() {
+        PooledBuffer pooled = BufferPool.acquire(100);
+        ByteBuffer buffer = pooled.buffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(100, buffer.limit());
+        assertEquals(512, buffer.capacity());
+        pooled.release();
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        PooledBuffer first = BufferPool.acquire(3000);
+        first.buffer().putInt(42);
+        first.release();
+        long hits = BufferPool.hits.sum();
+        PooledBuffer second = BufferPool.acquire(4000);
+        assertSame(first, second);
+        assertEquals(hits + 1, BufferPool.hits.sum());
+        assertEquals(0, second.buffer().position());
+        assertEquals(4000, second.buffer().limit());
+        second.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingTwiceFails() {
+        PooledBuffer pooled = BufferPool.acquire(100);
+        pooled.release();
+        pooled.release();
+    }
+
+    @Test
+    public void largeBufferIsNotPooled() {
+        long unpooled = BufferPool.unpooled.sum();
+        PooledBuffer pooled = BufferPool.acquire(BufferPool.HEADER_ROOM + Protocol.CHUNK_SIZE + 1);
+        assertEquals(unpooled + 1, BufferPool.unpooled.sum());
+        assertNull(pooled.owner);
+        pooled.release();
+    }
+
+    @Test
+    public void fullPoolAllocatesAside() {
+        BufferPool.configure(0, false);
+        long unpooled = BufferPool.unpooled.sum();
+        PooledBuffer pooled = BufferPool.acquire(100);
+        assertEquals(unpooled + 1, BufferPool.unpooled.sum());
+        assertEquals(100, pooled.buffer().capacity());
+        pooled.release();
+    }
+
+    // Un morceau de fichier compte dans le budget des transferts jusqu'à ce qu'il soit rendu
+    @Test
+    public void chargedBytesReturnWithBuffer() {
+        long before = ServerLimits.transferBytes();
+        PooledBuffer chunk = FileRelay.newChunk(1000);
+        assertEquals(before + BufferPool.HEADER_ROOM + 1000, ServerLimits.transferBytes());
+        assertEquals(BufferPool.HEADER_ROOM, chunk.buffer().position());
+        chunk.release();
+        assertEquals(before, ServerLimits.transferBytes());
+    }
+
+    @Test
+    public void leakIsReportedWhenBufferIsCollected() throws InterruptedException {
+        BufferPool.configure(BufferPool.DEFAULT_MAX_BYTES, true);
+        long leaks = BufferPool.leaks.sum();
+        // Rendu correctement : pas de fuite
+        BufferPool.acquire(100).release();
+        // Jamais rendu
+        BufferPool.acquire(100);
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (BufferPool.leaks.sum() == leaks) {
+            assertTrue("fuite non détectée", System.nanoTime() < deadline);
+            System.gc();
+            Thread.sleep(20);
+        }
+        Thread.sleep(100);
+        assertEquals(leaks + 1, BufferPool.leaks.sum());
+    }
+}
@@ -0,0 +1,79 @@
+package ServClient;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ChatSessionTest {
+
+    @Test
+    public void acceptsOrdinaryNames() {
+        assertTrue(ChatSession.validName("alice"));
+        assertTrue(ChatSession.validName("Élodie Durand"));
+        assertTrue(ChatSession.validName("bob_42-bis"));
+    }
+
+    @Test
+    public void rejectsMarkupAndControlCharacters() {
+        assertFalse(ChatSession.validName("<html><img src=http://hote/x>"));
+        assertFalse(ChatSession.validName("a&b"));
+        assertFalse(ChatSession.validName("MSG:bonjour"));
+        assertFalse(ChatSession.validName("bob\u0007"));
+        assertFalse(ChatSession.validName("   "));
+        assertFalse(ChatSession.validName(""));
+        assertFalse(ChatSession.validName("x1234567890123456789012345678901234"));
+    }
+
+    @Test
+    public void invalidNameLeavesClientUnnamed() {
+        RecordingSession session = new RecordingSession();
+        assertEquals(0, session.onLine("<html><b>admin</b>"));
+        assertNull(session.name());
+        assertTrue(session.lastMessage().startsWith("MSG:Serveur: nom invalide"));
+    }
+
+    @Test
+    public void malformedCommandsKeepTheSession() {
+        RecordingSession session = new RecordingSession("alice");
+        String[] commands = { "ROOM:x", "PRIV:bob", "HISTORY:abc", "HISTORY:10:beaucoup", "JOIN:mon salon", "LEAVE:", "ROOM:a b:texte" };
+        for (String command : commands) {
+            assertEquals(command, 0, session.onLine(command));
+            assertTrue(command + " -> " + session.lastMessage(), session.lastMessage().startsWith("MSG:Serveur: "));
+        }
+        assertEquals(commands.length, session.messages.size());
+        assertTrue(session.messages.get(0).contains("ROOM:salon:texte"));
+        assertTrue(session.messages.get(4).contains("nom de salon invalide : mon salon"));
+    }
+
+    @Test
+    public void commandBeforeHelloIsNotAName() {
+        RecordingSession session = new RecordingSession();
+        session.enableBinary(FrameCodec.VERSION);
+        assertEquals(0, session.onFrame(FrameCodec.COMMAND, ByteBuffer.wrap("WHO".getBytes(StandardCharsets.UTF_8))));
+        assertNull(session.name());
+        assertTrue(session.messages.isEmpty());
+    }
+
+    // Ancien client (FILE:nom:taille puis octets bruts) : rien ne permet de signaler l'interruption
+    @Test
+    public void legacyClientIsDisconnectedOnAbort() {
+        RecordingSession session = new RecordingSession("ancien");
+        session.sendFileStart(7, "#general", "gros.bin", 1L << 30);
+        session.sendFileChunk(7, ByteBuffer.allocate(100), new SharedFrame(false, ByteBuffer.allocate(100)));
+        session.sendMessage("MSG:bob: pendant le fichier");
+        assertFalse(session.disconnected);
+        session.sendFileAbort(7);
+        assertTrue(session.disconnected);
+    }
+
+    @Test
+    public void abortOfAnotherTransferKeepsLegacyClient() {
+        RecordingSession session = new RecordingSession("ancien");
+        session.sendFileStart(7, "#general", "a.bin", 1000);
+        session.sendFileAbort(8);
+        assertFalse(session.disconnected);
+    }
+}
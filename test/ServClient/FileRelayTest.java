@@ -0,0 +1,147 @@
+package ServClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class FileRelayTest {
+    private long resumeTimeoutMs;
+    private boolean spoolUploads;
+
+    @Before
+    public void shortResumeTimeout() {
+        resumeTimeoutMs = ChatServer.resumeTimeoutMs;
+        spoolUploads = ChatServer.spoolUploads;
+        ChatServer.resumeTimeoutMs = 300;
+    }
+
+    @After
+    public void restoreResumeTimeout() {
+        ChatServer.resumeTimeoutMs = resumeTimeoutMs;
+        ChatServer.spoolUploads = spoolUploads;
+    }
+
+    // Chaque morceau est découpé à Protocol.CHUNK_SIZE et partagé par tous les destinataires,
+    // sauf l'expéditeur ; les tampons reviennent à la réserve une fois les trames rendues
+    @Test
+    public void chunksReachEveryRecipientButSender() {
+        RecordingPeer sender = new RecordingPeer();
+        RecordingPeer bob = new RecordingPeer();
+        RecordingPeer carol = new RecordingPeer();
+        int size = Protocol.CHUNK_SIZE + 1000;
+        long transferBytes = ServerLimits.transferBytes();
+        long outstanding = BufferPool.outstanding();
+
+        FileRelay relay = new FileRelay(sender, "alice", "#general", "a.bin", size, Arrays.asList(sender, bob, carol), false);
+        relay.relayFrame(ByteBuffer.wrap(new byte[size]));
+        relay.finish();
+        assertEquals(size, relay.getReceived());
+
+        assertTrue(sender.events.isEmpty());
+        for (RecordingPeer peer : Arrays.asList(bob, carol)) {
+            assertEquals(4, peer.events.size());
+            assertTrue(peer.events.get(0).endsWith(":a.bin:" + size));
+            assertTrue(peer.events.get(1).endsWith(":" + Protocol.CHUNK_SIZE));
+            assertTrue(peer.events.get(2).endsWith(":1000"));
+            assertTrue(peer.events.get(3).startsWith("end:"));
+        }
+        // Une seule trame par morceau pour tous les destinataires
+        assertSame(bob.frames.get(0), carol.frames.get(0));
+        assertTrue(ServerLimits.transferBytes() > transferBytes);
+
+        bob.releaseFrames();
+        carol.releaseFrames();
+        assertEquals(transferBytes, ServerLimits.transferBytes());
+        assertEquals(outstanding, BufferPool.outstanding());
+    }
+
+    // --spool-uploads : rien n'est envoyé avant la fin, puis le fichier complet d'un seul tenant
+    @Test
+    public void spooledUploadIsSentWhenComplete() {
+        ChatServer.spoolUploads = true;
+        RecordingPeer bob = new RecordingPeer();
+        long transferBytes = ServerLimits.transferBytes();
+        FileRelay relay = new FileRelay(null, "alice", "#general", "a.bin", 3000, Collections.singletonList(bob), false);
+        relay.relayFrame(ByteBuffer.wrap(new byte[3000]));
+        assertTrue(bob.events.isEmpty());
+        assertEquals(transferBytes, ServerLimits.transferBytes());
+        relay.finish();
+        assertEquals(1, bob.events.size());
+        assertTrue(bob.events.get(0).startsWith("spooled:"));
+    }
+
+    @Test
+    public void abortReachesRecipients() {
+        RecordingPeer bob = new RecordingPeer();
+        FileRelay relay = new FileRelay(null, "alice", "#general", "a.bin", 3000, Collections.singletonList(bob), false);
+        relay.relayFrame(ByteBuffer.wrap(new byte[1000]));
+        relay.abort();
+        assertEquals(3, bob.events.size());
+        assertTrue(bob.events.get(2).startsWith("abort:"));
+        bob.releaseFrames();
+    }
+
+    @Test
+    public void parkedUploadExpires() throws InterruptedException {
+        RecordingPeer peer = new RecordingPeer();
+        byte[] hash = hash(1);
+        FileRelay relay = newRelay(peer, "expire", hash);
+        assertTrue(relay.park());
+        Thread.sleep(600);
+        assertNull(FileRelay.resume("expire", hash));
+        assertTrue(peer.events.get(peer.events.size() - 1).startsWith("abort:"));
+    }
+
+    @Test
+    public void resumedUploadIsNotAborted() throws InterruptedException {
+        RecordingPeer peer = new RecordingPeer();
+        byte[] hash = hash(2);
+        FileRelay relay = newRelay(peer, "reprise", hash);
+        assertTrue(relay.park());
+        assertSame(relay, FileRelay.resume("reprise", hash));
+        Thread.sleep(600);
+        assertFalse(peer.events.toString(), peer.events.stream().anyMatch(event -> event.startsWith("abort:")));
+    }
+
+    // Reprise puis nouvelle déconnexion : seule la dernière mise en attente compte pour l'expiration
+    @Test
+    public void parkedAgainKeepsItsOwnTimeout() throws InterruptedException {
+        RecordingPeer peer = new RecordingPeer();
+        byte[] hash = hash(3);
+        FileRelay relay = newRelay(peer, "deux-fois", hash);
+        assertTrue(relay.park());
+        Thread.sleep(100);
+        assertSame(relay, FileRelay.resume("deux-fois", hash));
+        Thread.sleep(100);
+        assertTrue(relay.park());
+        // Au-delà de l'échéance de la première mise en attente, avant celle de la seconde
+        Thread.sleep(200);
+        assertFalse(peer.events.toString(), peer.events.stream().anyMatch(event -> event.startsWith("abort:")));
+        assertSame(relay, FileRelay.resume("deux-fois", hash));
+    }
+
+    @Test
+    public void uploadWithoutOfferCannotPark() {
+        RecordingPeer peer = new RecordingPeer();
+        FileRelay relay = new FileRelay(null, "alice", "#general", "a.bin", 100, Collections.singletonList(peer), false);
+        assertFalse(relay.park());
+    }
+
+    private static FileRelay newRelay(RecordingPeer peer, String sender, byte[] hash) {
+        FileRelay relay = new FileRelay(null, sender, "#general", "a.bin", 100, Collections.singletonList(peer), false);
+        relay.resumable(sender, hash);
+        return relay;
+    }
+
+    private static byte[] hash(int seed) {
+        byte[] hash = new byte[BlobStore.HASH_SIZE];
+        hash[0] = (byte) seed;
+        return hash;
+    }
+}
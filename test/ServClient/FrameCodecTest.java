@@ -0,0 +1,187 @@
+package ServClient;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+    private static final byte[] HASH = new byte[BlobStore.HASH_SIZE];
+
+    static {
+        for (int i = 0; i < HASH.length; i++) {
+            HASH[i] = (byte) (i * 7 + 1);
+        }
+    }
+
+    @Test
+    public void varLongRoundTrip() throws IOException {
+        long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+        for (long value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            FrameCodec.putVarLong(buffer, value);
+            assertEquals("taille de " + value, FrameCodec.varLongSize(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, FrameCodec.getVarLong(buffer.duplicate()));
+            assertEquals(value, FrameCodec.readVarLong(new ByteArrayInputStream(buffer.array(), 0, buffer.limit())));
+        }
+    }
+
+    @Test
+    public void readVarLongAtEndOfStream() throws IOException {
+        assertEquals(-1, FrameCodec.readVarLong(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test(expected = EOFException.class)
+    public void readVarLongTruncated() throws IOException {
+        FrameCodec.readVarLong(new ByteArrayInputStream(new byte[] { (byte) 0x80, (byte) 0x80 }));
+    }
+
+    @Test
+    public void textFrameOnBlockingStream() throws IOException {
+        String text = "bob: élève à l'œuvre, ça déménage ✓";
+        DataInputStream in = stream(FrameCodec.encodeText(FrameCodec.MSG, text));
+        assertEquals(FrameCodec.MSG, in.read());
+        ByteBuffer payload = FrameCodec.readPayload(in, ByteBuffer.allocate(4), FrameCodec.readVarLong(in));
+        assertEquals(text, FrameCodec.getText(payload));
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void readPayloadRejectsOversizeFrame() throws IOException {
+        FrameCodec.readPayload(new DataInputStream(new ByteArrayInputStream(new byte[0])), ByteBuffer.allocate(16),
+                FrameCodec.MAX_FRAME_SIZE + 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void decoderRejectsOversizeFrame() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.put(FrameCodec.MSG);
+        FrameCodec.putVarLong(header, FrameCodec.MAX_FRAME_SIZE + 1);
+        header.flip();
+        new FrameDecoder().decode(header, (type, payload) -> true);
+    }
+
+    // Chaque encodeur relu par le décodeur NIO, l'entrée arrivant octet par octet
+    @Test
+    public void decoderRoundTrip() throws IOException {
+        ByteBuffer chunkData = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 });
+        List<Frame> frames = decode(
+                FrameCodec.encodeNode(FrameCodec.NODE_MSG, 300, 0, "salon\nnœud\nbonjour"),
+                FrameCodec.encodeFileStart(70000, 123456789L, "photo été.jpg"),
+                FrameCodec.encodeFileDigest(FrameCodec.FILE_OFFER, 5, 1L << 40, HASH, "archive.zip"),
+                FrameCodec.encodeFetchRange(9, 4096, 0, HASH, "archive.zip"),
+                FrameCodec.encodeHistory(1L << 33, "alice: salut"),
+                FrameCodec.encodeTransfer(FrameCodec.FILE_END, 128),
+                FrameCodec.encodeFileAccept(42, true),
+                FrameCodec.encodeChunkHeader(17, chunkData.remaining()),
+                chunkData);
+        assertEquals(8, frames.size());
+
+        ByteBuffer node = frames.get(0).expect(FrameCodec.NODE_MSG);
+        assertEquals(300, FrameCodec.getVarLong(node));
+        assertEquals(0, FrameCodec.getVarLong(node));
+        assertEquals("salon\nnœud\nbonjour", FrameCodec.getText(node));
+
+        ByteBuffer start = frames.get(1).expect(FrameCodec.FILE_START);
+        assertEquals(70000, FrameCodec.getVarLong(start));
+        assertEquals(123456789L, FrameCodec.getVarLong(start));
+        assertEquals("photo été.jpg", FrameCodec.getText(start));
+
+        ByteBuffer offer = frames.get(2).expect(FrameCodec.FILE_OFFER);
+        assertEquals(5, FrameCodec.getVarLong(offer));
+        assertEquals(1L << 40, FrameCodec.getVarLong(offer));
+        assertArrayEquals(HASH, FrameCodec.getHash(offer));
+        assertEquals("archive.zip", FrameCodec.getText(offer));
+
+        ByteBuffer range = frames.get(3).expect(FrameCodec.FILE_FETCH_RANGE);
+        assertEquals(9, FrameCodec.getVarLong(range));
+        assertEquals(4096, FrameCodec.getVarLong(range));
+        assertEquals(0, FrameCodec.getVarLong(range));
+        assertArrayEquals(HASH, FrameCodec.getHash(range));
+        assertEquals("archive.zip", FrameCodec.getText(range));
+
+        ByteBuffer history = frames.get(4).expect(FrameCodec.HISTORY);
+        assertEquals(1L << 33, FrameCodec.getVarLong(history));
+        assertEquals("alice: salut", FrameCodec.getText(history));
+
+        ByteBuffer end = frames.get(5).expect(FrameCodec.FILE_END);
+        assertEquals(128, FrameCodec.getVarLong(end));
+        assertFalse(end.hasRemaining());
+
+        ByteBuffer accept = frames.get(6).expect(FrameCodec.FILE_ACCEPT);
+        assertEquals(42, FrameCodec.getVarLong(accept));
+        assertEquals(1, accept.get());
+        assertFalse(accept.hasRemaining());
+
+        ByteBuffer chunk = frames.get(7).expect(FrameCodec.FILE_CHUNK);
+        assertEquals(17, FrameCodec.getVarLong(chunk));
+        byte[] data = new byte[chunk.remaining()];
+        chunk.get(data);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, data);
+    }
+
+    @Test
+    public void chunkHeaderSize() {
+        long[][] cases = { { 0, 0 }, { 1, 100 }, { 127, 65536 }, { 1L << 35, Protocol.MAX_CHUNK_SIZE } };
+        for (long[] c : cases) {
+            assertEquals(FrameCodec.encodeChunkHeader(c[0], c[1]).remaining(), FrameCodec.chunkHeaderSize(c[0], c[1]));
+        }
+    }
+
+    @Test
+    public void handshakeStartsWithMagic() {
+        ByteBuffer handshake = FrameCodec.handshake();
+        byte[] magic = new byte[FrameCodec.MAGIC.length];
+        handshake.get(magic);
+        assertArrayEquals(FrameCodec.MAGIC, magic);
+        assertEquals(FrameCodec.VERSION, handshake.get());
+        assertFalse(handshake.hasRemaining());
+    }
+
+    // ---- Outils ----
+
+    private static final class Frame {
+        final byte type;
+        final ByteBuffer payload;
+
+        Frame(byte type, ByteBuffer payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        ByteBuffer expect(byte expectedType) {
+            assertEquals(expectedType, type);
+            return payload;
+        }
+    }
+
+    private static List<Frame> decode(ByteBuffer... buffers) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder();
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                ByteBuffer one = ByteBuffer.wrap(new byte[] { buffer.get() });
+                // Le contenu n'est valable que pendant l'appel : en garder une copie
+                assertTrue(decoder.decode(one, (type, payload) -> frames.add(new Frame(type, copy(payload)))));
+            }
+        }
+        return frames;
+    }
+
+    private static ByteBuffer copy(ByteBuffer payload) {
+        return ByteBuffer.wrap(Arrays.copyOfRange(payload.array(), payload.arrayOffset() + payload.position(),
+                payload.arrayOffset() + payload.limit()));
+    }
+
+    private static DataInputStream stream(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
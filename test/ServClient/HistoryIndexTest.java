@@ -0,0 +1,173 @@
+package ServClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HistoryLog log;
+    private HistoryIndex index;
+    private Path indexDirectory;
+
+    @Before
+    public void openLog() throws IOException {
+        log = HistoryLog.open(folder.newFolder("log").toPath(), 64 * 1024, HistoryLog.FsyncPolicy.NONE, 0);
+        indexDirectory = folder.getRoot().toPath().resolve("index");
+    }
+
+    @After
+    public void close() {
+        if (index != null) {
+            index.close();
+        }
+        log.close();
+    }
+
+    @Test
+    public void termsSplitRoomAuthorAndWords() {
+        assertEquals(Arrays.asList("r#dev", "ualice", "wete", "wparis", "w42"),
+            HistoryIndex.terms("#dev", "MSG:[dev] Alice: Été à Paris, x 42"));
+        // Pas d'auteur : message du serveur sans "nom: "
+        assertEquals(Arrays.asList("r#general", "wbienvenue", "wtous"),
+            HistoryIndex.terms("#general", "MSG:Bienvenue à tous"));
+    }
+
+    @Test
+    public void parseQueryFields() {
+        long now = 100_000_000L;
+        HistoryIndex.Query query = HistoryIndex.Query.parse("from:Alice in:dev Bonjour after:2h", now);
+        assertEquals(Arrays.asList("ualice", "r#dev", "wbonjour"), query.terms);
+        assertEquals(now - 2 * 3600_000L, query.after);
+        assertEquals(Long.MAX_VALUE, query.before);
+    }
+
+    @Test
+    public void rejectInvalidQueries() {
+        for (String text : new String[] { "in:a/b mot", "mot after:hier", "after:1d", "  " }) {
+            try {
+                HistoryIndex.Query.parse(text, 0);
+                fail("requête acceptée : " + text);
+            } catch (IllegalArgumentException expected) {
+                // attendu
+            }
+        }
+    }
+
+    @Test
+    public void searchReturnsNewestMatchesFirst() throws Exception {
+        append("#general", "MSG:alice: bonjour tout le monde");
+        append("#dev", "MSG:[dev] bob: bonjour les devs");
+        append("#general", "MSG:bob: au revoir");
+        append("#general", "MSG:carol: Bonjour !");
+        index = openIndex();
+
+        List<HistoryIndex.Hit> hits = index.search(query("bonjour"), room -> true, 10);
+        assertEquals(Arrays.asList(3L, 1L, 0L), offsets(hits));
+        assertEquals("carol: Bonjour !", hits.get(0).text);
+        assertEquals("#dev", hits.get(1).room);
+
+        assertEquals(Arrays.asList(1L), offsets(index.search(query("from:bob bonjour"), room -> true, 10)));
+        assertEquals(Arrays.asList(2L), offsets(index.search(query("from:bob in:general"), room -> true, 10)));
+        // Salons non visibles du demandeur et nombre de résultats borné
+        assertEquals(Arrays.asList(3L, 0L), offsets(index.search(query("bonjour"), "#general"::equals, 10)));
+        assertEquals(Arrays.asList(3L), offsets(index.search(query("bonjour"), room -> true, 1)));
+        assertTrue(index.search(query("absent"), room -> true, 10).isEmpty());
+    }
+
+    @Test
+    public void dateRangeLimitsResults() throws Exception {
+        append("#general", "MSG:alice: bonjour");
+        index = openIndex();
+        assertEquals(1, index.search(query("bonjour after:1d"), room -> true, 10).size());
+        assertTrue(index.search(query("bonjour before:2000-01-01"), room -> true, 10).isEmpty());
+        assertTrue(index.search(query("bonjour after:2100-01-01T00:00"), room -> true, 10).isEmpty());
+    }
+
+    // Fermeture : le segment en mémoire est écrit sur disque, la réouverture le relit sans réindexer
+    @Test
+    public void reopenedIndexKeepsWrittenSegments() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            append("#general", "MSG:alice: message numéro " + i);
+        }
+        index = openIndex();
+        index.close();
+        index = openIndex();
+        assertEquals(1, index.segmentCount());
+        append("#general", "MSG:bob: message après reprise");
+        waitForIndex();
+
+        assertEquals(51, index.search(query("message"), room -> true, 100).size());
+        assertEquals(Arrays.asList(50L), offsets(index.search(query("reprise"), room -> true, 10)));
+        assertEquals(Arrays.asList(7L), offsets(index.search(query("7"), room -> true, 10)));
+    }
+
+    // Le journal reste la référence : un segment endommagé est abandonné et réindexé
+    @Test
+    public void damagedSegmentIsRebuiltFromLog() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            append("#general", "MSG:alice: message " + i);
+        }
+        index = openIndex();
+        index.close();
+        index = null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDirectory, "*.idx")) {
+            for (Path file : stream) {
+                Files.write(file, new byte[] { 1, 2, 3 });
+            }
+        }
+
+        index = openIndex();
+        assertEquals(0, index.segmentCount());
+        assertEquals(20, index.search(query("message"), room -> true, 100).size());
+    }
+
+    // ---- Outils ----
+
+    private void append(String room, String text) throws InterruptedException {
+        long offset = log.append(room, text);
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (log.endOffset() <= offset) {
+            assertTrue("écriture de l'historique trop lente", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private HistoryIndex openIndex() throws Exception {
+        index = HistoryIndex.open(log, indexDirectory);
+        waitForIndex();
+        return index;
+    }
+
+    private void waitForIndex() throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (index.lag() > 0) {
+            assertTrue("indexation trop lente", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static HistoryIndex.Query query(String text) {
+        return HistoryIndex.Query.parse(text, System.currentTimeMillis());
+    }
+
+    private static List<Long> offsets(List<HistoryIndex.Hit> hits) {
+        List<Long> offsets = new ArrayList<>();
+        for (HistoryIndex.Hit hit : hits) {
+            offsets.add(hit.offset);
+        }
+        return offsets;
+    }
+}
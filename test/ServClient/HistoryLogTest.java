@@ -0,0 +1,163 @@
+package ServClient;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryLogTest {
+    // Petits segments : quelques dizaines de messages chacun
+    private static final long SEGMENT_BYTES = 2048;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HistoryLog log;
+
+    @After
+    public void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Test
+    public void appendAndRead() throws Exception {
+        log = open();
+        append(0, 10);
+        List<String> messages = readAll(log, 0);
+        assertEquals(10, messages.size());
+        assertEquals("general:0:alice: message 0", messages.get(0));
+        assertEquals("general:9:alice: message 9", messages.get(9));
+        assertEquals(new ArrayList<String>(), readAll(log, 10));
+    }
+
+    @Test
+    public void recoversAfterReopen() throws Exception {
+        int count = 500;
+        log = open();
+        append(0, count);
+        log.close();
+        assertTrue("plusieurs segments", segments().size() > 1);
+
+        log = open();
+        assertEquals(count, log.endOffset());
+        List<String> messages = readAll(log, 0);
+        assertEquals(count, messages.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("general:" + i + ":alice: message " + i, messages.get(i));
+        }
+        // Les ajouts continuent après le dernier offset relu
+        assertEquals(count, log.append("general", "alice: suite"));
+        waitForEnd(log, count + 1);
+        assertEquals("general:" + count + ":alice: suite", readAll(log, count).get(0));
+    }
+
+    @Test
+    public void ignoresTornRecord() throws Exception {
+        int count = 20;
+        log = open();
+        append(0, count);
+        log.close();
+
+        // Arrêt brutal pendant une écriture : offset et contenu présents, longueur encore nulle
+        List<Path> files = segments();
+        Path last = files.get(files.size() - 1);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int end = endOfRecords(channel);
+            byte[] text = "general 0\nmessage à moitié écrit".getBytes(StandardCharsets.UTF_8);
+            ByteBuffer torn = ByteBuffer.allocate(12 + text.length);
+            torn.putInt(0).putLong(count).put(text).flip();
+            channel.write(torn, end);
+        }
+
+        log = open();
+        assertEquals(count, log.endOffset());
+        assertEquals(count, readAll(log, 0).size());
+        assertEquals(count, log.append("general", "alice: après reprise"));
+        waitForEnd(log, count + 1);
+        assertEquals("general:" + count + ":alice: après reprise", readAll(log, count).get(0));
+    }
+
+    @Test
+    public void refusesAppendAfterClose() throws Exception {
+        log = open();
+        append(0, 3);
+        log.close();
+        assertEquals(-1, log.append("general", "trop tard"));
+        log = null;
+    }
+
+    @Test
+    public void readStartsAtRequestedOffset() throws Exception {
+        log = open();
+        append(0, 200);
+        List<String> messages = new ArrayList<>();
+        long next = log.read(150, 10, (offset, room, time, message) -> messages.add(offset + ":" + message));
+        assertEquals(160, next);
+        assertEquals(10, messages.size());
+        assertEquals("150:alice: message 150", messages.get(0));
+    }
+
+    // ---- Outils ----
+
+    private HistoryLog open() throws IOException {
+        return HistoryLog.open(folder.getRoot().toPath(), SEGMENT_BYTES, HistoryLog.FsyncPolicy.NONE, 0);
+    }
+
+    private void append(int from, int to) throws InterruptedException {
+        for (int i = from; i < to; i++) {
+            assertEquals(i, log.append("general", "alice: message " + i));
+        }
+        // Les messages sont écrits par le thread du journal
+        waitForEnd(log, to);
+    }
+
+    private static void waitForEnd(HistoryLog log, long end) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (log.endOffset() < end) {
+            assertTrue("écriture de l'historique trop lente", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<String> readAll(HistoryLog log, long from) {
+        List<String> messages = new ArrayList<>();
+        log.read(from, Integer.MAX_VALUE, (offset, room, time, message) -> messages.add(room + ":" + offset + ":" + message));
+        return messages;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder.getRoot().toPath(), "*.log")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    // Position suivant le dernier enregistrement complet (longueur, offset, contenu)
+    private static int endOfRecords(FileChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        int position = 0;
+        while (true) {
+            length.clear();
+            channel.read(length, position);
+            int size = length.getInt(0);
+            if (size <= 0) {
+                return position;
+            }
+            position += 12 + size;
+        }
+    }
+}
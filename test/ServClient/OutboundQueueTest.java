@@ -0,0 +1,150 @@
+package ServClient;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void messagesOvertakeFileFrames() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(8, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        OutboundFrame file = frame(100).bulk();
+        OutboundFrame message = frame(10);
+        assertTrue(queue.offer(file));
+        assertTrue(queue.offer(message));
+        assertSame(message, queue.take());
+        assertSame(file, queue.take());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void queuedBytesFollowOffersAndTakes() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(8, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        queue.offer(frame(10));
+        queue.offer(frame(20).bulk());
+        assertEquals(30, queue.queuedBytes());
+        assertEquals(2, queue.size());
+        queue.take();
+        assertEquals(20, queue.queuedBytes());
+        queue.take();
+        assertEquals(0, queue.queuedBytes());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void dropPolicyReleasesRefusedFrame() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DROP, 0);
+        CountingFrame shared = new CountingFrame();
+        assertTrue(queue.offer(new OutboundFrame(shared, ByteBuffer.allocate(4))));
+        assertTrue(queue.offer(new OutboundFrame(shared, ByteBuffer.allocate(4))));
+        assertEquals(1, queue.size());
+        // Trame du diffuseur et trame gardée en file
+        assertEquals(2, shared.references.get());
+    }
+
+    @Test
+    public void disconnectPolicyRefusesWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        assertTrue(queue.offer(frame(1)));
+        assertFalse(queue.offer(frame(1)));
+        assertEquals(1, queue.queuedBytes());
+    }
+
+    @Test
+    public void backpressureGivesUpAfterTimeout() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BACKPRESSURE, 50);
+        assertTrue(queue.offer(frame(1)));
+        long start = System.nanoTime();
+        assertFalse(queue.offer(frame(1)));
+        assertTrue(System.nanoTime() - start >= 40_000_000L);
+    }
+
+    // Un morceau de fichier ne peut pas être abandonné : file pleine, le client doit partir
+    @Test
+    public void reliableFrameRefusedWhenFullWithDropPolicy() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DROP, 0);
+        CountingFrame shared = new CountingFrame();
+        assertTrue(queue.offerReliable(new OutboundFrame(shared, ByteBuffer.allocate(4)).bulk()));
+        assertFalse(queue.offerReliable(new OutboundFrame(shared, ByteBuffer.allocate(4)).bulk()));
+        assertEquals(2, shared.references.get());
+    }
+
+    @Test
+    public void closeReleasesQueuedAndLaterFrames() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        CountingFrame shared = new CountingFrame();
+        queue.offer(new OutboundFrame(shared, ByteBuffer.allocate(4)));
+        queue.offer(new OutboundFrame(shared, ByteBuffer.allocate(4)).bulk());
+        assertEquals(3, shared.references.get());
+        queue.close();
+        assertEquals(1, shared.references.get());
+        assertTrue(queue.offer(new OutboundFrame(shared, ByteBuffer.allocate(4))));
+        assertTrue(queue.offerReliable(new OutboundFrame(shared, ByteBuffer.allocate(4))));
+        assertEquals(1, shared.references.get());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.queuedBytes());
+    }
+
+    // Région de fichier : un morceau à la fois, un message déposé entre-temps passe avant le suivant
+    @Test
+    public void chunkedRegionLetsMessagesThrough() throws Exception {
+        int length = 2 * Protocol.CHUNK_SIZE + 100;
+        SpooledFile file = SpooledFile.create();
+        file.append(ByteBuffer.allocate(length));
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        assertTrue(queue.offerReliable(new OutboundFrame(file, 0, length, chunk -> ByteBuffer.allocate(8))));
+        file.release();
+        assertEquals(length, queue.queuedBytes());
+
+        OutboundFrame first = queue.take();
+        assertEquals(8 + Protocol.CHUNK_SIZE, first.byteCount());
+        assertEquals(length - Protocol.CHUNK_SIZE, queue.queuedBytes());
+
+        OutboundFrame message = frame(10);
+        queue.offer(message);
+        assertSame(message, queue.take());
+
+        OutboundFrame second = queue.take();
+        OutboundFrame last = queue.take();
+        assertEquals(8 + Protocol.CHUNK_SIZE, second.byteCount());
+        assertEquals(8 + 100, last.byteCount());
+        assertNull(queue.poll());
+        assertEquals(0, queue.queuedBytes());
+
+        // Chaque morceau retient le fichier jusqu'à son envoi
+        first.release();
+        second.release();
+        assertTrue(file.channel().isOpen());
+        last.release();
+        assertFalse(file.channel().isOpen());
+    }
+
+    private static OutboundFrame frame(int size) {
+        return new OutboundFrame(ByteBuffer.allocate(size));
+    }
+
+    // Trame partagée dont on suit le nombre de références
+    private static final class CountingFrame extends SharedFrame {
+        final AtomicInteger references = new AtomicInteger(1);
+
+        CountingFrame() {
+            super(false, ByteBuffer.allocate(4));
+        }
+
+        @Override
+        public void retain() {
+            references.incrementAndGet();
+            super.retain();
+        }
+
+        @Override
+        public void release() {
+            references.decrementAndGet();
+            super.release();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ServClient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    @Test
+    public void noLimitWithoutRate() {
+        assertNull(RateLimiter.create(0, 10));
+        assertNull(RateLimiter.create(-1, 10));
+    }
+
+    @Test
+    public void burstThenRefuse() {
+        RateLimiter limiter = RateLimiter.create(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue("unité " + i, limiter.tryAcquire(1));
+        }
+        assertFalse(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void refusedRequestTakesNothing() {
+        RateLimiter limiter = RateLimiter.create(10, 5);
+        assertFalse(limiter.tryAcquire(6));
+        assertTrue(limiter.tryAcquire(5));
+    }
+
+    @Test
+    public void canAcquireDoesNotConsume() {
+        RateLimiter limiter = RateLimiter.create(10, 2);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.canAcquire(2));
+        }
+        assertTrue(limiter.tryAcquire(2));
+        assertFalse(limiter.canAcquire(1));
+    }
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        RateLimiter limiter = RateLimiter.create(10, 1);
+        assertTrue(limiter.tryAcquire(1));
+        assertFalse(limiter.tryAcquire(1));
+        // Une unité toutes les 100 ms
+        Thread.sleep(150);
+        assertTrue(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void acquireReturnsDebt() {
+        RateLimiter limiter = RateLimiter.create(1000, 1000);
+        // 3000 unités à 1000/s avec une rafale de 1000 : 2 s de retard à rattraper
+        long delay = limiter.acquire(3000);
+        assertEquals(2e9, delay, 5e7);
+        assertFalse(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void acquireWithinBurstHasNoDelay() {
+        RateLimiter limiter = RateLimiter.create(1000, 1000);
+        assertEquals(0, limiter.acquire(500));
+    }
+}
@@ -0,0 +1,62 @@
+package ServClient;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Destinataire de test : chaque appel reçu est noté sous une forme lisible ("start:1:a.txt:10",
+// "chunk:1:5", "end:1"...) ; les trames partagées sont gardées pour vérifier leur contenu
+class RecordingPeer implements ChatPeer {
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final List<SharedFrame> frames = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void sendMessage(String message) {
+        events.add("msg:" + message);
+    }
+
+    @Override
+    public void sendBroadcast(BroadcastMessage message) {
+        events.add("broadcast");
+    }
+
+    @Override
+    public void sendFileStart(long transferId, String room, String fileName, long fileSize) {
+        events.add("start:" + transferId + ":" + fileName + ":" + fileSize);
+    }
+
+    @Override
+    public void sendFileChunk(long transferId, ByteBuffer chunk, SharedFrame frame) {
+        events.add("chunk:" + transferId + ":" + chunk.remaining());
+        frame.retain();
+        frames.add(frame);
+    }
+
+    @Override
+    public void sendFileEnd(long transferId) {
+        events.add("end:" + transferId);
+    }
+
+    @Override
+    public void sendFileAbort(long transferId) {
+        events.add("abort:" + transferId);
+    }
+
+    @Override
+    public void sendSpooledFile(long transferId, String room, String fileName, SpooledFile file) {
+        events.add("spooled:" + transferId + ":" + fileName);
+    }
+
+    @Override
+    public void sendStoredFile(long transferId, String room, String fileName, byte[] hash, SpooledFile file) {
+        events.add("stored:" + transferId + ":" + fileName);
+    }
+
+    void releaseFrames() {
+        for (SharedFrame frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+    }
+}
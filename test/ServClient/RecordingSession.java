@@ -0,0 +1,48 @@
+package ServClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Session serveur sans transport pour les tests : les messages adressés au client sont gardés
+// dans l'ordre, les autres trames sont jetées dès leur dépôt dans la file d'envoi
+class RecordingSession extends ChatSession {
+    final List<String> messages = new ArrayList<>();
+    volatile boolean disconnected = false;
+
+    RecordingSession() {
+        super(new OutboundQueue(64, OutboundQueue.OverflowPolicy.DROP, 0), null);
+    }
+
+    RecordingSession(String name) {
+        this();
+        clientName = name;
+    }
+
+    String name() {
+        return clientName;
+    }
+
+    String lastMessage() {
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        messages.add(message);
+    }
+
+    @Override
+    protected void frameQueued() {
+        outbound.clear();
+    }
+
+    @Override
+    protected void slowConsumer() {
+        disconnect();
+    }
+
+    @Override
+    protected void disconnect() {
+        disconnected = true;
+    }
+}
@@ -0,0 +1,80 @@
+package ServClient;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class SharedFrameTest {
+
+    @Test
+    public void compressedOnceAndShared() {
+        SharedFrame frame = new SharedFrame(true, text(4000));
+        ByteBuffer first = frame.compressed(DeflateCodec.NAME);
+        assertNotNull(first);
+        assertTrue(first.remaining() < frame.plainSize());
+        assertTrue(first.isReadOnly());
+        // Même résultat pour chaque destinataire, chacun avec sa propre position
+        first.get();
+        ByteBuffer second = frame.compressed(DeflateCodec.NAME);
+        assertEquals(0, second.position());
+        assertEquals(first.limit(), second.limit());
+        assertTrue(frame.isCompressible());
+    }
+
+    @Test
+    public void incompressibleContentIsNotRetried() {
+        byte[] noise = new byte[4000];
+        new Random(1).nextBytes(noise);
+        SharedFrame frame = new SharedFrame(true, ByteBuffer.wrap(noise));
+        assertTrue(frame.isCompressible());
+        assertNull(frame.compressed(DeflateCodec.NAME));
+        assertFalse(frame.isCompressible());
+        assertNull(frame.compressed(DeflateCodec.NAME));
+    }
+
+    @Test
+    public void notCompressibleSkipsCodec() {
+        SharedFrame frame = new SharedFrame(false, text(4000));
+        assertFalse(frame.isCompressible());
+        assertNull(frame.compressed(DeflateCodec.NAME));
+    }
+
+    // Destinataires simultanés : tous reçoivent le même contenu compressé
+    @Test
+    public void concurrentRecipientsShareResult() throws Exception {
+        SharedFrame frame = new SharedFrame(true, text(64 * 1024));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<ByteBuffer>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return frame.compressed(DeflateCodec.NAME);
+                }));
+            }
+            start.countDown();
+            ByteBuffer expected = frame.compressed(DeflateCodec.NAME);
+            for (Future<ByteBuffer> result : results) {
+                assertEquals(expected, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static ByteBuffer text(int size) {
+        StringBuilder text = new StringBuilder(size);
+        while (text.length() < size) {
+            text.append("MSG:alice: bonjour tout le monde ");
+        }
+        return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}